@@ -0,0 +1,67 @@
+package com.clepto.fsengine.benchmarks;
+
+import java.awt.Font;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.clepto.fsengine.graphics.FontTexture;
+import com.clepto.fsengine.scene.actors.TextActor;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class FontBenchmark {
+	
+	private static final Font FONT = new Font("Arial", Font.PLAIN, 20);
+	
+	private static final String CHARSET = "ISO-8859-1";
+	
+	private FontTexture fontTexture;
+	
+	private TextActor textActor;
+	
+	private int frame;
+	
+	@Setup(Level.Trial)
+	public void setup(HeadlessContext context) throws Exception {
+		fontTexture = new FontTexture(FONT, CHARSET);
+		textActor = new TextActor("FPS: 0", fontTexture);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		textActor.getMesh().deleteBuffers();
+		fontTexture.cleanup();
+	}
+	
+	@Benchmark
+	public FontTexture createFontTexture(HeadlessContext context) throws Exception {
+		FontTexture result = new FontTexture(FONT, CHARSET);
+		result.cleanup();
+		return result;
+	}
+	
+	@Benchmark
+	public int setText(HeadlessContext context) {
+		frame++;
+		textActor.setText("FPS: " + (frame & 127) + " Position: " + frame);
+		textActor.refreshMesh();
+		return textActor.getMesh().getVertexCount();
+	}
+	
+}
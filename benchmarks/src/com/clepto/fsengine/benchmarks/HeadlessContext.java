@@ -0,0 +1,32 @@
+package com.clepto.fsengine.benchmarks;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.clepto.fsengine.Window;
+
+/**
+ * Offscreen GL context made current on the benchmark thread, for benchmarks
+ * whose hot path ends in a GPU upload.
+ */
+@State(Scope.Thread)
+public class HeadlessContext {
+	
+	private Window window;
+	
+	@Setup(Level.Trial)
+	public void setup() {
+		window = new Window("FSEngine benchmarks", 64, 64, false);
+		window.setHeadless(true);
+		window.init();
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		window.cleanup();
+	}
+	
+}
@@ -0,0 +1,92 @@
+package com.clepto.fsengine.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.clepto.fsengine.scene.actors.terrain.HeightMapMesh;
+
+import de.matthiasmann.twl.utils.PNGDecoder;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HeightMapMeshBenchmark {
+	
+	private static final String TEXTURE_FILE = "textures/terrain_green.png";
+	
+	/**
+	 * 0 uses the bundled heightmap.png, anything else a random square
+	 * heightmap of that size.
+	 */
+	@Param({ "0", "1024" })
+	public int size;
+	
+	private ByteBuffer heightMapImage;
+	
+	private int width;
+	
+	private int height;
+	
+	private float[] positions;
+	
+	@Setup
+	public void setup() throws Exception {
+		if (size == 0) {
+			PNGDecoder decoder = new PNGDecoder(HeightMapMeshBenchmark.class.getClassLoader().getResourceAsStream("textures/heightmap.png"));
+			width = decoder.getWidth();
+			height = decoder.getHeight();
+			heightMapImage = ByteBuffer.allocateDirect(4 * width * height);
+			decoder.decode(heightMapImage, width * 4, PNGDecoder.Format.RGBA);
+			heightMapImage.flip();
+		} else {
+			width = size;
+			height = size;
+			heightMapImage = ByteBuffer.allocateDirect(4 * width * height);
+			Random random = new Random(42);
+			while (heightMapImage.hasRemaining()) {
+				heightMapImage.put((byte) random.nextInt(256));
+			}
+			heightMapImage.flip();
+		}
+		
+		positions = new float[width * height * 3];
+		Random random = new Random(7);
+		for (int row = 0; row < height; row++) {
+			for (int col = 0; col < width; col++) {
+				int i = (row * width + col) * 3;
+				positions[i] = HeightMapMesh.STARTX + col * HeightMapMesh.getXLength() / (width - 1);
+				positions[i + 1] = random.nextFloat() * 0.2f - 0.1f;
+				positions[i + 2] = HeightMapMesh.STARTZ + row * HeightMapMesh.getZLength() / (height - 1);
+			}
+		}
+	}
+	
+	@Benchmark
+	public int construct(HeadlessContext context) throws Exception {
+		HeightMapMesh heightMapMesh = new HeightMapMesh(-0.1f, 0.1f, heightMapImage, width, height, TEXTURE_FILE, 40);
+		heightMapMesh.getMesh().cleanUp();
+		return heightMapMesh.getMesh().getVertexCount();
+	}
+	
+	@Benchmark
+	public float[] calcNormals() {
+		return HeightMapMesh.calcNormals(positions, width, height);
+	}
+	
+}
@@ -0,0 +1,80 @@
+package com.clepto.fsengine.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.clepto.fsengine.graphics.Mesh;
+import com.clepto.fsengine.graphics.OBJLoader;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OBJLoaderBenchmark {
+	
+	@Param({ "64", "256" })
+	public int syntheticResolution;
+	
+	private List<String> syntheticLines;
+	
+	@Setup
+	public void setup() {
+		syntheticLines = createSphere(syntheticResolution);
+	}
+	
+	@Benchmark
+	public int loadCube(HeadlessContext context) throws Exception {
+		Mesh mesh = OBJLoader.loadMesh("models/cube.obj");
+		mesh.deleteBuffers();
+		return mesh.getVertexCount();
+	}
+	
+	@Benchmark
+	public int loadSynthetic(HeadlessContext context) {
+		Mesh mesh = OBJLoader.loadMesh(syntheticLines);
+		mesh.deleteBuffers();
+		return mesh.getVertexCount();
+	}
+	
+	static List<String> createSphere(int resolution) {
+		List<String> lines = new ArrayList<>();
+		for (int ring = 0; ring <= resolution; ring++) {
+			double theta = Math.PI * ring / resolution;
+			for (int segment = 0; segment <= resolution; segment++) {
+				double phi = 2 * Math.PI * segment / resolution;
+				float x = (float) (Math.sin(theta) * Math.cos(phi));
+				float y = (float) Math.cos(theta);
+				float z = (float) (Math.sin(theta) * Math.sin(phi));
+				lines.add("v " + x + " " + y + " " + z);
+				lines.add("vt " + (float) segment / resolution + " " + (float) ring / resolution);
+				lines.add("vn " + x + " " + y + " " + z);
+			}
+		}
+		int stride = resolution + 1;
+		for (int ring = 0; ring < resolution; ring++) {
+			for (int segment = 0; segment < resolution; segment++) {
+				int a = ring * stride + segment + 1;
+				int b = a + stride;
+				lines.add("f " + a + "/" + a + "/" + a + " " + b + "/" + b + "/" + b + " " + (a + 1) + "/" + (a + 1) + "/" + (a + 1));
+				lines.add("f " + (a + 1) + "/" + (a + 1) + "/" + (a + 1) + " " + b + "/" + b + "/" + b + " " + (b + 1) + "/" + (b + 1) + "/" + (b + 1));
+			}
+		}
+		return lines;
+	}
+	
+}
@@ -0,0 +1,89 @@
+package com.clepto.fsengine.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.joml.Vector3f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.clepto.fsengine.scene.actors.terrain.Terrain;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TerrainBenchmark {
+	
+	private static final int QUERIES = 1024;
+	
+	private static final float SCALE = 10;
+	
+	@Param({ "3", "20" })
+	public int terrainSize;
+	
+	private Terrain terrain;
+	
+	private Vector3f[] queries;
+	
+	private float[] queryX;
+	
+	private float[] queryZ;
+	
+	private float[] heights;
+	
+	private int next;
+	
+	@Setup(Level.Trial)
+	public void setup(HeadlessContext context) throws Exception {
+		terrain = new Terrain(terrainSize, SCALE, -0.1f, 0.1f, "textures/heightmap.png", "textures/terrain_green.png", 40);
+		float halfExtent = terrainSize * SCALE * 0.5f;
+		Random random = new Random(42);
+		queries = new Vector3f[QUERIES];
+		queryX = new float[QUERIES];
+		queryZ = new float[QUERIES];
+		heights = new float[QUERIES];
+		for (int i = 0; i < QUERIES; i++) {
+			queries[i] = new Vector3f(
+					(random.nextFloat() * 2 - 1) * halfExtent * 0.99f,
+					0,
+					(random.nextFloat() * 2 - 1) * halfExtent * 0.99f);
+			queryX[i] = queries[i].x;
+			queryZ[i] = queries[i].z;
+		}
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		terrain.cleanup();
+	}
+	
+	@Benchmark
+	public float getHeight() {
+		Vector3f position = queries[next];
+		next = (next + 1) & (QUERIES - 1);
+		return terrain.getHeight(position);
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(QUERIES)
+	public float[] getHeights() {
+		terrain.getHeights(queryX, queryZ, heights, 0, QUERIES);
+		return heights;
+	}
+	
+}
@@ -0,0 +1,67 @@
+package com.clepto.fsengine.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.joml.Matrix4f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.clepto.fsengine.graphics.Camera;
+import com.clepto.fsengine.graphics.Transformation;
+import com.clepto.fsengine.scene.actors.Actor;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransformationBenchmark {
+	
+	@Param({ "1", "10000" })
+	public int actorCount;
+	
+	private Transformation transformation;
+	
+	private Actor[] actors;
+	
+	private Matrix4f viewMatrix;
+	
+	@Setup
+	public void setup() {
+		transformation = new Transformation();
+		Camera camera = new Camera();
+		camera.setPosition(1, 2, 3);
+		camera.setRotation(20, 45, 0);
+		viewMatrix = transformation.updateViewMatrix(camera);
+		
+		Random random = new Random(42);
+		actors = new Actor[actorCount];
+		for (int i = 0; i < actorCount; i++) {
+			Actor actor = new Actor();
+			actor.setPosition(random.nextFloat() * 100, random.nextFloat() * 10, random.nextFloat() * 100);
+			actor.setRotation(random.nextFloat() * 360, random.nextFloat() * 360, random.nextFloat() * 360);
+			actor.setScale(0.5f + random.nextFloat());
+			actors[i] = actor;
+		}
+	}
+	
+	@Benchmark
+	public void buildModelViewMatrix(Blackhole blackhole) {
+		for (Actor actor : actors) {
+			blackhole.consume(transformation.buildModelViewMatrix(actor, viewMatrix).m30());
+		}
+	}
+	
+}
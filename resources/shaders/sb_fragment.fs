@@ -4,8 +4,15 @@ in vec2 outTexCoord;
 in vec3 mvPos;
 out vec4 fragColor;
 
+layout (std140) uniform FrameData
+{
+    mat4 projectionMatrix;
+    mat4 viewMatrix;
+    vec3 ambientLight;
+    float specularPower;
+};
+
 uniform sampler2D texture_sampler;
-uniform vec3 ambientLight;
 
 void main()
 {
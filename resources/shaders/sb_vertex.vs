@@ -6,8 +6,15 @@ layout (location=2) in vec3 vertexNormal;
 
 out vec2 outTexCoord;
 
+layout (std140) uniform FrameData
+{
+    mat4 projectionMatrix;
+    mat4 viewMatrix;
+    vec3 ambientLight;
+    float specularPower;
+};
+
 uniform mat4 modelViewMatrix;
-uniform mat4 projectionMatrix;
 
 void main()
 {
@@ -1,12 +1,10 @@
 #version 330
 
-const int MAX_POINT_LIGHTS = 5;
-const int MAX_SPOT_LIGHTS = 5;
-
 in vec2 outTexCoord;
 in vec3 mvVertexNormal;
 in vec3 mvVertexPos;
 in mat4 outModelViewMatrix;
+flat in int outMaterialIndex;
 
 out vec4 fragColor;
 
@@ -56,22 +54,67 @@ struct Fog
     float density;
 };
 
+layout (std140) uniform FrameData
+{
+    mat4 projectionMatrix;
+    mat4 viewMatrix;
+    vec3 ambientLight;
+    float specularPower;
+};
+
+layout (std140) uniform LightData
+{
+    DirectionalLight directionalLight;
+    Fog fog;
+    // Clusters along x, y and depth
+    ivec4 clusterCounts;
+    // Depth slice scale and bias for log(depth), reciprocal tile size in pixels
+    vec4 clusterScale;
+};
+
 uniform sampler2D texture_sampler;
 uniform sampler2D normalMap;
-uniform vec3 ambientLight;
-uniform float specularPower;
+// Four texels per light: position and type, color and intensity,
+// attenuation and cutoff, cone direction
+uniform samplerBuffer lightData;
+// Offset and count of every cluster's light list
+uniform usamplerBuffer clusterGrid;
+uniform usamplerBuffer lightIndices;
 uniform Material material;
-uniform PointLight pointLights[MAX_POINT_LIGHTS];
-uniform SpotLight spotLights[MAX_POINT_LIGHTS];
-uniform DirectionalLight directionalLight;
-uniform Fog fog;
+// Set for materials kept in the material table: four texels per material,
+// ambient, diffuse, specular, then reflectance, texture layer and normal
+// map layer, with textures in the layers of the arrays
+uniform int useMaterialTable;
+uniform samplerBuffer materialData;
+uniform sampler2DArray textureArray;
+uniform sampler2DArray normalArray;
 
 vec4 ambientC;
 vec4 diffuseC;
 vec4 speculrC;
+float reflectance;
+
+void setupTableColors(int index, vec2 texCoord)
+{
+    vec4 params = texelFetch(materialData, index * 4 + 3);
+    reflectance = params.x;
+    if (params.y >= 0.0)
+    {
+        ambientC = texture(textureArray, vec3(texCoord, params.y));
+        diffuseC = ambientC;
+        speculrC = ambientC;
+    }
+    else
+    {
+        ambientC = texelFetch(materialData, index * 4);
+        diffuseC = texelFetch(materialData, index * 4 + 1);
+        speculrC = texelFetch(materialData, index * 4 + 2);
+    }
+}
 
 void setupColors(Material material, vec2 texCoord)
 {
+    reflectance = material.reflectance;
     if (material.hasTexture == 1)
     {
         ambientC = texture(texture_sampler, texCoord);
@@ -99,7 +142,7 @@ vec4 calcLightColor(vec3 lightColor, float lightIntensity, vec3 position, vec3 t
     vec3 reflected_light = normalize(reflect(from_light_dir, normal));
     float specularFactor = max(dot(cameraDirection, reflected_light), 0.0);
     specularFactor = pow(specularFactor, specularPower);
-    specColor = speculrC * lightIntensity * specularFactor * material.reflectance * vec4(lightColor, 1.0);
+    specColor = speculrC * lightIntensity * specularFactor * reflectance * vec4(lightColor, 1.0);
 
     return (diffuseColor + specColor);
 }
@@ -151,25 +194,53 @@ vec4 calcFog(vec3 pos, vec4 color, Fog fog, vec3 ambientLight, DirectionalLight
     return vec4(resultColor.xyz, color.w);
 }
 
-void main()
+int calcCluster(vec3 position)
 {
-    setupColors(material, outTexCoord);
+    ivec2 tile = min(ivec2(gl_FragCoord.xy * clusterScale.zw), clusterCounts.xy - 1);
+    int slice = int(max(log(-position.z) * clusterScale.x + clusterScale.y, 0.0));
+    slice = min(slice, clusterCounts.z - 1);
+    return (slice * clusterCounts.y + tile.y) * clusterCounts.x + tile.x;
+}
 
-    vec4 diffuseSpecularComp = calcDirectionalLight(directionalLight, mvVertexPos, mvVertexNormal);
-    
-    for (int i=0; i <MAX_POINT_LIGHTS; i++)
+vec4 calcClusterLights(vec3 position, vec3 normal)
+{
+    vec4 color = vec4(0, 0, 0, 0);
+    uvec2 cluster = texelFetch(clusterGrid, calcCluster(position)).xy;
+    for (uint i = 0u; i < cluster.y; i++)
     {
-        if (pointLights[i].intensity > 0)
+        int light = int(texelFetch(lightIndices, int(cluster.x + i)).x) * 4;
+        vec4 positionType = texelFetch(lightData, light);
+        vec4 colorIntensity = texelFetch(lightData, light + 1);
+        vec4 attCutoff = texelFetch(lightData, light + 2);
+        PointLight pointLight = PointLight(colorIntensity.rgb, positionType.xyz, colorIntensity.w,
+            Attenuation(attCutoff.x, attCutoff.y, attCutoff.z));
+        if (positionType.w > 0.5)
+        {
+            vec3 conedir = texelFetch(lightData, light + 3).xyz;
+            color += calcSpotLight(SpotLight(pointLight, conedir, attCutoff.w), position, normal);
+        }
+        else
         {
-            diffuseSpecularComp += calcPointLight(pointLights[i], mvVertexPos, mvVertexNormal);
+            color += calcPointLight(pointLight, position, normal);
         }
     }
+    return color;
+}
 
-    for (int i=0; i<MAX_SPOT_LIGHTS; i++)
+void main()
+{
+    if (useMaterialTable == 1)
+    {
+        setupTableColors(outMaterialIndex, outTexCoord);
+    }
+    else
     {
-        diffuseSpecularComp += calcSpotLight(spotLights[i], mvVertexPos, mvVertexNormal);
+        setupColors(material, outTexCoord);
     }
 
+    vec4 diffuseSpecularComp = calcDirectionalLight(directionalLight, mvVertexPos, mvVertexNormal);
+    diffuseSpecularComp += calcClusterLights(mvVertexPos, mvVertexNormal);
+
     fragColor = ambientC * vec4(ambientLight, 1.0) + diffuseSpecularComp;
 
     if (fog.activeFog == 1)
@@ -3,21 +3,40 @@
 layout (location=0) in vec3 position;
 layout (location=1) in vec2 texCoord;
 layout (location=2) in vec3 vertexNormal;
+layout (location=3) in mat4 instanceModelMatrix;
+layout (location=7) in float instanceMaterial;
 
 out vec2 outTexCoord;
 out vec3 mvVertexNormal;
 out vec3 mvVertexPos;
 out mat4 outModelViewMatrix;
+flat out int outMaterialIndex;
+
+layout (std140) uniform FrameData
+{
+    mat4 projectionMatrix;
+    mat4 viewMatrix;
+    vec3 ambientLight;
+    float specularPower;
+};
 
 uniform mat4 modelViewMatrix;
-uniform mat4 projectionMatrix;
+uniform int isInstanced;
+uniform int materialIndex;
 
 void main()
 {
-  vec4 mvPos = modelViewMatrix * vec4(position, 1.0);
+  mat4 modelView = modelViewMatrix;
+  outMaterialIndex = materialIndex;
+  if (isInstanced > 0)
+  {
+    modelView = viewMatrix * instanceModelMatrix;
+    outMaterialIndex = int(instanceMaterial);
+  }
+  vec4 mvPos = modelView * vec4(position, 1.0);
   gl_Position = projectionMatrix * mvPos;
   outTexCoord = texCoord;
-  mvVertexNormal = normalize(modelViewMatrix * vec4(vertexNormal, 0.0)).xyz;
+  mvVertexNormal = normalize(modelView * vec4(vertexNormal, 0.0)).xyz;
   mvVertexPos = mvPos.xyz;
-  outModelViewMatrix = modelViewMatrix;
+  outModelViewMatrix = modelView;
 }
\ No newline at end of file
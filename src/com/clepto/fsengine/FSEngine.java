@@ -1,5 +1,16 @@
 package com.clepto.fsengine;
 
+import java.io.IOException;
+
+import com.clepto.fsengine.assets.AssetManager;
+import com.clepto.fsengine.graphics.Renderer;
+import com.clepto.fsengine.job.JobSystem;
+import com.clepto.fsengine.profiling.Profiler;
+import com.clepto.fsengine.profiling.ProfilerPhase;
+import com.clepto.fsengine.scene.InterpolatedScene;
+import com.clepto.fsengine.scene.SceneSnapshot;
+import com.clepto.fsengine.scene.SnapshotBuffer;
+
 public class FSEngine implements Runnable {
 
 	public static final int TARGET_FPS = 60;
@@ -10,18 +21,41 @@ public class FSEngine implements Runnable {
 	
 	private final Thread gameLoopThread;
 	
-	private final Timer timer;
+	private final FramePacer framePacer;
 	
 	private final IApplication gameLogic;
 	
 	private final MouseInput mouseInput;
 	
+	private final SnapshotBuffer snapshotBuffer;
+	
+	private final InterpolatedScene interpolatedScene;
+	
+	private final Profiler profiler;
+	
+	private final JobSystem jobSystem;
+	
+	private final AssetManager assetManager;
+	
+	private boolean pipelined;
+	
+	private volatile boolean running;
+	
+	private int headlessFrames;
+	
+	private volatile int exitCode;
+	
 	public FSEngine(String windowTitle, int width, int height, boolean vSync, IApplication gameLogic) throws Exception {
 		gameLoopThread = new Thread(this, "GAME_LOOP_THREAD");
 		window = new Window(windowTitle, width, height, vSync);
 		mouseInput = new MouseInput();
 		this.gameLogic = gameLogic;
-		timer = new Timer();
+		framePacer = new FramePacer(TARGET_FPS, TARGET_UPS);
+		snapshotBuffer = new SnapshotBuffer();
+		interpolatedScene = new InterpolatedScene();
+		profiler = new Profiler();
+		jobSystem = new JobSystem();
+		assetManager = new AssetManager(jobSystem);
 	}
 	
 	public void start() {
@@ -32,9 +66,16 @@ public class FSEngine implements Runnable {
 	public void run() {
 		try {
 			init();
-			gameLoop();
+			if (window.isHeadless()) {
+				headlessGameLoop();
+			} else if (pipelined) {
+				pipelinedGameLoop();
+			} else {
+				gameLoop();
+			}
 		} catch (Exception e) {
 			e.printStackTrace();
+			exitCode = 1;
 		} finally {
 			cleanup();
 		}
@@ -42,64 +83,278 @@ public class FSEngine implements Runnable {
 	
 	protected void init() throws Exception {
 		window.init();
-		timer.init();
+		framePacer.init();
 		mouseInput.init(window);
+		Renderer renderer = gameLogic.getRenderer();
+		if (renderer != null) {
+			renderer.setJobSystem(jobSystem);
+			renderer.setProfiler(profiler);
+		}
 		gameLogic.init(window);
 	}
 	
 	protected void gameLoop() {
-		float elapsedTime;
-		float accumulator = 0f;
-		float interval = 1f / TARGET_UPS;
+		long accumulator = 0;
+		long lastLoopTime = System.nanoTime();
 		
 		boolean running = true;
 		while (running && !window.windowShouldClose()) {
-			elapsedTime = timer.getElapsedTime();
-			accumulator += elapsedTime;
+			profiler.begin(ProfilerPhase.FRAME);
+			long time = System.nanoTime();
+			long elapsedTime = time - lastLoopTime;
+			lastLoopTime = time;
 			
 			input();
 			
-			while (accumulator >= interval) {
-				update(interval);
-				accumulator -= interval;
+			long intervalNanos = framePacer.getUpdateIntervalNanos();
+			if (intervalNanos <= 0) {
+				update(elapsedTime / 1000000000f);
+			} else {
+				accumulator += elapsedTime;
+				int steps = framePacer.getUpdateSteps(accumulator);
+				float interval = intervalNanos / 1000000000f;
+				for (int i = 0; i < steps; i++) {
+					update(interval);
+				}
+				accumulator -= steps * intervalNanos;
+				if (accumulator >= intervalNanos) {
+					accumulator %= intervalNanos;
+				}
 			}
+			jobSystem.sync();
 			
 			render();
 			
 			if (!window.isvSync()) {
-				sync();
+				framePacer.sync();
+			}
+			profiler.end(ProfilerPhase.FRAME);
+		}
+	}
+	
+	protected void pipelinedGameLoop() throws Exception {
+		running = true;
+		Thread updateThread = new Thread(this::updateLoop, "UPDATE_THREAD");
+		updateThread.start();
+		try {
+			while (running && !window.windowShouldClose()) {
+				profiler.begin(ProfilerPhase.FRAME);
+				
+				interpolatedScene.consume(snapshotBuffer);
+				float alpha = interpolatedScene.getAlpha(System.nanoTime(), framePacer.getUpdateIntervalNanos());
+				interpolatedScene.interpolate(alpha);
+				
+				processUploads();
+				profiler.begin(ProfilerPhase.RENDER);
+				gameLogic.render(window, interpolatedScene);
+				profiler.end(ProfilerPhase.RENDER);
+				updateWindow();
+				
+				if (!window.isvSync()) {
+					framePacer.sync();
+				}
+				profiler.end(ProfilerPhase.FRAME);
 			}
+		} finally {
+			running = false;
+			updateThread.join();
+		}
+	}
+	
+	protected void headlessGameLoop() {
+		long intervalNanos = framePacer.getUpdateIntervalNanos();
+		float interval = intervalNanos > 0 ? intervalNanos / 1000000000f : 1f / TARGET_UPS;
+		for (int frame = 0; frame < headlessFrames; frame++) {
+			profiler.begin(ProfilerPhase.FRAME);
+			
+			input();
+			update(interval);
+			jobSystem.sync();
+			render();
+			
+			profiler.end(ProfilerPhase.FRAME);
+		}
+	}
+	
+	private void updateLoop() {
+		long lastUpdate = System.nanoTime();
+		long nextUpdate = lastUpdate;
+		try {
+			while (running) {
+				long intervalNanos = framePacer.getUpdateIntervalNanos();
+				long time = System.nanoTime();
+				input();
+				if (intervalNanos <= 0) {
+					update((time - lastUpdate) / 1000000000f);
+				} else {
+					update(intervalNanos / 1000000000f);
+				}
+				lastUpdate = time;
+				jobSystem.sync();
+				
+				SceneSnapshot snapshot = snapshotBuffer.getBackBuffer();
+				gameLogic.snapshot(snapshot);
+				snapshot.setTime(System.nanoTime());
+				snapshotBuffer.publish();
+				
+				if (intervalNanos > 0) {
+					nextUpdate += intervalNanos;
+					long behind = System.nanoTime() - nextUpdate;
+					int steps = framePacer.getUpdateSteps(behind);
+					if (steps >= framePacer.getMaxUpdateSteps()) {
+						nextUpdate = System.nanoTime();
+					}
+					framePacer.waitUntil(nextUpdate);
+				}
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			exitCode = 1;
+			running = false;
 		}
 	}
 	
 	protected void input() {
+		profiler.begin(ProfilerPhase.INPUT);
 		mouseInput.input(window);
 		gameLogic.input(window, mouseInput);
+		profiler.end(ProfilerPhase.INPUT);
 	}
 	
 	protected void update(float interval) {
+		profiler.begin(ProfilerPhase.UPDATE);
 		gameLogic.update(interval, mouseInput);
+		profiler.end(ProfilerPhase.UPDATE);
 	}
 	
 	protected void render() {
+		processUploads();
+		profiler.begin(ProfilerPhase.RENDER);
 		gameLogic.render(window);
+		profiler.end(ProfilerPhase.RENDER);
+		updateWindow();
+	}
+	
+	private void processUploads() {
+		profiler.begin(ProfilerPhase.ASSET_UPLOAD);
+		assetManager.processUploads();
+		profiler.end(ProfilerPhase.ASSET_UPLOAD);
+	}
+	
+	private void updateWindow() {
+		profiler.begin(ProfilerPhase.WINDOW_UPDATE);
 		window.update();
+		profiler.end(ProfilerPhase.WINDOW_UPDATE);
 	}
 	
-	private void sync() {
-		float loopSlot = 1f / TARGET_FPS;
-		double endTime = timer.getLastLoopTime() + loopSlot;
-		while (timer.getTime() < endTime) {
+	protected void cleanup() {
+		try {
+			gameLogic.cleanup();
+			assetManager.cleanup();
+			window.cleanup();
+		} catch (Exception e) {
+			e.printStackTrace();
+			exitCode = 1;
+		}
+		jobSystem.shutdown();
+		
+		String outputFile = profiler.getOutputFile();
+		if (outputFile != null) {
 			try {
-				Thread.sleep(1);
-			} catch (InterruptedException e) {
+				profiler.dump(outputFile);
+			} catch (IOException e) {
 				e.printStackTrace();
 			}
 		}
 	}
 	
-	protected void cleanup() {
-		gameLogic.cleanup();
+	/**
+	 * Runs {@link IApplication#update(float, MouseInput)} at {@link #TARGET_UPS}
+	 * on its own thread and renders interpolated {@link SceneSnapshot}s on the
+	 * game loop thread. Input events are still collected on the game loop
+	 * thread but are drained and handed to
+	 * {@link IApplication#input(Window, MouseInput)} on the update thread before
+	 * each update. Must be set before {@link #start()}, and the application
+	 * must override {@link IApplication#render(Window, InterpolatedScene)}.
+	 */
+	public void setPipelined(boolean pipelined) {
+		if (pipelined && !rendersInterpolated(gameLogic)) {
+			throw new IllegalStateException(gameLogic.getClass().getName() + " does not implement render(Window, InterpolatedScene)");
+		}
+		this.pipelined = pipelined;
+	}
+	
+	private static boolean rendersInterpolated(IApplication application) {
+		try {
+			return application.getClass().getMethod("render", Window.class, InterpolatedScene.class).getDeclaringClass() != IApplication.class;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+	
+	public boolean isPipelined() {
+		return pipelined;
+	}
+	
+	/**
+	 * Runs offscreen for the given number of frames with exactly one
+	 * {@link #TARGET_UPS} update step per frame and no frame rate cap, then
+	 * exits. Takes precedence over pipelined mode. Must be set before
+	 * {@link #start()}.
+	 */
+	public void setHeadless(int frameCount) {
+		this.headlessFrames = frameCount;
+		window.setHeadless(true);
+	}
+	
+	public boolean isHeadless() {
+		return window.isHeadless();
+	}
+	
+	/**
+	 * Blocks until the game loop thread has finished and returns its result
+	 * code, 0 on success and 1 if an exception was raised.
+	 */
+	public int waitForExit() throws InterruptedException {
+		gameLoopThread.join();
+		return exitCode;
+	}
+	
+	public int getExitCode() {
+		return exitCode;
+	}
+	
+	public FramePacer getFramePacer() {
+		return framePacer;
+	}
+	
+	public void setTargetFps(int targetFps) {
+		framePacer.setTargetFps(targetFps);
+	}
+	
+	public void setTargetUps(int targetUps) {
+		framePacer.setTargetUps(targetUps);
+	}
+	
+	/**
+	 * Work-stealing job system for the application and engine subsystems.
+	 * Frame graphs are awaited after the update steps and before rendering.
+	 */
+	public JobSystem getJobSystem() {
+		return jobSystem;
+	}
+	
+	/**
+	 * Streams textures, meshes and terrains in the background. Finished
+	 * decodes are uploaded at the start of each frame on the game loop thread,
+	 * within {@link AssetManager#getUploadBudgetNanos()}.
+	 */
+	public AssetManager getAssetManager() {
+		return assetManager;
+	}
+	
+	public Profiler getProfiler() {
+		return profiler;
 	}
 	
 	
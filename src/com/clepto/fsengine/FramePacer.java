@@ -0,0 +1,153 @@
+package com.clepto.fsengine;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Frame and update rate targets plus a hybrid waiter. Waits park the thread
+ * until the remaining time drops below the measured timer slack of the host
+ * and then spin, so deadlines are hit to within a few microseconds without
+ * burning a core for the whole wait.
+ */
+public class FramePacer {
+	
+	public static final int UNCAPPED = 0;
+	
+	public static final int DEFAULT_MAX_UPDATE_STEPS = 5;
+	
+	private static final int CALIBRATION_SAMPLES = 21;
+	
+	private static final long CALIBRATION_PARK_NANOS = 100000L;
+	
+	private static final long MIN_SPIN_THRESHOLD_NANOS = 50000L;
+	
+	private static final long MAX_SPIN_THRESHOLD_NANOS = 2000000L;
+	
+	private volatile int targetFps;
+	
+	private volatile int targetUps;
+	
+	private volatile int maxUpdateSteps;
+	
+	private long spinThresholdNanos;
+	
+	private long nextFrameTime;
+	
+	private long droppedUpdates;
+	
+	public FramePacer(int targetFps, int targetUps) {
+		this.targetFps = targetFps;
+		this.targetUps = targetUps;
+		this.maxUpdateSteps = DEFAULT_MAX_UPDATE_STEPS;
+		this.spinThresholdNanos = MAX_SPIN_THRESHOLD_NANOS;
+	}
+	
+	public void init() {
+		calibrate();
+		nextFrameTime = System.nanoTime();
+	}
+	
+	public void calibrate() {
+		long[] overshoots = new long[CALIBRATION_SAMPLES];
+		for (int i = 0; i < CALIBRATION_SAMPLES; i++) {
+			long start = System.nanoTime();
+			LockSupport.parkNanos(CALIBRATION_PARK_NANOS);
+			overshoots[i] = System.nanoTime() - start - CALIBRATION_PARK_NANOS;
+		}
+		Arrays.sort(overshoots);
+		long overshoot = overshoots[CALIBRATION_SAMPLES * 9 / 10];
+		spinThresholdNanos = Math.max(MIN_SPIN_THRESHOLD_NANOS, Math.min(MAX_SPIN_THRESHOLD_NANOS, overshoot * 2));
+	}
+	
+	public void sync() {
+		long frameNanos = getFrameIntervalNanos();
+		long now = System.nanoTime();
+		if (frameNanos <= 0) {
+			nextFrameTime = now;
+			return;
+		}
+		nextFrameTime += frameNanos;
+		if (now - nextFrameTime > frameNanos) {
+			nextFrameTime = now;
+			return;
+		}
+		waitUntil(nextFrameTime);
+	}
+	
+	public void waitUntil(long deadline) {
+		long remaining = deadline - System.nanoTime();
+		while (remaining > spinThresholdNanos) {
+			LockSupport.parkNanos(remaining - spinThresholdNanos);
+			remaining = deadline - System.nanoTime();
+		}
+		while (deadline - System.nanoTime() > 0) {
+			Thread.yield();
+		}
+	}
+	
+	/**
+	 * Number of whole update steps that should run for the given accumulated
+	 * time, capped to {@link #getMaxUpdateSteps()}. Steps beyond the cap are
+	 * counted as dropped and should be discarded from the accumulator.
+	 */
+	public int getUpdateSteps(long accumulatorNanos) {
+		long intervalNanos = getUpdateIntervalNanos();
+		if (intervalNanos <= 0) {
+			return 1;
+		}
+		long steps = accumulatorNanos / intervalNanos;
+		int maxSteps = maxUpdateSteps;
+		if (steps > maxSteps) {
+			droppedUpdates += steps - maxSteps;
+			return maxSteps;
+		}
+		return (int) steps;
+	}
+	
+	public long getFrameIntervalNanos() {
+		int fps = targetFps;
+		return fps > 0 ? 1000000000L / fps : 0;
+	}
+	
+	public long getUpdateIntervalNanos() {
+		int ups = targetUps;
+		return ups > 0 ? 1000000000L / ups : 0;
+	}
+	
+	public int getTargetFps() {
+		return targetFps;
+	}
+	
+	public void setTargetFps(int targetFps) {
+		this.targetFps = Math.max(UNCAPPED, targetFps);
+	}
+	
+	public int getTargetUps() {
+		return targetUps;
+	}
+	
+	/**
+	 * With {@link #UNCAPPED} updates run once per frame with the measured
+	 * frame time instead of a fixed timestep.
+	 */
+	public void setTargetUps(int targetUps) {
+		this.targetUps = Math.max(UNCAPPED, targetUps);
+	}
+	
+	public int getMaxUpdateSteps() {
+		return maxUpdateSteps;
+	}
+	
+	public void setMaxUpdateSteps(int maxUpdateSteps) {
+		this.maxUpdateSteps = Math.max(1, maxUpdateSteps);
+	}
+	
+	public long getSpinThresholdNanos() {
+		return spinThresholdNanos;
+	}
+	
+	public long getDroppedUpdates() {
+		return droppedUpdates;
+	}
+	
+}
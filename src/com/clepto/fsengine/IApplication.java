@@ -1,5 +1,9 @@
 package com.clepto.fsengine;
 
+import com.clepto.fsengine.graphics.Renderer;
+import com.clepto.fsengine.scene.InterpolatedScene;
+import com.clepto.fsengine.scene.SceneSnapshot;
+
 public interface IApplication {
 
 	void init(Window window) throws Exception;
@@ -11,4 +15,34 @@ public interface IApplication {
 	void render(Window window);
 	
 	void cleanup();
+	
+	/**
+	 * The renderer the application draws with, or null. The engine hands it
+	 * {@link FSEngine#getJobSystem()} and {@link FSEngine#getProfiler()} before
+	 * {@link #init(Window)}; an application returning null must pass them to
+	 * {@link Renderer#setJobSystem} and {@link Renderer#setProfiler} itself, or
+	 * its renderer builds light clusters and occluders on the render thread
+	 * and records no render phases.
+	 */
+	default Renderer getRenderer() {
+		return null;
+	}
+	
+	/**
+	 * Called on the update thread after every update step when the engine is
+	 * pipelined. Implementations should capture their scene and camera into the
+	 * given snapshot and must not touch any GL state.
+	 */
+	default void snapshot(SceneSnapshot snapshot) {
+	}
+	
+	/**
+	 * Called on the render thread when the engine is pipelined, with the scene
+	 * and camera interpolated between the last two published snapshots, to
+	 * draw {@link InterpolatedScene#getScene()}: the live scene belongs to the
+	 * update thread. {@link FSEngine#setPipelined(boolean)} only accepts
+	 * applications that override it.
+	 */
+	default void render(Window window, InterpolatedScene interpolatedScene) {
+	}
 }
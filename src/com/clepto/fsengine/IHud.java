@@ -1,11 +1,18 @@
 package com.clepto.fsengine;
 
+import com.clepto.fsengine.graphics.HudBatch;
 import com.clepto.fsengine.scene.actors.Actor;
 
 public interface IHud {
 
 	Actor[] getActors();
 	
+	/**
+	 * Adds quads and text to the batch after the actors have been drawn.
+	 */
+	default void render(HudBatch batch) {
+	}
+	
 	default void cleanup() {
 		Actor[] actors = getActors();
 		for (Actor actor : actors) {
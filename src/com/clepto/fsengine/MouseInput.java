@@ -2,9 +2,16 @@ package com.clepto.fsengine;
 
 import static org.lwjgl.glfw.GLFW.*;
 
+import java.util.Arrays;
+
 import org.joml.Vector2d;
 import org.joml.Vector2f;
 
+import com.clepto.fsengine.input.InputEvent;
+import com.clepto.fsengine.input.InputEventQueue;
+import com.clepto.fsengine.input.InputListener;
+import com.clepto.fsengine.input.Keyboard;
+
 public class MouseInput {
 
 	private final Vector2d previousPos;
@@ -13,58 +20,164 @@ public class MouseInput {
 	
 	private final Vector2f displVec;
 	
-	private boolean inWindow = false;
+	private final Vector2f scrollVec;
+	
+	private final boolean[] buttonDown;
 	
-	private boolean leftButtonPressed = false;
+	private final boolean[] buttonPressed;
 	
-	private boolean rightButtonPressed = false;
+	private final boolean[] buttonReleased;
+	
+	private final InputEvent event;
+	
+	private InputListener listener;
+	
+	private boolean inWindow = false;
 	
 	public MouseInput() {
 		previousPos = new Vector2d(-1, -1);
 		currentPos = new Vector2d(0, 0);
 		displVec = new Vector2f();
+		scrollVec = new Vector2f();
+		buttonDown = new boolean[GLFW_MOUSE_BUTTON_LAST + 1];
+		buttonPressed = new boolean[GLFW_MOUSE_BUTTON_LAST + 1];
+		buttonReleased = new boolean[GLFW_MOUSE_BUTTON_LAST + 1];
+		event = new InputEvent();
 	}
 	
 	public void init(Window window) {
+		if (window.isHeadless()) {
+			return;
+		}
+		InputEventQueue queue = window.getInputQueue();
 		glfwSetCursorPosCallback(window.getWindowHandle(), (windowHandle, xpos, ypos) -> {
-			currentPos.x = xpos;
-			currentPos.y = ypos;
+			queue.pushCursorPos(xpos, ypos);
 		});
 		glfwSetCursorEnterCallback(window.getWindowHandle(), (windowHandle, entered) -> {
-			inWindow = entered;
+			queue.pushCursorEnter(entered);
 		});
 		glfwSetMouseButtonCallback(window.getWindowHandle(), (windowHandle, button, action, mode) -> {
-			leftButtonPressed = button == GLFW_MOUSE_BUTTON_1 && action == GLFW_PRESS;
-			rightButtonPressed = button == GLFW_MOUSE_BUTTON_2 && action == GLFW_PRESS;
+			queue.pushMouseButton(button, action, mode);
+		});
+		glfwSetScrollCallback(window.getWindowHandle(), (windowHandle, xoffset, yoffset) -> {
+			queue.pushScroll(xoffset, yoffset);
 		});
 	}
 	
+	/**
+	 * Drains the window's input queue, applying every event in order to the
+	 * mouse and {@link Keyboard} state and passing it to the listener. Must be
+	 * called once per tick from the thread that runs the update.
+	 */
 	public void input(Window window) {
 		displVec.x = 0;
 		displVec.y = 0;
-		if (previousPos.x > 0  && previousPos.y > 0 && inWindow) {
-			double deltax = currentPos.x - previousPos.x;
-			double deltay = currentPos.y - previousPos.y;
-			if (deltax != 0)
-				displVec.y = (float) deltax;
-			if (deltay != 0)
-				displVec.x = (float) deltay;
-		}
+		scrollVec.x = 0;
+		scrollVec.y = 0;
+		Arrays.fill(buttonPressed, false);
+		Arrays.fill(buttonReleased, false);
+		
+		Keyboard keyboard = window.getKeyboard();
+		keyboard.beginTick();
 		
-		previousPos.x = currentPos.x;
-		previousPos.y = currentPos.y;
+		InputEventQueue queue = window.getInputQueue();
+		while (queue.poll(event)) {
+			switch (event.getType()) {
+				case InputEvent.KEY:
+					keyboard.onKey(event.getCode(), event.getAction());
+					break;
+				case InputEvent.MOUSE_BUTTON:
+					onButton(event.getCode(), event.getAction());
+					break;
+				case InputEvent.CURSOR_POS:
+					currentPos.x = event.getX();
+					currentPos.y = event.getY();
+					if (previousPos.x > 0 && previousPos.y > 0 && inWindow) {
+						displVec.y += (float) (currentPos.x - previousPos.x);
+						displVec.x += (float) (currentPos.y - previousPos.y);
+					}
+					previousPos.x = currentPos.x;
+					previousPos.y = currentPos.y;
+					break;
+				case InputEvent.CURSOR_ENTER:
+					inWindow = event.getCode() != 0;
+					break;
+				case InputEvent.SCROLL:
+					scrollVec.x += (float) event.getX();
+					scrollVec.y += (float) event.getY();
+					break;
+				default:
+					break;
+			}
+			if (listener != null) {
+				listener.onEvent(event);
+			}
+		}
 	}
 	
+	private void onButton(int button, int action) {
+		if (button < 0 || button > GLFW_MOUSE_BUTTON_LAST) {
+			return;
+		}
+		if (action == GLFW_PRESS) {
+			buttonDown[button] = true;
+			buttonPressed[button] = true;
+		} else if (action == GLFW_RELEASE) {
+			buttonDown[button] = false;
+			buttonReleased[button] = true;
+		}
+	}
+	
+	public boolean isButtonDown(int button) {
+		return button >= 0 && button <= GLFW_MOUSE_BUTTON_LAST && buttonDown[button];
+	}
+	
+	/**
+	 * Whether the button was clicked at any point during the last tick, even
+	 * if it has already been released.
+	 */
+	public boolean wasButtonPressed(int button) {
+		return button >= 0 && button <= GLFW_MOUSE_BUTTON_LAST && buttonPressed[button];
+	}
+	
+	public boolean wasButtonReleased(int button) {
+		return button >= 0 && button <= GLFW_MOUSE_BUTTON_LAST && buttonReleased[button];
+	}
+	
+	/**
+	 * Whether the left button is held; see {@link #wasButtonPressed(int)} for
+	 * clicks shorter than a tick.
+	 */
 	public boolean isLeftButtonPressed() {
-		return leftButtonPressed;
+		return isButtonDown(GLFW_MOUSE_BUTTON_LEFT);
 	}
 	
 	public boolean isRightButtonPressed() {
-		return rightButtonPressed;
+		return isButtonDown(GLFW_MOUSE_BUTTON_RIGHT);
+	}
+	
+	public boolean isInWindow() {
+		return inWindow;
+	}
+	
+	public Vector2d getCurrentPos() {
+		return currentPos;
 	}
 	
 	public Vector2f getDisplVec() {
 		return displVec;
 	}
 	
+	public Vector2f getScrollVec() {
+		return scrollVec;
+	}
+	
+	/**
+	 * Receives every drained event, including key events, on the thread
+	 * calling {@link #input(Window)}. The event instance is reused.
+	 */
+	public void setListener(InputListener listener) {
+		this.listener = listener;
+	}
+	
 }
@@ -1,15 +1,35 @@
 package com.clepto.fsengine;
 
+import static org.lwjgl.egl.EGL10.*;
+import static org.lwjgl.egl.EGL12.*;
+import static org.lwjgl.egl.EGL15.*;
 import static org.lwjgl.glfw.GLFW.*;
 import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL30.*;
 import static org.lwjgl.system.MemoryUtil.*;
 
+import java.nio.IntBuffer;
+
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.egl.EGL;
+import org.lwjgl.egl.EGLCapabilities;
+import org.lwjgl.egl.EXTDeviceEnumeration;
+import org.lwjgl.egl.EXTPlatformBase;
+import org.lwjgl.egl.EXTPlatformDevice;
 import org.lwjgl.glfw.GLFWErrorCallback;
 import org.lwjgl.glfw.GLFWVidMode;
 import org.lwjgl.opengl.GL;
+import org.lwjgl.system.Configuration;
+import org.lwjgl.system.MemoryStack;
+
+import com.clepto.fsengine.graphics.TextureCache;
+import com.clepto.fsengine.input.InputEventQueue;
+import com.clepto.fsengine.input.Keyboard;
 
 public class Window {
 
+	private static final int EGL_PLATFORM_SURFACELESS_MESA = 0x31DD;
+
 	private final String title;
 	
 	private int width;
@@ -22,15 +42,40 @@ public class Window {
 	
 	private long windowHandle;
 	
+	private boolean headless;
+	
+	private long eglDisplay;
+	
+	private long eglContext;
+	
+	private long eglSurface;
+	
+	private int framebufferId;
+	
+	private int colorRenderbufferId;
+	
+	private int depthRenderbufferId;
+	
+	private final InputEventQueue inputQueue;
+	
+	private final Keyboard keyboard;
+	
 	public Window(String title, int width, int height, boolean vSync) {
 		this.title = title;
 		this.width = width;
 		this.height = height;
 		this.vSync = vSync;
 		this.resized = false;
+		this.inputQueue = new InputEventQueue();
+		this.keyboard = new Keyboard();
 	}
 	
 	public void init() {
+		if (headless) {
+			initHeadless();
+			return;
+		}
+		
 		GLFWErrorCallback.createPrint(System.err).set();
 		
 		if (!glfwInit()) {
@@ -41,7 +86,7 @@ public class Window {
 		glfwWindowHint(GLFW_VISIBLE, GL_FALSE);
 		glfwWindowHint(GLFW_RESIZABLE, GL_TRUE);
 		glfwWindowHint(GLFW_CONTEXT_VERSION_MAJOR, 3);
-		glfwWindowHint(GLFW_CONTEXT_VERSION_MINOR, 2);
+		glfwWindowHint(GLFW_CONTEXT_VERSION_MINOR, 3);
 		glfwWindowHint(GLFW_OPENGL_PROFILE, GLFW_OPENGL_CORE_PROFILE);
 		glfwWindowHint(GLFW_OPENGL_FORWARD_COMPAT, GL_TRUE);
 		
@@ -60,6 +105,7 @@ public class Window {
 			if (key == GLFW_KEY_ESCAPE && action == GLFW_RELEASE) {
 				glfwSetWindowShouldClose(window, true);
 			}
+			inputQueue.pushKey(key, action, mods);
 		});
 		
 		GLFWVidMode vidmode = glfwGetVideoMode(glfwGetPrimaryMonitor());
@@ -82,15 +128,147 @@ public class Window {
 		glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
 	}
 	
+	private void initHeadless() {
+		Configuration.OPENGL_EXPLICIT_INIT.set(true);
+		
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			eglDisplay = getHeadlessDisplay(stack);
+			IntBuffer major = stack.mallocInt(1);
+			IntBuffer minor = stack.mallocInt(1);
+			if (eglDisplay == EGL_NO_DISPLAY || !eglInitialize(eglDisplay, major, minor)) {
+				throw new IllegalStateException("Unable to initialize EGL: 0x" + Integer.toHexString(eglGetError()));
+			}
+			EGLCapabilities caps = EGL.createDisplayCapabilities(eglDisplay, major.get(0), minor.get(0));
+			
+			if (!eglBindAPI(EGL_OPENGL_API)) {
+				throw new IllegalStateException("Unable to bind the OpenGL API: 0x" + Integer.toHexString(eglGetError()));
+			}
+			
+			PointerBuffer configs = stack.mallocPointer(1);
+			IntBuffer numConfigs = stack.mallocInt(1);
+			boolean pbuffer = chooseConfig(stack, EGL_PBUFFER_BIT, configs, numConfigs);
+			if (!pbuffer && !(caps.EGL_KHR_surfaceless_context && chooseConfig(stack, 0, configs, numConfigs))) {
+				throw new IllegalStateException("No suitable EGL config for an offscreen OpenGL context");
+			}
+			long config = configs.get(0);
+			
+			eglContext = eglCreateContext(eglDisplay, config, EGL_NO_CONTEXT, stack.ints(
+					EGL_CONTEXT_MAJOR_VERSION, 3,
+					EGL_CONTEXT_MINOR_VERSION, 3,
+					EGL_CONTEXT_OPENGL_PROFILE_MASK, EGL_CONTEXT_OPENGL_CORE_PROFILE_BIT,
+					EGL_NONE));
+			if (eglContext == EGL_NO_CONTEXT) {
+				throw new RuntimeException("Failed to create the EGL context: 0x" + Integer.toHexString(eglGetError()));
+			}
+			
+			eglSurface = EGL_NO_SURFACE;
+			if (pbuffer) {
+				eglSurface = eglCreatePbufferSurface(eglDisplay, config, stack.ints(EGL_WIDTH, width, EGL_HEIGHT, height, EGL_NONE));
+				if (eglSurface == EGL_NO_SURFACE) {
+					throw new RuntimeException("Failed to create the EGL pbuffer: 0x" + Integer.toHexString(eglGetError()));
+				}
+			}
+			
+			if (!eglMakeCurrent(eglDisplay, eglSurface, eglSurface, eglContext)) {
+				throw new RuntimeException("Failed to make the EGL context current: 0x" + Integer.toHexString(eglGetError()));
+			}
+		}
+		
+		GL.create(functionName -> eglGetProcAddress(functionName));
+		GL.createCapabilities();
+		
+		if (eglSurface == EGL_NO_SURFACE) {
+			createOffscreenFramebuffer();
+		}
+		
+		glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
+	}
+	
+	private long getHeadlessDisplay(MemoryStack stack) {
+		EGLCapabilities clientCaps = EGL.getCapabilities();
+		String clientExtensions = eglQueryString(EGL_NO_DISPLAY, EGL_EXTENSIONS);
+		if (clientCaps.EGL_EXT_platform_base && clientExtensions != null) {
+			if (clientExtensions.contains("EGL_MESA_platform_surfaceless")) {
+				long display = EXTPlatformBase.eglGetPlatformDisplayEXT(EGL_PLATFORM_SURFACELESS_MESA, EGL_DEFAULT_DISPLAY, (IntBuffer) null);
+				if (display != EGL_NO_DISPLAY) {
+					return display;
+				}
+			}
+			if (clientCaps.EGL_EXT_platform_device && clientCaps.EGL_EXT_device_enumeration) {
+				IntBuffer numDevices = stack.mallocInt(1);
+				PointerBuffer devices = stack.mallocPointer(1);
+				if (EXTDeviceEnumeration.eglQueryDevicesEXT(devices, numDevices) && numDevices.get(0) > 0) {
+					long display = EXTPlatformBase.eglGetPlatformDisplayEXT(EXTPlatformDevice.EGL_PLATFORM_DEVICE_EXT, devices.get(0), (IntBuffer) null);
+					if (display != EGL_NO_DISPLAY) {
+						return display;
+					}
+				}
+			}
+		}
+		return eglGetDisplay(EGL_DEFAULT_DISPLAY);
+	}
+	
+	private boolean chooseConfig(MemoryStack stack, int surfaceType, PointerBuffer configs, IntBuffer numConfigs) {
+		IntBuffer attribs = stack.ints(
+				EGL_SURFACE_TYPE, surfaceType,
+				EGL_RENDERABLE_TYPE, EGL_OPENGL_BIT,
+				EGL_RED_SIZE, 8,
+				EGL_GREEN_SIZE, 8,
+				EGL_BLUE_SIZE, 8,
+				EGL_ALPHA_SIZE, 8,
+				EGL_DEPTH_SIZE, 24,
+				EGL_NONE);
+		return eglChooseConfig(eglDisplay, attribs, configs, numConfigs) && numConfigs.get(0) > 0;
+	}
+	
+	private void createOffscreenFramebuffer() {
+		framebufferId = glGenFramebuffers();
+		glBindFramebuffer(GL_FRAMEBUFFER, framebufferId);
+		
+		colorRenderbufferId = glGenRenderbuffers();
+		glBindRenderbuffer(GL_RENDERBUFFER, colorRenderbufferId);
+		glRenderbufferStorage(GL_RENDERBUFFER, GL_RGBA8, width, height);
+		glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_RENDERBUFFER, colorRenderbufferId);
+		
+		depthRenderbufferId = glGenRenderbuffers();
+		glBindRenderbuffer(GL_RENDERBUFFER, depthRenderbufferId);
+		glRenderbufferStorage(GL_RENDERBUFFER, GL_DEPTH24_STENCIL8, width, height);
+		glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_STENCIL_ATTACHMENT, GL_RENDERBUFFER, depthRenderbufferId);
+		glBindRenderbuffer(GL_RENDERBUFFER, 0);
+		
+		if (glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE) {
+			throw new RuntimeException("Offscreen framebuffer is incomplete");
+		}
+		glViewport(0, 0, width, height);
+	}
+	
 	public void setClearColor(float r, float g, float b, float alpha) {
 		glClearColor(r, g, b, alpha);
 	}
 	
+	/**
+	 * Whether the key was held at the last input tick. The state is rebuilt
+	 * from queued key events by {@link MouseInput#input(Window)}.
+	 */
 	public boolean isKeyPressed(int keyCode) {
-		return glfwGetKey(windowHandle, keyCode) == GLFW_PRESS;
+		return keyboard.isKeyDown(keyCode);
+	}
+	
+	public Keyboard getKeyboard() {
+		return keyboard;
+	}
+	
+	/**
+	 * Events pushed by the GLFW callbacks during {@link #update()}.
+	 */
+	public InputEventQueue getInputQueue() {
+		return inputQueue;
 	}
 	
 	public boolean windowShouldClose() {
+		if (headless) {
+			return false;
+		}
 		return glfwWindowShouldClose(windowHandle);
 	}
 	
@@ -126,8 +304,53 @@ public class Window {
 		return vSync;
 	}
 	
+	/**
+	 * Renders into an offscreen EGL context instead of a GLFW window. There is
+	 * no input and {@link #update()} waits for the GPU to finish the frame so
+	 * frame timings reflect the real rendering cost. Must be set before
+	 * {@link #init()}.
+	 */
+	public void setHeadless(boolean headless) {
+		this.headless = headless;
+	}
+	
+	public boolean isHeadless() {
+		return headless;
+	}
+	
 	public void update() {
+		if (headless) {
+			glFinish();
+			return;
+		}
 		glfwSwapBuffers(windowHandle);
 		glfwPollEvents();
 	}
+	
+	public void cleanup() {
+		TextureCache.getDefault().cleanup();
+		if (headless) {
+			if (framebufferId != 0) {
+				glBindFramebuffer(GL_FRAMEBUFFER, 0);
+				glDeleteFramebuffers(framebufferId);
+				glDeleteRenderbuffers(colorRenderbufferId);
+				glDeleteRenderbuffers(depthRenderbufferId);
+			}
+			if (eglDisplay != EGL_NO_DISPLAY) {
+				eglMakeCurrent(eglDisplay, EGL_NO_SURFACE, EGL_NO_SURFACE, EGL_NO_CONTEXT);
+				if (eglSurface != EGL_NO_SURFACE) {
+					eglDestroySurface(eglDisplay, eglSurface);
+				}
+				if (eglContext != EGL_NO_CONTEXT) {
+					eglDestroyContext(eglDisplay, eglContext);
+				}
+				eglTerminate(eglDisplay);
+			}
+			return;
+		}
+		if (windowHandle != NULL) {
+			glfwDestroyWindow(windowHandle);
+		}
+		glfwTerminate();
+	}
 }
@@ -0,0 +1,74 @@
+package com.clepto.fsengine.assets;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+/**
+ * Handle to an asset being streamed by the {@link AssetManager}. It completes
+ * on the render thread once the GPU upload has run, so callbacks registered
+ * with {@link #whenReady(Consumer)} may safely touch GL. In pipelined mode the
+ * scene belongs to the update thread: add loaded assets to it from
+ * {@link com.clepto.fsengine.IApplication#update(float, com.clepto.fsengine.MouseInput)}
+ * by polling {@link #isReady()} and {@link #get()} rather than from a
+ * callback. Never block on it from the render thread, as that thread performs
+ * the upload.
+ */
+public class AssetHandle<T> {
+	
+	private final String name;
+	
+	private final CompletableFuture<T> future;
+	
+	public AssetHandle(String name) {
+		this.name = name;
+		this.future = new CompletableFuture<>();
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public boolean isDone() {
+		return future.isDone();
+	}
+	
+	public boolean isReady() {
+		return future.isDone() && !future.isCompletedExceptionally();
+	}
+	
+	public boolean isFailed() {
+		return future.isCompletedExceptionally();
+	}
+	
+	/**
+	 * Returns the asset, or null while it is still loading.
+	 *
+	 * @throws CompletionException if loading failed
+	 */
+	public T get() {
+		return future.getNow(null);
+	}
+	
+	/**
+	 * Runs the action on the render thread once the asset is uploaded, or
+	 * right away on the calling thread if it already is.
+	 */
+	public AssetHandle<T> whenReady(Consumer<? super T> action) {
+		future.thenAccept(action);
+		return this;
+	}
+	
+	public CompletableFuture<T> getFuture() {
+		return future;
+	}
+	
+	void complete(T asset) {
+		future.complete(asset);
+	}
+	
+	void fail(Throwable cause) {
+		future.completeExceptionally(cause);
+	}
+	
+}
@@ -0,0 +1,300 @@
+package com.clepto.fsengine.assets;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import com.clepto.fsengine.graphics.Mesh;
+import com.clepto.fsengine.graphics.MeshData;
+import com.clepto.fsengine.graphics.OBJLoader;
+import com.clepto.fsengine.graphics.Texture;
+import com.clepto.fsengine.graphics.TextureCache;
+import com.clepto.fsengine.graphics.TextureData;
+import com.clepto.fsengine.graphics.lod.LodChain;
+import com.clepto.fsengine.graphics.lod.LodMesh;
+import com.clepto.fsengine.job.JobSystem;
+import com.clepto.fsengine.scene.actors.terrain.HeightMapData;
+import com.clepto.fsengine.scene.actors.terrain.HeightMapMesh;
+import com.clepto.fsengine.scene.actors.terrain.Terrain;
+
+/**
+ * Streams assets in two stages. Files are read and decoded into off-heap
+ * buffers by background jobs, then the GL objects are created on the render
+ * thread by {@link #processUploads()}, which stops once the per-frame upload
+ * budget is spent. The upload queue is bounded, so decoders wait instead of
+ * piling up decoded data faster than it can be uploaded.
+ */
+public class AssetManager {
+	
+	public static final int DEFAULT_QUEUE_CAPACITY = 64;
+	
+	public static final long DEFAULT_UPLOAD_BUDGET_NANOS = 2000000L;
+	
+	private final JobSystem jobSystem;
+	
+	private final BlockingQueue<Upload<?, ?>> uploadQueue;
+	
+	private final AtomicInteger pending;
+	
+	private final TextureCache textureCache;
+	
+	private volatile long uploadBudgetNanos;
+	
+	private volatile boolean closed;
+	
+	public AssetManager(JobSystem jobSystem) {
+		this(jobSystem, DEFAULT_QUEUE_CAPACITY);
+	}
+	
+	public AssetManager(JobSystem jobSystem, int queueCapacity) {
+		this.jobSystem = jobSystem;
+		this.uploadQueue = new ArrayBlockingQueue<>(queueCapacity);
+		this.pending = new AtomicInteger();
+		this.textureCache = TextureCache.getDefault();
+		this.uploadBudgetNanos = DEFAULT_UPLOAD_BUDGET_NANOS;
+	}
+	
+	public AssetHandle<Texture> loadTexture(String fileName) {
+		return load(fileName, () -> decodeTexture(fileName), data -> textureCache.get(fileName, data), TextureData::free);
+	}
+	
+	/**
+	 * Decodes the texture and hashes its content on the worker, so the
+	 * lookup in the texture cache on the render thread is cheap.
+	 */
+	private static TextureData decodeTexture(String fileName) throws Exception {
+		TextureData data = TextureData.decode(fileName);
+		data.getContentHash();
+		return data;
+	}
+	
+	public AssetHandle<Mesh> loadMesh(String fileName) {
+		return load(fileName, () -> OBJLoader.loadMeshData(fileName), Mesh::new, MeshData::free);
+	}
+	
+	/**
+	 * Like {@link #loadMesh(String)}, also simplifying the mesh into levels
+	 * of detail on the worker.
+	 */
+	public AssetHandle<LodMesh> loadLodMesh(String fileName) {
+		return load(fileName, () -> OBJLoader.loadLodChain(fileName), LodMesh::new, LodChain::free);
+	}
+	
+	public AssetHandle<Terrain> loadTerrain(int terrainSize, float scale, float minY, float maxY, String heightMapFile, String textureFile, int textInc) {
+		return load(heightMapFile, () -> {
+			TextureData texture = decodeTexture(textureFile);
+			TextureData heightMap = null;
+			try {
+				heightMap = TextureData.decode(heightMapFile);
+				HeightMapData data = HeightMapMesh.buildData(minY, maxY, heightMap.getPixels(), heightMap.getWidth(), heightMap.getHeight(), textInc);
+				return new TerrainData(data, texture);
+			} catch (Exception e) {
+				texture.free();
+				throw e;
+			} finally {
+				if (heightMap != null) {
+					heightMap.free();
+				}
+			}
+		}, data -> {
+			HeightMapMesh heightMapMesh = new HeightMapMesh(data.heightMap, textureCache.get(textureFile, data.texture));
+			return new Terrain(terrainSize, scale, heightMapMesh);
+		}, TerrainData::free);
+	}
+	
+	/**
+	 * Decodes on a background job with decoder, then creates the asset on the
+	 * render thread with uploader. The decoded data is always handed to
+	 * release afterwards, whether the upload ran or not.
+	 */
+	public <D, T> AssetHandle<T> load(String name, Callable<D> decoder, Uploader<D, T> uploader, Consumer<D> release) {
+		AssetHandle<T> handle = new AssetHandle<>(name);
+		if (closed) {
+			handle.fail(new CancellationException("Asset manager is closed"));
+			return handle;
+		}
+		pending.incrementAndGet();
+		jobSystem.submitBackground(() -> {
+			D data;
+			try {
+				data = decoder.call();
+			} catch (Throwable e) {
+				pending.decrementAndGet();
+				handle.fail(e);
+				return;
+			}
+			enqueue(new Upload<>(handle, data, uploader, release));
+		});
+		return handle;
+	}
+	
+	private void enqueue(Upload<?, ?> upload) {
+		try {
+			ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+				
+				private boolean queued;
+				
+				@Override
+				public boolean block() throws InterruptedException {
+					if (!queued) {
+						uploadQueue.put(upload);
+						queued = true;
+					}
+					return true;
+				}
+				
+				@Override
+				public boolean isReleasable() {
+					return queued || (queued = uploadQueue.offer(upload));
+				}
+				
+			});
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			upload.discard();
+			pending.decrementAndGet();
+			return;
+		}
+		if (closed) {
+			discardQueued();
+		}
+	}
+	
+	/**
+	 * Runs queued uploads on the calling thread, which must own the GL context,
+	 * until the queue is empty or the upload budget is spent. At least one
+	 * upload runs per call so progress is made even with a tiny budget.
+	 *
+	 * @return the number of uploads run
+	 */
+	public int processUploads() {
+		return processUploads(uploadBudgetNanos);
+	}
+	
+	public int processUploads(long budgetNanos) {
+		long start = System.nanoTime();
+		int count = 0;
+		Upload<?, ?> upload;
+		while ((upload = uploadQueue.poll()) != null) {
+			pending.decrementAndGet();
+			upload.run();
+			count++;
+			if (System.nanoTime() - start >= budgetNanos) {
+				break;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Number of assets still decoding or waiting for their upload.
+	 */
+	public int getPendingCount() {
+		return pending.get();
+	}
+	
+	public int getQueuedUploads() {
+		return uploadQueue.size();
+	}
+	
+	/**
+	 * The {@link TextureCache#getDefault() default cache} this manager uploads
+	 * textures through, shared between all assets using the same image. Only
+	 * to be used on the render thread.
+	 */
+	public TextureCache getTextureCache() {
+		return textureCache;
+	}
+	
+	public long getUploadBudgetNanos() {
+		return uploadBudgetNanos;
+	}
+	
+	public void setUploadBudgetNanos(long uploadBudgetNanos) {
+		this.uploadBudgetNanos = uploadBudgetNanos;
+	}
+	
+	/**
+	 * Frees every decoded asset that has not been uploaded yet and cancels
+	 * its handle. Assets still decoding are discarded once they finish.
+	 */
+	public void cleanup() {
+		closed = true;
+		discardQueued();
+	}
+	
+	private void discardQueued() {
+		Upload<?, ?> upload;
+		while ((upload = uploadQueue.poll()) != null) {
+			pending.decrementAndGet();
+			upload.discard();
+		}
+	}
+	
+	@FunctionalInterface
+	public interface Uploader<D, T> {
+		
+		T upload(D data) throws Exception;
+		
+	}
+	
+	private static class Upload<D, T> {
+		
+		private final AssetHandle<T> handle;
+		
+		private final D data;
+		
+		private final Uploader<D, T> uploader;
+		
+		private final Consumer<D> release;
+		
+		private Upload(AssetHandle<T> handle, D data, Uploader<D, T> uploader, Consumer<D> release) {
+			this.handle = handle;
+			this.data = data;
+			this.uploader = uploader;
+			this.release = release;
+		}
+		
+		private void run() {
+			T asset;
+			try {
+				asset = uploader.upload(data);
+			} catch (Throwable e) {
+				handle.fail(e);
+				return;
+			} finally {
+				release.accept(data);
+			}
+			handle.complete(asset);
+		}
+		
+		private void discard() {
+			release.accept(data);
+			handle.fail(new CancellationException("Asset manager is closed"));
+		}
+		
+	}
+	
+	private static class TerrainData {
+		
+		private final HeightMapData heightMap;
+		
+		private final TextureData texture;
+		
+		private TerrainData(HeightMapData heightMap, TextureData texture) {
+			this.heightMap = heightMap;
+			this.texture = texture;
+		}
+		
+		private void free() {
+			heightMap.free();
+			texture.free();
+		}
+		
+	}
+	
+}
@@ -0,0 +1,206 @@
+package com.clepto.fsengine.graphics;
+
+import java.util.Arrays;
+
+import com.clepto.fsengine.scene.actors.Actor;
+
+/**
+ * Per-frame list of draw items ordered by a 64 bit sort key. From the most
+ * significant bits down the key holds the program, the texture, the vertex
+ * array and the quantized view depth, so sorting groups state changes
+ * together and draws front to back inside each group. An item draws one mesh
+ * for a run of actors stored contiguously in the queue. Storage is reused
+ * between frames and sorting is an LSD radix sort, so neither building nor
+ * sorting allocates once the queue has grown.
+ */
+public class DrawQueue {
+	
+	public static final int PROGRAM_BITS = 4;
+	
+	public static final int TEXTURE_BITS = 16;
+	
+	public static final int VERTEX_ARRAY_BITS = 20;
+	
+	public static final int DEPTH_BITS = 24;
+	
+	private static final int DEPTH_SHIFT = 0;
+	
+	private static final int VERTEX_ARRAY_SHIFT = DEPTH_SHIFT + DEPTH_BITS;
+	
+	private static final int TEXTURE_SHIFT = VERTEX_ARRAY_SHIFT + VERTEX_ARRAY_BITS;
+	
+	private static final int PROGRAM_SHIFT = TEXTURE_SHIFT + TEXTURE_BITS;
+	
+	private static final int MAX_DEPTH = (1 << DEPTH_BITS) - 1;
+	
+	private long[] keys;
+	
+	private int[] order;
+	
+	private Mesh[] meshes;
+	
+	private int[] firstActor;
+	
+	private int[] actorCount;
+	
+	private int itemCount;
+	
+	private Actor[] actors;
+	
+	private int totalActors;
+	
+	private long[] keyScratch;
+	
+	private int[] orderScratch;
+	
+	private final int[] histogram;
+	
+	public DrawQueue() {
+		keys = new long[64];
+		order = new int[64];
+		meshes = new Mesh[64];
+		firstActor = new int[64];
+		actorCount = new int[64];
+		actors = new Actor[256];
+		keyScratch = new long[64];
+		orderScratch = new int[64];
+		histogram = new int[256];
+	}
+	
+	public static long buildKey(int program, int texture, int vertexArray, float depth, float maxDepth) {
+		float normalized = Math.max(0.0f, Math.min(1.0f, depth / maxDepth));
+		long quantized = (long) (normalized * MAX_DEPTH);
+		return ((long) (program & ((1 << PROGRAM_BITS) - 1)) << PROGRAM_SHIFT)
+				| ((long) (texture & ((1 << TEXTURE_BITS) - 1)) << TEXTURE_SHIFT)
+				| ((long) (vertexArray & ((1 << VERTEX_ARRAY_BITS) - 1)) << VERTEX_ARRAY_SHIFT)
+				| quantized << DEPTH_SHIFT;
+	}
+	
+	public static int getProgram(long key) {
+		return (int) (key >>> PROGRAM_SHIFT) & ((1 << PROGRAM_BITS) - 1);
+	}
+	
+	public void clear() {
+		Arrays.fill(meshes, 0, itemCount, null);
+		Arrays.fill(actors, 0, totalActors, null);
+		itemCount = 0;
+		totalActors = 0;
+	}
+	
+	/**
+	 * Appends an actor to the actor storage. Actors added between
+	 * {@link #beginItem()} and {@link #endItem(int, long, Mesh)} belong to that item.
+	 */
+	public void addActor(Actor actor) {
+		if (totalActors == actors.length) {
+			actors = Arrays.copyOf(actors, actors.length * 2);
+		}
+		actors[totalActors++] = actor;
+	}
+	
+	/**
+	 * Returns the index of the first actor of the next item.
+	 */
+	public int beginItem() {
+		return totalActors;
+	}
+	
+	public void endItem(int first, long key, Mesh mesh) {
+		if (first == totalActors) {
+			return;
+		}
+		if (itemCount == keys.length) {
+			int capacity = keys.length * 2;
+			keys = Arrays.copyOf(keys, capacity);
+			order = Arrays.copyOf(order, capacity);
+			meshes = Arrays.copyOf(meshes, capacity);
+			firstActor = Arrays.copyOf(firstActor, capacity);
+			actorCount = Arrays.copyOf(actorCount, capacity);
+			keyScratch = new long[capacity];
+			orderScratch = new int[capacity];
+		}
+		keys[itemCount] = key;
+		order[itemCount] = itemCount;
+		meshes[itemCount] = mesh;
+		firstActor[itemCount] = first;
+		actorCount[itemCount] = totalActors - first;
+		itemCount++;
+	}
+	
+	/**
+	 * Sorts the items by key, one byte per pass. Passes where every key has
+	 * the same byte are skipped, which is the common case for the program and
+	 * the upper texture bits.
+	 */
+	public void sort() {
+		long[] srcKeys = keys;
+		int[] srcOrder = order;
+		long[] dstKeys = keyScratch;
+		int[] dstOrder = orderScratch;
+		for (int shift = 0; shift < 64; shift += 8) {
+			Arrays.fill(histogram, 0);
+			for (int i = 0; i < itemCount; i++) {
+				histogram[(int) (srcKeys[i] >>> shift) & 0xFF]++;
+			}
+			if (itemCount == 0 || histogram[(int) (srcKeys[0] >>> shift) & 0xFF] == itemCount) {
+				continue;
+			}
+			int sum = 0;
+			for (int b = 0; b < 256; b++) {
+				int count = histogram[b];
+				histogram[b] = sum;
+				sum += count;
+			}
+			for (int i = 0; i < itemCount; i++) {
+				int slot = histogram[(int) (srcKeys[i] >>> shift) & 0xFF]++;
+				dstKeys[slot] = srcKeys[i];
+				dstOrder[slot] = srcOrder[i];
+			}
+			long[] auxKeys = srcKeys;
+			srcKeys = dstKeys;
+			dstKeys = auxKeys;
+			int[] auxOrder = srcOrder;
+			srcOrder = dstOrder;
+			dstOrder = auxOrder;
+		}
+		keys = srcKeys;
+		order = srcOrder;
+		keyScratch = dstKeys;
+		orderScratch = dstOrder;
+	}
+	
+	public int size() {
+		return itemCount;
+	}
+	
+	/**
+	 * Sort key of the item at the given position in sorted order.
+	 */
+	public long getKey(int index) {
+		return keys[index];
+	}
+	
+	public Mesh getMesh(int index) {
+		return meshes[order[index]];
+	}
+	
+	public int getFirstActor(int index) {
+		return firstActor[order[index]];
+	}
+	
+	public int getActorCount(int index) {
+		return actorCount[order[index]];
+	}
+	
+	/**
+	 * Number of actors stored across all items.
+	 */
+	public int getTotalActors() {
+		return totalActors;
+	}
+	
+	public Actor[] getActors() {
+		return actors;
+	}
+	
+}
@@ -0,0 +1,244 @@
+package com.clepto.fsengine.graphics;
+
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.*;
+
+import java.nio.ByteBuffer;
+
+import org.lwjgl.system.MemoryUtil;
+
+/**
+ * Mesh whose vertices and indices are rewritten in place. Writes go to an
+ * off-heap staging copy and {@link #update(int, int)} streams them into the
+ * next slot of a small ring of vertex arrays, orphaning the slot's storage,
+ * so an update never waits on a draw still reading an earlier slot and never
+ * creates GL objects; storage only grows when the data outgrows it. Indices are only
+ * uploaded to a slot when they changed since that slot last received them.
+ * Only interleaved layouts are supported. 16 bit indices are switched to 32
+ * bit ones once the vertices outgrow them.
+ */
+public class DynamicMesh extends Mesh {
+	
+	public static final int RING_SIZE = 3;
+	
+	private final int[] vaoIds;
+	
+	private final int[] vboIds;
+	
+	private final int[] iboIds;
+	
+	private final int[] vertexBytes;
+	
+	private final int[] indexBytes;
+	
+	private final int[] indexVersions;
+	
+	private final int[] indexCounts;
+	
+	private VertexLayout layout;
+	
+	private ByteBuffer vertices;
+	
+	private ByteBuffer indices;
+	
+	private int indexVersion;
+	
+	private boolean indicesDirty;
+	
+	private int slot;
+	
+	private int elementCount;
+	
+	private float minX, minY, minZ, maxX, maxY, maxZ;
+	
+	public DynamicMesh(VertexLayout layout, int vertexCapacity, int indexCapacity) {
+		super(layout);
+		if (!layout.isInterleaved()) {
+			throw new IllegalArgumentException("Dynamic meshes need an interleaved vertex layout");
+		}
+		this.layout = layout;
+		vertexCapacity = Math.max(vertexCapacity, 1);
+		indexCapacity = Math.max(indexCapacity, 1);
+		vertices = MemoryUtil.memCalloc(vertexCapacity * layout.getVertexSize());
+		indices = MemoryUtil.memCalloc(indexCapacity * layout.getIndexSize());
+		
+		vaoIds = new int[RING_SIZE];
+		vboIds = new int[RING_SIZE];
+		iboIds = new int[RING_SIZE];
+		vertexBytes = new int[RING_SIZE];
+		indexBytes = new int[RING_SIZE];
+		indexVersions = new int[RING_SIZE];
+		indexCounts = new int[RING_SIZE];
+		for (int i = 0; i < RING_SIZE; i++) {
+			vaoIds[i] = glGenVertexArrays();
+			glBindVertexArray(vaoIds[i]);
+			
+			vboIds[i] = glGenBuffers();
+			vertexBytes[i] = vertices.capacity();
+			glBindBuffer(GL_ARRAY_BUFFER, vboIds[i]);
+			glBufferData(GL_ARRAY_BUFFER, vertexBytes[i], GL_STREAM_DRAW);
+			layout.setAttributePointers(0);
+			
+			iboIds[i] = glGenBuffers();
+			indexBytes[i] = indices.capacity();
+			glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, iboIds[i]);
+			glBufferData(GL_ELEMENT_ARRAY_BUFFER, indexBytes[i], GL_STREAM_DRAW);
+			indexVersions[i] = -1;
+		}
+		glBindBuffer(GL_ARRAY_BUFFER, 0);
+		glBindVertexArray(0);
+		resetBounds();
+	}
+	
+	/**
+	 * Grows the staging copies, keeping their contents.
+	 */
+	public void ensureCapacity(int vertexCount, int indexCount) {
+		if (vertexCount > layout.getMaxVertices()) {
+			widenIndices();
+		}
+		int requiredVertexBytes = vertexCount * layout.getVertexSize();
+		if (requiredVertexBytes > vertices.capacity()) {
+			vertices = MemoryUtil.memRealloc(vertices, Math.max(requiredVertexBytes, vertices.capacity() * 2));
+			vertices.clear();
+		}
+		int requiredIndexBytes = indexCount * layout.getIndexSize();
+		if (requiredIndexBytes > indices.capacity()) {
+			indices = MemoryUtil.memRealloc(indices, Math.max(requiredIndexBytes, indices.capacity() * 2));
+			indices.clear();
+		}
+	}
+	
+	/**
+	 * Converts the staged indices to 32 bits, to be uploaded to every slot.
+	 */
+	private void widenIndices() {
+		VertexLayout wideLayout = layout.withIndexType(GL_UNSIGNED_INT);
+		int count = indices.capacity() / layout.getIndexSize();
+		ByteBuffer wideIndices = MemoryUtil.memCalloc(count * wideLayout.getIndexSize());
+		for (int i = 0; i < count; i++) {
+			wideIndices.putInt(i * 4, indices.getShort(i * 2) & 0xFFFF);
+		}
+		MemoryUtil.memFree(indices);
+		indices = wideIndices;
+		layout = wideLayout;
+		indicesDirty = true;
+	}
+	
+	public void putVertex(int index, float x, float y, float z, float u, float v, float nx, float ny, float nz) {
+		layout.putVertex(vertices, index, x, y, z, u, v, nx, ny, nz);
+		minX = Math.min(minX, x);
+		minY = Math.min(minY, y);
+		minZ = Math.min(minZ, z);
+		maxX = Math.max(maxX, x);
+		maxY = Math.max(maxY, y);
+		maxZ = Math.max(maxZ, z);
+	}
+	
+	public void putIndex(int index, int value) {
+		layout.putIndex(indices, index, value);
+		indicesDirty = true;
+	}
+	
+	/**
+	 * Streams the first vertexCount vertices, and the first indexCount indices
+	 * if the next slot does not have them yet, to the next slot of the ring,
+	 * which is drawn with indexCount indices from then on. The bounds become
+	 * the box of the vertices written since the previous update, if any.
+	 */
+	public void update(int vertexCount, int indexCount) {
+		if (indicesDirty) {
+			indexVersion++;
+			indicesDirty = false;
+		}
+		slot = (slot + 1) % RING_SIZE;
+		
+		vertices.limit(vertexCount * layout.getVertexSize());
+		vertexBytes[slot] = upload(vboIds[slot], vertexBytes[slot], vertices);
+		vertices.clear();
+		
+		if (indexVersions[slot] != indexVersion || indexCounts[slot] < indexCount) {
+			indices.limit(indexCount * layout.getIndexSize());
+			indexBytes[slot] = upload(iboIds[slot], indexBytes[slot], indices);
+			indices.clear();
+			indexVersions[slot] = indexVersion;
+			indexCounts[slot] = indexCount;
+		}
+		elementCount = indexCount;
+		
+		if (minX <= maxX) {
+			setBounds(minX, minY, minZ, maxX, maxY, maxZ);
+			resetBounds();
+		}
+	}
+	
+	/**
+	 * Orphans the buffer and writes the data through the copy write target,
+	 * which leaves the bound vertex array untouched.
+	 */
+	private static int upload(int bufferId, int capacity, ByteBuffer data) {
+		if (data.remaining() > capacity) {
+			capacity = Math.max(data.remaining(), capacity * 2);
+		}
+		glBindBuffer(GL_COPY_WRITE_BUFFER, bufferId);
+		glBufferData(GL_COPY_WRITE_BUFFER, capacity, GL_STREAM_DRAW);
+		glBufferSubData(GL_COPY_WRITE_BUFFER, 0, data);
+		glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+		return capacity;
+	}
+	
+	private void resetBounds() {
+		minX = minY = minZ = Float.POSITIVE_INFINITY;
+		maxX = maxY = maxZ = Float.NEGATIVE_INFINITY;
+	}
+	
+	/**
+	 * The layout the vertices and indices are written in, whose index type
+	 * may have been widened since construction.
+	 */
+	@Override
+	public VertexLayout getLayout() {
+		return layout;
+	}
+	
+	@Override
+	public int getVaoId() {
+		return vaoIds[slot];
+	}
+	
+	/**
+	 * Number of indices drawn since the last {@link #update(int, int)}.
+	 */
+	@Override
+	public int getVertexCount() {
+		return elementCount;
+	}
+	
+	@Override
+	public void cleanUp() {
+		deleteBuffers();
+		Material material = getMaterial();
+		if (material != null && material.getTexture() != null) {
+			material.getTexture().cleanup();
+		}
+	}
+	
+	@Override
+	public void deleteBuffers() {
+		glBindBuffer(GL_ARRAY_BUFFER, 0);
+		glBindVertexArray(0);
+		for (int i = 0; i < RING_SIZE; i++) {
+			glDeleteBuffers(vboIds[i]);
+			glDeleteBuffers(iboIds[i]);
+			glDeleteVertexArrays(vaoIds[i]);
+		}
+		if (vertices != null) {
+			MemoryUtil.memFree(vertices);
+			MemoryUtil.memFree(indices);
+			vertices = null;
+			indices = null;
+		}
+	}
+	
+}
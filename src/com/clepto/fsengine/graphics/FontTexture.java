@@ -6,125 +6,439 @@ import java.awt.FontMetrics;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
+import java.awt.image.DataBufferInt;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
-import javax.imageio.ImageIO;
+import org.lwjgl.system.MemoryUtil;
 
+/**
+ * Glyph cache of a font. A glyph is rasterized the first time it is looked
+ * up and packed into a fixed size atlas page, where every line of the page is
+ * a shelf filled from left to right. Rasterized regions reach the GPU on the
+ * next {@link #upload(GLStateCache)}. When every page is full the least recently used
+ * shelf is evicted and {@link #getEvictions()} changes. Shelves holding a
+ * glyph looked up in the current generation are never evicted, so glyphs
+ * queued for drawing stay valid until {@link #nextGeneration()} is called
+ * after the draw.
+ */
 public class FontTexture {
-
-	private static final String IMAGE_FORMAT = "png";
+	
+	public static final int DEFAULT_PAGE_SIZE = 512;
+	
+	public static final int DEFAULT_MAX_PAGES = 4;
+	
+	private static final int PADDING = 1;
+	
+	private static final int MIN_SHELVES = 16;
+	
+	private static final CharInfo UNSUPPORTED = new CharInfo(null, -1, -1, 0, 0, 0, 0);
 	
 	private final Font font;
 	
-	private final String charSetName;
+	private final CharsetEncoder encoder;
+	
+	private final int pageSize;
+	
+	private final int maxPages;
+	
+	private final int height;
+	
+	private final int ascent;
+	
+	private final int shelfHeight;
+	
+	private final CharInfo[][] blocks;
+	
+	private final List<Page> pages;
+	
+	private final char[] glyph;
 	
-	private final Map<Character, CharInfo> charMap;
+	private BufferedImage image;
 	
-	private Texture texture;
+	private Graphics2D graphics;
 	
-	private int height;
+	private FontMetrics fontMetrics;
 	
-	private int width;
+	private int generation;
+	
+	private int evictions;
 	
 	public FontTexture(Font font, String charSetName) throws Exception {
-		this.font = font;
-		this.charSetName = charSetName;
-		charMap = new HashMap<Character, CharInfo>();
-		
-		buildTexture();
+		this(font, charSetName, DEFAULT_PAGE_SIZE, DEFAULT_MAX_PAGES);
 	}
 	
-	public int getWidth() {
-		return width;
+	/**
+	 * Only characters the charset can encode have glyphs. Pages are made
+	 * larger than pageSize when needed to hold at least 16 lines of text.
+	 */
+	public FontTexture(Font font, String charSetName, int pageSize, int maxPages) throws Exception {
+		this.font = font;
+		encoder = Charset.forName(charSetName).newEncoder();
+		this.maxPages = Math.max(maxPages, 1);
+		blocks = new CharInfo[256][];
+		pages = new ArrayList<>();
+		glyph = new char[1];
+		
+		createGraphics(1, 1);
+		height = fontMetrics.getHeight();
+		ascent = fontMetrics.getAscent();
+		shelfHeight = height + PADDING;
+		this.pageSize = Math.max(pageSize, shelfHeight * MIN_SHELVES);
+		pages.add(new Page(this.pageSize, shelfHeight));
 	}
 	
+	/**
+	 * Line height of the font in pixels.
+	 */
 	public int getHeight() {
 		return height;
 	}
 	
+	public int getPageSize() {
+		return pageSize;
+	}
+	
+	public int getPageCount() {
+		return pages.size();
+	}
+	
+	/**
+	 * The first atlas page, which holds every glyph until it fills up.
+	 */
 	public Texture getTexture() {
-		return texture;
+		return pages.get(0).texture;
+	}
+	
+	/**
+	 * Number of shelves evicted so far. Anything that kept glyph coordinates
+	 * across a change of this value has to look them up again.
+	 */
+	public int getEvictions() {
+		return evictions;
 	}
 	
+	/**
+	 * Returns the glyph of the character, rasterizing it if needed, or null if
+	 * the charset cannot encode it or no shelf can be evicted in the current
+	 * generation.
+	 */
 	public CharInfo getCharInfo(char c) {
-		return charMap.get(c);
+		CharInfo[] block = blocks[c >>> 8];
+		if (block == null) {
+			block = new CharInfo[256];
+			blocks[c >>> 8] = block;
+		}
+		CharInfo charInfo = block[c & 0xFF];
+		if (charInfo == null) {
+			charInfo = addGlyph(c);
+			if (charInfo == null) {
+				return null;
+			}
+			block[c & 0xFF] = charInfo;
+		}
+		if (charInfo == UNSUPPORTED) {
+			return null;
+		}
+		if (charInfo.page >= 0) {
+			pages.get(charInfo.page).shelfUses[charInfo.shelf] = generation;
+		}
+		return charInfo;
+	}
+	
+	/**
+	 * Sends the regions rasterized since the last call to the page textures,
+	 * binding them through the state cache.
+	 */
+	public void upload(GLStateCache stateCache) {
+		for (Page page : pages) {
+			page.upload(stateCache);
+		}
+	}
+	
+	/**
+	 * Starts a new generation. Shelves only used by earlier generations may be
+	 * evicted from now on, so this must only be called once nothing queued
+	 * for drawing refers to their glyphs any more.
+	 */
+	public void nextGeneration() {
+		generation++;
 	}
 	
-	private String getAllAvailableChars(String charsetName) {
-		CharsetEncoder ce = Charset.forName(charsetName).newEncoder();
-		StringBuilder result = new StringBuilder();
-		for (char c = 0; c < Character.MAX_VALUE; c++) {
-			if (ce.canEncode(c)) {
-				result.append(c);
+	private CharInfo addGlyph(char c) {
+		if (!encoder.canEncode(c)) {
+			return UNSUPPORTED;
+		}
+		int width = fontMetrics.charWidth(c);
+		if (width <= 0) {
+			return new CharInfo(getTexture(), -1, -1, 0, 0, 0, height);
+		}
+		int cellWidth = width + PADDING;
+		if (cellWidth > pageSize) {
+			return UNSUPPORTED;
+		}
+		
+		for (int i = 0; i < pages.size(); i++) {
+			int shelf = pages.get(i).findShelf(cellWidth);
+			if (shelf >= 0) {
+				return placeGlyph(i, shelf, c, width);
+			}
+		}
+		if (pages.size() < maxPages) {
+			pages.add(new Page(pageSize, shelfHeight));
+			return placeGlyph(pages.size() - 1, 0, c, width);
+		}
+		
+		int oldestPage = -1;
+		int oldestShelf = -1;
+		int oldestAge = 0;
+		for (int i = 0; i < pages.size(); i++) {
+			int[] shelfUses = pages.get(i).shelfUses;
+			for (int j = 0; j < shelfUses.length; j++) {
+				int age = generation - shelfUses[j];
+				if (age > oldestAge) {
+					oldestAge = age;
+					oldestPage = i;
+					oldestShelf = j;
+				}
 			}
 		}
-		return result.toString();
+		if (oldestPage < 0) {
+			return null;
+		}
+		evictShelf(oldestPage, oldestShelf);
+		return placeGlyph(oldestPage, oldestShelf, c, width);
 	}
 	
-    private void buildTexture() throws Exception {
-        // Get the font metrics for each character for the selected font by using image
-        BufferedImage img = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g2D = img.createGraphics();
-        g2D.setFont(font);
-        FontMetrics fontMetrics = g2D.getFontMetrics();
-
-        String allChars = getAllAvailableChars(charSetName);
-        this.width = 0;
-        this.height = 0;
-        for (char c : allChars.toCharArray()) {
-            // Get the size for each character and update global image size
-            CharInfo charInfo = new CharInfo(width, fontMetrics.charWidth(c));
-            charMap.put(c, charInfo);
-            width += charInfo.getWidth();
-            height = Math.max(height, fontMetrics.getHeight());
-        }
-        g2D.dispose();
-
-        // Create the image associated to the charset
-        img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        g2D = img.createGraphics();
-        g2D.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        g2D.setFont(font);
-        fontMetrics = g2D.getFontMetrics();
-        g2D.setColor(Color.WHITE);
-        g2D.drawString(allChars, 0, fontMetrics.getAscent());
-        g2D.dispose();
-
-        // Dump image to a byte buffer
-        InputStream is;
-        try (
-                ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-            ImageIO.write(img, IMAGE_FORMAT, out);
-            out.flush();
-            is = new ByteArrayInputStream(out.toByteArray());
-        }
-
-        texture = new Texture(is);
-    }
+	private void evictShelf(int pageIndex, int shelf) {
+		Page page = pages.get(pageIndex);
+		char[] chars = page.shelfChars[shelf];
+		for (int i = 0, n = page.shelfCharCounts[shelf]; i < n; i++) {
+			blocks[chars[i] >>> 8][chars[i] & 0xFF] = null;
+		}
+		page.clearShelf(shelf);
+		evictions++;
+	}
+	
+	private CharInfo placeGlyph(int pageIndex, int shelf, char c, int width) {
+		Page page = pages.get(pageIndex);
+		int x = page.shelfWidths[shelf];
+		int y = shelf * shelfHeight;
+		page.addChar(shelf, c, width + PADDING);
+		rasterize(c, width, page, x, y);
+		return new CharInfo(page.texture, pageIndex, shelf, x, y, width, height);
+	}
+	
+	/**
+	 * Draws the glyph in white into the scratch image and copies it to the
+	 * page as RGBA.
+	 */
+	private void rasterize(char c, int width, Page page, int x, int y) {
+		if (image.getWidth() < width || image.getHeight() < height) {
+			graphics.dispose();
+			createGraphics(Math.max(width, image.getWidth() * 2), height);
+		}
+		int[] argb = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		Arrays.fill(argb, 0);
+		glyph[0] = c;
+		graphics.drawChars(glyph, 0, 1, 0, ascent);
+		
+		int stride = image.getWidth();
+		for (int row = 0; row < height; row++) {
+			int offset = ((y + row) * pageSize + x) * 4;
+			for (int column = 0; column < width; column++) {
+				int pixel = argb[row * stride + column];
+				page.pixels.put(offset, (byte) (pixel >>> 16));
+				page.pixels.put(offset + 1, (byte) (pixel >>> 8));
+				page.pixels.put(offset + 2, (byte) pixel);
+				page.pixels.put(offset + 3, (byte) (pixel >>> 24));
+				offset += 4;
+			}
+		}
+		page.markDirty(x, y, width, height);
+	}
+	
+	private void createGraphics(int width, int imageHeight) {
+		image = new BufferedImage(width, imageHeight, BufferedImage.TYPE_INT_ARGB);
+		graphics = image.createGraphics();
+		graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		graphics.setFont(font);
+		graphics.setColor(Color.WHITE);
+		fontMetrics = graphics.getFontMetrics();
+	}
+	
+	public void cleanup() {
+		for (Page page : pages) {
+			page.cleanup();
+		}
+		pages.clear();
+		graphics.dispose();
+	}
+	
+	/**
+	 * An atlas page with its pixels kept on the CPU side, so that rasterized
+	 * glyphs can be uploaded as one region per page.
+	 */
+	private static class Page {
+		
+		private final int size;
+		
+		private final int shelfHeight;
+		
+		private final Texture texture;
+		
+		private ByteBuffer pixels;
+		
+		private final int[] shelfWidths;
+		
+		private final int[] shelfUses;
+		
+		private final char[][] shelfChars;
+		
+		private final int[] shelfCharCounts;
+		
+		private int dirtyMinX, dirtyMinY, dirtyMaxX, dirtyMaxY;
+		
+		Page(int size, int shelfHeight) {
+			this.size = size;
+			this.shelfHeight = shelfHeight;
+			texture = new Texture(size, size);
+			pixels = MemoryUtil.memCalloc(size * size * 4);
+			int shelves = size / shelfHeight;
+			shelfWidths = new int[shelves];
+			shelfUses = new int[shelves];
+			shelfChars = new char[shelves][16];
+			shelfCharCounts = new int[shelves];
+			markDirty(0, 0, size, size);
+		}
+		
+		int findShelf(int cellWidth) {
+			for (int i = 0; i < shelfWidths.length; i++) {
+				if (shelfWidths[i] + cellWidth <= size) {
+					return i;
+				}
+			}
+			return -1;
+		}
+		
+		void addChar(int shelf, char c, int cellWidth) {
+			int count = shelfCharCounts[shelf];
+			if (count == shelfChars[shelf].length) {
+				shelfChars[shelf] = Arrays.copyOf(shelfChars[shelf], count * 2);
+			}
+			shelfChars[shelf][count] = c;
+			shelfCharCounts[shelf] = count + 1;
+			shelfWidths[shelf] += cellWidth;
+		}
+		
+		void clearShelf(int shelf) {
+			int y = shelf * shelfHeight;
+			MemoryUtil.memSet(MemoryUtil.memAddress(pixels) + (long) y * size * 4, 0, (long) shelfHeight * size * 4);
+			markDirty(0, y, size, shelfHeight);
+			shelfWidths[shelf] = 0;
+			shelfCharCounts[shelf] = 0;
+		}
+		
+		void markDirty(int x, int y, int width, int height) {
+			if (dirtyMinX >= dirtyMaxX) {
+				dirtyMinX = x;
+				dirtyMinY = y;
+				dirtyMaxX = x + width;
+				dirtyMaxY = y + height;
+				return;
+			}
+			dirtyMinX = Math.min(dirtyMinX, x);
+			dirtyMinY = Math.min(dirtyMinY, y);
+			dirtyMaxX = Math.max(dirtyMaxX, x + width);
+			dirtyMaxY = Math.max(dirtyMaxY, y + height);
+		}
+		
+		void upload(GLStateCache stateCache) {
+			if (dirtyMinX >= dirtyMaxX) {
+				return;
+			}
+			pixels.position((dirtyMinY * size + dirtyMinX) * 4);
+			texture.update(stateCache, dirtyMinX, dirtyMinY, dirtyMaxX - dirtyMinX, dirtyMaxY - dirtyMinY, size, pixels);
+			pixels.clear();
+			dirtyMinX = dirtyMaxX = 0;
+		}
+		
+		void cleanup() {
+			texture.cleanup();
+			if (pixels != null) {
+				MemoryUtil.memFree(pixels);
+				pixels = null;
+			}
+		}
+	}
 	
 	public static class CharInfo {
 		
+		private final Texture texture;
+		
+		private final int page;
+		
+		private final int shelf;
+		
 		private final int startX;
 		
+		private final int startY;
+		
 		private final int width;
 		
-		public CharInfo(int startX, int width) {
+		private final int height;
+		
+		CharInfo(Texture texture, int page, int shelf, int startX, int startY, int width, int height) {
+			this.texture = texture;
+			this.page = page;
+			this.shelf = shelf;
 			this.startX = startX;
+			this.startY = startY;
 			this.width = width;
+			this.height = height;
+		}
+		
+		/**
+		 * The atlas page holding the glyph.
+		 */
+		public Texture getTexture() {
+			return texture;
 		}
 		
 		public int getStartX() {
 			return startX;
 		}
 		
+		public int getStartY() {
+			return startY;
+		}
+		
 		public int getWidth() {
 			return width;
 		}
+		
+		public int getHeight() {
+			return height;
+		}
+		
+		public float getU0() {
+			return (float) startX / texture.getWidth();
+		}
+		
+		public float getV0() {
+			return (float) startY / texture.getHeight();
+		}
+		
+		public float getU1() {
+			return (float) (startX + width) / texture.getWidth();
+		}
+		
+		public float getV1() {
+			return (float) (startY + height) / texture.getHeight();
+		}
 	}
 }
@@ -0,0 +1,123 @@
+package com.clepto.fsengine.graphics;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import com.clepto.fsengine.graphics.lighting.DirectionalLight;
+import com.clepto.fsengine.graphics.lighting.LightClusters;
+import com.clepto.fsengine.graphics.shader.ShaderProgram;
+import com.clepto.fsengine.graphics.shader.UniformBuffer;
+import com.clepto.fsengine.graphics.weather.Fog;
+import com.clepto.fsengine.scene.SceneLight;
+
+/**
+ * Per-frame uniform data shared by every scene program, stored in one
+ * {@link UniformBuffer} as the std140 blocks {@code FrameData} (matrices,
+ * ambient light, specular power) and {@code LightData} (directional light in
+ * view space, fog and the parameters locating the {@link LightClusters}
+ * cluster of a fragment). Written and uploaded once per frame.
+ */
+public class FrameUniforms {
+	
+	public static final String FRAME_BLOCK = "FrameData";
+	
+	public static final String LIGHT_BLOCK = "LightData";
+	
+	public static final int FRAME_BINDING = 0;
+	
+	public static final int LIGHT_BINDING = 1;
+	
+	private static final int PROJECTION_MATRIX = 0;
+	
+	private static final int VIEW_MATRIX = 64;
+	
+	private static final int AMBIENT_LIGHT = 128;
+	
+	private static final int SPECULAR_POWER = 140;
+	
+	private static final int FRAME_SIZE = 144;
+	
+	private static final int DIRECTIONAL_LIGHT = 0;
+	
+	private static final int FOG = 32;
+	
+	private static final int CLUSTER_COUNTS = 64;
+	
+	private static final int CLUSTER_SCALE = 80;
+	
+	private static final int LIGHT_SIZE = 96;
+	
+	private final UniformBuffer buffer;
+	
+	private final int lightOffset;
+	
+	private final Vector3f aux;
+	
+	public FrameUniforms() {
+		lightOffset = UniformBuffer.align(FRAME_SIZE, UniformBuffer.getOffsetAlignment());
+		buffer = new UniformBuffer(lightOffset + LIGHT_SIZE);
+		buffer.bindRange(FRAME_BINDING, 0, FRAME_SIZE);
+		buffer.bindRange(LIGHT_BINDING, lightOffset, LIGHT_SIZE);
+		aux = new Vector3f();
+	}
+	
+	/**
+	 * Points the {@code FrameData} block, and the {@code LightData} block when
+	 * the program declares it, at this buffer.
+	 */
+	public void attach(ShaderProgram shaderProgram, boolean lights) throws Exception {
+		shaderProgram.bindUniformBlock(FRAME_BLOCK, FRAME_BINDING);
+		if (lights) {
+			shaderProgram.bindUniformBlock(LIGHT_BLOCK, LIGHT_BINDING);
+		}
+	}
+	
+	public void update(Matrix4f projectionMatrix, Matrix4f viewMatrix, SceneLight sceneLight, Fog fog, float specularPower,
+			LightClusters lightClusters) {
+		buffer.putMatrix(PROJECTION_MATRIX, projectionMatrix);
+		buffer.putMatrix(VIEW_MATRIX, viewMatrix);
+		Vector3f ambientLight = sceneLight.getAmbientLight();
+		if (ambientLight != null) {
+			buffer.putVector(AMBIENT_LIGHT, ambientLight);
+		} else {
+			buffer.putVector(AMBIENT_LIGHT, 0, 0, 0);
+		}
+		buffer.putFloat(SPECULAR_POWER, specularPower);
+		
+		DirectionalLight directionalLight = sceneLight.getDirectionalLight();
+		int offset = lightOffset + DIRECTIONAL_LIGHT;
+		if (directionalLight != null) {
+			buffer.putVector(offset, directionalLight.getColor());
+			buffer.putVector(offset + 16, directionalLight.getDirection().mulDirection(viewMatrix, aux));
+			buffer.putFloat(offset + 28, directionalLight.getIntensity());
+		} else {
+			buffer.clear(offset, FOG - DIRECTIONAL_LIGHT);
+		}
+		
+		offset = lightOffset + FOG;
+		if (fog != null) {
+			buffer.putInt(offset, fog.isActive() ? 1 : 0);
+			buffer.putVector(offset + 16, fog.getColor());
+			buffer.putFloat(offset + 28, fog.getDensity());
+		} else {
+			buffer.clear(offset, CLUSTER_COUNTS - FOG);
+		}
+		
+		offset = lightOffset + CLUSTER_COUNTS;
+		buffer.putInt(offset, LightClusters.CLUSTERS_X);
+		buffer.putInt(offset + 4, LightClusters.CLUSTERS_Y);
+		buffer.putInt(offset + 8, LightClusters.CLUSTERS_Z);
+		offset = lightOffset + CLUSTER_SCALE;
+		buffer.putFloat(offset, lightClusters.getSliceScale());
+		buffer.putFloat(offset + 4, lightClusters.getSliceBias());
+		buffer.putFloat(offset + 8, 1.0f / lightClusters.getTileWidth());
+		buffer.putFloat(offset + 12, 1.0f / lightClusters.getTileHeight());
+		
+		buffer.upload();
+	}
+	
+	public void cleanup() {
+		buffer.cleanup();
+	}
+	
+}
@@ -0,0 +1,78 @@
+package com.clepto.fsengine.graphics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import com.clepto.fsengine.scene.actors.Actor;
+
+/**
+ * Tests actor bounding spheres against the view frustum. The planes are
+ * extracted from the combined projection and view matrices once per frame
+ * and the filtered list is reused, so filtering does not allocate.
+ */
+public class FrustumCullingFilter {
+	
+	private final Matrix4f projViewMatrix;
+	
+	private final FrustumIntersection frustum;
+	
+	private final List<Actor> visibleActors;
+	
+	private final Vector3f center;
+	
+	public FrustumCullingFilter() {
+		projViewMatrix = new Matrix4f();
+		frustum = new FrustumIntersection();
+		visibleActors = new ArrayList<>();
+		center = new Vector3f();
+	}
+	
+	/**
+	 * Extracts the frustum planes for a new frame.
+	 */
+	public void updateFrustum(Matrix4f projectionMatrix, Matrix4f viewMatrix) {
+		projViewMatrix.set(projectionMatrix).mul(viewMatrix);
+		frustum.set(projViewMatrix);
+	}
+	
+	/**
+	 * Returns the actors inside the frustum. The list is reused by the next
+	 * call.
+	 */
+	public List<Actor> filter(List<Actor> actors) {
+		visibleActors.clear();
+		for (int i = 0, n = actors.size(); i < n; i++) {
+			Actor actor = actors.get(i);
+			if (isInsideFrustum(actor)) {
+				visibleActors.add(actor);
+			}
+		}
+		return visibleActors;
+	}
+	
+	/**
+	 * The planes of the current frame, for spatial queries such as
+	 * {@link com.clepto.fsengine.scene.Scene#queryFrustum(FrustumIntersection, List)}.
+	 */
+	public FrustumIntersection getFrustum() {
+		return frustum;
+	}
+	
+	public boolean isInsideFrustum(Actor actor) {
+		actor.getWorldCenter(center);
+		return frustum.testSphere(center.x, center.y, center.z, actor.getWorldRadius());
+	}
+	
+	public boolean isInsideFrustum(Vector3f center, float radius) {
+		return frustum.testSphere(center.x, center.y, center.z, radius);
+	}
+	
+	public boolean isInsideFrustum(Vector3f min, Vector3f max) {
+		return frustum.testAab(min, max);
+	}
+	
+}
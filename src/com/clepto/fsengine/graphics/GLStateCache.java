@@ -0,0 +1,148 @@
+package com.clepto.fsengine.graphics;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL13.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+
+import java.util.Arrays;
+
+/**
+ * Shadow copy of the bindings the renderer touches while drawing: program,
+ * vertex array, texture per unit and the enabled vertex attribute arrays
+ * of each vertex array. Calls that would not change anything are skipped and
+ * counted. The cache is invalidated by {@link #reset()} at the start of every
+ * frame, since code outside the renderer may have changed the bindings.
+ */
+public class GLStateCache {
+	
+	public static final int MAX_TEXTURE_UNITS = 8;
+	
+	public static final int MAX_ATTRIBUTES = 8;
+	
+	private static final int UNKNOWN = -1;
+	
+	private int program;
+	
+	private int vertexArray;
+	
+	private int activeTexture;
+	
+	private final int[] textures;
+	
+	private int[] attributes;
+	
+	private int stateChanges;
+	
+	private int stateChangesAvoided;
+	
+	public GLStateCache() {
+		textures = new int[MAX_TEXTURE_UNITS];
+		attributes = new int[64];
+		reset();
+	}
+	
+	/**
+	 * Forgets every known binding and clears the counters.
+	 */
+	public void reset() {
+		program = UNKNOWN;
+		vertexArray = UNKNOWN;
+		activeTexture = UNKNOWN;
+		Arrays.fill(textures, UNKNOWN);
+		Arrays.fill(attributes, UNKNOWN);
+		stateChanges = 0;
+		stateChangesAvoided = 0;
+	}
+	
+	public void useProgram(int programId) {
+		if (program == programId) {
+			stateChangesAvoided++;
+			return;
+		}
+		glUseProgram(programId);
+		program = programId;
+		stateChanges++;
+	}
+	
+	public void bindVertexArray(int vaoId) {
+		if (vertexArray == vaoId) {
+			stateChangesAvoided++;
+			return;
+		}
+		glBindVertexArray(vaoId);
+		vertexArray = vaoId;
+		stateChanges++;
+	}
+	
+	public void bindTexture(int unit, int textureId) {
+		bindTexture(unit, GL_TEXTURE_2D, textureId);
+	}
+	
+	/**
+	 * Only the texture id is remembered per unit, so a unit should always be
+	 * bound with the same target.
+	 */
+	public void bindTexture(int unit, int target, int textureId) {
+		if (textures[unit] == textureId) {
+			stateChangesAvoided++;
+			return;
+		}
+		if (activeTexture != unit) {
+			glActiveTexture(GL_TEXTURE0 + unit);
+			activeTexture = unit;
+		}
+		glBindTexture(target, textureId);
+		textures[unit] = textureId;
+		stateChanges++;
+	}
+	
+	/**
+	 * Enables exactly the attribute arrays set in the mask on the bound vertex
+	 * array and disables the others. Enables are vertex array state, so they
+	 * are remembered per vertex array.
+	 */
+	public void setVertexAttributes(int mask) {
+		if (vertexArray <= 0) {
+			return;
+		}
+		if (vertexArray >= attributes.length) {
+			int oldLength = attributes.length;
+			attributes = Arrays.copyOf(attributes, Math.max(vertexArray + 1, oldLength * 2));
+			Arrays.fill(attributes, oldLength, attributes.length, UNKNOWN);
+		}
+		int current = attributes[vertexArray];
+		if (current == mask) {
+			stateChangesAvoided++;
+			return;
+		}
+		for (int i = 0; i < MAX_ATTRIBUTES; i++) {
+			int bit = 1 << i;
+			if (current != UNKNOWN && (current & bit) == (mask & bit)) {
+				continue;
+			}
+			if ((mask & bit) != 0) {
+				glEnableVertexAttribArray(i);
+			} else {
+				glDisableVertexAttribArray(i);
+			}
+		}
+		attributes[vertexArray] = mask;
+		stateChanges++;
+	}
+	
+	/**
+	 * Bindings changed since the last {@link #reset()}.
+	 */
+	public int getStateChanges() {
+		return stateChanges;
+	}
+	
+	/**
+	 * Redundant bindings skipped since the last {@link #reset()}.
+	 */
+	public int getStateChangesAvoided() {
+		return stateChangesAvoided;
+	}
+	
+}
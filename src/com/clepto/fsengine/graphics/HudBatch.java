@@ -0,0 +1,410 @@
+package com.clepto.fsengine.graphics;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.joml.Matrix4f;
+import org.joml.Vector4f;
+import org.lwjgl.system.MemoryUtil;
+
+import com.clepto.fsengine.graphics.shader.ShaderProgram;
+import com.clepto.fsengine.util.Utils;
+
+/**
+ * Accumulates textured, per-vertex coloured screen space quads between
+ * {@link #begin(Matrix4f, GLStateCache)} and {@link #end()}. Quads are bucketed
+ * by texture and every bucket is drawn with a single call from one streamed
+ * vertex buffer, so a flush costs one upload and one draw per texture.
+ * Buckets are drawn in the order their textures were first used, and quads
+ * keep their submission order within a bucket. Untextured quads sample a
+ * white texel and share a bucket.
+ */
+public class HudBatch {
+	
+	public static final int WHITE = 0xFFFFFFFF;
+	
+	private static final int VERTEX_SIZE = 20;
+	
+	private static final int QUAD_SIZE = 4 * VERTEX_SIZE;
+	
+	private static final int INDICES_PER_QUAD = 6;
+	
+	private static final int INITIAL_QUADS = 256;
+	
+	private final ShaderProgram shaderProgram;
+	
+	private final int projectionMatrixUniform;
+	
+	private final int vaoId;
+	
+	private final int vboId;
+	
+	private final int iboId;
+	
+	private final int whiteTexture;
+	
+	private int quadCapacity;
+	
+	private int indexCapacity;
+	
+	private ByteBuffer quads;
+	
+	private ByteBuffer sorted;
+	
+	private int[] quadBuckets;
+	
+	private int quadCount;
+	
+	private int[] bucketTextures;
+	
+	private int[] bucketCounts;
+	
+	private int[] bucketStarts;
+	
+	private int bucketCount;
+	
+	private int lastBucket;
+	
+	private FontTexture[] fonts;
+	
+	private int fontCount;
+	
+	private GLStateCache stateCache;
+	
+	private Matrix4f projectionMatrix;
+	
+	private int drawCalls;
+	
+	private int quadsDrawn;
+	
+	public HudBatch() throws Exception {
+		shaderProgram = new ShaderProgram();
+		shaderProgram.createVertexShader(Utils.loadResource("shaders/hud_batch_vertex.vs"));
+		shaderProgram.createFragmentShader(Utils.loadResource("shaders/hud_batch_fragment.fs"));
+		shaderProgram.link();
+		projectionMatrixUniform = shaderProgram.createUniform("projectionMatrix");
+		shaderProgram.bind();
+		shaderProgram.setUniform(shaderProgram.createUniform("texture_sampler"), 0);
+		shaderProgram.unbind();
+		
+		quadCapacity = INITIAL_QUADS;
+		quads = MemoryUtil.memAlloc(quadCapacity * QUAD_SIZE);
+		sorted = MemoryUtil.memAlloc(quadCapacity * QUAD_SIZE);
+		quadBuckets = new int[quadCapacity];
+		bucketTextures = new int[8];
+		bucketCounts = new int[8];
+		bucketStarts = new int[8];
+		fonts = new FontTexture[4];
+		
+		vaoId = glGenVertexArrays();
+		glBindVertexArray(vaoId);
+		
+		vboId = glGenBuffers();
+		glBindBuffer(GL_ARRAY_BUFFER, vboId);
+		glBufferData(GL_ARRAY_BUFFER, (long) quadCapacity * QUAD_SIZE, GL_STREAM_DRAW);
+		glVertexAttribPointer(0, 2, GL_FLOAT, false, VERTEX_SIZE, 0);
+		glVertexAttribPointer(1, 2, GL_FLOAT, false, VERTEX_SIZE, 8);
+		glVertexAttribPointer(2, 4, GL_UNSIGNED_BYTE, true, VERTEX_SIZE, 16);
+		
+		iboId = glGenBuffers();
+		glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, iboId);
+		glBindBuffer(GL_ARRAY_BUFFER, 0);
+		glBindVertexArray(0);
+		uploadIndices(quadCapacity);
+		
+		whiteTexture = glGenTextures();
+		glBindTexture(GL_TEXTURE_2D, whiteTexture);
+		ByteBuffer texel = MemoryUtil.memAlloc(4);
+		texel.putInt(0, WHITE);
+		glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, 1, 1, 0, GL_RGBA, GL_UNSIGNED_BYTE, texel);
+		MemoryUtil.memFree(texel);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+		glBindTexture(GL_TEXTURE_2D, 0);
+	}
+	
+	/**
+	 * Packs a colour as RGBA bytes, the vertex colour format of the batch.
+	 */
+	public static int color(float r, float g, float b, float a) {
+		return toByte(r) | toByte(g) << 8 | toByte(b) << 16 | toByte(a) << 24;
+	}
+	
+	public static int color(Vector4f color) {
+		return color(color.x, color.y, color.z, color.w);
+	}
+	
+	private static int toByte(float value) {
+		return Math.round(Math.max(0.0f, Math.min(1.0f, value)) * 255.0f);
+	}
+	
+	public void begin(Matrix4f projectionMatrix, GLStateCache stateCache) {
+		this.projectionMatrix = projectionMatrix;
+		this.stateCache = stateCache;
+		drawCalls = 0;
+		quadsDrawn = 0;
+	}
+	
+	public void drawRect(float x, float y, float width, float height, int color) {
+		drawQuad(whiteTexture, x, y, x + width, y + height, 0, 0, 1, 1, color);
+	}
+	
+	public void drawSprite(Texture texture, float x, float y, float width, float height, int color) {
+		drawQuad(texture.getId(), x, y, x + width, y + height, 0, 0, 1, 1, color);
+	}
+	
+	public void drawSprite(Texture texture, float x, float y, float width, float height, float u0, float v0, float u1, float v1, int color) {
+		drawQuad(texture.getId(), x, y, x + width, y + height, u0, v0, u1, v1, color);
+	}
+	
+	/**
+	 * Draws a line of text with its top left corner at the given position.
+	 */
+	public void drawText(FontTexture font, CharSequence text, float x, float y, int color) {
+		addFont(font);
+		for (int i = 0, n = text.length(); i < n; i++) {
+			FontTexture.CharInfo charInfo = font.getCharInfo(text.charAt(i));
+			if (charInfo == null) {
+				continue;
+			}
+			float endx = x + charInfo.getWidth();
+			float endy = y + charInfo.getHeight();
+			addQuad(findBucket(charInfo.getTexture().getId()), x, y, x, endy, endx, endy, endx, y,
+					charInfo.getU0(), charInfo.getV0(), charInfo.getU1(), charInfo.getV1(), color);
+			x = endx;
+		}
+	}
+	
+	/**
+	 * Draws a line of text laid out at the origin and transformed by the 2D
+	 * part of the model matrix, as a {@link com.clepto.fsengine.scene.actors.TextActor}
+	 * would be drawn.
+	 */
+	public void drawText(FontTexture font, CharSequence text, Matrix4f modelMatrix, int color) {
+		addFont(font);
+		float startx = 0;
+		for (int i = 0, n = text.length(); i < n; i++) {
+			FontTexture.CharInfo charInfo = font.getCharInfo(text.charAt(i));
+			if (charInfo == null) {
+				continue;
+			}
+			float endx = startx + charInfo.getWidth();
+			float height = charInfo.getHeight();
+			addQuad(findBucket(charInfo.getTexture().getId()),
+					transformX(modelMatrix, startx, 0), transformY(modelMatrix, startx, 0),
+					transformX(modelMatrix, startx, height), transformY(modelMatrix, startx, height),
+					transformX(modelMatrix, endx, height), transformY(modelMatrix, endx, height),
+					transformX(modelMatrix, endx, 0), transformY(modelMatrix, endx, 0),
+					charInfo.getU0(), charInfo.getV0(), charInfo.getU1(), charInfo.getV1(), color);
+			startx = endx;
+		}
+	}
+	
+	/**
+	 * Remembers a font whose glyphs are queued, so its atlas is uploaded
+	 * before the flush draws them and released after.
+	 */
+	private void addFont(FontTexture font) {
+		for (int i = 0; i < fontCount; i++) {
+			if (fonts[i] == font) {
+				return;
+			}
+		}
+		if (fontCount == fonts.length) {
+			fonts = Arrays.copyOf(fonts, fontCount * 2);
+		}
+		fonts[fontCount++] = font;
+	}
+	
+	private static float transformX(Matrix4f m, float x, float y) {
+		return m.m00() * x + m.m10() * y + m.m30();
+	}
+	
+	private static float transformY(Matrix4f m, float x, float y) {
+		return m.m01() * x + m.m11() * y + m.m31();
+	}
+	
+	/**
+	 * Adds an axis aligned quad from (x0, y0) to (x1, y1) sampling the given
+	 * texture between (u0, v0) and (u1, v1).
+	 */
+	public void drawQuad(int textureId, float x0, float y0, float x1, float y1, float u0, float v0, float u1, float v1, int color) {
+		addQuad(findBucket(textureId), x0, y0, x0, y1, x1, y1, x1, y0, u0, v0, u1, v1, color);
+	}
+	
+	/**
+	 * Corners in top left, bottom left, bottom right, top right order.
+	 */
+	private void addQuad(int bucket, float xa, float ya, float xb, float yb, float xc, float yc, float xd, float yd,
+			float u0, float v0, float u1, float v1, int color) {
+		if (quadCount == quadCapacity) {
+			growQuads(quadCapacity * 2);
+		}
+		int offset = quadCount * QUAD_SIZE;
+		putVertex(offset, xa, ya, u0, v0, color);
+		putVertex(offset + VERTEX_SIZE, xb, yb, u0, v1, color);
+		putVertex(offset + 2 * VERTEX_SIZE, xc, yc, u1, v1, color);
+		putVertex(offset + 3 * VERTEX_SIZE, xd, yd, u1, v0, color);
+		quadBuckets[quadCount++] = bucket;
+		bucketCounts[bucket]++;
+	}
+	
+	private void putVertex(int offset, float x, float y, float u, float v, int color) {
+		quads.putFloat(offset, x);
+		quads.putFloat(offset + 4, y);
+		quads.putFloat(offset + 8, u);
+		quads.putFloat(offset + 12, v);
+		quads.put(offset + 16, (byte) color);
+		quads.put(offset + 17, (byte) (color >>> 8));
+		quads.put(offset + 18, (byte) (color >>> 16));
+		quads.put(offset + 19, (byte) (color >>> 24));
+	}
+	
+	private int findBucket(int textureId) {
+		if (lastBucket < bucketCount && bucketTextures[lastBucket] == textureId) {
+			return lastBucket;
+		}
+		for (int i = 0; i < bucketCount; i++) {
+			if (bucketTextures[i] == textureId) {
+				lastBucket = i;
+				return i;
+			}
+		}
+		if (bucketCount == bucketTextures.length) {
+			bucketTextures = Arrays.copyOf(bucketTextures, bucketCount * 2);
+			bucketCounts = Arrays.copyOf(bucketCounts, bucketCount * 2);
+			bucketStarts = Arrays.copyOf(bucketStarts, bucketCount * 2);
+		}
+		bucketTextures[bucketCount] = textureId;
+		bucketCounts[bucketCount] = 0;
+		lastBucket = bucketCount;
+		return bucketCount++;
+	}
+	
+	private void growQuads(int capacity) {
+		quadCapacity = capacity;
+		quads = MemoryUtil.memRealloc(quads, capacity * QUAD_SIZE);
+		sorted = MemoryUtil.memRealloc(sorted, capacity * QUAD_SIZE);
+		quadBuckets = Arrays.copyOf(quadBuckets, capacity);
+	}
+	
+	private void uploadIndices(int capacity) {
+		ByteBuffer indices = MemoryUtil.memAlloc(capacity * INDICES_PER_QUAD * 4);
+		for (int i = 0; i < capacity; i++) {
+			int vertex = i * 4;
+			int offset = i * INDICES_PER_QUAD * 4;
+			indices.putInt(offset, vertex);
+			indices.putInt(offset + 4, vertex + 1);
+			indices.putInt(offset + 8, vertex + 2);
+			indices.putInt(offset + 12, vertex + 2);
+			indices.putInt(offset + 16, vertex + 3);
+			indices.putInt(offset + 20, vertex);
+		}
+		glBindBuffer(GL_COPY_WRITE_BUFFER, iboId);
+		glBufferData(GL_COPY_WRITE_BUFFER, indices, GL_STATIC_DRAW);
+		glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+		MemoryUtil.memFree(indices);
+		indexCapacity = capacity;
+	}
+	
+	/**
+	 * Draws everything accumulated so far, one call per texture, and empties
+	 * the batch. Called by {@link #end()}, and before anything else is drawn
+	 * on top of the batch.
+	 */
+	public void flush() {
+		if (quadCount == 0) {
+			bucketCount = 0;
+			releaseFonts();
+			return;
+		}
+		for (int i = 0; i < fontCount; i++) {
+			fonts[i].upload(stateCache);
+		}
+		
+		int start = 0;
+		for (int i = 0; i < bucketCount; i++) {
+			bucketStarts[i] = start;
+			start += bucketCounts[i];
+		}
+		long source = MemoryUtil.memAddress(quads);
+		long target = MemoryUtil.memAddress(sorted);
+		for (int i = 0; i < quadCount; i++) {
+			int slot = bucketStarts[quadBuckets[i]]++;
+			MemoryUtil.memCopy(source + (long) i * QUAD_SIZE, target + (long) slot * QUAD_SIZE, QUAD_SIZE);
+		}
+		
+		if (quadCount > indexCapacity) {
+			uploadIndices(quadCapacity);
+		}
+		sorted.limit(quadCount * QUAD_SIZE);
+		glBindBuffer(GL_ARRAY_BUFFER, vboId);
+		glBufferData(GL_ARRAY_BUFFER, (long) quadCapacity * QUAD_SIZE, GL_STREAM_DRAW);
+		glBufferSubData(GL_ARRAY_BUFFER, 0, sorted);
+		glBindBuffer(GL_ARRAY_BUFFER, 0);
+		sorted.clear();
+		
+		stateCache.useProgram(shaderProgram.getProgramId());
+		shaderProgram.setUniform(projectionMatrixUniform, projectionMatrix);
+		stateCache.bindVertexArray(vaoId);
+		stateCache.setVertexAttributes(Mesh.ATTRIBUTES);
+		start = 0;
+		for (int i = 0; i < bucketCount; i++) {
+			int count = bucketCounts[i];
+			stateCache.bindTexture(0, bucketTextures[i]);
+			glDrawElements(GL_TRIANGLES, count * INDICES_PER_QUAD, GL_UNSIGNED_INT, (long) start * INDICES_PER_QUAD * 4);
+			start += count;
+			drawCalls++;
+		}
+		
+		quadsDrawn += quadCount;
+		quadCount = 0;
+		bucketCount = 0;
+		lastBucket = 0;
+		releaseFonts();
+	}
+	
+	private void releaseFonts() {
+		for (int i = 0; i < fontCount; i++) {
+			fonts[i].nextGeneration();
+			fonts[i] = null;
+		}
+		fontCount = 0;
+	}
+	
+	public void end() {
+		flush();
+	}
+	
+	/**
+	 * Draw calls issued since the last {@link #begin(Matrix4f, GLStateCache)}.
+	 */
+	public int getDrawCalls() {
+		return drawCalls;
+	}
+	
+	public int getQuadsDrawn() {
+		return quadsDrawn;
+	}
+	
+	public void cleanup() {
+		shaderProgram.cleanup();
+		glDeleteBuffers(vboId);
+		glDeleteBuffers(iboId);
+		glDeleteVertexArrays(vaoId);
+		glDeleteTextures(whiteTexture);
+		if (quads != null) {
+			MemoryUtil.memFree(quads);
+			MemoryUtil.memFree(sorted);
+			quads = null;
+			sorted = null;
+		}
+	}
+	
+}
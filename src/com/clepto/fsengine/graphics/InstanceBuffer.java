@@ -0,0 +1,139 @@
+package com.clepto.fsengine.graphics;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL33.*;
+
+import java.nio.FloatBuffer;
+import java.util.List;
+
+import org.lwjgl.system.MemoryUtil;
+
+import com.clepto.fsengine.graphics.material.MaterialSlot;
+import com.clepto.fsengine.scene.actors.Actor;
+
+/**
+ * Streamed vertex buffer of per-instance model matrices, bound to attribute
+ * locations 3 to 6 of whichever mesh is being drawn, followed by the index of
+ * the instance's material in the
+ * {@link com.clepto.fsengine.graphics.material.MaterialTable} at location 7.
+ * The buffer is orphaned on every upload so the driver never stalls on a draw
+ * still reading it.
+ */
+public class InstanceBuffer {
+	
+	public static final int FIRST_ATTRIBUTE = 3;
+	
+	/**
+	 * Mask of the attribute arrays fed by this buffer, for
+	 * {@link GLStateCache#setVertexAttributes(int)}.
+	 */
+	public static final int ATTRIBUTES = 0x1F << FIRST_ATTRIBUTE;
+	
+	private static final int ATTRIBUTE_COUNT = 5;
+	
+	private static final int MATRIX_SIZE = 16;
+	
+	private static final int INSTANCE_SIZE = MATRIX_SIZE + 1;
+	
+	private static final int INSTANCE_BYTES = INSTANCE_SIZE * 4;
+	
+	private final int vboId;
+	
+	private FloatBuffer data;
+	
+	private int capacity;
+	
+	private int count;
+	
+	public InstanceBuffer(int initialCapacity) {
+		vboId = glGenBuffers();
+		capacity = Math.max(initialCapacity, 1);
+		data = MemoryUtil.memAllocFloat(capacity * INSTANCE_SIZE);
+	}
+	
+	/**
+	 * Writes the model matrix and material of every actor and uploads them.
+	 */
+	public void update(List<Actor> actors, Transformation transformation) {
+		reserve(actors.size());
+		for (int i = 0; i < count; i++) {
+			put(i, actors.get(i), transformation);
+		}
+		upload();
+	}
+	
+	/**
+	 * Writes the model matrices and materials of a run of actors and uploads
+	 * them.
+	 */
+	public void update(Actor[] actors, int offset, int length, Transformation transformation) {
+		reserve(length);
+		for (int i = 0; i < count; i++) {
+			put(i, actors[offset + i], transformation);
+		}
+		upload();
+	}
+	
+	private void put(int instance, Actor actor, Transformation transformation) {
+		int offset = instance * INSTANCE_SIZE;
+		transformation.buildModelMatrix(actor).get(offset, data);
+		Material material = actor.getMaterial();
+		MaterialSlot slot = material != null ? material.getSlot() : null;
+		data.put(offset + MATRIX_SIZE, slot != null ? slot.getIndex() : 0);
+	}
+	
+	private void reserve(int instances) {
+		count = instances;
+		if (count > capacity) {
+			capacity = Math.max(count, capacity * 2);
+			data = MemoryUtil.memRealloc(data, capacity * INSTANCE_SIZE);
+		}
+		data.clear();
+	}
+	
+	private void upload() {
+		data.limit(count * INSTANCE_SIZE);
+		
+		glBindBuffer(GL_ARRAY_BUFFER, vboId);
+		glBufferData(GL_ARRAY_BUFFER, (long) capacity * INSTANCE_BYTES, GL_STREAM_DRAW);
+		glBufferSubData(GL_ARRAY_BUFFER, 0, data);
+		glBindBuffer(GL_ARRAY_BUFFER, 0);
+	}
+	
+	/**
+	 * Points the instance attributes of the currently bound VAO at this buffer
+	 * and enables them with the given mesh attributes through the state cache.
+	 */
+	public void bind(GLStateCache stateCache, int meshAttributes) {
+		setAttributePointers();
+		stateCache.setVertexAttributes(meshAttributes | ATTRIBUTES);
+	}
+	
+	private void setAttributePointers() {
+		glBindBuffer(GL_ARRAY_BUFFER, vboId);
+		for (int i = 0; i < 4; i++) {
+			int location = FIRST_ATTRIBUTE + i;
+			glVertexAttribPointer(location, 4, GL_FLOAT, false, INSTANCE_BYTES, i * 16);
+			glVertexAttribDivisor(location, 1);
+		}
+		int materialLocation = FIRST_ATTRIBUTE + 4;
+		glVertexAttribPointer(materialLocation, 1, GL_FLOAT, false, INSTANCE_BYTES, MATRIX_SIZE * 4);
+		glVertexAttribDivisor(materialLocation, 1);
+		glBindBuffer(GL_ARRAY_BUFFER, 0);
+	}
+	
+	public int getCount() {
+		return count;
+	}
+	
+	public void cleanup() {
+		glDeleteBuffers(vboId);
+		if (data != null) {
+			MemoryUtil.memFree(data);
+			data = null;
+		}
+	}
+	
+}
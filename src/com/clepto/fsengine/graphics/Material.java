@@ -2,6 +2,8 @@ package com.clepto.fsengine.graphics;
 
 import org.joml.Vector4f;
 
+import com.clepto.fsengine.graphics.material.MaterialSlot;
+
 public class Material {
 
 	private static final Vector4f DEFAULT_COLOR = new Vector4f(1.0f, 1.0f, 1.0f, 1.0f);
@@ -18,6 +20,8 @@ public class Material {
 	
 	private Texture normalMap;
 	
+	private MaterialSlot slot;
+	
 	public Material() {
 		this.ambientColor = DEFAULT_COLOR;
 		this.diffuseColor = DEFAULT_COLOR;
@@ -101,4 +105,16 @@ public class Material {
 	public void setNormalMap(Texture normalMap) {
 		this.normalMap = normalMap;
 	}
+	
+	/**
+	 * Where the material is kept in a
+	 * {@link com.clepto.fsengine.graphics.material.MaterialTable}, or null.
+	 */
+	public MaterialSlot getSlot() {
+		return slot;
+	}
+	
+	public void setSlot(MaterialSlot slot) {
+		this.slot = slot;
+	}
 }
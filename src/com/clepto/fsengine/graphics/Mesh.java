@@ -1,92 +1,167 @@
 package com.clepto.fsengine.graphics;
 
 import static org.lwjgl.opengl.GL11.*;
-import static org.lwjgl.opengl.GL13.*;
 import static org.lwjgl.opengl.GL15.*;
-import static org.lwjgl.opengl.GL20.*;
 import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.*;
 
 import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.function.Consumer;
 
-import org.lwjgl.system.MemoryUtil;
-
-import com.clepto.fsengine.scene.actors.Actor;
+import org.joml.Vector3f;
 
 public class Mesh {
 
+	/**
+	 * Mask of the vertex attribute arrays every mesh feeds: position, texture
+	 * coordinates and normals.
+	 */
+	public static final int ATTRIBUTES = 0x7;
+	
 	private final int vaoId;
 	
 	private final List<Integer> vboIdList;
 	
 	private final int vertexCount;
 	
+	private final VertexLayout layout;
+	
+	private final Vector3f boundsMin;
+	
+	private final Vector3f boundsMax;
+	
+	private final Vector3f boundingCenter;
+	
+	private float boundingRadius;
+	
 	private Material material;
 	
 	public Mesh(float[] positions, float[] texCoords, float[] normals, int[] indices) {
-		FloatBuffer posBuffer = null;
-		FloatBuffer texCoordsBuffer = null;
-		FloatBuffer vecNormalsBuffer = null;
-		IntBuffer indicesBuffer = null;
+		this(new MeshData(positions, texCoords, normals, indices), true);
+	}
+	
+	/**
+	 * Uploads already built vertex data. The data is not freed.
+	 */
+	public Mesh(MeshData data) {
+		this(data, false);
+	}
+	
+	/**
+	 * For subclasses that manage their own vertex arrays and buffers. They
+	 * must override {@link #getVaoId()} and {@link #getVertexCount()}.
+	 */
+	protected Mesh(VertexLayout layout) {
+		this.layout = layout;
+		vaoId = 0;
+		vertexCount = 0;
+		vboIdList = new ArrayList<>();
+		boundsMin = new Vector3f();
+		boundsMax = new Vector3f();
+		boundingCenter = new Vector3f();
+	}
+	
+	Mesh(MeshData data, boolean free) {
 		try {
-			vertexCount = indices.length;
+			vertexCount = data.getIndexCount();
+			layout = data.getLayout();
 			vboIdList = new ArrayList<>();
 			
+			boundsMin = new Vector3f();
+			boundsMax = new Vector3f();
+			boundingCenter = new Vector3f();
+			boundingRadius = computeBounds(data.getPositions(), boundsMin, boundsMax, boundingCenter);
+			
 			vaoId = glGenVertexArrays();
 			glBindVertexArray(vaoId);
 			
-			//Position
+			//Vertices
 			int vboId = glGenBuffers();
 			vboIdList.add(vboId);
-			posBuffer = MemoryUtil.memAllocFloat(positions.length);
-			posBuffer.put(positions).flip();
 			glBindBuffer(GL_ARRAY_BUFFER, vboId);
-			glBufferData(GL_ARRAY_BUFFER, posBuffer, GL_STATIC_DRAW);
-			glVertexAttribPointer(0, 3, GL_FLOAT, false, 0, 0);
-			
-			//Texture Coordinates
-			vboId = glGenBuffers();
-			vboIdList.add(vboId);
-			texCoordsBuffer = MemoryUtil.memAllocFloat(texCoords.length);
-			texCoordsBuffer.put(texCoords).flip();
-			glBindBuffer(GL_ARRAY_BUFFER, vboId);
-			glBufferData(GL_ARRAY_BUFFER, texCoordsBuffer, GL_STATIC_DRAW);
-			glVertexAttribPointer(1, 2, GL_FLOAT, false, 0, 0);
-			
-			//Vertex Normals
-			vboId = glGenBuffers();
-			vboIdList.add(vboId);
-			vecNormalsBuffer = MemoryUtil.memAllocFloat(normals.length);
-			vecNormalsBuffer.put(normals).flip();
-			glBindBuffer(GL_ARRAY_BUFFER, vboId);
-			glBufferData(GL_ARRAY_BUFFER, vecNormalsBuffer, GL_STATIC_DRAW);
-			glVertexAttribPointer(2, 3, GL_FLOAT, false, 0, 0);
+			glBufferData(GL_ARRAY_BUFFER, data.getVertices(), GL_STATIC_DRAW);
+			layout.setAttributePointers(data.getVertexCount());
 			
 			//Index
 			vboId = glGenBuffers();
 			vboIdList.add(vboId);
-			indicesBuffer = MemoryUtil.memAllocInt(indices.length);
-			indicesBuffer.put(indices).flip();
 			glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vboId);
-			glBufferData(GL_ELEMENT_ARRAY_BUFFER, indicesBuffer, GL_STATIC_DRAW);
+			glBufferData(GL_ELEMENT_ARRAY_BUFFER, data.getIndices(), GL_STATIC_DRAW);
 			
 			glBindBuffer(GL_ARRAY_BUFFER, 0);
 			glBindVertexArray(0);
 		} finally {
-			if (posBuffer != null)
-				MemoryUtil.memFree(posBuffer);
-			if (texCoordsBuffer != null)
-				MemoryUtil.memFree(texCoordsBuffer);
-			if (vecNormalsBuffer != null) 
-				MemoryUtil.memFree(vecNormalsBuffer);
-			if (indicesBuffer != null)
-				MemoryUtil.memFree(indicesBuffer);
+			if (free) {
+				data.free();
+			}
 		}
 	}
 	
+	private static float computeBounds(FloatBuffer positions, Vector3f min, Vector3f max, Vector3f center) {
+		int start = positions.position();
+		int end = start + positions.remaining() / 3 * 3;
+		if (end == start) {
+			return 0;
+		}
+		min.set(Float.POSITIVE_INFINITY);
+		max.set(Float.NEGATIVE_INFINITY);
+		for (int i = start; i < end; i += 3) {
+			float x = positions.get(i);
+			float y = positions.get(i + 1);
+			float z = positions.get(i + 2);
+			min.x = Math.min(min.x, x);
+			min.y = Math.min(min.y, y);
+			min.z = Math.min(min.z, z);
+			max.x = Math.max(max.x, x);
+			max.y = Math.max(max.y, y);
+			max.z = Math.max(max.z, z);
+		}
+		min.add(max, center).mul(0.5f);
+		float radiusSquared = 0;
+		for (int i = start; i < end; i += 3) {
+			float dx = positions.get(i) - center.x;
+			float dy = positions.get(i + 1) - center.y;
+			float dz = positions.get(i + 2) - center.z;
+			radiusSquared = Math.max(radiusSquared, dx * dx + dy * dy + dz * dz);
+		}
+		return (float) Math.sqrt(radiusSquared);
+	}
+	
+	/**
+	 * Replaces the bounds with the given box, enclosed by a sphere at its
+	 * centre.
+	 */
+	protected void setBounds(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+		boundsMin.set(minX, minY, minZ);
+		boundsMax.set(maxX, maxY, maxZ);
+		boundsMin.add(boundsMax, boundingCenter).mul(0.5f);
+		boundingRadius = boundsMax.distance(boundingCenter);
+	}
+	
+	/**
+	 * Minimum corner of the axis aligned bounding box in model space.
+	 */
+	public Vector3f getBoundsMin() {
+		return boundsMin;
+	}
+	
+	public Vector3f getBoundsMax() {
+		return boundsMax;
+	}
+	
+	/**
+	 * Centre of the model space bounding sphere, which is also the centre of
+	 * the bounding box.
+	 */
+	public Vector3f getBoundingCenter() {
+		return boundingCenter;
+	}
+	
+	public float getBoundingRadius() {
+		return boundingRadius;
+	}
+	
 	public Material getMaterial() {
 		return material;
 	}
@@ -103,56 +178,80 @@ public class Mesh {
 		return vertexCount;
 	}
 	
-	private void initRender() {
+	public VertexLayout getLayout() {
+		return layout;
+	}
+	
+	/**
+	 * The buffer holding the vertices in {@link #getLayout()}, or 0 for
+	 * subclasses that manage their own buffers.
+	 */
+	public int getVertexBufferId() {
+		return vboIdList.isEmpty() ? 0 : vboIdList.get(0);
+	}
+	
+	/**
+	 * Binds the textures and vertex array through the state cache, skipping
+	 * whatever is already bound, so the mesh can be drawn with
+	 * {@link #draw(GLStateCache)}.
+	 */
+	public void bind(GLStateCache stateCache) {
+		bind(stateCache, material);
+	}
+	
+	/**
+	 * Like {@link #bind(GLStateCache)} with the textures of another material,
+	 * or none if it is null.
+	 */
+	public void bind(GLStateCache stateCache, Material material) {
+		bindTextures(stateCache, material);
+		stateCache.bindVertexArray(getVaoId());
+		stateCache.setVertexAttributes(ATTRIBUTES);
+	}
+	
+	/**
+	 * Like {@link #bind(GLStateCache)} with the instance attributes enabled as
+	 * well, for {@link #drawInstanced(int)}.
+	 */
+	public void bindInstanced(GLStateCache stateCache, InstanceBuffer instanceBuffer) {
+		bindInstanced(stateCache, instanceBuffer, material);
+	}
+	
+	public void bindInstanced(GLStateCache stateCache, InstanceBuffer instanceBuffer, Material material) {
+		bindTextures(stateCache, material);
+		stateCache.bindVertexArray(getVaoId());
+		instanceBuffer.bind(stateCache, ATTRIBUTES);
+	}
+	
+	private void bindTextures(GLStateCache stateCache, Material material) {
+		if (material == null) {
+			return;
+		}
 		Texture texture = material.getTexture();
 		if (texture != null) {
-			glActiveTexture(GL_TEXTURE0);
-			glBindTexture(GL_TEXTURE_2D, texture.getId());
+			stateCache.bindTexture(0, texture.getId());
 		}
 		
 		Texture normalMap = material.getNormalMap();
 		if (normalMap != null) {
-			glActiveTexture(GL_TEXTURE1);
-			glBindTexture(GL_TEXTURE_2D, normalMap.getId());
+			stateCache.bindTexture(1, normalMap.getId());
 		}
-		
-		glBindVertexArray(getVaoId());
-		glEnableVertexAttribArray(0);
-		glEnableVertexAttribArray(1);
-		glEnableVertexAttribArray(2);
 	}
 	
-	private void endRender() {
-		glDisableVertexAttribArray(0);
-		glDisableVertexAttribArray(1);
-		glDisableVertexAttribArray(2);
-		glBindVertexArray(0);
-		
-		glBindTexture(GL_TEXTURE_2D, 0);
+	/**
+	 * Draws the mesh after {@link #bind(GLStateCache)}. Subclasses drawing
+	 * parts with different textures bind them through the state cache.
+	 */
+	public void draw(GLStateCache stateCache) {
+		stateCache.bindVertexArray(getVaoId());
+		glDrawElements(GL_TRIANGLES, getVertexCount(), getLayout().getIndexType(), 0);
 	}
 	
-	public void render() {
-		initRender();
-		
-		glDrawElements(GL_TRIANGLES, getVertexCount(), GL_UNSIGNED_INT, 0);
-		
-		endRender();
-	}
-	
-	public void renderList(List<Actor> actors, Consumer<Actor> consumer) {
-		initRender();
-		
-		for (Actor actor : actors) {
-			consumer.accept(actor);
-			glDrawElements(GL_TRIANGLES, getVertexCount(), GL_UNSIGNED_INT, 0);
-		}
-		
-		endRender();
+	public void drawInstanced(int instances) {
+		glDrawElementsInstanced(GL_TRIANGLES, getVertexCount(), getLayout().getIndexType(), 0, instances);
 	}
 	
 	public void cleanUp() {
-		glDisableVertexAttribArray(0);
-		
 		glBindBuffer(GL_ARRAY_BUFFER, 0);
 		for (int vboId : vboIdList) {
 			glDeleteBuffers(vboId);
@@ -168,8 +267,6 @@ public class Mesh {
 	}
 	
 	public void deleteBuffers() {
-		glDisableVertexAttribArray(0);
-		
 		glBindBuffer(GL_ARRAY_BUFFER, 0);
 		for (int vboId : vboIdList) {
 			glDeleteBuffers(vboId);
@@ -0,0 +1,84 @@
+package com.clepto.fsengine.graphics;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import org.lwjgl.system.MemoryUtil;
+
+/**
+ * Vertex and index data for a {@link Mesh} held in off-heap buffers, so it
+ * can be built on any thread and uploaded later on the GL thread. Vertices
+ * and indices are packed in their {@link VertexLayout} when the data is
+ * built. The buffers must be released with {@link #free()}.
+ */
+public class MeshData {
+	
+	private final VertexLayout layout;
+	
+	private final int vertexCount;
+	
+	private final int indexCount;
+	
+	private FloatBuffer positions;
+	
+	private ByteBuffer vertices;
+	
+	private ByteBuffer indices;
+	
+	/**
+	 * Packs the data in the smallest layout that can hold it, see
+	 * {@link VertexLayout#compact(float[], float[], int)}.
+	 */
+	public MeshData(float[] positions, float[] texCoords, float[] normals, int[] indices) {
+		this(positions, texCoords, normals, indices, VertexLayout.compact(texCoords, normals, positions.length / 3));
+	}
+	
+	public MeshData(float[] positions, float[] texCoords, float[] normals, int[] indices, VertexLayout layout) {
+		this.layout = layout;
+		vertexCount = positions.length / 3;
+		indexCount = indices.length;
+		this.positions = MemoryUtil.memAllocFloat(positions.length);
+		this.positions.put(positions).flip();
+		vertices = layout.packVertices(positions, texCoords, normals);
+		this.indices = layout.packIndices(indices);
+	}
+	
+	public VertexLayout getLayout() {
+		return layout;
+	}
+	
+	public int getVertexCount() {
+		return vertexCount;
+	}
+	
+	public int getIndexCount() {
+		return indexCount;
+	}
+	
+	public FloatBuffer getPositions() {
+		return positions;
+	}
+	
+	/**
+	 * Vertices packed in {@link #getLayout()}.
+	 */
+	public ByteBuffer getVertices() {
+		return vertices;
+	}
+	
+	public ByteBuffer getIndices() {
+		return indices;
+	}
+	
+	public void free() {
+		if (positions != null) {
+			MemoryUtil.memFree(positions);
+			MemoryUtil.memFree(vertices);
+			MemoryUtil.memFree(indices);
+			positions = null;
+			vertices = null;
+			indices = null;
+		}
+	}
+	
+}
@@ -6,13 +6,56 @@ import java.util.List;
 import org.joml.Vector2f;
 import org.joml.Vector3f;
 
+import com.clepto.fsengine.graphics.lod.LodChain;
+import com.clepto.fsengine.graphics.lod.LodMesh;
 import com.clepto.fsengine.util.Utils;
 
 public class OBJLoader {
 
     public static Mesh loadMesh(String fileName) throws Exception {
-        List<String> lines = Utils.readAllLines(fileName);
-        
+        return loadMesh(Utils.readAllLines(fileName));
+    }
+
+    public static Mesh loadMesh(List<String> lines) {
+        return new Mesh(loadMeshData(lines), true);
+    }
+
+    /**
+     * Parses an OBJ file without touching GL, so it can run on any thread.
+     * The returned data must be uploaded with {@link Mesh#Mesh(MeshData)}
+     * and freed by the caller.
+     */
+    public static MeshData loadMeshData(String fileName) throws Exception {
+        return loadMeshData(Utils.readAllLines(fileName));
+    }
+
+    public static MeshData loadMeshData(List<String> lines) {
+        return parse(lines, MeshData::new);
+    }
+
+    public static LodMesh loadLodMesh(String fileName) throws Exception {
+        LodChain chain = loadLodChain(fileName);
+        try {
+            return new LodMesh(chain);
+        } finally {
+            chain.free();
+        }
+    }
+
+    /**
+     * Parses an OBJ file and simplifies it into a {@link LodChain}, without
+     * touching GL. The chain must be uploaded with
+     * {@link LodMesh#LodMesh(LodChain)} and freed by the caller.
+     */
+    public static LodChain loadLodChain(String fileName) throws Exception {
+        return loadLodChain(Utils.readAllLines(fileName));
+    }
+
+    public static LodChain loadLodChain(List<String> lines) {
+        return parse(lines, LodChain::build);
+    }
+
+    private static <T> T parse(List<String> lines, MeshBuilder<T> builder) {
         List<Vector3f> vertices = new ArrayList<>();
         List<Vector2f> textures = new ArrayList<>();
         List<Vector3f> normals = new ArrayList<>();
@@ -53,11 +96,11 @@ public class OBJLoader {
                     break;
             }
         }
-        return reorderLists(vertices, textures, normals, faces);
+        return reorderLists(vertices, textures, normals, faces, builder);
     }
 
-    private static Mesh reorderLists(List<Vector3f> posList, List<Vector2f> textCoordList,
-            List<Vector3f> normList, List<Face> facesList) {
+    private static <T> T reorderLists(List<Vector3f> posList, List<Vector2f> textCoordList,
+            List<Vector3f> normList, List<Face> facesList, MeshBuilder<T> builder) {
 
         List<Integer> indices = new ArrayList<>();
         // Create position array in the order it has been declared
@@ -81,8 +124,7 @@ public class OBJLoader {
         }
         int[] indicesArr = new int[indices.size()];
         indicesArr = indices.stream().mapToInt((Integer v) -> v).toArray();
-        Mesh mesh = new Mesh(posArr, textCoordArr, normArr, indicesArr);
-        return mesh;
+        return builder.build(posArr, textCoordArr, normArr, indicesArr);
     }
 
     private static void processFaceVertex(IdxGroup indices, List<Vector2f> textCoordList,
@@ -108,6 +150,11 @@ public class OBJLoader {
         }
     }
 
+    private interface MeshBuilder<T> {
+
+        T build(float[] positions, float[] texCoords, float[] normals, int[] indices);
+    }
+
     protected static class Face {
 
         /**
@@ -2,6 +2,11 @@ package com.clepto.fsengine.graphics;
 
 import static org.lwjgl.opengl.GL11.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -11,14 +16,22 @@ import org.joml.Vector4f;
 
 import com.clepto.fsengine.IHud;
 import com.clepto.fsengine.Window;
-import com.clepto.fsengine.graphics.lighting.DirectionalLight;
-import com.clepto.fsengine.graphics.lighting.PointLight;
-import com.clepto.fsengine.graphics.lighting.SpotLight;
+import com.clepto.fsengine.graphics.lighting.LightClusters;
+import com.clepto.fsengine.graphics.lod.LodMesh;
+import com.clepto.fsengine.graphics.material.MaterialSlot;
+import com.clepto.fsengine.graphics.material.MaterialTable;
+import com.clepto.fsengine.graphics.occlusion.Occluder;
+import com.clepto.fsengine.graphics.occlusion.OcclusionCuller;
+import com.clepto.fsengine.graphics.shader.MaterialUniform;
 import com.clepto.fsengine.graphics.shader.ShaderProgram;
+import com.clepto.fsengine.job.JobSystem;
+import com.clepto.fsengine.profiling.GpuProfiler;
+import com.clepto.fsengine.profiling.Profiler;
+import com.clepto.fsengine.profiling.ProfilerPhase;
 import com.clepto.fsengine.scene.Scene;
-import com.clepto.fsengine.scene.SceneLight;
 import com.clepto.fsengine.scene.actors.Actor;
 import com.clepto.fsengine.scene.actors.SkyBox;
+import com.clepto.fsengine.scene.actors.TextActor;
 import com.clepto.fsengine.util.Utils;
 
 public class Renderer {
@@ -29,30 +42,126 @@ public class Renderer {
 	
 	private static final float Z_FAR = 1000.f;
 	
-	private static final int MAX_POINT_LIGHTS = 5;
+	private static final int INITIAL_INSTANCES = 256;
 	
-	private static final int MAX_SPOT_LIGHTS = 5;
+	private static final int PROGRAM_SCENE = 0;
 	
 	private final Transformation transformation;
 	
 	private ShaderProgram sceneShaderProgram;
 	
+	private int sceneModelViewMatrix;
+	
+	private int sceneIsInstanced;
+	
+	private MaterialUniform sceneMaterial;
+	
+	private int sceneUseMaterialTable;
+	
+	private int sceneMaterialIndex;
+	
+	private MaterialTable materialTable;
+	
 	private ShaderProgram skyboxShaderProgram;
 	
+	private int skyboxModelViewMatrix;
+	
 	private ShaderProgram hudShaderProgram;
 	
+	private int hudProjModelMatrix;
+	
+	private int hudColor;
+	
+	private int hudHasTexture;
+	
+	private FrameUniforms frameUniforms;
+	
+	private LightClusters lightClusters;
+	
+	private JobSystem jobSystem;
+	
+	private HudBatch hudBatch;
+	
 	private final float specularPower;
 	
+	private Profiler profiler;
+	
+	private GpuProfiler gpuProfiler;
+	
+	private InstanceBuffer instanceBuffer;
+	
+	private boolean instancing;
+	
+	private final FrustumCullingFilter frustumFilter;
+	
+	private boolean frustumCulling;
+	
+	private final OcclusionCuller occlusionCuller;
+	
+	private boolean occlusionCulling;
+	
+	private int renderedActors;
+	
+	private int culledActors;
+	
+	private int occludedActors;
+	
+	private boolean levelOfDetail;
+	
+	private float pixelsPerUnit;
+	
+	private int lodTriangles;
+	
+	private final List<Actor> queriedActors;
+	
+	private final Map<Mesh, List<Actor>> visibleMeshes;
+	
+	private long[] batchKeys;
+	
+	private float[] batchDepths;
+	
+	private final DrawQueue drawQueue;
+	
+	private final GLStateCache stateCache;
+	
+	private final Vector3f center;
+	
+	private final Vector3f boundsMin;
+	
+	private final Vector3f boundsMax;
+	
 	public Renderer() {
 		transformation = new Transformation();
 		specularPower = 10f;
+		profiler = Profiler.DISABLED;
+		instancing = true;
+		frustumFilter = new FrustumCullingFilter();
+		frustumCulling = true;
+		occlusionCuller = new OcclusionCuller();
+		occlusionCulling = true;
+		levelOfDetail = true;
+		queriedActors = new ArrayList<>();
+		visibleMeshes = new HashMap<>();
+		batchKeys = new long[INITIAL_INSTANCES];
+		batchDepths = new float[INITIAL_INSTANCES];
+		drawQueue = new DrawQueue();
+		stateCache = new GLStateCache();
+		center = new Vector3f();
+		boundsMin = new Vector3f();
+		boundsMax = new Vector3f();
 	}
 	
 	public void init(Window window) throws Exception {
 		setupGL();
+		frameUniforms = new FrameUniforms();
+		lightClusters = new LightClusters();
+		materialTable = new MaterialTable();
 		setupSceneShader();
 		setupSkyboxShader();
 		setupHudShader();
+		hudBatch = new HudBatch();
+		instanceBuffer = new InstanceBuffer(INITIAL_INSTANCES);
+		gpuProfiler = new GpuProfiler(profiler);
 	}
 	
 	private void setupGL() {
@@ -65,19 +174,23 @@ public class Renderer {
 		sceneShaderProgram.createFragmentShader(Utils.loadResource("shaders/scene_fragment.fs"));
 		sceneShaderProgram.link();
 		
-		sceneShaderProgram.createUniform("projectionMatrix");
-		sceneShaderProgram.createUniform("modelViewMatrix");
-		sceneShaderProgram.createUniform("texture_sampler");
-		sceneShaderProgram.createUniform("normalMap");
-		
-		sceneShaderProgram.createMaterialUniform("material");
+		frameUniforms.attach(sceneShaderProgram, true);
+		sceneModelViewMatrix = sceneShaderProgram.createUniform("modelViewMatrix");
+		sceneIsInstanced = sceneShaderProgram.createUniform("isInstanced");
+		sceneMaterial = sceneShaderProgram.createMaterialUniform("material");
+		sceneUseMaterialTable = sceneShaderProgram.createUniform("useMaterialTable");
+		sceneMaterialIndex = sceneShaderProgram.createUniform("materialIndex");
 		
-		sceneShaderProgram.createUniform("specularPower");
-		sceneShaderProgram.createUniform("ambientLight");
-		sceneShaderProgram.createPointLightListUniform("pointLights", MAX_POINT_LIGHTS);
-		sceneShaderProgram.createSpotLightListUniform("spotLights", MAX_SPOT_LIGHTS);
-		sceneShaderProgram.createDirectionalLightUniform("directionalLight");
-		sceneShaderProgram.createFogUniform("fog");
+		sceneShaderProgram.bind();
+		sceneShaderProgram.setUniform(sceneShaderProgram.createUniform("texture_sampler"), 0);
+		sceneShaderProgram.setUniform(sceneShaderProgram.createUniform("normalMap"), 1);
+		sceneShaderProgram.setUniform(sceneShaderProgram.createUniform("lightData"), LightClusters.LIGHT_DATA_UNIT);
+		sceneShaderProgram.setUniform(sceneShaderProgram.createUniform("clusterGrid"), LightClusters.CLUSTER_GRID_UNIT);
+		sceneShaderProgram.setUniform(sceneShaderProgram.createUniform("lightIndices"), LightClusters.LIGHT_INDEX_UNIT);
+		sceneShaderProgram.setUniform(sceneShaderProgram.createUniform("materialData"), MaterialTable.MATERIAL_DATA_UNIT);
+		sceneShaderProgram.setUniform(sceneShaderProgram.createUniform("textureArray"), MaterialTable.TEXTURE_ARRAY_UNIT);
+		sceneShaderProgram.setUniform(sceneShaderProgram.createUniform("normalArray"), MaterialTable.NORMAL_ARRAY_UNIT);
+		sceneShaderProgram.unbind();
 	}
 	
 	private void setupSkyboxShader() throws Exception {
@@ -86,10 +199,12 @@ public class Renderer {
 		skyboxShaderProgram.createFragmentShader(Utils.loadResource("shaders/sb_fragment.fs"));
 		skyboxShaderProgram.link();
 		
-		skyboxShaderProgram.createUniform("projectionMatrix");
-		skyboxShaderProgram.createUniform("modelViewMatrix");
-		skyboxShaderProgram.createUniform("texture_sampler");
-		skyboxShaderProgram.createUniform("ambientLight");
+		frameUniforms.attach(skyboxShaderProgram, false);
+		skyboxModelViewMatrix = skyboxShaderProgram.createUniform("modelViewMatrix");
+		
+		skyboxShaderProgram.bind();
+		skyboxShaderProgram.setUniform(skyboxShaderProgram.createUniform("texture_sampler"), 0);
+		skyboxShaderProgram.unbind();
 	}
 	
 	private void setupHudShader() throws Exception {
@@ -98,13 +213,16 @@ public class Renderer {
 		hudShaderProgram.createFragmentShader(Utils.loadResource("shaders/hud_fragment.fs"));
 		hudShaderProgram.link();
 		
-		hudShaderProgram.createUniform("projModelMatrix");
-		hudShaderProgram.createUniform("color");
-		hudShaderProgram.createUniform("hasTexture");
+		hudProjModelMatrix = hudShaderProgram.createUniform("projModelMatrix");
+		hudColor = hudShaderProgram.createUniform("color");
+		hudHasTexture = hudShaderProgram.createUniform("hasTexture");
 	}
 	
 	public void render(Window window, Camera camera, Scene scene, IHud hud) {
+		gpuProfiler.beginFrame();
+		gpuProfiler.begin(ProfilerPhase.GPU_RENDER);
 		clear();
+		stateCache.reset();
 		
 		if (window.isResized()) {
 			glViewport(0, 0, window.getWidth(), window.getHeight());
@@ -113,116 +231,461 @@ public class Renderer {
 		
 		transformation.updateProjectionMatrix(FOV, window.getWidth(), window.getHeight(), Z_NEAR, Z_FAR);
 		transformation.updateViewMatrix(camera);
+		pixelsPerUnit = window.getHeight() / (2 * (float) Math.tan(FOV / 2));
+		frustumFilter.updateFrustum(transformation.getProjectionMatrix(), transformation.getViewMatrix());
+		lightClusters.update(transformation.getProjectionMatrix(), transformation.getViewMatrix(), scene.getSceneLight(),
+				window.getWidth(), window.getHeight(), Z_NEAR, Z_FAR, jobSystem);
+		frameUniforms.update(transformation.getProjectionMatrix(), transformation.getViewMatrix(),
+				scene.getSceneLight(), scene.getFog(), specularPower, lightClusters);
+		materialTable.update();
+		
+		profiler.begin(ProfilerPhase.RENDER_OCCLUSION);
+		occlusionCuller.update(transformation.getProjectionMatrix(), transformation.getViewMatrix(),
+				occlusionCulling ? scene.getOccluders() : Collections.<Occluder>emptyList(), jobSystem);
+		profiler.end(ProfilerPhase.RENDER_OCCLUSION);
 		
+		profiler.begin(ProfilerPhase.RENDER_SCENE);
+		gpuProfiler.begin(ProfilerPhase.GPU_RENDER_SCENE);
 		renderScene(window, camera, scene);
+		gpuProfiler.end(ProfilerPhase.GPU_RENDER_SCENE);
+		profiler.end(ProfilerPhase.RENDER_SCENE);
+		
+		profiler.begin(ProfilerPhase.RENDER_SKYBOX);
+		gpuProfiler.begin(ProfilerPhase.GPU_RENDER_SKYBOX);
 		renderSkybox(window, camera, scene);
+		gpuProfiler.end(ProfilerPhase.GPU_RENDER_SKYBOX);
+		profiler.end(ProfilerPhase.RENDER_SKYBOX);
+		
+		profiler.begin(ProfilerPhase.RENDER_HUD);
+		gpuProfiler.begin(ProfilerPhase.GPU_RENDER_HUD);
 		renderHud(window, hud);
+		gpuProfiler.end(ProfilerPhase.GPU_RENDER_HUD);
+		profiler.end(ProfilerPhase.RENDER_HUD);
+		
+		stateCache.bindVertexArray(0);
+		stateCache.useProgram(0);
+		gpuProfiler.end(ProfilerPhase.GPU_RENDER);
+		gpuProfiler.endFrame();
 	}
 	
 	private void renderScene(Window window, Camera camera, Scene scene) {
-		sceneShaderProgram.bind();
-	
-		Matrix4f projectionMatrix = transformation.getProjectionMatrix();
-		sceneShaderProgram.setUniform("projectionMatrix", projectionMatrix);
-		
 		Matrix4f viewMatrix = transformation.getViewMatrix();
+		buildDrawQueue(scene, viewMatrix);
+		drawQueue.sort();
+		submitDrawQueue(viewMatrix);
+	}
+	
+	/**
+	 * Collects the visible actors into draw items. With instancing the actors
+	 * of a mesh are grouped by {@link LodMesh} level and by material batch,
+	 * every group becoming one item keyed by its nearest actor; otherwise
+	 * every actor is an item of its own.
+	 * <p>
+	 * Actors drawn with their mesh's own material form one batch, as do the
+	 * actors whose materials share a group of the {@link MaterialTable},
+	 * whatever material each of them has. Actors with a material of their own
+	 * outside the table are drawn alone.
+	 * <p>
+	 * With frustum culling only the actors the scene's actor tree finds in the
+	 * frustum are considered.
+	 */
+	private void buildDrawQueue(Scene scene, Matrix4f viewMatrix) {
+		drawQueue.clear();
+		renderedActors = 0;
+		culledActors = 0;
+		occludedActors = 0;
+		lodTriangles = 0;
 		
-		SceneLight sceneLight = scene.getSceneLight();
-		renderLights(viewMatrix, sceneLight);
-		
-		sceneShaderProgram.setUniform("texture_sampler", 0);
-		sceneShaderProgram.setUniform("normalMap", 1);
-		sceneShaderProgram.setUniform("fog", scene.getFog());
-		
-		Map<Mesh, List<Actor>> mapMeshes = scene.getMeshes();
-		for (Mesh mesh : mapMeshes.keySet()) {
-			sceneShaderProgram.setUniform("material", mesh.getMaterial());
-			mesh.renderList(mapMeshes.get(mesh), (Actor actor) -> {
-				Matrix4f modelViewMatrix = transformation.buildModelViewMatrix(actor, viewMatrix);
-				sceneShaderProgram.setUniform("modelViewMatrix", modelViewMatrix);
-			});
+		Map<Mesh, List<Actor>> mapMeshes = frustumCulling ? queryVisibleMeshes(scene) : scene.getMeshes();
+		for (Map.Entry<Mesh, List<Actor>> entry : mapMeshes.entrySet()) {
+			Mesh mesh = entry.getKey();
+			List<Actor> actors = entry.getValue();
+			int n = actors.size();
+			if (n == 0) {
+				continue;
+			}
+			if (batchKeys.length < n) {
+				batchKeys = new long[Math.max(n, batchKeys.length * 2)];
+				batchDepths = new float[batchKeys.length];
+			}
+			int batched = 0;
+			for (int i = 0; i < n; i++) {
+				Actor actor = actors.get(i);
+				if (!isVisible(actor)) {
+					continue;
+				}
+				float depth = getViewDepth(viewMatrix);
+				int level = selectLevel(mesh, actor, depth);
+				Material material = actor.getMaterial();
+				MaterialSlot slot = material.getSlot();
+				if (!instancing || slot == null && material != mesh.getMaterial()) {
+					Mesh levelMesh = getLevelMesh(mesh, level);
+					int single = drawQueue.beginItem();
+					drawQueue.addActor(actor);
+					drawQueue.endItem(single, DrawQueue.buildKey(PROGRAM_SCENE, getTextureId(material), levelMesh.getVaoId(), depth, Z_FAR), levelMesh);
+					continue;
+				}
+				int batch = slot != null ? slot.getGroup() : 0;
+				batchKeys[batched++] = (long) level << 56 | (long) batch << 32 | i;
+				batchDepths[i] = depth;
+			}
+			Arrays.sort(batchKeys, 0, batched);
+			for (int start = 0; start < batched;) {
+				long run = batchKeys[start] >>> 32;
+				int first = drawQueue.beginItem();
+				float nearest = Float.POSITIVE_INFINITY;
+				int end = start;
+				for (; end < batched && batchKeys[end] >>> 32 == run; end++) {
+					int index = (int) batchKeys[end];
+					drawQueue.addActor(actors.get(index));
+					nearest = Math.min(nearest, batchDepths[index]);
+				}
+				Mesh levelMesh = getLevelMesh(mesh, (int) (run >>> 24));
+				Material material = actors.get((int) batchKeys[start]).getMaterial();
+				drawQueue.endItem(first, DrawQueue.buildKey(PROGRAM_SCENE, getTextureId(material), levelMesh.getVaoId(), nearest, Z_FAR), levelMesh);
+				start = end;
+			}
 		}
-		
-		sceneShaderProgram.unbind();
+		renderedActors = drawQueue.getTotalActors();
 	}
 	
-	private void renderLights(Matrix4f viewMatrix, SceneLight sceneLight) {
-		sceneShaderProgram.setUniform("ambientLight", sceneLight.getAmbientLight());
-		sceneShaderProgram.setUniform("specularPower", specularPower);
-		
-		PointLight[] pointLights = sceneLight.getPointLights();
-		int numLights = pointLights != null ? pointLights.length : 0;
-		for (int i = 0; i < numLights; i++) {
-			PointLight currPointLight = new PointLight(pointLights[i]);
-			Vector3f lightPos = currPointLight.getPosition();
-			Vector4f aux = new Vector4f(lightPos, 1);
-			aux.mul(viewMatrix);
-			lightPos.x = aux.x;
-			lightPos.y = aux.y;
-			lightPos.z = aux.z;
-			sceneShaderProgram.setUniform("pointLights[" + i + "]", currPointLight);
-		}
-		
-		SpotLight[] spotLights = sceneLight.getSpotLights();
-		numLights = spotLights != null ? spotLights.length : 0;
-		for (int i = 0; i < numLights; i++) {
-			SpotLight currSpotLight = new SpotLight(spotLights[i]);
-			Vector4f dir = new Vector4f(currSpotLight.getConeDirection(), 0);
-			dir.mul(viewMatrix);
-			currSpotLight.setConeDirection(new Vector3f(dir.x, dir.y, dir.z));
-			
-			Vector3f spotLightPos = currSpotLight.getPointLight().getPosition();
-			Vector4f auxSpot = new Vector4f(spotLightPos, 1);
-			auxSpot.mul(viewMatrix);
-			spotLightPos.x = auxSpot.x;
-			spotLightPos.y = auxSpot.y;
-			spotLightPos.z = auxSpot.z;
-			sceneShaderProgram.setUniform("spotLights[" + i + "]", currSpotLight);
+	/**
+	 * Collects the actors whose bounds intersect the frustum from the actor
+	 * tree of the scene, grouped by mesh. Actors outside it count as culled.
+	 */
+	private Map<Mesh, List<Actor>> queryVisibleMeshes(Scene scene) {
+		Iterator<List<Actor>> lists = visibleMeshes.values().iterator();
+		while (lists.hasNext()) {
+			List<Actor> list = lists.next();
+			if (list.isEmpty()) {
+				lists.remove();
+			} else {
+				list.clear();
+			}
 		}
+		queriedActors.clear();
+		scene.queryFrustum(frustumFilter.getFrustum(), queriedActors);
+		for (int i = 0, n = queriedActors.size(); i < n; i++) {
+			Actor actor = queriedActors.get(i);
+			List<Actor> list = visibleMeshes.get(actor.getMesh());
+			if (list == null) {
+				list = new ArrayList<>();
+				visibleMeshes.put(actor.getMesh(), list);
+			}
+			list.add(actor);
+		}
+		for (List<Actor> actors : scene.getMeshes().values()) {
+			culledActors += actors.size();
+		}
+		culledActors -= queriedActors.size();
+		queriedActors.clear();
+		return visibleMeshes;
+	}
+	
+	/**
+	 * Picks the level of a {@link LodMesh} actor from the screen size of the
+	 * level errors at its distance; 0 for other meshes.
+	 */
+	private int selectLevel(Mesh mesh, Actor actor, float depth) {
+		if (!(mesh instanceof LodMesh)) {
+			return 0;
+		}
+		LodMesh lodMesh = (LodMesh) mesh;
+		int level = 0;
+		if (levelOfDetail && depth > Z_NEAR) {
+			level = lodMesh.selectLevel(actor.getLodLevel(), pixelsPerUnit * actor.getScale() / depth);
+		}
+		actor.setLodLevel(level);
+		lodTriangles += lodMesh.getTriangleCount(level);
+		return level;
+	}
+	
+	private static Mesh getLevelMesh(Mesh mesh, int level) {
+		return mesh instanceof LodMesh ? ((LodMesh) mesh).getLevel(level) : mesh;
+	}
+	
+	/**
+	 * The texture array of a material in the table, its own texture
+	 * otherwise, for the sort key.
+	 */
+	private static int getTextureId(Material material) {
+		MaterialSlot slot = material.getSlot();
+		if (slot != null) {
+			return slot.getTextureArray() != null ? slot.getTextureArray().getId() : 0;
+		}
+		Texture texture = material.getTexture();
+		return texture != null ? texture.getId() : 0;
+	}
+	
+	/**
+	 * Frustum and occlusion test of the actor, counting the rejected ones.
+	 * Leaves the world centre of the actor in {@link #center}.
+	 */
+	private boolean isVisible(Actor actor) {
+		actor.getWorldCenter(center);
+		if (frustumCulling && !frustumFilter.isInsideFrustum(center, actor.getWorldRadius())) {
+			culledActors++;
+			return false;
+		}
+		actor.getWorldBounds(boundsMin, boundsMax);
+		if (occlusionCuller.isOccluded(boundsMin, boundsMax)) {
+			occludedActors++;
+			return false;
+		}
+		return true;
+	}
+	
+	private float getViewDepth(Matrix4f viewMatrix) {
+		return -(viewMatrix.m02() * center.x + viewMatrix.m12() * center.y + viewMatrix.m22() * center.z + viewMatrix.m32());
+	}
+	
+	private void submitDrawQueue(Matrix4f viewMatrix) {
+		stateCache.useProgram(sceneShaderProgram.getProgramId());
+		lightClusters.bind(stateCache);
 		
-		if (sceneLight.getDirectionalLight() != null) {
-			DirectionalLight currDirLight = new DirectionalLight(sceneLight.getDirectionalLight());
-			Vector4f dir = new Vector4f(currDirLight.getDirection(), 0);
-			dir.mul(viewMatrix);
-			currDirLight.setDirection(new Vector3f(dir.x, dir.y, dir.z));
-			sceneShaderProgram.setUniform("directionalLight", currDirLight);
+		Actor[] actors = drawQueue.getActors();
+		Material currentMaterial = null;
+		int currentUseTable = -1;
+		int currentInstanced = -1;
+		for (int i = 0, n = drawQueue.size(); i < n; i++) {
+			Mesh mesh = drawQueue.getMesh(i);
+			int first = drawQueue.getFirstActor(i);
+			int count = drawQueue.getActorCount(i);
+			
+			Material material = actors[first].getMaterial();
+			MaterialSlot slot = material.getSlot();
+			if (material != currentMaterial) {
+				int useTable = slot != null ? 1 : 0;
+				if (useTable != currentUseTable) {
+					sceneShaderProgram.setUniform(sceneUseMaterialTable, useTable);
+					currentUseTable = useTable;
+				}
+				if (slot != null) {
+					materialTable.bind(stateCache, slot);
+					sceneShaderProgram.setUniform(sceneMaterialIndex, slot.getIndex());
+				} else {
+					sceneShaderProgram.setUniform(sceneMaterial, material);
+				}
+				currentMaterial = material;
+			}
+			Material textures = slot != null ? null : material;
+			int instanced = count > 1 ? 1 : 0;
+			if (instanced != currentInstanced) {
+				sceneShaderProgram.setUniform(sceneIsInstanced, instanced);
+				currentInstanced = instanced;
+			}
+			
+			if (instanced == 1) {
+				instanceBuffer.update(actors, first, count, transformation);
+				mesh.bindInstanced(stateCache, instanceBuffer, textures);
+				mesh.drawInstanced(count);
+			} else {
+				Matrix4f modelViewMatrix = transformation.buildModelViewMatrix(actors[first], viewMatrix);
+				sceneShaderProgram.setUniform(sceneModelViewMatrix, modelViewMatrix);
+				mesh.bind(stateCache, textures);
+				mesh.draw(stateCache);
+			}
 		}
 	}
 	
 	private void renderSkybox(Window window, Camera camera, Scene scene) {
-		skyboxShaderProgram.bind();
-		skyboxShaderProgram.setUniform("texture_sampler", 0);
-		
-		Matrix4f projectionMatrix = transformation.getProjectionMatrix();
-		skyboxShaderProgram.setUniform("projectionMatrix", projectionMatrix);
 		SkyBox skyBox = scene.getSkybox();
+		if (skyBox == null) {
+			return;
+		}
+		stateCache.useProgram(skyboxShaderProgram.getProgramId());
+		
 		Matrix4f viewMatrix = transformation.getViewMatrix();
 		viewMatrix.m30(0);
 		viewMatrix.m31(0);
 		viewMatrix.m32(0);
 		Matrix4f modelViewMatrix = transformation.buildModelViewMatrix(skyBox, viewMatrix);
-		skyboxShaderProgram.setUniform("modelViewMatrix", modelViewMatrix);
-		skyboxShaderProgram.setUniform("ambientLight", scene.getSceneLight().getAmbientLight());
+		skyboxShaderProgram.setUniform(skyboxModelViewMatrix, modelViewMatrix);
 		
-		scene.getSkybox().getMesh().render();
-		
-		skyboxShaderProgram.unbind();
+		Mesh mesh = skyBox.getMesh();
+		mesh.bind(stateCache);
+		mesh.draw(stateCache);
 	}
 	
 	private void renderHud(Window window, IHud hud) {
-		hudShaderProgram.bind();
-		
 		Matrix4f ortho = transformation.getOrthoProjectionMatrix(0, window.getWidth(), window.getHeight(), 0);
+		hudBatch.begin(ortho, stateCache);
 		for (Actor actor : hud.getActors()) {
+			if (actor instanceof TextActor) {
+				TextActor textActor = (TextActor) actor;
+				Vector4f color = textActor.getMaterial().getAmbientColor();
+				hudBatch.drawText(textActor.getFontTexture(), textActor.getText(), transformation.buildModelMatrix(actor), HudBatch.color(color));
+				continue;
+			}
+			hudBatch.flush();
+			stateCache.useProgram(hudShaderProgram.getProgramId());
 			Mesh mesh = actor.getMesh();
+			Material material = actor.getMaterial();
 			Matrix4f projModelMatrix = transformation.buildOrthoProjModelMatrix(actor, ortho);
-			hudShaderProgram.setUniform("projModelMatrix", projModelMatrix);
-			hudShaderProgram.setUniform("color", actor.getMesh().getMaterial().getAmbientColor());
-			hudShaderProgram.setUniform("hasTexture", actor.getMesh().getMaterial().isTextured() ? 1 : 0);
-			mesh.render();
+			hudShaderProgram.setUniform(hudProjModelMatrix, projModelMatrix);
+			hudShaderProgram.setUniform(hudColor, material.getAmbientColor());
+			hudShaderProgram.setUniform(hudHasTexture, material.isTextured() ? 1 : 0);
+			mesh.bind(stateCache, material);
+			mesh.draw(stateCache);
 		}
-		
-		hudShaderProgram.unbind();
+		hud.render(hudBatch);
+		hudBatch.end();
+	}
+	
+	/**
+	 * Draws every mesh shared by more than one actor with a single instanced
+	 * call. Enabled by default.
+	 */
+	public void setInstancing(boolean instancing) {
+		this.instancing = instancing;
+	}
+	
+	public boolean isInstancing() {
+		return instancing;
+	}
+	
+	/**
+	 * Skips actors whose bounding sphere lies outside the view frustum,
+	 * querying the actor tree of the scene. Enabled by default.
+	 */
+	public void setFrustumCulling(boolean frustumCulling) {
+		this.frustumCulling = frustumCulling;
+	}
+	
+	public boolean isFrustumCulling() {
+		return frustumCulling;
+	}
+	
+	/**
+	 * Skips actors whose bounding box is hidden behind the occluders of the
+	 * scene, rasterized on the CPU every frame. Enabled by default; does
+	 * nothing for scenes without occluders.
+	 */
+	public void setOcclusionCulling(boolean occlusionCulling) {
+		this.occlusionCulling = occlusionCulling;
+	}
+	
+	public boolean isOcclusionCulling() {
+		return occlusionCulling;
+	}
+	
+	/**
+	 * Draws actors of a {@link LodMesh} at the coarsest level whose error
+	 * stays within the screen error of the mesh. Enabled by default.
+	 */
+	public void setLevelOfDetail(boolean levelOfDetail) {
+		this.levelOfDetail = levelOfDetail;
+	}
+	
+	public boolean isLevelOfDetail() {
+		return levelOfDetail;
+	}
+	
+	/**
+	 * Number of scene actors drawn in the last frame.
+	 */
+	public int getRenderedActors() {
+		return renderedActors;
+	}
+	
+	/**
+	 * Number of scene actors rejected by frustum culling in the last frame.
+	 */
+	public int getCulledActors() {
+		return culledActors;
+	}
+	
+	/**
+	 * Number of scene actors rejected by occlusion culling in the last frame.
+	 */
+	public int getOccludedActors() {
+		return occludedActors;
+	}
+	
+	/**
+	 * Number of triangles drawn for actors of a {@link LodMesh} in the last
+	 * frame, at the levels picked for them.
+	 */
+	public int getLodTriangles() {
+		return lodTriangles;
+	}
+	
+	/**
+	 * Materials whose textures are kept in texture arrays, so actors of one
+	 * mesh with different materials can be drawn in one instanced batch.
+	 */
+	public MaterialTable getMaterialTable() {
+		return materialTable;
+	}
+	
+	/**
+	 * Number of draw items submitted in the last frame, after sorting.
+	 */
+	public int getDrawItems() {
+		return drawQueue.size();
+	}
+	
+	/**
+	 * Program, texture, vertex array and attribute array changes issued in the
+	 * last frame.
+	 */
+	public int getStateChanges() {
+		return stateCache.getStateChanges();
+	}
+	
+	/**
+	 * Redundant program, texture, vertex array and attribute array changes
+	 * skipped by the state cache in the last frame.
+	 */
+	public int getStateChangesAvoided() {
+		return stateCache.getStateChangesAvoided();
+	}
+	
+	/**
+	 * Draw calls issued by the HUD batch in the last frame.
+	 */
+	public int getHudDrawCalls() {
+		return hudBatch.getDrawCalls();
+	}
+	
+	/**
+	 * Point and spot lights in range of the view in the last frame.
+	 */
+	public int getClusteredLights() {
+		return lightClusters.getLightCount();
+	}
+	
+	/**
+	 * Job system the light clusters are assigned and the occluders rasterized
+	 * on, a tile per job, or null to do both on the render thread. The engine
+	 * sets it for {@link com.clepto.fsengine.IApplication#getRenderer()}.
+	 */
+	public void setJobSystem(JobSystem jobSystem) {
+		this.jobSystem = jobSystem;
+	}
+	
+	public Profiler getProfiler() {
+		return profiler;
+	}
+	
+	/**
+	 * Profiler the CPU and GPU phases of the passes are recorded into,
+	 * {@link Profiler#DISABLED} until set. The engine sets its own for
+	 * {@link com.clepto.fsengine.IApplication#getRenderer()}.
+	 */
+	public void setProfiler(Profiler profiler) {
+		this.profiler = profiler;
+		if (gpuProfiler != null) {
+			gpuProfiler.setProfiler(profiler);
+		}
+	}
+	
+	/**
+	 * GPU timings of the passes, recorded into the profiler under the
+	 * {@code GPU_} phases a few frames after they were drawn.
+	 */
+	public GpuProfiler getGpuProfiler() {
+		return gpuProfiler;
 	}
 	
 	public void clear() {
@@ -239,6 +702,24 @@ public class Renderer {
 		if (hudShaderProgram != null) {
 			hudShaderProgram.cleanup();
 		}
+		if (instanceBuffer != null) {
+			instanceBuffer.cleanup();
+		}
+		if (frameUniforms != null) {
+			frameUniforms.cleanup();
+		}
+		if (lightClusters != null) {
+			lightClusters.cleanup();
+		}
+		if (materialTable != null) {
+			materialTable.cleanup();
+		}
+		if (hudBatch != null) {
+			hudBatch.cleanup();
+		}
+		if (gpuProfiler != null) {
+			gpuProfiler.cleanup();
+		}
 	}
 	
 }
@@ -1,45 +1,169 @@
 package com.clepto.fsengine.graphics;
 
+import static org.lwjgl.opengl.ARBTextureCompressionBPTC.*;
+import static org.lwjgl.opengl.EXTTextureFilterAnisotropic.*;
 import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.*;
+import static org.lwjgl.opengl.GL13.*;
 import static org.lwjgl.opengl.GL30.*;
 
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 
-import de.matthiasmann.twl.utils.PNGDecoder;
-import de.matthiasmann.twl.utils.PNGDecoder.Format;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
 
+/**
+ * A 2D texture. Textures decoded from images or loaded with their mip chain
+ * are sampled trilinearly, with anisotropic filtering up to
+ * {@link #MAX_ANISOTROPY} where the driver supports it.
+ * <p>
+ * Textures handed out by a {@link TextureCache} are shared: every user calls
+ * {@link #cleanup()} once and the GL texture is deleted with the last call.
+ * Textures created from a file name are shared through
+ * {@link TextureCache#getDefault()}.
+ */
 public class Texture {
 
+	public static final float MAX_ANISOTROPY = 8.0f;
+	
 	private final int id;
 	
 	private final int width;
 	
 	private final int height;
 	
+	private final long memorySize;
+	
+	private final int internalFormat;
+	
+	private final int levelCount;
+	
+	/**
+	 * The cached texture this one stands for, or null if it owns its GL
+	 * texture.
+	 */
+	private final Texture shared;
+	
+	private int references;
+	
+	private TextureCache cache;
+	
+	private long contentHash;
+	
+	private long contentChecksum;
+	
+	/**
+	 * The texture of the file, shared through the default cache: it is only
+	 * decoded and uploaded if no other user holds it. Release it with
+	 * {@link #cleanup()} like any other texture.
+	 */
 	public Texture(String fileName) throws Exception {
-		this(Texture.class.getClassLoader().getResourceAsStream(fileName));
+		this(TextureCache.getDefault().get(fileName));
+	}
+	
+	private Texture(Texture shared) {
+		this.shared = shared;
+		this.id = shared.id;
+		this.width = shared.width;
+		this.height = shared.height;
+		this.memorySize = shared.memorySize;
+		this.internalFormat = shared.internalFormat;
+		this.levelCount = shared.levelCount;
+		this.references = 1;
 	}
 	
 	public Texture(InputStream is) throws Exception {
-		PNGDecoder decoder = new PNGDecoder(is);
-		
-		this.width = decoder.getWidth();
-		this.height = decoder.getHeight();
-		
-		ByteBuffer buf = ByteBuffer.allocateDirect(4 * decoder.getWidth() * decoder.getHeight());
-		decoder.decode(buf, decoder.getWidth() * 4, Format.RGBA);
-		buf.flip();
-		
+		this(TextureData.decode(is), true);
+	}
+	
+	/**
+	 * Uploads already decoded pixels. The data is not freed.
+	 */
+	public Texture(TextureData data) {
+		this(data, false);
+	}
+	
+	private Texture(TextureData data, boolean free) {
+		try {
+			this.width = data.getWidth();
+			this.height = data.getHeight();
+			this.memorySize = data.getMemorySize();
+			this.internalFormat = data.getInternalFormat();
+			this.levelCount = data.getLevelCount();
+			this.shared = null;
+			this.id = upload(data);
+			this.references = 1;
+		} finally {
+			if (free) {
+				data.free();
+			}
+		}
+	}
+	
+	/**
+	 * Allocates an uninitialised RGBA texture without mipmaps, to be filled
+	 * with {@link #update(GLStateCache, int, int, int, int, int, ByteBuffer)}.
+	 */
+	public Texture(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.memorySize = 4L * width * height;
+		this.internalFormat = GL_RGBA8;
+		this.levelCount = 1;
+		this.shared = null;
+		this.references = 1;
 		this.id = glGenTextures();
-		glBindTexture(GL_TEXTURE_2D, this.id);
+		glBindTexture(GL_TEXTURE_2D, id);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, 0);
+		glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE, (ByteBuffer) null);
+	}
+	
+	private static int upload(TextureData data) {
+		GLCapabilities caps = GL.getCapabilities();
+		if (data.isCompressed() && !isSupported(caps, data.getInternalFormat())) {
+			throw new IllegalStateException("Compressed texture format not supported: 0x" + Integer.toHexString(data.getInternalFormat()));
+		}
+		int id = glGenTextures();
+		glBindTexture(GL_TEXTURE_2D, id);
 		
 		glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
 		
-		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
-		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
-		glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, this.width, this.height, 0, GL_RGBA, GL_UNSIGNED_BYTE, buf);
-		glGenerateMipmap(GL_TEXTURE_2D);
+		int minFilter;
+		if (data.isCompressed()) {
+			int levels = data.getLevelCount();
+			ByteBuffer pixels = data.getPixels();
+			for (int level = 0; level < levels; level++) {
+				int offset = data.getLevelOffset(level);
+				pixels.limit(offset + data.getLevelSize(level)).position(offset);
+				glCompressedTexImage2D(GL_TEXTURE_2D, level, data.getInternalFormat(),
+						Math.max(data.getWidth() >> level, 1), Math.max(data.getHeight() >> level, 1), 0, pixels);
+			}
+			pixels.clear();
+			glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, levels - 1);
+			minFilter = levels > 1 ? GL_LINEAR_MIPMAP_LINEAR : GL_LINEAR;
+		} else {
+			glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, data.getWidth(), data.getHeight(), 0, GL_RGBA, GL_UNSIGNED_BYTE, data.getPixels());
+			glGenerateMipmap(GL_TEXTURE_2D);
+			minFilter = GL_LINEAR_MIPMAP_LINEAR;
+		}
+		
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, minFilter);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+		if (caps.GL_EXT_texture_filter_anisotropic) {
+			float anisotropy = Math.min(MAX_ANISOTROPY, glGetFloat(GL_MAX_TEXTURE_MAX_ANISOTROPY_EXT));
+			glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_MAX_ANISOTROPY_EXT, anisotropy);
+		}
+		return id;
+	}
+	
+	private static boolean isSupported(GLCapabilities caps, int internalFormat) {
+		if (internalFormat == GL_COMPRESSED_RGBA_BPTC_UNORM_ARB) {
+			return caps.OpenGL42 || caps.GL_ARB_texture_compression_bptc;
+		}
+		return caps.GL_EXT_texture_compression_s3tc;
 	}
 	
 	public int getWidth() {
@@ -50,6 +174,56 @@ public class Texture {
 		return this.height;
 	}
 	
+	/**
+	 * Bytes the texture takes on the GPU, mip levels included.
+	 */
+	public long getMemorySize() {
+		return memorySize;
+	}
+	
+	/**
+	 * Adds a user, who must call {@link #cleanup()} as well.
+	 */
+	void retain() {
+		references++;
+	}
+	
+	void setCache(TextureCache cache, long contentHash, long contentChecksum) {
+		this.cache = cache;
+		this.contentHash = contentHash;
+		this.contentChecksum = contentChecksum;
+	}
+	
+	long getContentHash() {
+		return contentHash;
+	}
+	
+	/**
+	 * Whether the texture was uploaded from data of the same format, size and
+	 * levels with both the same content hash and checksum, which is decided
+	 * without reading anything back from the GPU.
+	 */
+	boolean contentEquals(TextureData data) {
+		return data.getWidth() == width && data.getHeight() == height
+				&& data.getInternalFormat() == internalFormat && data.getLevelCount() == levelCount
+				&& data.getContentHash() == contentHash && data.getContentChecksum() == contentChecksum;
+	}
+	
+	/**
+	 * Replaces a region of the base level with RGBA pixels read from the
+	 * buffer at its position, rows being rowLength pixels apart. The texture
+	 * is bound to unit 0 through the state cache, so the cache stays in step
+	 * when this runs in the middle of a frame.
+	 */
+	public void update(GLStateCache stateCache, int x, int y, int width, int height, int rowLength, ByteBuffer pixels) {
+		stateCache.bindTexture(0, id);
+		glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+		glPixelStorei(GL_UNPACK_ROW_LENGTH, rowLength);
+		glTexSubImage2D(GL_TEXTURE_2D, 0, x, y, width, height, GL_RGBA, GL_UNSIGNED_BYTE, pixels);
+		glPixelStorei(GL_UNPACK_ROW_LENGTH, 0);
+		glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
+	}
+	
 	public void bind() {
 		glBindTexture(GL_TEXTURE_2D, id);
 	}
@@ -58,8 +232,31 @@ public class Texture {
 		return id;
 	}
 	
+	/**
+	 * Releases one user of the texture and deletes it once none is left.
+	 */
 	public void cleanup() {
+		if (references == 0 || --references > 0) {
+			return;
+		}
+		if (shared != null) {
+			shared.cleanup();
+			return;
+		}
+		if (cache != null) {
+			cache.remove(this);
+		}
 		glDeleteTextures(id);
 	}
 	
+	/**
+	 * Deletes the texture whatever the number of users left.
+	 */
+	void delete() {
+		if (references > 0) {
+			references = 0;
+			glDeleteTextures(id);
+		}
+	}
+	
 }
@@ -0,0 +1,154 @@
+package com.clepto.fsengine.graphics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shares textures between their users. A texture is looked up by file name
+ * first and by a hash of its decoded content second, confirmed by a second
+ * checksum, the format and the size without reading the GPU back, so the
+ * same image stored under different names is uploaded once as well. Every
+ * texture returned counts as one user, who releases it with
+ * {@link Texture#cleanup()}; the texture leaves the cache with its last user.
+ * <p>
+ * The cache must be used from the thread owning the GL context.
+ */
+public class TextureCache {
+	
+	private static final TextureCache DEFAULT = new TextureCache();
+	
+	private final Map<String, Texture> byName;
+	
+	private final Map<Long, Texture> byContent;
+	
+	private final List<Texture> textures;
+	
+	private long hits;
+	
+	private long memorySaved;
+	
+	public TextureCache() {
+		byName = new HashMap<>();
+		byContent = new HashMap<>();
+		textures = new ArrayList<>();
+	}
+	
+	/**
+	 * The cache shared by {@link Texture#Texture(String)}, the actors loading
+	 * textures by name and the asset manager. Its textures belong to the GL
+	 * context of the {@link com.clepto.fsengine.Window}, whose cleanup empties
+	 * the cache before the context goes away.
+	 */
+	public static TextureCache getDefault() {
+		return DEFAULT;
+	}
+	
+	/**
+	 * Returns the texture loaded from the file, decoding and uploading it
+	 * unless it is cached already.
+	 */
+	public Texture get(String fileName) throws Exception {
+		Texture texture = byName.get(fileName);
+		if (texture != null) {
+			return share(texture);
+		}
+		TextureData data = TextureData.decode(fileName);
+		try {
+			return get(fileName, data);
+		} finally {
+			data.free();
+		}
+	}
+	
+	/**
+	 * Returns the texture cached under the name or with the same content as
+	 * the data, uploading the data otherwise. The data is not freed.
+	 */
+	public Texture get(String fileName, TextureData data) {
+		Texture texture = byName.get(fileName);
+		if (texture == null) {
+			Texture sameHash = byContent.get(data.getContentHash());
+			if (sameHash != null && sameHash.contentEquals(data)) {
+				texture = sameHash;
+				byName.put(fileName, texture);
+			}
+		}
+		if (texture != null) {
+			return share(texture);
+		}
+		texture = new Texture(data);
+		texture.setCache(this, data.getContentHash(), data.getContentChecksum());
+		byName.put(fileName, texture);
+		byContent.putIfAbsent(data.getContentHash(), texture);
+		textures.add(texture);
+		return texture;
+	}
+	
+	private Texture share(Texture texture) {
+		texture.retain();
+		hits++;
+		memorySaved += texture.getMemorySize();
+		return texture;
+	}
+	
+	/**
+	 * Forgets a texture whose last user released it.
+	 */
+	void remove(Texture texture) {
+		byContent.remove(texture.getContentHash(), texture);
+		textures.remove(texture);
+		Iterator<Texture> iterator = byName.values().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next() == texture) {
+				iterator.remove();
+			}
+		}
+	}
+	
+	public int getTextureCount() {
+		return textures.size();
+	}
+	
+	/**
+	 * Bytes of GPU memory taken by the cached textures.
+	 */
+	public long getMemorySize() {
+		long size = 0;
+		for (Texture texture : textures) {
+			size += texture.getMemorySize();
+		}
+		return size;
+	}
+	
+	/**
+	 * Requests answered with a texture that was already uploaded.
+	 */
+	public long getHits() {
+		return hits;
+	}
+	
+	/**
+	 * Bytes of GPU memory those requests would have taken without the cache.
+	 */
+	public long getMemorySaved() {
+		return memorySaved;
+	}
+	
+	/**
+	 * Deletes every cached texture, whether still in use or not.
+	 */
+	public void cleanup() {
+		List<Texture> cached = new ArrayList<>(textures);
+		byName.clear();
+		byContent.clear();
+		textures.clear();
+		for (Texture texture : cached) {
+			texture.setCache(null, 0, 0);
+			texture.delete();
+		}
+	}
+	
+}
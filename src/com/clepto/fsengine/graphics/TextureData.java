@@ -0,0 +1,299 @@
+package com.clepto.fsengine.graphics;
+
+import static org.lwjgl.opengl.ARBTextureCompressionBPTC.*;
+import static org.lwjgl.opengl.EXTTextureCompressionS3TC.*;
+import static org.lwjgl.opengl.GL11.*;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.lwjgl.system.MemoryUtil;
+
+import de.matthiasmann.twl.utils.PNGDecoder;
+import de.matthiasmann.twl.utils.PNGDecoder.Format;
+
+/**
+ * Decoded pixels in an off-heap buffer, ready to be uploaded as a
+ * {@link Texture}. Decoding does not need a GL context. The buffer must be
+ * released with {@link #free()}.
+ * <p>
+ * PNG images decode to a single RGBA level whose mipmaps are generated on
+ * upload. KTX files hold BC1, BC3 or BC7 blocks with their mip levels already
+ * built, stored one level after the other in the buffer.
+ */
+public class TextureData {
+	
+	private static final byte[] KTX_IDENTIFIER = {
+			(byte) 0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte) 0xBB, '\r', '\n', 0x1A, '\n'
+	};
+	
+	private static final int KTX_HEADER_SIZE = 64;
+	
+	private static final int KTX_ENDIANNESS = 0x04030201;
+	
+	private final int width;
+	
+	private final int height;
+	
+	private final int internalFormat;
+	
+	private final int[] levelOffsets;
+	
+	private final int[] levelSizes;
+	
+	private ByteBuffer pixels;
+	
+	private long contentHash;
+	
+	private long contentChecksum;
+	
+	public TextureData(ByteBuffer pixels, int width, int height) {
+		this(pixels, width, height, GL_RGBA8, new int[] { pixels.position() }, new int[] { pixels.remaining() });
+	}
+	
+	/**
+	 * Pixels in the given internal format with every mip level, largest
+	 * first, at the given offsets into the buffer.
+	 */
+	public TextureData(ByteBuffer pixels, int width, int height, int internalFormat, int[] levelOffsets, int[] levelSizes) {
+		this.pixels = pixels;
+		this.width = width;
+		this.height = height;
+		this.internalFormat = internalFormat;
+		this.levelOffsets = levelOffsets;
+		this.levelSizes = levelSizes;
+	}
+	
+	/**
+	 * Decodes a KTX file if the name ends with {@code .ktx}, a PNG otherwise.
+	 */
+	public static TextureData decode(String fileName) throws Exception {
+		try (InputStream is = TextureData.class.getClassLoader().getResourceAsStream(fileName)) {
+			if (is == null) {
+				throw new Exception("Could not find texture: " + fileName);
+			}
+			return fileName.toLowerCase().endsWith(".ktx") ? decodeKtx(is) : decode(is);
+		}
+	}
+	
+	public static TextureData decode(InputStream is) throws Exception {
+		PNGDecoder decoder = new PNGDecoder(is);
+		int width = decoder.getWidth();
+		int height = decoder.getHeight();
+		ByteBuffer buf = MemoryUtil.memAlloc(4 * width * height);
+		try {
+			decoder.decode(buf, width * 4, Format.RGBA);
+		} catch (Exception e) {
+			MemoryUtil.memFree(buf);
+			throw e;
+		}
+		buf.flip();
+		return new TextureData(buf, width, height);
+	}
+	
+	/**
+	 * Reads a KTX 1.1 container of a single 2D texture compressed as BC1, BC3
+	 * or BC7, keeping its mip levels as they are.
+	 */
+	public static TextureData decodeKtx(InputStream is) throws Exception {
+		ByteBuffer buf = readFully(is);
+		try {
+			return decodeKtx(buf);
+		} catch (Exception e) {
+			MemoryUtil.memFree(buf);
+			throw e;
+		}
+	}
+	
+	static TextureData decodeKtx(ByteBuffer buf) throws Exception {
+		if (buf.remaining() < KTX_HEADER_SIZE) {
+			throw new Exception("Invalid KTX file: truncated header");
+		}
+		for (int i = 0; i < KTX_IDENTIFIER.length; i++) {
+			if (buf.get(i) != KTX_IDENTIFIER[i]) {
+				throw new Exception("Invalid KTX file: bad identifier");
+			}
+		}
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		if (buf.getInt(12) != KTX_ENDIANNESS) {
+			buf.order(ByteOrder.BIG_ENDIAN);
+		}
+		int glType = buf.getInt(16);
+		int internalFormat = buf.getInt(28);
+		int width = buf.getInt(36);
+		int height = Math.max(buf.getInt(40), 1);
+		int depth = buf.getInt(44);
+		int arrayElements = buf.getInt(48);
+		int faces = buf.getInt(52);
+		int levels = Math.max(buf.getInt(56), 1);
+		int keyValueBytes = buf.getInt(60);
+		if (glType != 0 || getBlockSize(internalFormat) == 0) {
+			throw new Exception("Unsupported KTX format: 0x" + Integer.toHexString(internalFormat));
+		}
+		if (depth > 1 || arrayElements > 0 || faces != 1 || width <= 0) {
+			throw new Exception("Unsupported KTX texture: only single 2D images are supported");
+		}
+		if (levels > 32 - Integer.numberOfLeadingZeros(Math.max(width, height)) || keyValueBytes < 0) {
+			throw new Exception("Invalid KTX file: bad level count or key/value size");
+		}
+		
+		int[] levelOffsets = new int[levels];
+		int[] levelSizes = new int[levels];
+		int offset = KTX_HEADER_SIZE + keyValueBytes;
+		for (int level = 0; level < levels; level++) {
+			if (offset + 4 > buf.limit()) {
+				throw new Exception("Invalid KTX file: truncated level " + level);
+			}
+			int size = buf.getInt(offset);
+			int expected = getLevelSize(internalFormat, Math.max(width >> level, 1), Math.max(height >> level, 1));
+			if (size != expected || offset + 4 + size > buf.limit()) {
+				throw new Exception("Invalid KTX file: bad size of level " + level);
+			}
+			levelOffsets[level] = offset + 4;
+			levelSizes[level] = size;
+			offset += 4 + ((size + 3) & ~3);
+		}
+		buf.order(ByteOrder.nativeOrder());
+		return new TextureData(buf, width, height, internalFormat, levelOffsets, levelSizes);
+	}
+	
+	private static ByteBuffer readFully(InputStream is) throws Exception {
+		ByteBuffer buf = MemoryUtil.memAlloc(64 * 1024);
+		byte[] chunk = new byte[8192];
+		try {
+			int read;
+			while ((read = is.read(chunk)) != -1) {
+				if (buf.remaining() < read) {
+					buf = MemoryUtil.memRealloc(buf, buf.capacity() * 2);
+				}
+				buf.put(chunk, 0, read);
+			}
+		} catch (Exception e) {
+			MemoryUtil.memFree(buf);
+			throw e;
+		}
+		buf.flip();
+		return buf;
+	}
+	
+	/**
+	 * Bytes per 4x4 block of a supported compressed format, or 0.
+	 */
+	public static int getBlockSize(int internalFormat) {
+		switch (internalFormat) {
+			case GL_COMPRESSED_RGB_S3TC_DXT1_EXT:
+			case GL_COMPRESSED_RGBA_S3TC_DXT1_EXT:
+				return 8;
+			case GL_COMPRESSED_RGBA_S3TC_DXT5_EXT:
+			case GL_COMPRESSED_RGBA_BPTC_UNORM_ARB:
+				return 16;
+			default:
+				return 0;
+		}
+	}
+	
+	private static int getLevelSize(int internalFormat, int width, int height) {
+		int blockSize = getBlockSize(internalFormat);
+		if (blockSize == 0) {
+			return width * height * 4;
+		}
+		return ((width + 3) / 4) * ((height + 3) / 4) * blockSize;
+	}
+	
+	public int getWidth() {
+		return width;
+	}
+	
+	public int getHeight() {
+		return height;
+	}
+	
+	/**
+	 * {@code GL_RGBA8} for decoded images, the compressed format otherwise.
+	 */
+	public int getInternalFormat() {
+		return internalFormat;
+	}
+	
+	public boolean isCompressed() {
+		return getBlockSize(internalFormat) != 0;
+	}
+	
+	public int getLevelCount() {
+		return levelOffsets.length;
+	}
+	
+	public int getLevelOffset(int level) {
+		return levelOffsets[level];
+	}
+	
+	public int getLevelSize(int level) {
+		return levelSizes[level];
+	}
+	
+	/**
+	 * Bytes the texture takes on the GPU with its full mip chain, generated
+	 * or not.
+	 */
+	public long getMemorySize() {
+		long size = 0;
+		int levels = isCompressed() ? levelSizes.length : 32 - Integer.numberOfLeadingZeros(Math.max(width, height));
+		for (int level = 0; level < levels; level++) {
+			size += getLevelSize(internalFormat, Math.max(width >> level, 1), Math.max(height >> level, 1));
+		}
+		return size;
+	}
+	
+	/**
+	 * 64 bit FNV-1a hash of the format, size and pixels, computed on first
+	 * use. Equal hashes do not make textures equal: a {@link TextureCache}
+	 * also compares {@link #getContentChecksum()}, the format and the size.
+	 */
+	public long getContentHash() {
+		if (contentHash == 0) {
+			hashContent();
+		}
+		return contentHash;
+	}
+	
+	/**
+	 * Second 64 bit hash of the pixels, a polynomial with another multiplier
+	 * than {@link #getContentHash()}, computed alongside it.
+	 */
+	public long getContentChecksum() {
+		if (contentHash == 0) {
+			hashContent();
+		}
+		return contentChecksum;
+	}
+	
+	private void hashContent() {
+		long hash = 0xcbf29ce484222325L;
+		long checksum = 0;
+		hash = (hash ^ internalFormat) * 0x100000001b3L;
+		hash = (hash ^ width) * 0x100000001b3L;
+		hash = (hash ^ height) * 0x100000001b3L;
+		for (int level = 0; level < levelOffsets.length; level++) {
+			for (int i = levelOffsets[level], end = i + levelSizes[level]; i < end; i++) {
+				int value = pixels.get(i) & 0xFF;
+				hash = (hash ^ value) * 0x100000001b3L;
+				checksum = (checksum + value + 1) * 0x9e3779b97f4a7c15L;
+			}
+		}
+		contentChecksum = checksum;
+		contentHash = hash != 0 ? hash : 1;
+	}
+	
+	public ByteBuffer getPixels() {
+		return pixels;
+	}
+	
+	public void free() {
+		if (pixels != null) {
+			MemoryUtil.memFree(pixels);
+			pixels = null;
+		}
+	}
+	
+}
@@ -59,14 +59,17 @@ public class Transformation {
 		return orthoMatrix;
 	}
 	
-	public Matrix4f buildModelViewMatrix(Actor actor, Matrix4f viewMatrix) {
+	public Matrix4f buildModelMatrix(Actor actor) {
 		Vector3f rotation = actor.getRotation();
-		modelMatrix.identity().translate(actor.getPosition()).
+		return modelMatrix.identity().translate(actor.getPosition()).
 			rotateX((float) Math.toRadians(-rotation.x)).
 			rotateY((float) Math.toRadians(-rotation.y)).
 			rotateZ((float) Math.toRadians(-rotation.z)).
 			scale(actor.getScale());
-		return modelViewMatrix.set(viewMatrix).mul(modelMatrix);
+	}
+	
+	public Matrix4f buildModelViewMatrix(Actor actor, Matrix4f viewMatrix) {
+		return modelViewMatrix.set(viewMatrix).mul(buildModelMatrix(actor));
 	}
 
 	public Matrix4f buildOrthoProjModelMatrix(Actor actor, Matrix4f orthoMatrix) {
@@ -0,0 +1,301 @@
+package com.clepto.fsengine.graphics;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL33.*;
+
+import java.nio.ByteBuffer;
+
+import org.lwjgl.system.MemoryUtil;
+
+/**
+ * Describes how the vertices and indices of a {@link Mesh} are stored on the
+ * GPU. Positions are always three floats. Texture coordinates are floats or
+ * half floats, normals are floats or packed as
+ * {@code GL_INT_2_10_10_10_REV}, and indices are unsigned ints or shorts.
+ * Attributes are either interleaved or stored one block after the other in
+ * the same vertex buffer.
+ */
+public class VertexLayout {
+	
+	/**
+	 * Separate float blocks and 32 bit indices, which every mesh can use.
+	 */
+	public static final VertexLayout DEFAULT = new VertexLayout(false, GL_FLOAT, GL_FLOAT, GL_UNSIGNED_INT);
+	
+	/**
+	 * Largest texture whose texel edges half float coordinates between 0 and
+	 * 1 still place within half a texel.
+	 */
+	public static final int MAX_HALF_TEXTURE_SIZE = 2048;
+	
+	/**
+	 * Texture coordinates above this magnitude lose too much precision as half
+	 * floats: below it the spacing is at most 1/1024.
+	 */
+	private static final float MAX_HALF_TEXCOORD = 2.0f;
+	
+	private static final float MAX_PACKED_NORMAL = 1.0001f;
+	
+	private static final int MAX_SHORT_VERTICES = 1 << 16;
+	
+	private final boolean interleaved;
+	
+	private final int texCoordType;
+	
+	private final int normalType;
+	
+	private final int indexType;
+	
+	private final int texCoordSize;
+	
+	private final int normalSize;
+	
+	public VertexLayout(boolean interleaved, int texCoordType, int normalType, int indexType) {
+		if (texCoordType != GL_FLOAT && texCoordType != GL_HALF_FLOAT) {
+			throw new IllegalArgumentException("Unsupported texture coordinate type: " + texCoordType);
+		}
+		if (normalType != GL_FLOAT && normalType != GL_INT_2_10_10_10_REV) {
+			throw new IllegalArgumentException("Unsupported normal type: " + normalType);
+		}
+		if (indexType != GL_UNSIGNED_INT && indexType != GL_UNSIGNED_SHORT) {
+			throw new IllegalArgumentException("Unsupported index type: " + indexType);
+		}
+		this.interleaved = interleaved;
+		this.texCoordType = texCoordType;
+		this.normalType = normalType;
+		this.indexType = indexType;
+		texCoordSize = texCoordType == GL_HALF_FLOAT ? 4 : 8;
+		normalSize = normalType == GL_INT_2_10_10_10_REV ? 4 : 12;
+	}
+	
+	/**
+	 * Picks the smallest interleaved layout that represents the given vertex
+	 * data without visible loss.
+	 */
+	public static VertexLayout compact(float[] texCoords, float[] normals, int vertexCount) {
+		int texCoordType = GL_HALF_FLOAT;
+		for (float value : texCoords) {
+			if (!(Math.abs(value) <= MAX_HALF_TEXCOORD)) {
+				texCoordType = GL_FLOAT;
+				break;
+			}
+		}
+		int normalType = GL_INT_2_10_10_10_REV;
+		for (float value : normals) {
+			if (!(Math.abs(value) <= MAX_PACKED_NORMAL)) {
+				normalType = GL_FLOAT;
+				break;
+			}
+		}
+		int indexType = vertexCount <= MAX_SHORT_VERTICES ? GL_UNSIGNED_SHORT : GL_UNSIGNED_INT;
+		return new VertexLayout(true, texCoordType, normalType, indexType);
+	}
+	
+	public boolean isInterleaved() {
+		return interleaved;
+	}
+	
+	public int getTexCoordType() {
+		return texCoordType;
+	}
+	
+	public int getNormalType() {
+		return normalType;
+	}
+	
+	public int getIndexType() {
+		return indexType;
+	}
+	
+	public int getIndexSize() {
+		return indexType == GL_UNSIGNED_SHORT ? 2 : 4;
+	}
+	
+	/**
+	 * Number of vertices the index type can address.
+	 */
+	public int getMaxVertices() {
+		return indexType == GL_UNSIGNED_SHORT ? MAX_SHORT_VERTICES : Integer.MAX_VALUE;
+	}
+	
+	/**
+	 * The same vertex format with another index type.
+	 */
+	public VertexLayout withIndexType(int indexType) {
+		return indexType == this.indexType ? this : new VertexLayout(interleaved, texCoordType, normalType, indexType);
+	}
+	
+	public int getVertexSize() {
+		return 12 + texCoordSize + normalSize;
+	}
+	
+	/**
+	 * Points attributes 0 to 2 of the bound vertex array at the vertex buffer
+	 * bound to {@code GL_ARRAY_BUFFER}.
+	 */
+	public void setAttributePointers(int vertexCount) {
+		int stride = getVertexSize();
+		if (interleaved) {
+			glVertexAttribPointer(0, 3, GL_FLOAT, false, stride, 0);
+			setTexCoordPointer(stride, 12);
+			setNormalPointer(stride, 12 + texCoordSize);
+		} else {
+			glVertexAttribPointer(0, 3, GL_FLOAT, false, 0, 0);
+			setTexCoordPointer(0, 12L * vertexCount);
+			setNormalPointer(0, (12L + texCoordSize) * vertexCount);
+		}
+	}
+	
+	private void setTexCoordPointer(int stride, long offset) {
+		glVertexAttribPointer(1, 2, texCoordType, false, stride, offset);
+	}
+	
+	private void setNormalPointer(int stride, long offset) {
+		if (normalType == GL_INT_2_10_10_10_REV) {
+			glVertexAttribPointer(2, 4, GL_INT_2_10_10_10_REV, true, stride, offset);
+		} else {
+			glVertexAttribPointer(2, 3, GL_FLOAT, false, stride, offset);
+		}
+	}
+	
+	/**
+	 * Writes the vertices in this layout into a new off-heap buffer, which the
+	 * caller must free. Missing texture coordinates and normals are zero.
+	 */
+	public ByteBuffer packVertices(float[] positions, float[] texCoords, float[] normals) {
+		int vertexCount = positions.length / 3;
+		ByteBuffer buffer = MemoryUtil.memCalloc(vertexCount * getVertexSize());
+		int stride = interleaved ? getVertexSize() : 12;
+		int texCoordStride = interleaved ? stride : texCoordSize;
+		int normalStride = interleaved ? stride : normalSize;
+		int texCoordStart = interleaved ? 12 : 12 * vertexCount;
+		int normalStart = interleaved ? 12 + texCoordSize : (12 + texCoordSize) * vertexCount;
+		for (int i = 0; i < vertexCount; i++) {
+			int offset = i * stride;
+			buffer.putFloat(offset, positions[i * 3]);
+			buffer.putFloat(offset + 4, positions[i * 3 + 1]);
+			buffer.putFloat(offset + 8, positions[i * 3 + 2]);
+			
+			float u = i * 2 < texCoords.length ? texCoords[i * 2] : 0;
+			float v = i * 2 + 1 < texCoords.length ? texCoords[i * 2 + 1] : 0;
+			putTexCoord(buffer, texCoordStart + i * texCoordStride, u, v);
+			
+			float nx = i * 3 < normals.length ? normals[i * 3] : 0;
+			float ny = i * 3 + 1 < normals.length ? normals[i * 3 + 1] : 0;
+			float nz = i * 3 + 2 < normals.length ? normals[i * 3 + 2] : 0;
+			putNormal(buffer, normalStart + i * normalStride, nx, ny, nz);
+		}
+		return buffer;
+	}
+	
+	/**
+	 * Writes a single vertex of an interleaved layout at the given vertex
+	 * index.
+	 */
+	public void putVertex(ByteBuffer buffer, int index, float x, float y, float z, float u, float v, float nx, float ny, float nz) {
+		int offset = index * getVertexSize();
+		buffer.putFloat(offset, x);
+		buffer.putFloat(offset + 4, y);
+		buffer.putFloat(offset + 8, z);
+		putTexCoord(buffer, offset + 12, u, v);
+		putNormal(buffer, offset + 12 + texCoordSize, nx, ny, nz);
+	}
+	
+	private void putTexCoord(ByteBuffer buffer, int offset, float u, float v) {
+		if (texCoordType == GL_HALF_FLOAT) {
+			buffer.putShort(offset, toHalfFloat(u));
+			buffer.putShort(offset + 2, toHalfFloat(v));
+		} else {
+			buffer.putFloat(offset, u);
+			buffer.putFloat(offset + 4, v);
+		}
+	}
+	
+	private void putNormal(ByteBuffer buffer, int offset, float nx, float ny, float nz) {
+		if (normalType == GL_INT_2_10_10_10_REV) {
+			buffer.putInt(offset, packNormal(nx, ny, nz));
+		} else {
+			buffer.putFloat(offset, nx);
+			buffer.putFloat(offset + 4, ny);
+			buffer.putFloat(offset + 8, nz);
+		}
+	}
+	
+	/**
+	 * Writes the indices with this layout's index type into a new off-heap
+	 * buffer, which the caller must free.
+	 */
+	public ByteBuffer packIndices(int[] indices) {
+		ByteBuffer buffer = MemoryUtil.memAlloc(indices.length * getIndexSize());
+		if (indexType == GL_UNSIGNED_SHORT) {
+			for (int i = 0; i < indices.length; i++) {
+				buffer.putShort(i * 2, (short) indices[i]);
+			}
+		} else {
+			for (int i = 0; i < indices.length; i++) {
+				buffer.putInt(i * 4, indices[i]);
+			}
+		}
+		return buffer;
+	}
+	
+	public void putIndex(ByteBuffer buffer, int index, int value) {
+		if (indexType == GL_UNSIGNED_SHORT) {
+			buffer.putShort(index * 2, (short) value);
+		} else {
+			buffer.putInt(index * 4, value);
+		}
+	}
+	
+	/**
+	 * Signed normalized 10 bit components with w left at zero.
+	 */
+	public static int packNormal(float x, float y, float z) {
+		return (packSnorm10(z) << 20) | (packSnorm10(y) << 10) | packSnorm10(x);
+	}
+	
+	private static int packSnorm10(float value) {
+		float clamped = Math.max(-1.0f, Math.min(1.0f, value));
+		return Math.round(clamped * 511.0f) & 0x3FF;
+	}
+	
+	/**
+	 * Converts to IEEE 754 binary16, rounding to nearest even.
+	 */
+	public static short toHalfFloat(float value) {
+		int bits = Float.floatToRawIntBits(value);
+		int sign = (bits >>> 16) & 0x8000;
+		int exponent = (bits >>> 23) & 0xFF;
+		int mantissa = bits & 0x7FFFFF;
+		if (exponent == 0xFF) {
+			return (short) (sign | 0x7C00 | (mantissa != 0 ? 0x200 : 0));
+		}
+		int halfExponent = exponent - 127 + 15;
+		if (halfExponent >= 0x1F) {
+			return (short) (sign | 0x7C00);
+		}
+		if (halfExponent <= 0) {
+			if (halfExponent < -10) {
+				return (short) sign;
+			}
+			mantissa |= 0x800000;
+			int shift = 14 - halfExponent;
+			int half = mantissa >> shift;
+			int remainder = mantissa & ((1 << shift) - 1);
+			int halfway = 1 << (shift - 1);
+			if (remainder > halfway || (remainder == halfway && (half & 1) != 0)) {
+				half++;
+			}
+			return (short) (sign | half);
+		}
+		int half = (halfExponent << 10) | (mantissa >> 13);
+		int remainder = mantissa & 0x1FFF;
+		if (remainder > 0x1000 || (remainder == 0x1000 && (half & 1) != 0)) {
+			half++;
+		}
+		return (short) (sign | half);
+	}
+	
+}
@@ -0,0 +1,428 @@
+package com.clepto.fsengine.graphics.lighting;
+
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.*;
+
+import java.util.Arrays;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import com.clepto.fsengine.graphics.GLStateCache;
+import com.clepto.fsengine.graphics.shader.TextureBuffer;
+import com.clepto.fsengine.job.JobSystem;
+import com.clepto.fsengine.job.RangeJob;
+import com.clepto.fsengine.scene.SceneLight;
+
+/**
+ * Clustered light lists for forward shading. The view frustum is split into
+ * screen tiles and exponential depth slices, every point and spot light is
+ * bounded by the sphere beyond which its contribution falls under
+ * {@link #LIGHT_THRESHOLD}, and each cluster lists the lights whose sphere
+ * touches it. Slices are assigned in parallel on the {@link JobSystem}, each
+ * by one worker, so the lists need no synchronization.
+ * <p>
+ * The lights (four RGBA32F texels each, in view space), the offset and count
+ * of every cluster's list (RG32UI) and the concatenated lists (R16UI) are read
+ * by the scene fragment shader through buffer textures on
+ * {@link #LIGHT_DATA_UNIT}, {@link #CLUSTER_GRID_UNIT} and
+ * {@link #LIGHT_INDEX_UNIT}.
+ */
+public class LightClusters {
+	
+	public static final int CLUSTERS_X = 16;
+	
+	public static final int CLUSTERS_Y = 9;
+	
+	public static final int CLUSTERS_Z = 24;
+	
+	public static final int CLUSTER_COUNT = CLUSTERS_X * CLUSTERS_Y * CLUSTERS_Z;
+	
+	/**
+	 * Lights listed per cluster; further lights touching a full cluster are
+	 * dropped from it and counted in {@link #getOverflows()}.
+	 */
+	public static final int MAX_LIGHTS_PER_CLUSTER = 128;
+	
+	/**
+	 * Light indices are stored as unsigned shorts.
+	 */
+	public static final int MAX_LIGHTS = 1 << 16;
+	
+	/**
+	 * Fraction of a light's full color below which it no longer lights a
+	 * fragment.
+	 */
+	public static final float LIGHT_THRESHOLD = 1.0f / 256.0f;
+	
+	public static final int LIGHT_DATA_UNIT = 2;
+	
+	public static final int CLUSTER_GRID_UNIT = 3;
+	
+	public static final int LIGHT_INDEX_UNIT = 4;
+	
+	private static final int LIGHT_FLOATS = 16;
+	
+	private static final int POINT = 0;
+	
+	private static final int SPOT = 1;
+	
+	private final TextureBuffer lightData;
+	
+	private final TextureBuffer clusterGrid;
+	
+	private final TextureBuffer lightIndices;
+	
+	private final int[] clusterLights;
+	
+	private final int[] clusterCounts;
+	
+	private final int[] sliceOverflows;
+	
+	private final float[] tileX;
+	
+	private final float[] tileY;
+	
+	private final float[] sliceDepth;
+	
+	private final RangeJob assignJob;
+	
+	private final Vector3f aux;
+	
+	private float[] lights;
+	
+	private float[] spheres;
+	
+	private int[] lightSlices;
+	
+	private int lightCount;
+	
+	private int indexCount;
+	
+	private int width;
+	
+	private int height;
+	
+	private int tileWidth;
+	
+	private int tileHeight;
+	
+	private float projectionX;
+	
+	private float projectionY;
+	
+	private float sliceScale;
+	
+	private float sliceBias;
+	
+	public LightClusters() {
+		lightData = new TextureBuffer(GL_RGBA32F, 64 * LIGHT_FLOATS * 4);
+		clusterGrid = new TextureBuffer(GL_RG32UI, CLUSTER_COUNT * 8);
+		lightIndices = new TextureBuffer(GL_R16UI, CLUSTER_COUNT * 2);
+		clusterLights = new int[CLUSTER_COUNT * MAX_LIGHTS_PER_CLUSTER];
+		clusterCounts = new int[CLUSTER_COUNT];
+		sliceOverflows = new int[CLUSTERS_Z];
+		tileX = new float[CLUSTERS_X + 1];
+		tileY = new float[CLUSTERS_Y + 1];
+		sliceDepth = new float[CLUSTERS_Z + 1];
+		lights = new float[64 * LIGHT_FLOATS];
+		spheres = new float[64 * 4];
+		lightSlices = new int[64 * 2];
+		assignJob = this::assignSlices;
+		aux = new Vector3f();
+	}
+	
+	/**
+	 * Rebuilds the cluster lists for the frame and uploads them. The
+	 * projection must be a symmetric perspective with the given planes. Without
+	 * a job system the slices are assigned on the calling thread.
+	 */
+	public void update(Matrix4f projectionMatrix, Matrix4f viewMatrix, SceneLight sceneLight, int width, int height,
+			float zNear, float zFar, JobSystem jobSystem) {
+		setupGrid(projectionMatrix, width, height, zNear, zFar);
+		
+		lightCount = 0;
+		PointLight[] pointLights = sceneLight.getPointLights();
+		if (pointLights != null) {
+			for (PointLight pointLight : pointLights) {
+				addLight(pointLight, null, viewMatrix);
+			}
+		}
+		SpotLight[] spotLights = sceneLight.getSpotLights();
+		if (spotLights != null) {
+			for (SpotLight spotLight : spotLights) {
+				addLight(spotLight.getPointLight(), spotLight, viewMatrix);
+			}
+		}
+		
+		if (jobSystem != null) {
+			jobSystem.parallelFor(0, CLUSTERS_Z, 1, assignJob);
+		} else {
+			assignSlices(0, CLUSTERS_Z);
+		}
+		upload();
+	}
+	
+	private void setupGrid(Matrix4f projectionMatrix, int width, int height, float zNear, float zFar) {
+		this.width = Math.max(width, 1);
+		this.height = Math.max(height, 1);
+		tileWidth = (this.width + CLUSTERS_X - 1) / CLUSTERS_X;
+		tileHeight = (this.height + CLUSTERS_Y - 1) / CLUSTERS_Y;
+		for (int i = 0; i <= CLUSTERS_X; i++) {
+			tileX[i] = 2.0f * i * tileWidth / this.width - 1.0f;
+		}
+		for (int i = 0; i <= CLUSTERS_Y; i++) {
+			tileY[i] = 2.0f * i * tileHeight / this.height - 1.0f;
+		}
+		for (int i = 0; i <= CLUSTERS_Z; i++) {
+			sliceDepth[i] = (float) (zNear * Math.pow(zFar / zNear, (double) i / CLUSTERS_Z));
+		}
+		sliceScale = (float) (CLUSTERS_Z / Math.log(zFar / zNear));
+		sliceBias = (float) -Math.log(zNear) * sliceScale;
+		projectionX = projectionMatrix.m00();
+		projectionY = projectionMatrix.m11();
+	}
+	
+	/**
+	 * Adds the light in view space unless it is off or out of the depth range.
+	 */
+	private void addLight(PointLight pointLight, SpotLight spotLight, Matrix4f viewMatrix) {
+		if (lightCount >= MAX_LIGHTS || pointLight.getIntensity() <= 0) {
+			return;
+		}
+		float radius = getRange(pointLight);
+		if (radius <= 0) {
+			return;
+		}
+		pointLight.getPosition().mulPosition(viewMatrix, aux);
+		float depth = -aux.z;
+		if (depth + radius < sliceDepth[0] || depth - radius > sliceDepth[CLUSTERS_Z]) {
+			return;
+		}
+		if (lightCount * LIGHT_FLOATS >= lights.length) {
+			lights = Arrays.copyOf(lights, lights.length * 2);
+			spheres = Arrays.copyOf(spheres, spheres.length * 2);
+			lightSlices = Arrays.copyOf(lightSlices, lightSlices.length * 2);
+		}
+		
+		int sphere = lightCount * 4;
+		spheres[sphere] = aux.x;
+		spheres[sphere + 1] = aux.y;
+		spheres[sphere + 2] = depth;
+		spheres[sphere + 3] = radius;
+		lightSlices[lightCount * 2] = getSlice(depth - radius);
+		lightSlices[lightCount * 2 + 1] = getSlice(depth + radius);
+		
+		int offset = lightCount * LIGHT_FLOATS;
+		lights[offset] = aux.x;
+		lights[offset + 1] = aux.y;
+		lights[offset + 2] = aux.z;
+		lights[offset + 3] = spotLight != null ? SPOT : POINT;
+		Vector3f color = pointLight.getColor();
+		lights[offset + 4] = color.x;
+		lights[offset + 5] = color.y;
+		lights[offset + 6] = color.z;
+		lights[offset + 7] = pointLight.getIntensity();
+		PointLight.Attenuation att = pointLight.getAttenuation();
+		lights[offset + 8] = att.getConstant();
+		lights[offset + 9] = att.getLinear();
+		lights[offset + 10] = att.getExponent();
+		if (spotLight != null) {
+			spotLight.getConeDirection().mulDirection(viewMatrix, aux);
+			lights[offset + 11] = spotLight.getCutOff();
+			lights[offset + 12] = aux.x;
+			lights[offset + 13] = aux.y;
+			lights[offset + 14] = aux.z;
+		} else {
+			lights[offset + 11] = 0;
+			lights[offset + 12] = 0;
+			lights[offset + 13] = 0;
+			lights[offset + 14] = 0;
+		}
+		lights[offset + 15] = 0;
+		lightCount++;
+	}
+	
+	/**
+	 * Distance at which the light's attenuated color falls under
+	 * {@link #LIGHT_THRESHOLD}, infinite when it never does.
+	 */
+	public static float getRange(PointLight pointLight) {
+		Vector3f color = pointLight.getColor();
+		float brightest = Math.max(color.x, Math.max(color.y, color.z)) * pointLight.getIntensity();
+		float limit = brightest / LIGHT_THRESHOLD;
+		PointLight.Attenuation att = pointLight.getAttenuation();
+		float constant = att.getConstant() - limit;
+		if (constant >= 0) {
+			return 0;
+		}
+		float linear = att.getLinear();
+		float exponent = att.getExponent();
+		if (exponent > 0) {
+			return (float) ((-linear + Math.sqrt(linear * linear - 4 * exponent * constant)) / (2 * exponent));
+		}
+		if (linear > 0) {
+			return -constant / linear;
+		}
+		return Float.POSITIVE_INFINITY;
+	}
+	
+	private int getSlice(float depth) {
+		if (depth <= sliceDepth[0]) {
+			return 0;
+		}
+		int slice = (int) ((float) Math.log(depth) * sliceScale + sliceBias);
+		return Math.min(Math.max(slice, 0), CLUSTERS_Z - 1);
+	}
+	
+	private int getTile(float ndc, int size, int tileSize, int tiles) {
+		int tile = (int) Math.floor((ndc + 1.0f) * 0.5f * size / tileSize);
+		return Math.min(Math.max(tile, 0), tiles - 1);
+	}
+	
+	private void assignSlices(int from, int to) {
+		for (int slice = from; slice < to; slice++) {
+			int firstCluster = slice * CLUSTERS_X * CLUSTERS_Y;
+			Arrays.fill(clusterCounts, firstCluster, firstCluster + CLUSTERS_X * CLUSTERS_Y, 0);
+			sliceOverflows[slice] = 0;
+			float near = sliceDepth[slice];
+			float far = sliceDepth[slice + 1];
+			for (int light = 0; light < lightCount; light++) {
+				if (slice < lightSlices[light * 2] || slice > lightSlices[light * 2 + 1]) {
+					continue;
+				}
+				assignLight(light, slice, firstCluster, near, far);
+			}
+		}
+	}
+	
+	private void assignLight(int light, int slice, int firstCluster, float near, float far) {
+		float x = spheres[light * 4];
+		float y = spheres[light * 4 + 1];
+		float depth = spheres[light * 4 + 2];
+		float radius = spheres[light * 4 + 3];
+		
+		int minTileX = 0, maxTileX = CLUSTERS_X - 1;
+		int minTileY = 0, maxTileY = CLUSTERS_Y - 1;
+		if (radius != Float.POSITIVE_INFINITY) {
+			float t0 = Math.max(near, depth - radius);
+			float t1 = Math.min(far, depth + radius);
+			float minX = Math.min((x - radius) / t0, (x - radius) / t1) * projectionX;
+			float maxX = Math.max((x + radius) / t0, (x + radius) / t1) * projectionX;
+			float minY = Math.min((y - radius) / t0, (y - radius) / t1) * projectionY;
+			float maxY = Math.max((y + radius) / t0, (y + radius) / t1) * projectionY;
+			if (maxX < -1 || minX > 1 || maxY < -1 || minY > 1) {
+				return;
+			}
+			minTileX = getTile(minX, width, tileWidth, CLUSTERS_X);
+			maxTileX = getTile(maxX, width, tileWidth, CLUSTERS_X);
+			minTileY = getTile(minY, height, tileHeight, CLUSTERS_Y);
+			maxTileY = getTile(maxY, height, tileHeight, CLUSTERS_Y);
+		}
+		
+		float radiusSquared = radius * radius;
+		float dz = depth < near ? near - depth : depth > far ? depth - far : 0;
+		for (int ty = minTileY; ty <= maxTileY; ty++) {
+			float boxMinY = Math.min(tileY[ty] * near, tileY[ty] * far) / projectionY;
+			float boxMaxY = Math.max(tileY[ty + 1] * near, tileY[ty + 1] * far) / projectionY;
+			float dy = y < boxMinY ? boxMinY - y : y > boxMaxY ? y - boxMaxY : 0;
+			for (int tx = minTileX; tx <= maxTileX; tx++) {
+				float boxMinX = Math.min(tileX[tx] * near, tileX[tx] * far) / projectionX;
+				float boxMaxX = Math.max(tileX[tx + 1] * near, tileX[tx + 1] * far) / projectionX;
+				float dx = x < boxMinX ? boxMinX - x : x > boxMaxX ? x - boxMaxX : 0;
+				if (dx * dx + dy * dy + dz * dz > radiusSquared) {
+					continue;
+				}
+				int cluster = firstCluster + ty * CLUSTERS_X + tx;
+				int count = clusterCounts[cluster];
+				if (count == MAX_LIGHTS_PER_CLUSTER) {
+					sliceOverflows[slice]++;
+					continue;
+				}
+				clusterLights[cluster * MAX_LIGHTS_PER_CLUSTER + count] = light;
+				clusterCounts[cluster] = count + 1;
+			}
+		}
+	}
+	
+	private void upload() {
+		lightData.ensureCapacity(lightCount * LIGHT_FLOATS * 4);
+		for (int i = 0, n = lightCount * LIGHT_FLOATS; i < n; i++) {
+			lightData.putFloat(i * 4, lights[i]);
+		}
+		lightData.upload(lightCount * LIGHT_FLOATS * 4);
+		
+		indexCount = 0;
+		for (int cluster = 0; cluster < CLUSTER_COUNT; cluster++) {
+			indexCount += clusterCounts[cluster];
+		}
+		lightIndices.ensureCapacity(indexCount * 2);
+		int offset = 0;
+		for (int cluster = 0; cluster < CLUSTER_COUNT; cluster++) {
+			int count = clusterCounts[cluster];
+			clusterGrid.putInt(cluster * 8, offset);
+			clusterGrid.putInt(cluster * 8 + 4, count);
+			int first = cluster * MAX_LIGHTS_PER_CLUSTER;
+			for (int i = 0; i < count; i++) {
+				lightIndices.putShort((offset + i) * 2, (short) clusterLights[first + i]);
+			}
+			offset += count;
+		}
+		clusterGrid.upload(CLUSTER_COUNT * 8);
+		lightIndices.upload(indexCount * 2);
+	}
+	
+	public void bind(GLStateCache stateCache) {
+		stateCache.bindTexture(LIGHT_DATA_UNIT, GL_TEXTURE_BUFFER, lightData.getTextureId());
+		stateCache.bindTexture(CLUSTER_GRID_UNIT, GL_TEXTURE_BUFFER, clusterGrid.getTextureId());
+		stateCache.bindTexture(LIGHT_INDEX_UNIT, GL_TEXTURE_BUFFER, lightIndices.getTextureId());
+	}
+	
+	/**
+	 * Factor and offset turning the log of a view depth into a slice index.
+	 */
+	public float getSliceScale() {
+		return sliceScale;
+	}
+	
+	public float getSliceBias() {
+		return sliceBias;
+	}
+	
+	public int getTileWidth() {
+		return tileWidth;
+	}
+	
+	public int getTileHeight() {
+		return tileHeight;
+	}
+	
+	/**
+	 * Lights in range of the view in the last update.
+	 */
+	public int getLightCount() {
+		return lightCount;
+	}
+	
+	/**
+	 * Light references over all cluster lists in the last update.
+	 */
+	public int getIndexCount() {
+		return indexCount;
+	}
+	
+	public int getOverflows() {
+		int overflows = 0;
+		for (int slice = 0; slice < CLUSTERS_Z; slice++) {
+			overflows += sliceOverflows[slice];
+		}
+		return overflows;
+	}
+	
+	public void cleanup() {
+		lightData.cleanup();
+		clusterGrid.cleanup();
+		lightIndices.cleanup();
+	}
+	
+}
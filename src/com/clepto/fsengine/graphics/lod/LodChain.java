@@ -0,0 +1,142 @@
+package com.clepto.fsengine.graphics.lod;
+
+import java.util.Arrays;
+
+import com.clepto.fsengine.graphics.MeshData;
+
+/**
+ * Levels of detail of a mesh built by a {@link MeshSimplifier}, each with
+ * about half the triangles of the one before. All levels share the vertices
+ * of the source mesh and their indices follow each other in a single index
+ * buffer, the full detail level first. Like {@link MeshData} a chain can be
+ * built on any thread and must be released with {@link #free()}.
+ */
+public class LodChain {
+	
+	public static final int MAX_LEVELS = 6;
+	
+	public static final float LEVEL_REDUCTION = 0.5f;
+	
+	public static final int MIN_TRIANGLES = 32;
+	
+	/**
+	 * A level is dropped, ending the chain, unless it has at most this share
+	 * of the triangles of the level before.
+	 */
+	private static final float MAX_LEVEL_SHARE = 0.8f;
+	
+	/**
+	 * The chain also ends before a level whose error exceeds this share of
+	 * the size of the mesh, as the surface no longer resembles the source.
+	 */
+	private static final float MAX_ERROR_SHARE = 0.05f;
+	
+	private final MeshData data;
+	
+	private final int[] levelOffsets;
+	
+	private final int[] levelCounts;
+	
+	private final float[] levelErrors;
+	
+	private LodChain(MeshData data, int[] levelOffsets, int[] levelCounts, float[] levelErrors) {
+		this.data = data;
+		this.levelOffsets = levelOffsets;
+		this.levelCounts = levelCounts;
+		this.levelErrors = levelErrors;
+	}
+	
+	public static LodChain build(float[] positions, float[] texCoords, float[] normals, int[] indices) {
+		int[][] levels = new int[MAX_LEVELS][];
+		float[] errors = new float[MAX_LEVELS];
+		levels[0] = indices;
+		int levelCount = 1;
+		int total = indices.length;
+		float maxError = getSize(positions) * MAX_ERROR_SHARE;
+		MeshSimplifier simplifier = new MeshSimplifier(positions, indices);
+		while (levelCount < MAX_LEVELS) {
+			int previous = levels[levelCount - 1].length;
+			int target = (int) (previous / 3 * LEVEL_REDUCTION) * 3;
+			if (target < MIN_TRIANGLES * 3) {
+				break;
+			}
+			int[] level = simplifier.simplify(target);
+			if (level.length > previous * MAX_LEVEL_SHARE || simplifier.getError() > maxError) {
+				break;
+			}
+			levels[levelCount] = level;
+			errors[levelCount] = simplifier.getError();
+			total += level.length;
+			levelCount++;
+		}
+		
+		int[] chainIndices = new int[total];
+		int[] offsets = new int[levelCount];
+		int[] counts = new int[levelCount];
+		int offset = 0;
+		for (int i = 0; i < levelCount; i++) {
+			System.arraycopy(levels[i], 0, chainIndices, offset, levels[i].length);
+			offsets[i] = offset;
+			counts[i] = levels[i].length;
+			offset += levels[i].length;
+		}
+		MeshData data = new MeshData(positions, texCoords, normals, chainIndices);
+		return new LodChain(data, offsets, counts, Arrays.copyOf(errors, levelCount));
+	}
+	
+	/**
+	 * Length of the diagonal of the bounding box of the positions.
+	 */
+	private static float getSize(float[] positions) {
+		float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i + 2 < positions.length; i += 3) {
+			minX = Math.min(minX, positions[i]);
+			minY = Math.min(minY, positions[i + 1]);
+			minZ = Math.min(minZ, positions[i + 2]);
+			maxX = Math.max(maxX, positions[i]);
+			maxY = Math.max(maxY, positions[i + 1]);
+			maxZ = Math.max(maxZ, positions[i + 2]);
+		}
+		if (minX > maxX) {
+			return 0;
+		}
+		float dx = maxX - minX, dy = maxY - minY, dz = maxZ - minZ;
+		return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+	}
+	
+	/**
+	 * Vertices and the indices of every level, one after the other.
+	 */
+	public MeshData getData() {
+		return data;
+	}
+	
+	public int getLevelCount() {
+		return levelCounts.length;
+	}
+	
+	/**
+	 * First index of the level in the index buffer.
+	 */
+	public int getLevelOffset(int level) {
+		return levelOffsets[level];
+	}
+	
+	public int getLevelIndexCount(int level) {
+		return levelCounts[level];
+	}
+	
+	/**
+	 * Estimated distance, in model units, between the level and the full
+	 * detail surface. It never decreases from one level to the next.
+	 */
+	public float getLevelError(int level) {
+		return levelErrors[level];
+	}
+	
+	public void free() {
+		data.free();
+	}
+	
+}
@@ -0,0 +1,169 @@
+package com.clepto.fsengine.graphics.lod;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL31.*;
+
+import org.joml.Vector3f;
+
+import com.clepto.fsengine.graphics.GLStateCache;
+import com.clepto.fsengine.graphics.Material;
+import com.clepto.fsengine.graphics.Mesh;
+
+/**
+ * Mesh uploaded from a {@link LodChain}. Drawn directly it shows the full
+ * detail level; {@link #getLevel(int)} returns meshes drawing the simplified
+ * levels from the same buffers, sharing the material of this mesh.
+ * <p>
+ * {@link #selectLevel(int, float)} picks the coarsest level whose error
+ * covers at most {@link #getMaxScreenError()} pixels. Moving to a coarser
+ * level requires the error to fall a further {@link #HYSTERESIS} below the
+ * limit, so actors near a switching distance do not flicker between levels.
+ */
+public class LodMesh extends Mesh {
+	
+	public static final float DEFAULT_MAX_SCREEN_ERROR = 1.0f;
+	
+	public static final float HYSTERESIS = 0.25f;
+	
+	private final Mesh[] levels;
+	
+	private final float[] levelErrors;
+	
+	private final int indexCount;
+	
+	private float maxScreenError;
+	
+	/**
+	 * Uploads the chain. The chain is not freed.
+	 */
+	public LodMesh(LodChain chain) {
+		super(chain.getData());
+		int levelCount = chain.getLevelCount();
+		levels = new Mesh[levelCount];
+		levelErrors = new float[levelCount];
+		levels[0] = this;
+		for (int i = 1; i < levelCount; i++) {
+			levels[i] = new Level(chain.getLevelOffset(i), chain.getLevelIndexCount(i));
+			levelErrors[i] = chain.getLevelError(i);
+		}
+		indexCount = chain.getLevelIndexCount(0);
+		maxScreenError = DEFAULT_MAX_SCREEN_ERROR;
+	}
+	
+	public int getLevelCount() {
+		return levels.length;
+	}
+	
+	/**
+	 * The mesh drawing the given level, this mesh for level 0.
+	 */
+	public Mesh getLevel(int level) {
+		return levels[level];
+	}
+	
+	public float getLevelError(int level) {
+		return levelErrors[level];
+	}
+	
+	/**
+	 * Number of triangles of the given level.
+	 */
+	public int getTriangleCount(int level) {
+		return levels[level].getVertexCount() / 3;
+	}
+	
+	/**
+	 * The level to draw an actor at, given the level it was drawn at before
+	 * and how many pixels a unit of model space covers at its distance.
+	 */
+	public int selectLevel(int current, float pixelsPerUnit) {
+		int level = Math.max(0, Math.min(current, levels.length - 1));
+		while (level > 0 && levelErrors[level] * pixelsPerUnit > maxScreenError) {
+			level--;
+		}
+		float coarsenError = maxScreenError * (1 - HYSTERESIS);
+		while (level < levels.length - 1 && levelErrors[level + 1] * pixelsPerUnit <= coarsenError) {
+			level++;
+		}
+		return level;
+	}
+	
+	public float getMaxScreenError() {
+		return maxScreenError;
+	}
+	
+	public void setMaxScreenError(float maxScreenError) {
+		this.maxScreenError = maxScreenError;
+	}
+	
+	@Override
+	public void setMaterial(Material material) {
+		super.setMaterial(material);
+		if (levels != null) {
+			for (int i = 1; i < levels.length; i++) {
+				levels[i].setMaterial(material);
+			}
+		}
+	}
+	
+	@Override
+	public int getVertexCount() {
+		return indexCount;
+	}
+	
+	/**
+	 * A simplified level drawn from the buffers of the enclosing mesh.
+	 */
+	private class Level extends Mesh {
+		
+		private final long offset;
+		
+		private final int count;
+		
+		Level(int firstIndex, int count) {
+			super(LodMesh.this.getLayout());
+			offset = (long) firstIndex * getLayout().getIndexSize();
+			this.count = count;
+			Vector3f min = LodMesh.this.getBoundsMin();
+			Vector3f max = LodMesh.this.getBoundsMax();
+			setBounds(min.x, min.y, min.z, max.x, max.y, max.z);
+			setMaterial(LodMesh.this.getMaterial());
+		}
+		
+		@Override
+		public int getVaoId() {
+			return LodMesh.this.getVaoId();
+		}
+		
+		@Override
+		public int getVertexCount() {
+			return count;
+		}
+		
+		@Override
+		public int getVertexBufferId() {
+			return LodMesh.this.getVertexBufferId();
+		}
+		
+		@Override
+		public void draw(GLStateCache stateCache) {
+			stateCache.bindVertexArray(getVaoId());
+			glDrawElements(GL_TRIANGLES, count, getLayout().getIndexType(), offset);
+		}
+		
+		@Override
+		public void drawInstanced(int instances) {
+			glDrawElementsInstanced(GL_TRIANGLES, count, getLayout().getIndexType(), offset, instances);
+		}
+		
+		@Override
+		public void cleanUp() {
+		}
+		
+		@Override
+		public void deleteBuffers() {
+		}
+		
+	}
+	
+}
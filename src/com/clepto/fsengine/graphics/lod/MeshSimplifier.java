@@ -0,0 +1,488 @@
+package com.clepto.fsengine.graphics.lod;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reduces an indexed triangle list with quadric error metric edge collapses.
+ * Collapses move one end of an edge onto the other, so the simplified
+ * triangles only reference the original vertices and can share their vertex
+ * buffer. Vertices sharing their position with another vertex, which is
+ * where texture coordinate or normal seams split a mesh, are never moved, so
+ * seams keep their shape and attributes; vertices on open borders only move
+ * along the border. Collapses that would flip a triangle or make the surface
+ * non-manifold are rejected.
+ * <p>
+ * Every {@link #simplify(int)} continues from the previous result, so a
+ * chain of levels is built by asking for fewer and fewer indices.
+ */
+public class MeshSimplifier {
+	
+	private static final byte MANIFOLD = 0;
+	
+	private static final byte BORDER = 1;
+	
+	private static final byte LOCKED = 2;
+	
+	private static final int QUADRIC_SIZE = 11;
+	
+	private static final double BORDER_WEIGHT = 10.0;
+	
+	/**
+	 * Smallest cosine between the normals of a triangle before and after a
+	 * collapse.
+	 */
+	private static final double MIN_NORMAL_COSINE = 0.25;
+	
+	private final float[] positions;
+	
+	private final int vertexCount;
+	
+	private final int[] welded;
+	
+	private final boolean[] seams;
+	
+	private final double[] quadrics;
+	
+	private final byte[] kinds;
+	
+	private final int[] stamps;
+	
+	private int stamp;
+	
+	private final int[] indices;
+	
+	private int indexCount;
+	
+	private int[] triangleOffsets;
+	
+	private int[] vertexTriangles;
+	
+	private long[] edgeKeys;
+	
+	private int[] edgeCounts;
+	
+	private int edgeCount;
+	
+	private float error;
+	
+	public MeshSimplifier(float[] positions, int[] indices) {
+		this.positions = positions;
+		this.indices = Arrays.copyOf(indices, indices.length / 3 * 3);
+		vertexCount = positions.length / 3;
+		indexCount = this.indices.length;
+		welded = new int[vertexCount];
+		seams = new boolean[vertexCount];
+		kinds = new byte[vertexCount];
+		stamps = new int[vertexCount];
+		quadrics = new double[vertexCount * QUADRIC_SIZE];
+		weld();
+		countEdges();
+		computeQuadrics();
+	}
+	
+	/**
+	 * Maps every vertex to the first vertex with the same position and marks
+	 * the vertices that have such twins as seams.
+	 */
+	private void weld() {
+		Map<PositionKey, Integer> first = new HashMap<>();
+		for (int i = 0; i < vertexCount; i++) {
+			PositionKey key = new PositionKey(px(i), py(i), pz(i));
+			Integer head = first.putIfAbsent(key, i);
+			welded[i] = head == null ? i : head;
+			if (head != null) {
+				seams[i] = true;
+				seams[head] = true;
+			}
+		}
+	}
+	
+	/**
+	 * Counts the triangles on every edge of the position-welded surface into
+	 * a table sorted by edge key.
+	 */
+	private void countEdges() {
+		long[] keys = new long[indexCount];
+		for (int i = 0; i < indexCount; i++) {
+			keys[i] = edgeKey(indices[i], indices[i - i % 3 + (i % 3 + 1) % 3]);
+		}
+		Arrays.sort(keys);
+		edgeKeys = keys;
+		edgeCounts = new int[indexCount];
+		edgeCount = 0;
+		for (int i = 0; i < indexCount; i++) {
+			if (edgeCount > 0 && edgeKeys[edgeCount - 1] == keys[i]) {
+				edgeCounts[edgeCount - 1]++;
+			} else {
+				edgeKeys[edgeCount] = keys[i];
+				edgeCounts[edgeCount++] = 1;
+			}
+		}
+	}
+	
+	private int getEdgeTriangles(int a, int b) {
+		return edgeCounts[Arrays.binarySearch(edgeKeys, 0, edgeCount, edgeKey(a, b))];
+	}
+	
+	private long edgeKey(int a, int b) {
+		int wa = welded[a];
+		int wb = welded[b];
+		return ((long) Math.min(wa, wb) << 32) | Math.max(wa, wb);
+	}
+	
+	/**
+	 * Marks the vertices on edges of a single triangle as borders and the
+	 * ones on edges shared by more than two triangles, or on a seam, as
+	 * locked.
+	 */
+	private void classify() {
+		for (int i = 0; i < vertexCount; i++) {
+			kinds[i] = seams[i] ? LOCKED : MANIFOLD;
+		}
+		for (int i = 0; i < indexCount; i += 3) {
+			for (int k = 0; k < 3; k++) {
+				int a = indices[i + k];
+				int b = indices[i + (k + 1) % 3];
+				int count = getEdgeTriangles(a, b);
+				if (count == 1) {
+					kinds[a] = (byte) Math.max(kinds[a], BORDER);
+					kinds[b] = (byte) Math.max(kinds[b], BORDER);
+				} else if (count > 2) {
+					kinds[a] = LOCKED;
+					kinds[b] = LOCKED;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Area weighted plane quadrics of the faces around every vertex, plus
+	 * planes through border edges at right angles to their face, which keep
+	 * borders from drifting.
+	 */
+	private void computeQuadrics() {
+		for (int i = 0; i < indexCount; i += 3) {
+			int a = indices[i], b = indices[i + 1], c = indices[i + 2];
+			double abx = px(b) - px(a), aby = py(b) - py(a), abz = pz(b) - pz(a);
+			double acx = px(c) - px(a), acy = py(c) - py(a), acz = pz(c) - pz(a);
+			double nx = aby * acz - abz * acy;
+			double ny = abz * acx - abx * acz;
+			double nz = abx * acy - aby * acx;
+			double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+			if (length == 0) {
+				continue;
+			}
+			nx /= length;
+			ny /= length;
+			nz /= length;
+			double d = -(nx * px(a) + ny * py(a) + nz * pz(a));
+			double area = length * 0.5;
+			addPlane(a, nx, ny, nz, d, area);
+			addPlane(b, nx, ny, nz, d, area);
+			addPlane(c, nx, ny, nz, d, area);
+			
+			for (int k = 0; k < 3; k++) {
+				int u = indices[i + k];
+				int v = indices[i + (k + 1) % 3];
+				if (getEdgeTriangles(u, v) != 1) {
+					continue;
+				}
+				double ex = px(v) - px(u), ey = py(v) - py(u), ez = pz(v) - pz(u);
+				double bx = ey * nz - ez * ny;
+				double by = ez * nx - ex * nz;
+				double bz = ex * ny - ey * nx;
+				double edgeLength = Math.sqrt(bx * bx + by * by + bz * bz);
+				if (edgeLength == 0) {
+					continue;
+				}
+				bx /= edgeLength;
+				by /= edgeLength;
+				bz /= edgeLength;
+				double bd = -(bx * px(u) + by * py(u) + bz * pz(u));
+				double weight = BORDER_WEIGHT * edgeLength * edgeLength;
+				addPlane(u, bx, by, bz, bd, weight);
+				addPlane(v, bx, by, bz, bd, weight);
+			}
+		}
+	}
+	
+	private void addPlane(int vertex, double a, double b, double c, double d, double weight) {
+		int q = vertex * QUADRIC_SIZE;
+		quadrics[q] += weight * a * a;
+		quadrics[q + 1] += weight * a * b;
+		quadrics[q + 2] += weight * a * c;
+		quadrics[q + 3] += weight * a * d;
+		quadrics[q + 4] += weight * b * b;
+		quadrics[q + 5] += weight * b * c;
+		quadrics[q + 6] += weight * b * d;
+		quadrics[q + 7] += weight * c * c;
+		quadrics[q + 8] += weight * c * d;
+		quadrics[q + 9] += weight * d * d;
+		quadrics[q + 10] += weight;
+	}
+	
+	/**
+	 * Mean squared distance of the target vertex to the planes of the
+	 * combined quadric of both ends.
+	 */
+	private double collapseCost(int from, int to) {
+		int p = from * QUADRIC_SIZE;
+		int q = to * QUADRIC_SIZE;
+		double x = px(to), y = py(to), z = pz(to);
+		double cost = (quadrics[p] + quadrics[q]) * x * x
+				+ 2 * (quadrics[p + 1] + quadrics[q + 1]) * x * y
+				+ 2 * (quadrics[p + 2] + quadrics[q + 2]) * x * z
+				+ 2 * (quadrics[p + 3] + quadrics[q + 3]) * x
+				+ (quadrics[p + 4] + quadrics[q + 4]) * y * y
+				+ 2 * (quadrics[p + 5] + quadrics[q + 5]) * y * z
+				+ 2 * (quadrics[p + 6] + quadrics[q + 6]) * y
+				+ (quadrics[p + 7] + quadrics[q + 7]) * z * z
+				+ 2 * (quadrics[p + 8] + quadrics[q + 8]) * z
+				+ (quadrics[p + 9] + quadrics[q + 9]);
+		double weight = quadrics[p + 10] + quadrics[q + 10];
+		return weight > 0 ? Math.max(cost, 0) / weight : 0;
+	}
+	
+	/**
+	 * Collapses edges, cheapest first, until at most targetIndexCount indices
+	 * are left or no edge can be collapsed, and returns a copy of the
+	 * remaining indices.
+	 */
+	public int[] simplify(int targetIndexCount) {
+		while (indexCount > targetIndexCount) {
+			countEdges();
+			classify();
+			buildAdjacency();
+			if (collapsePass((indexCount - targetIndexCount) / 3) == 0) {
+				break;
+			}
+			compact();
+		}
+		return Arrays.copyOf(indices, indexCount);
+	}
+	
+	private void buildAdjacency() {
+		triangleOffsets = new int[vertexCount + 1];
+		for (int i = 0; i < indexCount; i++) {
+			triangleOffsets[indices[i] + 1]++;
+		}
+		for (int i = 0; i < vertexCount; i++) {
+			triangleOffsets[i + 1] += triangleOffsets[i];
+		}
+		vertexTriangles = new int[indexCount];
+		int[] fill = Arrays.copyOf(triangleOffsets, vertexCount);
+		for (int i = 0; i < indexCount; i++) {
+			vertexTriangles[fill[indices[i]]++] = i / 3;
+		}
+	}
+	
+	/**
+	 * Collapses independent edges in order of cost, none of them touching the
+	 * triangles changed by another collapse of the pass, and returns the
+	 * number of collapses. A pass is limited to a share of the candidates so
+	 * that later collapses are costed against the simplified surface.
+	 */
+	private int collapsePass(int trianglesToRemove) {
+		int[] from = new int[indexCount];
+		int[] to = new int[indexCount];
+		double[] costs = new double[indexCount];
+		long[] order = new long[indexCount];
+		int candidateCount = 0;
+		for (int i = 0; i < indexCount; i++) {
+			int a = indices[i];
+			int b = indices[i - i % 3 + (i % 3 + 1) % 3];
+			boolean border = getEdgeTriangles(a, b) == 1;
+			if (!border && a > b) {
+				continue;
+			}
+			double costAB = canCollapse(a, border) ? collapseCost(a, b) : Double.POSITIVE_INFINITY;
+			double costBA = canCollapse(b, border) ? collapseCost(b, a) : Double.POSITIVE_INFINITY;
+			if (costAB == Double.POSITIVE_INFINITY && costBA == Double.POSITIVE_INFINITY) {
+				continue;
+			}
+			boolean forward = costAB <= costBA;
+			from[candidateCount] = forward ? a : b;
+			to[candidateCount] = forward ? b : a;
+			costs[candidateCount] = Math.min(costAB, costBA);
+			order[candidateCount] = (long) Float.floatToIntBits((float) costs[candidateCount]) << 32 | candidateCount;
+			candidateCount++;
+		}
+		Arrays.sort(order, 0, candidateCount);
+		
+		boolean[] touched = new boolean[vertexCount];
+		int maxCollapses = Math.max(1, Math.min((trianglesToRemove + 1) / 2, candidateCount / 4));
+		int collapses = 0;
+		int removed = 0;
+		for (int i = 0; i < candidateCount && collapses < maxCollapses && removed < trianglesToRemove; i++) {
+			int candidate = (int) order[i];
+			int u = from[candidate];
+			int v = to[candidate];
+			if (touched[u] || touched[v] || !isLinkValid(u, v) || flips(u, v)) {
+				continue;
+			}
+			for (int j = triangleOffsets[u]; j < triangleOffsets[u + 1]; j++) {
+				int t = vertexTriangles[j] * 3;
+				boolean degenerate = false;
+				for (int k = 0; k < 3; k++) {
+					touched[indices[t + k]] = true;
+					degenerate |= indices[t + k] == v;
+				}
+				for (int k = 0; k < 3; k++) {
+					if (indices[t + k] == u) {
+						indices[t + k] = v;
+					}
+				}
+				if (degenerate) {
+					removed++;
+				}
+			}
+			int p = u * QUADRIC_SIZE;
+			int q = v * QUADRIC_SIZE;
+			for (int k = 0; k < QUADRIC_SIZE; k++) {
+				quadrics[q + k] += quadrics[p + k];
+			}
+			error = Math.max(error, (float) Math.sqrt(costs[candidate]));
+			collapses++;
+		}
+		return collapses;
+	}
+	
+	private boolean canCollapse(int vertex, boolean borderEdge) {
+		return kinds[vertex] == MANIFOLD || kinds[vertex] == BORDER && borderEdge;
+	}
+	
+	/**
+	 * Whether the ends of the edge share no neighbours other than the
+	 * corners of the triangles on the edge, without which the collapse would
+	 * fold the surface onto itself.
+	 */
+	private boolean isLinkValid(int u, int v) {
+		stamp += 2;
+		int shared = 0;
+		for (int j = triangleOffsets[u]; j < triangleOffsets[u + 1]; j++) {
+			int t = vertexTriangles[j] * 3;
+			boolean hasV = false;
+			for (int k = 0; k < 3; k++) {
+				stamps[welded[indices[t + k]]] = stamp;
+				hasV |= indices[t + k] == v;
+			}
+			if (hasV) {
+				shared++;
+			}
+		}
+		int common = 0;
+		for (int j = triangleOffsets[v]; j < triangleOffsets[v + 1]; j++) {
+			int t = vertexTriangles[j] * 3;
+			for (int k = 0; k < 3; k++) {
+				int w = welded[indices[t + k]];
+				if (stamps[w] == stamp && w != welded[u] && w != welded[v]) {
+					stamps[w] = stamp + 1;
+					common++;
+				}
+			}
+		}
+		return common <= shared;
+	}
+	
+	/**
+	 * Whether moving u onto v turns any remaining triangle of u around, or
+	 * close to edge on.
+	 */
+	private boolean flips(int u, int v) {
+		for (int j = triangleOffsets[u]; j < triangleOffsets[u + 1]; j++) {
+			int t = vertexTriangles[j] * 3;
+			int a = indices[t], b = indices[t + 1], c = indices[t + 2];
+			if (a == v || b == v || c == v) {
+				continue;
+			}
+			double[] before = normal(a, b, c);
+			double[] after = normal(a == u ? v : a, b == u ? v : b, c == u ? v : c);
+			double dot = before[0] * after[0] + before[1] * after[1] + before[2] * after[2];
+			double lengths = Math.sqrt((before[0] * before[0] + before[1] * before[1] + before[2] * before[2])
+					* (after[0] * after[0] + after[1] * after[1] + after[2] * after[2]));
+			if (dot <= MIN_NORMAL_COSINE * lengths) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private double[] normal(int a, int b, int c) {
+		double abx = px(b) - px(a), aby = py(b) - py(a), abz = pz(b) - pz(a);
+		double acx = px(c) - px(a), acy = py(c) - py(a), acz = pz(c) - pz(a);
+		return new double[] {
+				aby * acz - abz * acy,
+				abz * acx - abx * acz,
+				abx * acy - aby * acx
+		};
+	}
+	
+	/**
+	 * Drops the triangles that lost a corner to a collapse.
+	 */
+	private void compact() {
+		int count = 0;
+		for (int i = 0; i < indexCount; i += 3) {
+			int a = indices[i], b = indices[i + 1], c = indices[i + 2];
+			if (a != b && b != c && a != c) {
+				indices[count++] = a;
+				indices[count++] = b;
+				indices[count++] = c;
+			}
+		}
+		indexCount = count;
+	}
+	
+	/**
+	 * Largest distance, in model units, any collapse so far is estimated to
+	 * have moved the surface.
+	 */
+	public float getError() {
+		return error;
+	}
+	
+	public int getIndexCount() {
+		return indexCount;
+	}
+	
+	private float px(int vertex) {
+		return positions[vertex * 3];
+	}
+	
+	private float py(int vertex) {
+		return positions[vertex * 3 + 1];
+	}
+	
+	private float pz(int vertex) {
+		return positions[vertex * 3 + 2];
+	}
+	
+	private static final class PositionKey {
+		
+		private final float x, y, z;
+		
+		PositionKey(float x, float y, float z) {
+			this.x = x;
+			this.y = y;
+			this.z = z;
+		}
+		
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof PositionKey)) {
+				return false;
+			}
+			PositionKey key = (PositionKey) other;
+			return Float.compare(x, key.x) == 0 && Float.compare(y, key.y) == 0 && Float.compare(z, key.z) == 0;
+		}
+		
+		@Override
+		public int hashCode() {
+			return (Float.floatToIntBits(x) * 31 + Float.floatToIntBits(y)) * 31 + Float.floatToIntBits(z);
+		}
+		
+	}
+	
+}
@@ -0,0 +1,64 @@
+package com.clepto.fsengine.graphics.material;
+
+/**
+ * Where a {@link MaterialTable} keeps a material: its row in the material
+ * data and the layer of its textures in the arrays of its group. Materials
+ * of the same group share their texture arrays and can be drawn together.
+ */
+public class MaterialSlot {
+	
+	private final int index;
+	
+	private final int group;
+	
+	private final TextureArray textureArray;
+	
+	private final TextureArray normalArray;
+	
+	private final int textureLayer;
+	
+	private final int normalLayer;
+	
+	MaterialSlot(int index, int group, TextureArray textureArray, TextureArray normalArray, int textureLayer, int normalLayer) {
+		this.index = index;
+		this.group = group;
+		this.textureArray = textureArray;
+		this.normalArray = normalArray;
+		this.textureLayer = textureLayer;
+		this.normalLayer = normalLayer;
+	}
+	
+	public int getIndex() {
+		return index;
+	}
+	
+	/**
+	 * Number of the group, starting at 1.
+	 */
+	public int getGroup() {
+		return group;
+	}
+	
+	/**
+	 * Array holding the texture, or null for untextured materials.
+	 */
+	public TextureArray getTextureArray() {
+		return textureArray;
+	}
+	
+	public TextureArray getNormalArray() {
+		return normalArray;
+	}
+	
+	/**
+	 * Layer of the texture, or -1.
+	 */
+	public int getTextureLayer() {
+		return textureLayer;
+	}
+	
+	public int getNormalLayer() {
+		return normalLayer;
+	}
+	
+}
@@ -0,0 +1,235 @@
+package com.clepto.fsengine.graphics.material;
+
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joml.Vector4f;
+
+import com.clepto.fsengine.graphics.GLStateCache;
+import com.clepto.fsengine.graphics.Material;
+import com.clepto.fsengine.graphics.TextureData;
+import com.clepto.fsengine.graphics.shader.TextureBuffer;
+
+/**
+ * Materials read by the scene shader from a buffer texture instead of
+ * uniforms, with their textures stored as layers of texture arrays. Textures
+ * of the same size and format share an array, and normal maps go into a
+ * parallel array at the same layer, so materials of such a group can be
+ * drawn in one instanced batch, every instance picking its material by
+ * index.
+ * <p>
+ * Arrays have a fixed number of layers, as many as fit in
+ * {@link #ARRAY_BUDGET} bytes up to the driver limit; a full group is
+ * followed by a new one. Changes to the colours of a material already in
+ * the table are picked up after {@link #invalidate()}.
+ */
+public class MaterialTable {
+	
+	public static final int MATERIAL_DATA_UNIT = 5;
+	
+	public static final int TEXTURE_ARRAY_UNIT = 6;
+	
+	public static final int NORMAL_ARRAY_UNIT = 7;
+	
+	public static final long ARRAY_BUDGET = 64L << 20;
+	
+	public static final int MAX_LAYERS = 256;
+	
+	/**
+	 * Four texels per material: ambient, diffuse and specular colours, then
+	 * reflectance, texture layer and normal map layer.
+	 */
+	private static final int MATERIAL_BYTES = 4 * 16;
+	
+	private static final int UNTEXTURED_GROUP = 1;
+	
+	private final TextureBuffer materialData;
+	
+	private final List<Material> materials;
+	
+	private final List<Group> groups;
+	
+	private final int maxLayers;
+	
+	private boolean dirty;
+	
+	public MaterialTable() {
+		materialData = new TextureBuffer(GL_RGBA32F, 64 * MATERIAL_BYTES);
+		materials = new ArrayList<>();
+		groups = new ArrayList<>();
+		maxLayers = Math.min(MAX_LAYERS, glGetInteger(GL_MAX_ARRAY_TEXTURE_LAYERS));
+	}
+	
+	/**
+	 * Adds the material with the given texture and normal map, either of
+	 * which may be null, copying them into array layers. The data is not
+	 * freed. The 2D textures of the material are left alone; the scene
+	 * shader samples the arrays instead.
+	 */
+	public Material add(Material material, TextureData texture, TextureData normalMap) {
+		if (material.getSlot() != null) {
+			throw new IllegalArgumentException("Material is already in a table");
+		}
+		int group = UNTEXTURED_GROUP;
+		TextureArray textureArray = null;
+		TextureArray normalArray = null;
+		int layer = -1;
+		if (texture != null || normalMap != null) {
+			Group target = findGroup(texture, normalMap);
+			if (target == null) {
+				target = createGroup(texture, normalMap);
+			}
+			layer = target.layerCount++;
+			group = target.id;
+			textureArray = target.textures;
+			normalArray = target.normals;
+			if (texture != null) {
+				textureArray.setLayer(layer, texture);
+			}
+			if (normalMap != null) {
+				normalArray.setLayer(layer, normalMap);
+			}
+		}
+		material.setSlot(new MaterialSlot(materials.size(), group, textureArray, normalArray,
+				texture != null ? layer : -1, normalMap != null ? layer : -1));
+		materials.add(material);
+		dirty = true;
+		return material;
+	}
+	
+	private Group findGroup(TextureData texture, TextureData normalMap) {
+		for (Group group : groups) {
+			if (group.layerCount < group.capacity
+					&& (texture == null || group.textures != null && group.textures.fits(texture))
+					&& (normalMap == null || group.normals != null && group.normals.fits(normalMap))) {
+				return group;
+			}
+		}
+		return null;
+	}
+	
+	private Group createGroup(TextureData texture, TextureData normalMap) {
+		long layerSize = (texture != null ? texture.getMemorySize() : 0) + (normalMap != null ? normalMap.getMemorySize() : 0);
+		int capacity = (int) Math.max(1, Math.min(maxLayers, ARRAY_BUDGET / layerSize));
+		Group group = new Group(groups.size() + UNTEXTURED_GROUP + 1, capacity,
+				texture != null ? new TextureArray(texture, capacity) : null,
+				normalMap != null ? new TextureArray(normalMap, capacity) : null);
+		groups.add(group);
+		return group;
+	}
+	
+	/**
+	 * Marks the material data for upload, after colours of materials in the
+	 * table changed.
+	 */
+	public void invalidate() {
+		dirty = true;
+	}
+	
+	/**
+	 * Uploads the material data and rebuilds array mipmaps if anything
+	 * changed. Called once per frame before drawing.
+	 */
+	public void update() {
+		if (!dirty) {
+			return;
+		}
+		int size = materials.size() * MATERIAL_BYTES;
+		materialData.ensureCapacity(size);
+		for (int i = 0, n = materials.size(); i < n; i++) {
+			Material material = materials.get(i);
+			MaterialSlot slot = material.getSlot();
+			int offset = i * MATERIAL_BYTES;
+			putColor(offset, material.getAmbientColor());
+			putColor(offset + 16, material.getDiffuseColor());
+			putColor(offset + 32, material.getSpecularColor());
+			materialData.putFloat(offset + 48, material.getReflectance());
+			materialData.putFloat(offset + 52, slot.getTextureLayer());
+			materialData.putFloat(offset + 56, slot.getNormalLayer());
+			materialData.putFloat(offset + 60, 0);
+		}
+		materialData.upload(size);
+		for (Group group : groups) {
+			if (group.textures != null) {
+				group.textures.generateMipmaps();
+			}
+			if (group.normals != null) {
+				group.normals.generateMipmaps();
+			}
+		}
+		dirty = false;
+	}
+	
+	private void putColor(int offset, Vector4f color) {
+		materialData.putFloat(offset, color.x);
+		materialData.putFloat(offset + 4, color.y);
+		materialData.putFloat(offset + 8, color.z);
+		materialData.putFloat(offset + 12, color.w);
+	}
+	
+	/**
+	 * Binds the material data and the arrays of the group of the slot.
+	 */
+	public void bind(GLStateCache stateCache, MaterialSlot slot) {
+		stateCache.bindTexture(MATERIAL_DATA_UNIT, GL_TEXTURE_BUFFER, materialData.getTextureId());
+		if (slot.getTextureArray() != null) {
+			stateCache.bindTexture(TEXTURE_ARRAY_UNIT, GL_TEXTURE_2D_ARRAY, slot.getTextureArray().getId());
+		}
+		if (slot.getNormalArray() != null) {
+			stateCache.bindTexture(NORMAL_ARRAY_UNIT, GL_TEXTURE_2D_ARRAY, slot.getNormalArray().getId());
+		}
+	}
+	
+	public int getMaterialCount() {
+		return materials.size();
+	}
+	
+	/**
+	 * Number of texture groups, each with its own arrays.
+	 */
+	public int getGroupCount() {
+		return groups.size();
+	}
+	
+	public void cleanup() {
+		for (Group group : groups) {
+			if (group.textures != null) {
+				group.textures.cleanup();
+			}
+			if (group.normals != null) {
+				group.normals.cleanup();
+			}
+		}
+		groups.clear();
+		for (Material material : materials) {
+			material.setSlot(null);
+		}
+		materials.clear();
+		materialData.cleanup();
+	}
+	
+	private static final class Group {
+		
+		private final int id;
+		
+		private final int capacity;
+		
+		private final TextureArray textures;
+		
+		private final TextureArray normals;
+		
+		private int layerCount;
+		
+		Group(int id, int capacity, TextureArray textures, TextureArray normals) {
+			this.id = id;
+			this.capacity = capacity;
+			this.textures = textures;
+			this.normals = normals;
+		}
+		
+	}
+	
+}
@@ -0,0 +1,150 @@
+package com.clepto.fsengine.graphics.material;
+
+import static org.lwjgl.opengl.EXTTextureFilterAnisotropic.*;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.*;
+import static org.lwjgl.opengl.GL13.*;
+import static org.lwjgl.opengl.GL30.*;
+
+import java.nio.ByteBuffer;
+
+import org.lwjgl.opengl.GL;
+
+import com.clepto.fsengine.graphics.Texture;
+import com.clepto.fsengine.graphics.TextureData;
+
+/**
+ * A {@code GL_TEXTURE_2D_ARRAY} of a fixed number of layers of one size and
+ * format, filled a layer at a time from decoded {@link TextureData}.
+ * Compressed layers bring their own mip chain; mipmaps of uncompressed
+ * layers are generated by {@link #generateMipmaps()} once the layers of a
+ * frame have been added. Sampled like a {@link Texture}.
+ */
+public class TextureArray {
+	
+	private final int id;
+	
+	private final int width;
+	
+	private final int height;
+	
+	private final int internalFormat;
+	
+	private final int levelCount;
+	
+	private final int capacity;
+	
+	private boolean mipmapsDirty;
+	
+	/**
+	 * Allocates storage for the given number of layers shaped like the data,
+	 * without adding it.
+	 */
+	public TextureArray(TextureData shape, int capacity) {
+		this.width = shape.getWidth();
+		this.height = shape.getHeight();
+		this.internalFormat = shape.getInternalFormat();
+		this.levelCount = shape.isCompressed() ? shape.getLevelCount() : getFullLevelCount(width, height);
+		this.capacity = capacity;
+		
+		id = glGenTextures();
+		glBindTexture(GL_TEXTURE_2D_ARRAY, id);
+		for (int level = 0; level < levelCount; level++) {
+			int levelWidth = Math.max(width >> level, 1);
+			int levelHeight = Math.max(height >> level, 1);
+			if (shape.isCompressed()) {
+				int size = getCompressedSize(levelWidth, levelHeight) * capacity;
+				glCompressedTexImage3D(GL_TEXTURE_2D_ARRAY, level, internalFormat, levelWidth, levelHeight, capacity, 0, size, 0);
+			} else {
+				glTexImage3D(GL_TEXTURE_2D_ARRAY, level, GL_RGBA8, levelWidth, levelHeight, capacity, 0, GL_RGBA, GL_UNSIGNED_BYTE, (ByteBuffer) null);
+			}
+		}
+		glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MAX_LEVEL, levelCount - 1);
+		glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MIN_FILTER, levelCount > 1 ? GL_LINEAR_MIPMAP_LINEAR : GL_LINEAR);
+		glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+		if (GL.getCapabilities().GL_EXT_texture_filter_anisotropic) {
+			float anisotropy = Math.min(Texture.MAX_ANISOTROPY, glGetFloat(GL_MAX_TEXTURE_MAX_ANISOTROPY_EXT));
+			glTexParameterf(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MAX_ANISOTROPY_EXT, anisotropy);
+		}
+		glBindTexture(GL_TEXTURE_2D_ARRAY, 0);
+	}
+	
+	private static int getFullLevelCount(int width, int height) {
+		return 32 - Integer.numberOfLeadingZeros(Math.max(width, height));
+	}
+	
+	private int getCompressedSize(int levelWidth, int levelHeight) {
+		return ((levelWidth + 3) / 4) * ((levelHeight + 3) / 4) * TextureData.getBlockSize(internalFormat);
+	}
+	
+	/**
+	 * Whether the data has the size, format and mip levels of the layers.
+	 */
+	public boolean fits(TextureData data) {
+		return data.getWidth() == width && data.getHeight() == height
+				&& data.getInternalFormat() == internalFormat
+				&& (!data.isCompressed() || data.getLevelCount() == levelCount);
+	}
+	
+	/**
+	 * Copies the data into the layer. The data must {@link #fits(TextureData)
+	 * fit} the array and is not freed.
+	 */
+	public void setLayer(int layer, TextureData data) {
+		if (!fits(data) || layer < 0 || layer >= capacity) {
+			throw new IllegalArgumentException("Texture does not fit the array");
+		}
+		glBindTexture(GL_TEXTURE_2D_ARRAY, id);
+		glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+		ByteBuffer pixels = data.getPixels();
+		if (data.isCompressed()) {
+			for (int level = 0; level < levelCount; level++) {
+				int offset = data.getLevelOffset(level);
+				pixels.limit(offset + data.getLevelSize(level)).position(offset);
+				glCompressedTexSubImage3D(GL_TEXTURE_2D_ARRAY, level, 0, 0, layer,
+						Math.max(width >> level, 1), Math.max(height >> level, 1), 1, internalFormat, pixels);
+			}
+			pixels.clear();
+		} else {
+			glTexSubImage3D(GL_TEXTURE_2D_ARRAY, 0, 0, 0, layer, width, height, 1, GL_RGBA, GL_UNSIGNED_BYTE, pixels);
+			mipmapsDirty = levelCount > 1;
+		}
+		glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
+		glBindTexture(GL_TEXTURE_2D_ARRAY, 0);
+	}
+	
+	/**
+	 * Rebuilds the mipmaps of every layer if uncompressed layers were added
+	 * since the last call.
+	 */
+	public void generateMipmaps() {
+		if (!mipmapsDirty) {
+			return;
+		}
+		glBindTexture(GL_TEXTURE_2D_ARRAY, id);
+		glGenerateMipmap(GL_TEXTURE_2D_ARRAY);
+		glBindTexture(GL_TEXTURE_2D_ARRAY, 0);
+		mipmapsDirty = false;
+	}
+	
+	public int getId() {
+		return id;
+	}
+	
+	public int getWidth() {
+		return width;
+	}
+	
+	public int getHeight() {
+		return height;
+	}
+	
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	public void cleanup() {
+		glDeleteTextures(id);
+	}
+	
+}
@@ -0,0 +1,46 @@
+package com.clepto.fsengine.graphics.occlusion;
+
+import org.joml.Matrix4f;
+
+/**
+ * Triangles rasterized by the {@link OcclusionCuller} to hide what lies
+ * behind them. The triangles must stay inside the geometry they stand for,
+ * or visible actors may be culled; a coarse, shrunken copy of a large mesh
+ * is the usual occluder. Positions are transformed by the model matrix,
+ * which is the identity until the owner changes it.
+ */
+public class Occluder {
+	
+	private final float[] positions;
+	
+	private final int[] indices;
+	
+	private final Matrix4f modelMatrix;
+	
+	public Occluder(float[] positions, int[] indices) {
+		this.positions = positions;
+		this.indices = indices;
+		modelMatrix = new Matrix4f();
+	}
+	
+	public float[] getPositions() {
+		return positions;
+	}
+	
+	public int[] getIndices() {
+		return indices;
+	}
+	
+	public int getVertexCount() {
+		return positions.length / 3;
+	}
+	
+	public int getTriangleCount() {
+		return indices.length / 3;
+	}
+	
+	public Matrix4f getModelMatrix() {
+		return modelMatrix;
+	}
+	
+}
@@ -0,0 +1,448 @@
+package com.clepto.fsengine.graphics.occlusion;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import com.clepto.fsengine.job.JobSystem;
+import com.clepto.fsengine.job.RangeJob;
+
+/**
+ * Software occlusion culling on the CPU. Every frame the {@link Occluder}s
+ * are transformed, clipped against the near plane and binned into square
+ * screen tiles of a small depth buffer, then the tiles are rasterized in
+ * parallel, each by a single worker, keeping the nearest reciprocal clip w
+ * of every pixel. A hierarchical-Z pyramid keeping the farthest depth of
+ * every 2x2 block is built on top. Bounding boxes are tested from the level
+ * where their screen rectangle covers at most 2x2 texels, descending only
+ * into the texels that do not hide them as a whole.
+ * <p>
+ * Needs no GL context; without a job system the tiles are rasterized on the
+ * calling thread.
+ */
+public class OcclusionCuller {
+	
+	public static final int DEFAULT_WIDTH = 256;
+	
+	public static final int DEFAULT_HEIGHT = 144;
+	
+	public static final int TILE_SIZE = 16;
+	
+	private static final float MIN_W = 1e-5f;
+	
+	private static final int TRIANGLE_FLOATS = 9;
+	
+	/**
+	 * Sub-pixel steps vertices are snapped to, so the edge functions are
+	 * exact and the pixel centers on an edge shared by two triangles are
+	 * covered by both.
+	 */
+	private static final int SUBPIXELS = 16;
+	
+	private final int width;
+	
+	private final int height;
+	
+	private final int tilesX;
+	
+	private final int tilesY;
+	
+	private final float[] depth;
+	
+	private final int[] levelOffsets;
+	
+	private final int[] levelWidths;
+	
+	private final int[] levelHeights;
+	
+	private final int levelCount;
+	
+	private final int[][] tileTriangles;
+	
+	private final int[] tileCounts;
+	
+	private final Matrix4f projViewMatrix;
+	
+	private final Matrix4f transform;
+	
+	private final float[] polygon;
+	
+	private final RangeJob rasterizeJob;
+	
+	private float[] clip;
+	
+	private float[] triangles;
+	
+	private int triangleCount;
+	
+	public OcclusionCuller() {
+		this(DEFAULT_WIDTH, DEFAULT_HEIGHT);
+	}
+	
+	public OcclusionCuller(int width, int height) {
+		this.width = width;
+		this.height = height;
+		tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+		tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+		
+		int levels = 1;
+		for (int w = width, h = height; w > 1 || h > 1; w = (w + 1) / 2, h = (h + 1) / 2) {
+			levels++;
+		}
+		levelCount = levels;
+		levelOffsets = new int[levels];
+		levelWidths = new int[levels];
+		levelHeights = new int[levels];
+		int size = 0;
+		for (int level = 0, w = width, h = height; level < levels; level++, w = (w + 1) / 2, h = (h + 1) / 2) {
+			levelOffsets[level] = size;
+			levelWidths[level] = w;
+			levelHeights[level] = h;
+			size += w * h;
+		}
+		depth = new float[size];
+		
+		tileTriangles = new int[tilesX * tilesY][64];
+		tileCounts = new int[tilesX * tilesY];
+		projViewMatrix = new Matrix4f();
+		transform = new Matrix4f();
+		polygon = new float[4 * 4];
+		rasterizeJob = this::rasterizeTiles;
+		clip = new float[1024 * 4];
+		triangles = new float[1024 * TRIANGLE_FLOATS];
+	}
+	
+	/**
+	 * Rasterizes the occluders seen through the given matrices and rebuilds
+	 * the depth pyramid.
+	 */
+	public void update(Matrix4f projectionMatrix, Matrix4f viewMatrix, List<Occluder> occluders, JobSystem jobSystem) {
+		projViewMatrix.set(projectionMatrix).mul(viewMatrix);
+		triangleCount = 0;
+		Arrays.fill(tileCounts, 0);
+		for (int i = 0, n = occluders.size(); i < n; i++) {
+			setupOccluder(occluders.get(i));
+		}
+		
+		if (jobSystem != null) {
+			jobSystem.parallelFor(0, tilesX * tilesY, 1, rasterizeJob);
+		} else {
+			rasterizeTiles(0, tilesX * tilesY);
+		}
+		buildPyramid();
+	}
+	
+	private void setupOccluder(Occluder occluder) {
+		transform.set(projViewMatrix).mul(occluder.getModelMatrix());
+		float[] positions = occluder.getPositions();
+		int vertexCount = occluder.getVertexCount();
+		if (vertexCount * 4 > clip.length) {
+			clip = new float[Math.max(vertexCount * 4, clip.length * 2)];
+		}
+		for (int i = 0; i < vertexCount; i++) {
+			float x = positions[i * 3];
+			float y = positions[i * 3 + 1];
+			float z = positions[i * 3 + 2];
+			clip[i * 4] = transform.m00() * x + transform.m10() * y + transform.m20() * z + transform.m30();
+			clip[i * 4 + 1] = transform.m01() * x + transform.m11() * y + transform.m21() * z + transform.m31();
+			clip[i * 4 + 2] = transform.m02() * x + transform.m12() * y + transform.m22() * z + transform.m32();
+			clip[i * 4 + 3] = transform.m03() * x + transform.m13() * y + transform.m23() * z + transform.m33();
+		}
+		int[] indices = occluder.getIndices();
+		for (int i = 0; i + 2 < indices.length; i += 3) {
+			clipTriangle(indices[i] * 4, indices[i + 1] * 4, indices[i + 2] * 4);
+		}
+	}
+	
+	/**
+	 * Clips the triangle against the near plane, z + w = 0 in clip space,
+	 * and bins the one or two resulting triangles.
+	 */
+	private void clipTriangle(int a, int b, int c) {
+		float da = clip[a + 2] + clip[a + 3];
+		float db = clip[b + 2] + clip[b + 3];
+		float dc = clip[c + 2] + clip[c + 3];
+		if (da >= 0 && db >= 0 && dc >= 0) {
+			binTriangle(clip, a, b, c);
+			return;
+		}
+		if (da < 0 && db < 0 && dc < 0) {
+			return;
+		}
+		int count = 0;
+		count = clipEdge(a, da, b, db, count);
+		count = clipEdge(b, db, c, dc, count);
+		count = clipEdge(c, dc, a, da, count);
+		binTriangle(polygon, 0, 4, 8);
+		if (count == 4) {
+			binTriangle(polygon, 0, 8, 12);
+		}
+	}
+	
+	private int clipEdge(int from, float dFrom, int to, float dTo, int count) {
+		if (dFrom >= 0) {
+			System.arraycopy(clip, from, polygon, count * 4, 4);
+			count++;
+		}
+		if ((dFrom >= 0) != (dTo >= 0)) {
+			float t = dFrom / (dFrom - dTo);
+			for (int i = 0; i < 4; i++) {
+				polygon[count * 4 + i] = clip[from + i] + (clip[to + i] - clip[from + i]) * t;
+			}
+			count++;
+		}
+		return count;
+	}
+	
+	private void binTriangle(float[] vertices, int a, int b, int c) {
+		if (triangleCount * TRIANGLE_FLOATS >= triangles.length) {
+			triangles = Arrays.copyOf(triangles, triangles.length * 2);
+		}
+		int offset = triangleCount * TRIANGLE_FLOATS;
+		float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+		for (int k = 0; k < 3; k++) {
+			int vertex = k == 0 ? a : k == 1 ? b : c;
+			float invW = 1.0f / Math.max(vertices[vertex + 3], MIN_W);
+			float x = (vertices[vertex] * invW * 0.5f + 0.5f) * width;
+			float y = (vertices[vertex + 1] * invW * 0.5f + 0.5f) * height;
+			triangles[offset++] = x;
+			triangles[offset++] = y;
+			triangles[offset++] = invW;
+			minX = Math.min(minX, x);
+			minY = Math.min(minY, y);
+			maxX = Math.max(maxX, x);
+			maxY = Math.max(maxY, y);
+		}
+		if (maxX < 0 || maxY < 0 || minX > width || minY > height) {
+			return;
+		}
+		int minTileX = Math.max((int) minX / TILE_SIZE, 0);
+		int minTileY = Math.max((int) minY / TILE_SIZE, 0);
+		int maxTileX = Math.min((int) maxX / TILE_SIZE, tilesX - 1);
+		int maxTileY = Math.min((int) maxY / TILE_SIZE, tilesY - 1);
+		for (int ty = minTileY; ty <= maxTileY; ty++) {
+			for (int tx = minTileX; tx <= maxTileX; tx++) {
+				int tile = ty * tilesX + tx;
+				int count = tileCounts[tile];
+				if (count == tileTriangles[tile].length) {
+					tileTriangles[tile] = Arrays.copyOf(tileTriangles[tile], count * 2);
+				}
+				tileTriangles[tile][count] = triangleCount;
+				tileCounts[tile] = count + 1;
+			}
+		}
+		triangleCount++;
+	}
+	
+	private void rasterizeTiles(int from, int to) {
+		for (int tile = from; tile < to; tile++) {
+			int x0 = (tile % tilesX) * TILE_SIZE;
+			int y0 = (tile / tilesX) * TILE_SIZE;
+			int x1 = Math.min(x0 + TILE_SIZE, width);
+			int y1 = Math.min(y0 + TILE_SIZE, height);
+			for (int y = y0; y < y1; y++) {
+				Arrays.fill(depth, y * width + x0, y * width + x1, 0);
+			}
+			int[] list = tileTriangles[tile];
+			for (int i = 0, n = tileCounts[tile]; i < n; i++) {
+				rasterizeTriangle(list[i] * TRIANGLE_FLOATS, x0, y0, x1, y1);
+			}
+		}
+	}
+	
+	/**
+	 * Keeps the nearest depth of the triangle at the centers of the covered
+	 * pixels of the tile. Both windings are drawn.
+	 */
+	private void rasterizeTriangle(int offset, int tileX0, int tileY0, int tileX1, int tileY1) {
+		long ax = Math.round((double) triangles[offset] * SUBPIXELS), ay = Math.round((double) triangles[offset + 1] * SUBPIXELS);
+		long bx = Math.round((double) triangles[offset + 3] * SUBPIXELS), by = Math.round((double) triangles[offset + 4] * SUBPIXELS);
+		long cx = Math.round((double) triangles[offset + 6] * SUBPIXELS), cy = Math.round((double) triangles[offset + 7] * SUBPIXELS);
+		float az = triangles[offset + 2], bz = triangles[offset + 5], cz = triangles[offset + 8];
+		long area = (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+		if (area == 0) {
+			return;
+		}
+		if (area < 0) {
+			long t = bx; bx = cx; cx = t;
+			t = by; by = cy; cy = t;
+			float tz = bz; bz = cz; cz = tz;
+			area = -area;
+		}
+		
+		int x0 = (int) Math.max(tileX0, ceilDiv(Math.min(ax, Math.min(bx, cx)) - SUBPIXELS / 2, SUBPIXELS));
+		int y0 = (int) Math.max(tileY0, ceilDiv(Math.min(ay, Math.min(by, cy)) - SUBPIXELS / 2, SUBPIXELS));
+		int x1 = (int) Math.min(tileX1 - 1, Math.floorDiv(Math.max(ax, Math.max(bx, cx)) - SUBPIXELS / 2, SUBPIXELS));
+		int y1 = (int) Math.min(tileY1 - 1, Math.floorDiv(Math.max(ay, Math.max(by, cy)) - SUBPIXELS / 2, SUBPIXELS));
+		if (x0 > x1 || y0 > y1) {
+			return;
+		}
+		
+		// Edge functions, positive inside, stepped per pixel
+		long abX = (ay - by) * SUBPIXELS, abY = (bx - ax) * SUBPIXELS;
+		long bcX = (by - cy) * SUBPIXELS, bcY = (cx - bx) * SUBPIXELS;
+		long caX = (cy - ay) * SUBPIXELS, caY = (ax - cx) * SUBPIXELS;
+		long px = (long) x0 * SUBPIXELS + SUBPIXELS / 2;
+		long py = (long) y0 * SUBPIXELS + SUBPIXELS / 2;
+		long abRow = (ay - by) * (px - ax) + (bx - ax) * (py - ay);
+		long bcRow = (by - cy) * (px - bx) + (cx - bx) * (py - by);
+		long caRow = (cy - ay) * (px - cx) + (ax - cx) * (py - cy);
+		float invArea = 1.0f / area;
+		float za = az * invArea, zb = bz * invArea, zc = cz * invArea;
+		
+		for (int y = y0; y <= y1; y++) {
+			long ab = abRow, bc = bcRow, ca = caRow;
+			for (int x = x0, i = y * width + x0; x <= x1; x++, i++) {
+				float z = za * bc + zb * ca + zc * ab;
+				boolean inside = (ab | bc | ca) >= 0;
+				depth[i] = inside && z > depth[i] ? z : depth[i];
+				ab += abX;
+				bc += bcX;
+				ca += caX;
+			}
+			abRow += abY;
+			bcRow += bcY;
+			caRow += caY;
+		}
+	}
+	
+	private static long ceilDiv(long x, long y) {
+		return -Math.floorDiv(-x, y);
+	}
+	
+	private void buildPyramid() {
+		for (int level = 1; level < levelCount; level++) {
+			int source = levelOffsets[level - 1];
+			int sourceWidth = levelWidths[level - 1];
+			int sourceHeight = levelHeights[level - 1];
+			int target = levelOffsets[level];
+			int targetWidth = levelWidths[level];
+			for (int y = 0, h = levelHeights[level]; y < h; y++) {
+				int row0 = source + (y * 2) * sourceWidth;
+				int row1 = source + Math.min(y * 2 + 1, sourceHeight - 1) * sourceWidth;
+				for (int x = 0; x < targetWidth; x++) {
+					int x0 = x * 2;
+					int x1 = Math.min(x0 + 1, sourceWidth - 1);
+					float farthest = Math.min(Math.min(depth[row0 + x0], depth[row0 + x1]),
+							Math.min(depth[row1 + x0], depth[row1 + x1]));
+					depth[target + y * targetWidth + x] = farthest;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Whether the world space box is hidden behind the occluders of the last
+	 * update. Only the part of the box on screen is tested; boxes crossing the
+	 * near plane are never reported hidden. Safe to call from several threads.
+	 */
+	public boolean isOccluded(Vector3f min, Vector3f max) {
+		if (triangleCount == 0) {
+			return false;
+		}
+		Matrix4f m = projViewMatrix;
+		float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+		float nearest = 0;
+		for (int corner = 0; corner < 8; corner++) {
+			float x = (corner & 1) == 0 ? min.x : max.x;
+			float y = (corner & 2) == 0 ? min.y : max.y;
+			float z = (corner & 4) == 0 ? min.z : max.z;
+			float w = m.m03() * x + m.m13() * y + m.m23() * z + m.m33();
+			float clipZ = m.m02() * x + m.m12() * y + m.m22() * z + m.m32();
+			if (w < MIN_W || clipZ + w < 0) {
+				return false;
+			}
+			float invW = 1.0f / w;
+			float sx = ((m.m00() * x + m.m10() * y + m.m20() * z + m.m30()) * invW * 0.5f + 0.5f) * width;
+			float sy = ((m.m01() * x + m.m11() * y + m.m21() * z + m.m31()) * invW * 0.5f + 0.5f) * height;
+			minX = Math.min(minX, sx);
+			minY = Math.min(minY, sy);
+			maxX = Math.max(maxX, sx);
+			maxY = Math.max(maxY, sy);
+			nearest = Math.max(nearest, invW);
+		}
+		if (maxX < 0 || maxY < 0 || minX >= width || minY >= height) {
+			return false;
+		}
+		
+		int x0 = Math.max((int) minX, 0), y0 = Math.max((int) minY, 0);
+		int x1 = Math.min((int) maxX, width - 1), y1 = Math.min((int) maxY, height - 1);
+		int level = 0;
+		while (level < levelCount - 1 && ((x1 >> level) - (x0 >> level) > 1 || (y1 >> level) - (y0 >> level) > 1)) {
+			level++;
+		}
+		for (int y = y0 >> level; y <= y1 >> level; y++) {
+			for (int x = x0 >> level; x <= x1 >> level; x++) {
+				if (!isHidden(level, x, y, x0, y0, x1, y1, nearest)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Whether the pixels of the rectangle under the texel are all nearer
+	 * than the given depth, descending into the children of texels that are
+	 * not nearer as a whole.
+	 */
+	private boolean isHidden(int level, int x, int y, int x0, int y0, int x1, int y1, float nearest) {
+		if (depth[levelOffsets[level] + y * levelWidths[level] + x] > nearest) {
+			return true;
+		}
+		if (level == 0) {
+			return false;
+		}
+		int child = level - 1;
+		int maxY = Math.min(y * 2 + 1, y1 >> child);
+		int maxX = Math.min(x * 2 + 1, x1 >> child);
+		for (int cy = Math.max(y * 2, y0 >> child); cy <= maxY; cy++) {
+			for (int cx = Math.max(x * 2, x0 >> child); cx <= maxX; cx++) {
+				if (!isHidden(child, cx, cy, x0, y0, x1, y1, nearest)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Nearest reciprocal clip w at the pixel after the last update, 0 where
+	 * no occluder was drawn.
+	 */
+	public float getDepth(int x, int y) {
+		return depth[y * width + x];
+	}
+	
+	/**
+	 * Farthest reciprocal clip w of the texel of the given pyramid level.
+	 */
+	public float getDepth(int level, int x, int y) {
+		return depth[levelOffsets[level] + y * levelWidths[level] + x];
+	}
+	
+	public int getLevelCount() {
+		return levelCount;
+	}
+	
+	/**
+	 * Occluder triangles binned in the last update, after near plane
+	 * clipping.
+	 */
+	public int getTriangleCount() {
+		return triangleCount;
+	}
+	
+	public int getWidth() {
+		return width;
+	}
+	
+	public int getHeight() {
+		return height;
+	}
+	
+}
@@ -0,0 +1,27 @@
+package com.clepto.fsengine.graphics.shader;
+
+/**
+ * Locations of the fields of a material struct uniform, resolved once by
+ * {@link ShaderProgram#createMaterialUniform(String)}.
+ */
+public class MaterialUniform {
+	
+	final int ambient;
+	
+	final int diffuse;
+	
+	final int specular;
+	
+	final int hasTexture;
+	
+	final int reflectance;
+	
+	MaterialUniform(int ambient, int diffuse, int specular, int hasTexture, int reflectance) {
+		this.ambient = ambient;
+		this.diffuse = diffuse;
+		this.specular = specular;
+		this.hasTexture = hasTexture;
+		this.reflectance = reflectance;
+	}
+	
+}
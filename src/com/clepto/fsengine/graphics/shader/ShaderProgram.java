@@ -1,6 +1,7 @@
 package com.clepto.fsengine.graphics.shader;
 
 import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL31.*;
 
 import java.nio.FloatBuffer;
 import java.util.HashMap;
@@ -9,7 +10,7 @@ import java.util.Map;
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
 import org.joml.Vector4f;
-import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
 
 import com.clepto.fsengine.graphics.Material;
 import com.clepto.fsengine.graphics.lighting.DirectionalLight;
@@ -27,20 +28,44 @@ public class ShaderProgram {
 	
 	private final Map<String, Integer> uniforms;
 	
+	private FloatBuffer matrixBuffer;
+	
 	public ShaderProgram() throws Exception {
 		programId = glCreateProgram();
 		if (programId == 0) {
 			throw new Exception("Couldn't create shader program");
 		}
 		uniforms = new HashMap<>();
+		matrixBuffer = MemoryUtil.memAllocFloat(16);
 	}
 	
-	public void createUniform(String uniformName) throws Exception {
+	/**
+	 * Looks the uniform up once and returns its location, to be kept by the
+	 * caller and passed to the int based setters on every frame.
+	 */
+	public int createUniform(String uniformName) throws Exception {
 		int uniformLocation = glGetUniformLocation(programId, uniformName);
 		if (uniformLocation < 0) {
 			throw new Exception("Could not find uniform: " + uniformName);
 		}
 		uniforms.put(uniformName, uniformLocation);
+		return uniformLocation;
+	}
+	
+	public int getUniformLocation(String uniformName) {
+		Integer uniformLocation = uniforms.get(uniformName);
+		return uniformLocation != null ? uniformLocation : -1;
+	}
+	
+	/**
+	 * Routes the named uniform block to a {@link UniformBuffer} binding point.
+	 */
+	public void bindUniformBlock(String blockName, int bindingPoint) throws Exception {
+		int blockIndex = glGetUniformBlockIndex(programId, blockName);
+		if (blockIndex == GL_INVALID_INDEX) {
+			throw new Exception("Could not find uniform block: " + blockName);
+		}
+		glUniformBlockBinding(programId, blockIndex, bindingPoint);
 	}
 	
 	public void createPointLightListUniform(String uniformName, int size) throws Exception {
@@ -76,12 +101,13 @@ public class ShaderProgram {
 		createUniform(uniformName + ".intensity");
 	}
 	
-	public void createMaterialUniform(String uniformName) throws Exception {
-		createUniform(uniformName + ".ambient");
-		createUniform(uniformName + ".diffuse");
-		createUniform(uniformName + ".specular");
-		createUniform(uniformName + ".hasTexture");
-		createUniform(uniformName + ".reflectance");
+	public MaterialUniform createMaterialUniform(String uniformName) throws Exception {
+		return new MaterialUniform(
+				createUniform(uniformName + ".ambient"),
+				createUniform(uniformName + ".diffuse"),
+				createUniform(uniformName + ".specular"),
+				createUniform(uniformName + ".hasTexture"),
+				createUniform(uniformName + ".reflectance"));
 	}
 	
 	public void createFogUniform(String uniformName) throws Exception {
@@ -90,28 +116,53 @@ public class ShaderProgram {
 		createUniform(uniformName + ".density");
 	}
 	
+	public void setUniform(int location, Matrix4f value) {
+		value.get(matrixBuffer);
+		glUniformMatrix4fv(location, false, matrixBuffer);
+	}
+	
+	public void setUniform(int location, int value) {
+		glUniform1i(location, value);
+	}
+	
+	public void setUniform(int location, float value) {
+		glUniform1f(location, value);
+	}
+	
+	public void setUniform(int location, Vector3f value) {
+		glUniform3f(location, value.x, value.y, value.z);
+	}
+	
+	public void setUniform(int location, Vector4f value) {
+		glUniform4f(location, value.x, value.y, value.z, value.w);
+	}
+	
+	public void setUniform(MaterialUniform uniform, Material material) {
+		setUniform(uniform.ambient, material.getAmbientColor());
+		setUniform(uniform.diffuse, material.getDiffuseColor());
+		setUniform(uniform.specular, material.getSpecularColor());
+		setUniform(uniform.hasTexture, material.isTextured() ? 1 : 0);
+		setUniform(uniform.reflectance, material.getReflectance());
+	}
+	
 	public void setUniform(String uniformName, Matrix4f value) {
-		try (MemoryStack stack = MemoryStack.stackPush()) {
-			FloatBuffer fb = stack.mallocFloat(16);
-			value.get(fb);
-			glUniformMatrix4fv(uniforms.get(uniformName), false, fb); 
-		}
+		setUniform(getUniformLocation(uniformName), value);
 	}
 	
 	public void setUniform(String uniformName, int value) {
-		glUniform1i(uniforms.get(uniformName), value);
+		setUniform(getUniformLocation(uniformName), value);
 	}
 	
 	public void setUniform(String uniformName, float value) {
-		glUniform1f(uniforms.get(uniformName), value);
+		setUniform(getUniformLocation(uniformName), value);
 	}
 	
 	public void setUniform(String uniformName, Vector3f value) {
-		glUniform3f(uniforms.get(uniformName), value.x, value.y, value.z);
+		setUniform(getUniformLocation(uniformName), value);
 	}
 	
 	public void setUniform(String uniformName, Vector4f value) {
-		glUniform4f(uniforms.get(uniformName), value.x, value.y, value.z, value.w);
+		setUniform(getUniformLocation(uniformName), value);
 	}
 	
 	public void setUniform(String uniformName, PointLight[] pointLights) {
@@ -210,6 +261,10 @@ public class ShaderProgram {
 		}
 	}
 	
+	public int getProgramId() {
+		return programId;
+	}
+	
 	public void bind () {
 		glUseProgram(programId);
 	}
@@ -223,6 +278,10 @@ public class ShaderProgram {
 		if (programId != 0) {
 			glDeleteProgram(programId);
 		}
+		if (matrixBuffer != null) {
+			MemoryUtil.memFree(matrixBuffer);
+			matrixBuffer = null;
+		}
 	}
 	
 }
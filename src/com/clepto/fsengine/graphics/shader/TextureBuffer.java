@@ -0,0 +1,104 @@
+package com.clepto.fsengine.graphics.shader;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL31.*;
+
+import java.nio.ByteBuffer;
+
+import org.lwjgl.system.MemoryUtil;
+
+/**
+ * Buffer object read by shaders as a {@code samplerBuffer} through a buffer
+ * texture of the given internal format. Like {@link UniformBuffer} values are
+ * written into an off-heap staging copy, which grows on demand, and sent with
+ * a single {@link #upload(int)} that orphans the previous storage.
+ */
+public class TextureBuffer {
+	
+	private final int bufferId;
+	
+	private final int textureId;
+	
+	private final int internalFormat;
+	
+	private int capacity;
+	
+	private ByteBuffer data;
+	
+	public TextureBuffer(int internalFormat, int capacity) {
+		this.internalFormat = internalFormat;
+		this.capacity = Math.max(capacity, 16);
+		data = MemoryUtil.memCalloc(this.capacity);
+		bufferId = glGenBuffers();
+		glBindBuffer(GL_TEXTURE_BUFFER, bufferId);
+		glBufferData(GL_TEXTURE_BUFFER, this.capacity, GL_STREAM_DRAW);
+		glBindBuffer(GL_TEXTURE_BUFFER, 0);
+		
+		textureId = glGenTextures();
+		glBindTexture(GL_TEXTURE_BUFFER, textureId);
+		glTexBuffer(GL_TEXTURE_BUFFER, internalFormat, bufferId);
+		glBindTexture(GL_TEXTURE_BUFFER, 0);
+	}
+	
+	/**
+	 * Grows the staging copy to at least the given size, keeping its contents.
+	 */
+	public void ensureCapacity(int size) {
+		if (size > data.capacity()) {
+			data = MemoryUtil.memRealloc(data, Math.max(size, data.capacity() * 2));
+			data.clear();
+		}
+	}
+	
+	public ByteBuffer getData() {
+		return data;
+	}
+	
+	public void putFloat(int offset, float value) {
+		data.putFloat(offset, value);
+	}
+	
+	public void putInt(int offset, int value) {
+		data.putInt(offset, value);
+	}
+	
+	public void putShort(int offset, short value) {
+		data.putShort(offset, value);
+	}
+	
+	/**
+	 * Sends the first size bytes of the staging copy. The buffer storage
+	 * grows with the staging copy; the texture follows it since it refers to
+	 * the buffer object, not to its storage.
+	 */
+	public void upload(int size) {
+		capacity = Math.max(capacity, data.capacity());
+		glBindBuffer(GL_TEXTURE_BUFFER, bufferId);
+		glBufferData(GL_TEXTURE_BUFFER, capacity, GL_STREAM_DRAW);
+		if (size > 0) {
+			data.limit(size);
+			glBufferSubData(GL_TEXTURE_BUFFER, 0, data);
+			data.clear();
+		}
+		glBindBuffer(GL_TEXTURE_BUFFER, 0);
+	}
+	
+	public int getTextureId() {
+		return textureId;
+	}
+	
+	public int getInternalFormat() {
+		return internalFormat;
+	}
+	
+	public void cleanup() {
+		glDeleteTextures(textureId);
+		glDeleteBuffers(bufferId);
+		if (data != null) {
+			MemoryUtil.memFree(data);
+			data = null;
+		}
+	}
+	
+}
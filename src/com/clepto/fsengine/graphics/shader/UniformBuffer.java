@@ -0,0 +1,104 @@
+package com.clepto.fsengine.graphics.shader;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL31.*;
+
+import java.nio.ByteBuffer;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+import org.lwjgl.system.MemoryUtil;
+
+/**
+ * Uniform buffer object laid out by the caller with std140 offsets. Values are
+ * written into an off-heap staging copy and sent to the GPU with a single
+ * {@link #upload()}, which orphans the previous storage.
+ */
+public class UniformBuffer {
+	
+	private final int uboId;
+	
+	private final int size;
+	
+	private ByteBuffer data;
+	
+	public UniformBuffer(int size) {
+		this.size = size;
+		uboId = glGenBuffers();
+		data = MemoryUtil.memCalloc(size);
+		glBindBuffer(GL_UNIFORM_BUFFER, uboId);
+		glBufferData(GL_UNIFORM_BUFFER, size, GL_DYNAMIC_DRAW);
+		glBindBuffer(GL_UNIFORM_BUFFER, 0);
+	}
+	
+	/**
+	 * Minimum offset alignment for {@link #bindRange(int, int, int)}.
+	 */
+	public static int getOffsetAlignment() {
+		return glGetInteger(GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT);
+	}
+	
+	public static int align(int offset, int alignment) {
+		return (offset + alignment - 1) / alignment * alignment;
+	}
+	
+	public void bindBase(int bindingPoint) {
+		glBindBufferBase(GL_UNIFORM_BUFFER, bindingPoint, uboId);
+	}
+	
+	public void bindRange(int bindingPoint, int offset, int rangeSize) {
+		glBindBufferRange(GL_UNIFORM_BUFFER, bindingPoint, uboId, offset, rangeSize);
+	}
+	
+	public void putMatrix(int offset, Matrix4f value) {
+		value.get(offset, data);
+	}
+	
+	public void putVector(int offset, Vector3f value) {
+		value.get(offset, data);
+	}
+	
+	public void putVector(int offset, Vector4f value) {
+		value.get(offset, data);
+	}
+	
+	public void putVector(int offset, float x, float y, float z) {
+		data.putFloat(offset, x);
+		data.putFloat(offset + 4, y);
+		data.putFloat(offset + 8, z);
+	}
+	
+	public void putFloat(int offset, float value) {
+		data.putFloat(offset, value);
+	}
+	
+	public void putInt(int offset, int value) {
+		data.putInt(offset, value);
+	}
+	
+	public void clear(int offset, int length) {
+		MemoryUtil.memSet(MemoryUtil.memAddress(data) + offset, 0, length);
+	}
+	
+	public void upload() {
+		glBindBuffer(GL_UNIFORM_BUFFER, uboId);
+		glBufferData(GL_UNIFORM_BUFFER, size, GL_DYNAMIC_DRAW);
+		glBufferSubData(GL_UNIFORM_BUFFER, 0, data);
+		glBindBuffer(GL_UNIFORM_BUFFER, 0);
+	}
+	
+	public int getSize() {
+		return size;
+	}
+	
+	public void cleanup() {
+		glDeleteBuffers(uboId);
+		if (data != null) {
+			MemoryUtil.memFree(data);
+			data = null;
+		}
+	}
+	
+}
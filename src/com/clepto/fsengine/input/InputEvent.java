@@ -0,0 +1,82 @@
+package com.clepto.fsengine.input;
+
+/**
+ * A single input event read from an {@link InputEventQueue}. Instances are
+ * meant to be reused, {@link InputEventQueue#poll(InputEvent)} overwrites
+ * every field.
+ */
+public class InputEvent {
+	
+	public static final int KEY = 1;
+	
+	public static final int MOUSE_BUTTON = 2;
+	
+	public static final int CURSOR_POS = 3;
+	
+	public static final int CURSOR_ENTER = 4;
+	
+	public static final int SCROLL = 5;
+	
+	int type;
+	
+	long time;
+	
+	int code;
+	
+	int action;
+	
+	int mods;
+	
+	double x;
+	
+	double y;
+	
+	/**
+	 * One of {@link #KEY}, {@link #MOUSE_BUTTON}, {@link #CURSOR_POS},
+	 * {@link #CURSOR_ENTER} or {@link #SCROLL}.
+	 */
+	public int getType() {
+		return type;
+	}
+	
+	/**
+	 * {@link System#nanoTime()} at which the callback fired.
+	 */
+	public long getTime() {
+		return time;
+	}
+	
+	/**
+	 * GLFW key or mouse button code. For {@link #CURSOR_ENTER} events 1 when
+	 * the cursor entered the window and 0 when it left.
+	 */
+	public int getCode() {
+		return code;
+	}
+	
+	/**
+	 * GLFW_PRESS, GLFW_RELEASE or GLFW_REPEAT.
+	 */
+	public int getAction() {
+		return action;
+	}
+	
+	public int getMods() {
+		return mods;
+	}
+	
+	/**
+	 * Cursor x position or horizontal scroll offset.
+	 */
+	public double getX() {
+		return x;
+	}
+	
+	/**
+	 * Cursor y position or vertical scroll offset.
+	 */
+	public double getY() {
+		return y;
+	}
+	
+}
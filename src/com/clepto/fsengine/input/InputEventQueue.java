@@ -0,0 +1,141 @@
+package com.clepto.fsengine.input;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single producer, single consumer ring buffer of timestamped
+ * input events. The GLFW callbacks running inside glfwPollEvents are the
+ * producer and the thread running the update tick is the consumer. Events are
+ * stored in preallocated parallel arrays, so neither side allocates. When the
+ * ring is full new events are dropped and counted.
+ */
+public class InputEventQueue {
+	
+	public static final int DEFAULT_CAPACITY = 1024;
+	
+	private final int mask;
+	
+	private final int[] types;
+	
+	private final long[] times;
+	
+	private final int[] codes;
+	
+	private final int[] actions;
+	
+	private final int[] mods;
+	
+	private final double[] xs;
+	
+	private final double[] ys;
+	
+	private final AtomicLong head;
+	
+	private final AtomicLong tail;
+	
+	private long cachedHead;
+	
+	private long cachedTail;
+	
+	private volatile long droppedEvents;
+	
+	public InputEventQueue() {
+		this(DEFAULT_CAPACITY);
+	}
+	
+	public InputEventQueue(int capacity) {
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		mask = size - 1;
+		types = new int[size];
+		times = new long[size];
+		codes = new int[size];
+		actions = new int[size];
+		mods = new int[size];
+		xs = new double[size];
+		ys = new double[size];
+		head = new AtomicLong();
+		tail = new AtomicLong();
+	}
+	
+	public boolean pushKey(int key, int action, int mods) {
+		return push(InputEvent.KEY, key, action, mods, 0, 0);
+	}
+	
+	public boolean pushMouseButton(int button, int action, int mods) {
+		return push(InputEvent.MOUSE_BUTTON, button, action, mods, 0, 0);
+	}
+	
+	public boolean pushCursorPos(double x, double y) {
+		return push(InputEvent.CURSOR_POS, 0, 0, 0, x, y);
+	}
+	
+	public boolean pushCursorEnter(boolean entered) {
+		return push(InputEvent.CURSOR_ENTER, entered ? 1 : 0, 0, 0, 0, 0);
+	}
+	
+	public boolean pushScroll(double xOffset, double yOffset) {
+		return push(InputEvent.SCROLL, 0, 0, 0, xOffset, yOffset);
+	}
+	
+	private boolean push(int type, int code, int action, int mod, double x, double y) {
+		long h = head.get();
+		if (h - cachedTail > mask) {
+			cachedTail = tail.get();
+			if (h - cachedTail > mask) {
+				droppedEvents++;
+				return false;
+			}
+		}
+		int index = (int) h & mask;
+		types[index] = type;
+		times[index] = System.nanoTime();
+		codes[index] = code;
+		actions[index] = action;
+		mods[index] = mod;
+		xs[index] = x;
+		ys[index] = y;
+		head.lazySet(h + 1);
+		return true;
+	}
+	
+	/**
+	 * Copies the oldest event into the given instance and removes it.
+	 *
+	 * @return false if the queue was empty
+	 */
+	public boolean poll(InputEvent event) {
+		long t = tail.get();
+		if (t >= cachedHead) {
+			cachedHead = head.get();
+			if (t >= cachedHead) {
+				return false;
+			}
+		}
+		int index = (int) t & mask;
+		event.type = types[index];
+		event.time = times[index];
+		event.code = codes[index];
+		event.action = actions[index];
+		event.mods = mods[index];
+		event.x = xs[index];
+		event.y = ys[index];
+		tail.lazySet(t + 1);
+		return true;
+	}
+	
+	public int size() {
+		return (int) (head.get() - tail.get());
+	}
+	
+	public int getCapacity() {
+		return mask + 1;
+	}
+	
+	/**
+	 * Events lost because the consumer fell a full ring behind.
+	 */
+	public long getDroppedEvents() {
+		return droppedEvents;
+	}
+	
+}
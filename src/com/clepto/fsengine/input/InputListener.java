@@ -0,0 +1,11 @@
+package com.clepto.fsengine.input;
+
+@FunctionalInterface
+public interface InputListener {
+	
+	/**
+	 * The event is reused for the next one and must not be kept.
+	 */
+	void onEvent(InputEvent event);
+	
+}
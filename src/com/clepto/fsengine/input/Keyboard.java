@@ -0,0 +1,56 @@
+package com.clepto.fsengine.input;
+
+import static org.lwjgl.glfw.GLFW.*;
+
+import java.util.Arrays;
+
+/**
+ * Key state rebuilt from {@link InputEvent#KEY} events. Besides the held
+ * state it remembers which keys went down or up since the last tick, so a
+ * press and release inside one tick is not lost.
+ */
+public class Keyboard {
+	
+	private final boolean[] down;
+	
+	private final boolean[] pressed;
+	
+	private final boolean[] released;
+	
+	public Keyboard() {
+		down = new boolean[GLFW_KEY_LAST + 1];
+		pressed = new boolean[GLFW_KEY_LAST + 1];
+		released = new boolean[GLFW_KEY_LAST + 1];
+	}
+	
+	public void beginTick() {
+		Arrays.fill(pressed, false);
+		Arrays.fill(released, false);
+	}
+	
+	public void onKey(int key, int action) {
+		if (key < 0 || key > GLFW_KEY_LAST) {
+			return;
+		}
+		if (action == GLFW_PRESS) {
+			down[key] = true;
+			pressed[key] = true;
+		} else if (action == GLFW_RELEASE) {
+			down[key] = false;
+			released[key] = true;
+		}
+	}
+	
+	public boolean isKeyDown(int key) {
+		return key >= 0 && key <= GLFW_KEY_LAST && down[key];
+	}
+	
+	public boolean wasKeyPressed(int key) {
+		return key >= 0 && key <= GLFW_KEY_LAST && pressed[key];
+	}
+	
+	public boolean wasKeyReleased(int key) {
+		return key >= 0 && key <= GLFW_KEY_LAST && released[key];
+	}
+	
+}
@@ -0,0 +1,75 @@
+package com.clepto.fsengine.job;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single node of a {@link JobGraph}. A job is scheduled once every job it
+ * depends on has completed. Jobs can only depend on jobs added to the graph
+ * before them, which keeps the graph acyclic.
+ */
+public class Job {
+	
+	private final JobGraph graph;
+	
+	private final Runnable task;
+	
+	private final int index;
+	
+	private final List<Job> dependents;
+	
+	private final AtomicInteger pendingDependencies;
+	
+	private volatile boolean done;
+	
+	Job(JobGraph graph, Runnable task, int index) {
+		this.graph = graph;
+		this.task = task;
+		this.index = index;
+		dependents = new ArrayList<>(2);
+		pendingDependencies = new AtomicInteger();
+	}
+	
+	public Job dependsOn(Job... jobs) {
+		for (Job job : jobs) {
+			if (job.graph != graph) {
+				throw new IllegalArgumentException("Jobs can only depend on jobs of the same graph");
+			}
+			if (job.index >= index) {
+				throw new IllegalArgumentException("Jobs can only depend on jobs added before them");
+			}
+			graph.checkNotSubmitted();
+			job.dependents.add(this);
+			pendingDependencies.incrementAndGet();
+		}
+		return this;
+	}
+	
+	void execute(JobSystem jobSystem) {
+		try {
+			if (!graph.isFailed()) {
+				task.run();
+			}
+		} catch (Throwable t) {
+			graph.fail(t);
+		} finally {
+			done = true;
+			for (Job dependent : dependents) {
+				if (dependent.pendingDependencies.decrementAndGet() == 0) {
+					jobSystem.schedule(dependent);
+				}
+			}
+			graph.jobCompleted();
+		}
+	}
+	
+	boolean isRoot() {
+		return pendingDependencies.get() == 0;
+	}
+	
+	public boolean isDone() {
+		return done;
+	}
+	
+}
@@ -0,0 +1,111 @@
+package com.clepto.fsengine.job;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Directed acyclic graph of {@link Job}s, usually built once per frame and
+ * handed to {@link JobSystem#submit(JobGraph)}.
+ */
+public class JobGraph {
+	
+	private final JobSystem jobSystem;
+	
+	private final List<Job> jobs;
+	
+	private final AtomicInteger remaining;
+	
+	private final boolean frameScoped;
+	
+	private volatile boolean submitted;
+	
+	private volatile Throwable failure;
+	
+	JobGraph(JobSystem jobSystem, boolean frameScoped) {
+		this.jobSystem = jobSystem;
+		this.frameScoped = frameScoped;
+		jobs = new ArrayList<>();
+		remaining = new AtomicInteger();
+	}
+	
+	public Job add(Runnable task, Job... dependencies) {
+		checkNotSubmitted();
+		Job job = new Job(this, task, jobs.size());
+		job.dependsOn(dependencies);
+		jobs.add(job);
+		return job;
+	}
+	
+	public void await() {
+		synchronized (this) {
+			while (remaining.get() > 0) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+		rethrowFailure();
+	}
+	
+	public boolean isDone() {
+		return submitted && remaining.get() == 0;
+	}
+	
+	public int size() {
+		return jobs.size();
+	}
+	
+	List<Job> getJobs() {
+		return jobs;
+	}
+	
+	boolean isFrameScoped() {
+		return frameScoped;
+	}
+	
+	void markSubmitted() {
+		checkNotSubmitted();
+		submitted = true;
+		remaining.set(jobs.size());
+	}
+	
+	void checkNotSubmitted() {
+		if (submitted) {
+			throw new IllegalStateException("Job graph has already been submitted");
+		}
+	}
+	
+	void jobCompleted() {
+		if (remaining.decrementAndGet() == 0) {
+			synchronized (this) {
+				notifyAll();
+			}
+			jobSystem.graphCompleted(this);
+		}
+	}
+	
+	void fail(Throwable t) {
+		if (failure == null) {
+			failure = t;
+		}
+	}
+	
+	boolean isFailed() {
+		return failure != null;
+	}
+	
+	Throwable getFailure() {
+		return failure;
+	}
+	
+	void rethrowFailure() {
+		if (failure != null) {
+			throw new RuntimeException("Job failed", failure);
+		}
+	}
+	
+}
@@ -0,0 +1,270 @@
+package com.clepto.fsengine.job;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Work-stealing job system shared by the engine and the application. Frame
+ * graphs submitted with {@link #submit(JobGraph)} are awaited by
+ * {@link #sync()}, which the engine calls once per frame before rendering.
+ * Background jobs are never waited on by the frame.
+ */
+public class JobSystem {
+	
+	private final ForkJoinPool pool;
+	
+	private final int workerCount;
+	
+	private final AtomicInteger pendingFrameGraphs;
+	
+	private final AtomicInteger pendingJobs;
+	
+	private final AtomicLong completedJobs;
+	
+	private final LongAdder busyNanos;
+	
+	private final Object frameLock;
+	
+	private volatile Throwable frameFailure;
+	
+	private long lastSampleTime;
+	
+	private long lastSampleBusyNanos;
+	
+	public JobSystem() {
+		this(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+	}
+	
+	public JobSystem(int workerCount) {
+		this.workerCount = workerCount;
+		AtomicInteger threadCount = new AtomicInteger();
+		pool = new ForkJoinPool(workerCount, p -> {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+			thread.setName("JOB_WORKER_" + threadCount.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}, null, false);
+		pendingFrameGraphs = new AtomicInteger();
+		pendingJobs = new AtomicInteger();
+		completedJobs = new AtomicLong();
+		busyNanos = new LongAdder();
+		frameLock = new Object();
+		lastSampleTime = System.nanoTime();
+	}
+	
+	public JobGraph createGraph() {
+		return new JobGraph(this, true);
+	}
+	
+	public JobGraph createBackgroundGraph() {
+		return new JobGraph(this, false);
+	}
+	
+	public JobGraph submit(JobGraph graph) {
+		if (graph.isFrameScoped()) {
+			pendingFrameGraphs.incrementAndGet();
+		}
+		graph.markSubmitted();
+		if (graph.size() == 0) {
+			graphCompleted(graph);
+			return graph;
+		}
+		pendingJobs.addAndGet(graph.size());
+		List<Job> roots = new ArrayList<>();
+		for (Job job : graph.getJobs()) {
+			if (job.isRoot()) {
+				roots.add(job);
+			}
+		}
+		for (Job root : roots) {
+			schedule(root);
+		}
+		return graph;
+	}
+	
+	public Job submit(Runnable task) {
+		JobGraph graph = createGraph();
+		Job job = graph.add(task);
+		submit(graph);
+		return job;
+	}
+	
+	public Job submitBackground(Runnable task) {
+		JobGraph graph = createBackgroundGraph();
+		Job job = graph.add(task);
+		submit(graph);
+		return job;
+	}
+	
+	/**
+	 * Splits [start, end) into chunks of at least grainSize and runs them on
+	 * the workers, returning once every chunk has run.
+	 */
+	public void parallelFor(int start, int end, int grainSize, RangeJob job) {
+		if (end <= start) {
+			return;
+		}
+		RangeAction action = new RangeAction(job, start, end, Math.max(1, grainSize));
+		if (end - start <= grainSize) {
+			action.compute();
+		} else if (ForkJoinTask.getPool() == pool) {
+			action.invoke();
+		} else {
+			pool.invoke(action);
+		}
+	}
+	
+	public void sync() {
+		synchronized (frameLock) {
+			while (pendingFrameGraphs.get() > 0) {
+				try {
+					frameLock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+		Throwable failure = frameFailure;
+		if (failure != null) {
+			frameFailure = null;
+			throw new RuntimeException("Frame job failed", failure);
+		}
+	}
+	
+	void schedule(Job job) {
+		JobAction action = new JobAction(job);
+		if (ForkJoinTask.getPool() == pool) {
+			action.fork();
+		} else {
+			pool.execute(action);
+		}
+	}
+	
+	void graphCompleted(JobGraph graph) {
+		if (graph.isFrameScoped()) {
+			if (graph.getFailure() != null && frameFailure == null) {
+				frameFailure = graph.getFailure();
+			}
+			if (pendingFrameGraphs.decrementAndGet() == 0) {
+				synchronized (frameLock) {
+					frameLock.notifyAll();
+				}
+			}
+		} else if (graph.getFailure() != null) {
+			graph.getFailure().printStackTrace();
+		}
+	}
+	
+	public int getWorkerCount() {
+		return workerCount;
+	}
+	
+	public long getQueueDepth() {
+		return pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount();
+	}
+	
+	public int getPendingJobs() {
+		return pendingJobs.get();
+	}
+	
+	public long getCompletedJobs() {
+		return completedJobs.get();
+	}
+	
+	public int getActiveWorkers() {
+		return pool.getActiveThreadCount();
+	}
+	
+	/**
+	 * Fraction of the available worker time spent running jobs since the
+	 * previous call, between 0 and 1.
+	 */
+	public float sampleWorkerUtilization() {
+		long now = System.nanoTime();
+		long busy = busyNanos.sum();
+		long elapsed = now - lastSampleTime;
+		float utilization = elapsed > 0 ? (float) (busy - lastSampleBusyNanos) / ((float) elapsed * workerCount) : 0;
+		lastSampleTime = now;
+		lastSampleBusyNanos = busy;
+		return Math.max(0, Math.min(1, utilization));
+	}
+	
+	public void shutdown() {
+		pool.shutdown();
+		try {
+			pool.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private class JobAction extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final Job job;
+		
+		JobAction(Job job) {
+			this.job = job;
+		}
+		
+		@Override
+		protected void compute() {
+			long start = System.nanoTime();
+			try {
+				job.execute(JobSystem.this);
+			} finally {
+				busyNanos.add(System.nanoTime() - start);
+				pendingJobs.decrementAndGet();
+				completedJobs.incrementAndGet();
+			}
+		}
+		
+	}
+	
+	private class RangeAction extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final RangeJob job;
+		
+		private final int start;
+		
+		private final int end;
+		
+		private final int grainSize;
+		
+		RangeAction(RangeJob job, int start, int end, int grainSize) {
+			this.job = job;
+			this.start = start;
+			this.end = end;
+			this.grainSize = grainSize;
+		}
+		
+		@Override
+		protected void compute() {
+			if (end - start <= grainSize) {
+				long time = System.nanoTime();
+				try {
+					job.run(start, end);
+				} finally {
+					busyNanos.add(System.nanoTime() - time);
+				}
+				return;
+			}
+			int middle = (start + end) >>> 1;
+			invokeAll(new RangeAction(job, start, middle, grainSize), new RangeAction(job, middle, end, grainSize));
+		}
+		
+	}
+	
+}
@@ -0,0 +1,8 @@
+package com.clepto.fsengine.job;
+
+@FunctionalInterface
+public interface RangeJob {
+	
+	void run(int from, int to);
+	
+}
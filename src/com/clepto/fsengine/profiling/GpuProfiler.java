@@ -0,0 +1,184 @@
+package com.clepto.fsengine.profiling;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL33.*;
+
+/**
+ * Times GPU work between {@link #begin(ProfilerPhase)} and
+ * {@link #end(ProfilerPhase)} with pairs of timestamp queries, so scopes may
+ * nest. The queries of a frame live in one slot of a ring
+ * {@link #FRAME_LATENCY} frames deep and are only read once the GPU has
+ * written them, polled at every {@link #beginFrame()}, so reading never waits
+ * on the pipeline. Durations are recorded into the {@link Profiler} under the
+ * scope's phase. A slot whose results are still missing when it comes round
+ * again is dropped and counted in {@link #getDroppedFrames()}.
+ * <p>
+ * Scopes are only recorded while the profiler is enabled and must be opened
+ * and closed on the thread owning the GL context.
+ */
+public class GpuProfiler {
+	
+	public static final int FRAME_LATENCY = 4;
+	
+	public static final int MAX_SCOPES = 32;
+	
+	private static final ProfilerPhase[] PHASES = ProfilerPhase.values();
+	
+	private final int[] queries;
+	
+	private final byte[] scopePhases;
+	
+	private final int[] scopeCounts;
+	
+	private final boolean[] pending;
+	
+	private final int[] stack;
+	
+	private int depth;
+	
+	/**
+	 * Scopes opened past the query or nesting limit, not timed.
+	 */
+	private int overflow;
+	
+	private int slot;
+	
+	private boolean recording;
+	
+	private long droppedFrames;
+	
+	private Profiler profiler;
+	
+	public GpuProfiler(Profiler profiler) {
+		this.profiler = profiler;
+		queries = new int[FRAME_LATENCY * MAX_SCOPES * 2];
+		glGenQueries(queries);
+		scopePhases = new byte[FRAME_LATENCY * MAX_SCOPES];
+		scopeCounts = new int[FRAME_LATENCY];
+		pending = new boolean[FRAME_LATENCY];
+		stack = new int[MAX_SCOPES];
+		slot = FRAME_LATENCY - 1;
+	}
+	
+	/**
+	 * Records the finished frames and starts a new one in the next slot.
+	 */
+	public void beginFrame() {
+		for (int i = 1; i <= FRAME_LATENCY; i++) {
+			int oldest = (slot + i) % FRAME_LATENCY;
+			if (pending[oldest] && !collect(oldest)) {
+				break;
+			}
+		}
+		slot = (slot + 1) % FRAME_LATENCY;
+		if (pending[slot]) {
+			pending[slot] = false;
+			droppedFrames++;
+		}
+		scopeCounts[slot] = 0;
+		depth = 0;
+		overflow = 0;
+		recording = profiler.isEnabled();
+	}
+	
+	/**
+	 * Closes the scopes still open and queues the frame for reading.
+	 */
+	public void endFrame() {
+		while (depth > 0 || overflow > 0) {
+			end(null);
+		}
+		if (recording && scopeCounts[slot] > 0) {
+			pending[slot] = true;
+		}
+		recording = false;
+	}
+	
+	public void begin(ProfilerPhase phase) {
+		if (!recording) {
+			return;
+		}
+		int scope = scopeCounts[slot];
+		if (overflow > 0 || scope == MAX_SCOPES || depth == MAX_SCOPES) {
+			overflow++;
+			return;
+		}
+		int index = slot * MAX_SCOPES + scope;
+		scopePhases[index] = (byte) phase.ordinal();
+		glQueryCounter(queries[index * 2], GL_TIMESTAMP);
+		scopeCounts[slot] = scope + 1;
+		stack[depth++] = index;
+	}
+	
+	/**
+	 * Closes the innermost scope, which must have been opened for the given
+	 * phase; null closes it whatever its phase. Scopes past the limits are
+	 * not checked.
+	 */
+	public void end(ProfilerPhase phase) {
+		if (!recording) {
+			return;
+		}
+		if (overflow > 0) {
+			overflow--;
+			return;
+		}
+		if (depth == 0) {
+			return;
+		}
+		int index = stack[--depth];
+		if (phase != null && scopePhases[index] != phase.ordinal()) {
+			throw new IllegalStateException("Ending " + phase + " inside " + PHASES[scopePhases[index]]);
+		}
+		glQueryCounter(queries[index * 2 + 1], GL_TIMESTAMP);
+	}
+	
+	/**
+	 * Records the scopes of the slot if the GPU has written all their queries.
+	 */
+	private boolean collect(int frame) {
+		int first = frame * MAX_SCOPES;
+		int count = scopeCounts[frame];
+		if (!isAvailable(frame)) {
+			return false;
+		}
+		for (int i = first; i < first + count; i++) {
+			long start = glGetQueryObjectui64(queries[i * 2], GL_QUERY_RESULT);
+			long end = glGetQueryObjectui64(queries[i * 2 + 1], GL_QUERY_RESULT);
+			profiler.record(PHASES[scopePhases[i]], end - start);
+		}
+		pending[frame] = false;
+		return true;
+	}
+	
+	private boolean isAvailable(int frame) {
+		int first = frame * MAX_SCOPES;
+		for (int i = first + scopeCounts[frame] - 1; i >= first; i--) {
+			if (glGetQueryObjecti(queries[i * 2 + 1], GL_QUERY_RESULT_AVAILABLE) == GL_FALSE) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Frames whose results were not ready in time and were never recorded.
+	 */
+	public long getDroppedFrames() {
+		return droppedFrames;
+	}
+	
+	public Profiler getProfiler() {
+		return profiler;
+	}
+	
+	public void setProfiler(Profiler profiler) {
+		this.profiler = profiler;
+	}
+	
+	public void cleanup() {
+		glDeleteQueries(queries);
+	}
+	
+}
@@ -0,0 +1,131 @@
+package com.clepto.fsengine.profiling;
+
+/**
+ * Fixed-size log-linear histogram of nanosecond durations. Every power of two
+ * is split into {@link #SUB_BUCKET_COUNT} linear buckets, so recorded values
+ * keep roughly 3% precision from a nanosecond up to {@link #MAX_VALUE}.
+ * Recording never allocates.
+ */
+public class Histogram {
+	
+	private static final int SUB_BUCKET_BITS = 5;
+	
+	public static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	
+	private static final int MAX_MAGNITUDE = 40;
+	
+	public static final long MAX_VALUE = (1L << (MAX_MAGNITUDE + 1)) - 1;
+	
+	private final long[] counts;
+	
+	private long totalCount;
+	
+	private long sum;
+	
+	private long min;
+	
+	private long max;
+	
+	public Histogram() {
+		counts = new long[bucketIndex(MAX_VALUE) + 1];
+		reset();
+	}
+	
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		} else if (value > MAX_VALUE) {
+			value = MAX_VALUE;
+		}
+		counts[bucketIndex(value)]++;
+		totalCount++;
+		sum += value;
+		if (value < min) {
+			min = value;
+		}
+		if (value > max) {
+			max = value;
+		}
+	}
+	
+	public void reset() {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = 0;
+		}
+		totalCount = 0;
+		sum = 0;
+		min = Long.MAX_VALUE;
+		max = 0;
+	}
+	
+	public long getValueAtPercentile(double percentile) {
+		if (totalCount == 0) {
+			return 0;
+		}
+		long target = (long) Math.ceil(percentile / 100.0 * totalCount);
+		target = Math.max(1, Math.min(totalCount, target));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= target) {
+				return Math.min(max, Math.max(min, highestEquivalentValue(i)));
+			}
+		}
+		return max;
+	}
+	
+	public long getTotalCount() {
+		return totalCount;
+	}
+	
+	public long getMin() {
+		return totalCount == 0 ? 0 : min;
+	}
+	
+	public long getMax() {
+		return max;
+	}
+	
+	public double getMean() {
+		return totalCount == 0 ? 0 : (double) sum / totalCount;
+	}
+	
+	public long getP50() {
+		return getValueAtPercentile(50);
+	}
+	
+	public long getP95() {
+		return getValueAtPercentile(95);
+	}
+	
+	public long getP99() {
+		return getValueAtPercentile(99);
+	}
+	
+	static int bucketIndex(long value) {
+		if (value < SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) & (SUB_BUCKET_COUNT - 1);
+		return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+	}
+	
+	static long lowestEquivalentValue(int index) {
+		if (index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+		int shift = index / SUB_BUCKET_COUNT - 1;
+		int subBucket = index % SUB_BUCKET_COUNT;
+		return (long) (SUB_BUCKET_COUNT + subBucket) << shift;
+	}
+	
+	static long highestEquivalentValue(int index) {
+		if (index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+		int shift = index / SUB_BUCKET_COUNT - 1;
+		return lowestEquivalentValue(index) + (1L << shift) - 1;
+	}
+	
+}
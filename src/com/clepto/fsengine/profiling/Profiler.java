@@ -0,0 +1,125 @@
+package com.clepto.fsengine.profiling;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Records per-frame durations of every {@link ProfilerPhase} into a
+ * {@link Histogram}. Each phase must only be timed from a single thread;
+ * {@link #begin(ProfilerPhase)} and {@link #end(ProfilerPhase)} never allocate.
+ */
+public class Profiler {
+	
+	private static final ProfilerPhase[] PHASES = ProfilerPhase.values();
+	
+	public static final Profiler DISABLED = new Profiler(false);
+	
+	private final Histogram[] histograms;
+	
+	private final long[] startTimes;
+	
+	private volatile boolean enabled;
+	
+	private String outputFile;
+	
+	public Profiler() {
+		this(true);
+	}
+	
+	public Profiler(boolean enabled) {
+		this.enabled = enabled;
+		histograms = new Histogram[PHASES.length];
+		startTimes = new long[PHASES.length];
+		for (int i = 0; i < PHASES.length; i++) {
+			histograms[i] = new Histogram();
+		}
+	}
+	
+	public void begin(ProfilerPhase phase) {
+		if (enabled) {
+			startTimes[phase.ordinal()] = System.nanoTime();
+		}
+	}
+	
+	public void end(ProfilerPhase phase) {
+		if (enabled) {
+			int index = phase.ordinal();
+			histograms[index].record(System.nanoTime() - startTimes[index]);
+		}
+	}
+	
+	public void record(ProfilerPhase phase, long nanos) {
+		if (enabled) {
+			histograms[phase.ordinal()].record(nanos);
+		}
+	}
+	
+	public Histogram getHistogram(ProfilerPhase phase) {
+		return histograms[phase.ordinal()];
+	}
+	
+	public void reset() {
+		for (Histogram histogram : histograms) {
+			histogram.reset();
+		}
+	}
+	
+	public boolean isEnabled() {
+		return enabled;
+	}
+	
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+	
+	public String getOutputFile() {
+		return outputFile;
+	}
+	
+	/**
+	 * File the statistics are written to when the engine shuts down. Files
+	 * ending in <code>.csv</code> are written as CSV, anything else as JSON.
+	 */
+	public void setOutputFile(String outputFile) {
+		this.outputFile = outputFile;
+	}
+	
+	public void dump(String fileName) throws IOException {
+		try (Writer writer = new BufferedWriter(new FileWriter(fileName))) {
+			if (fileName.toLowerCase(Locale.ROOT).endsWith(".csv")) {
+				writeCsv(writer);
+			} else {
+				writeJson(writer);
+			}
+		}
+	}
+	
+	public void writeJson(Writer writer) throws IOException {
+		writer.write("{\n  \"unit\": \"ns\",\n  \"phases\": {");
+		boolean first = true;
+		for (ProfilerPhase phase : PHASES) {
+			Histogram histogram = getHistogram(phase);
+			writer.write(first ? "\n" : ",\n");
+			first = false;
+			writer.write(String.format(Locale.ROOT,
+					"    \"%s\": { \"count\": %d, \"min\": %d, \"mean\": %.1f, \"p50\": %d, \"p95\": %d, \"p99\": %d, \"max\": %d }",
+					phase.name().toLowerCase(Locale.ROOT), histogram.getTotalCount(), histogram.getMin(), histogram.getMean(),
+					histogram.getP50(), histogram.getP95(), histogram.getP99(), histogram.getMax()));
+		}
+		writer.write("\n  }\n}\n");
+	}
+	
+	public void writeCsv(Writer writer) throws IOException {
+		writer.write("phase,count,min_ns,mean_ns,p50_ns,p95_ns,p99_ns,max_ns\n");
+		for (ProfilerPhase phase : PHASES) {
+			Histogram histogram = getHistogram(phase);
+			writer.write(String.format(Locale.ROOT, "%s,%d,%d,%.1f,%d,%d,%d,%d\n",
+					phase.name().toLowerCase(Locale.ROOT), histogram.getTotalCount(), histogram.getMin(), histogram.getMean(),
+					histogram.getP50(), histogram.getP95(), histogram.getP99(), histogram.getMax()));
+		}
+	}
+	
+}
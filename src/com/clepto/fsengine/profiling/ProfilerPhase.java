@@ -0,0 +1,33 @@
+package com.clepto.fsengine.profiling;
+
+public enum ProfilerPhase {
+	
+	FRAME,
+	
+	INPUT,
+	
+	UPDATE,
+	
+	ASSET_UPLOAD,
+	
+	RENDER,
+	
+	RENDER_OCCLUSION,
+	
+	RENDER_SCENE,
+	
+	RENDER_SKYBOX,
+	
+	RENDER_HUD,
+	
+	WINDOW_UPDATE,
+	
+	GPU_RENDER,
+	
+	GPU_RENDER_SCENE,
+	
+	GPU_RENDER_SKYBOX,
+	
+	GPU_RENDER_HUD;
+	
+}
@@ -0,0 +1,675 @@
+package com.clepto.fsengine.scene;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.joml.FrustumIntersection;
+import org.joml.Vector3f;
+
+import com.clepto.fsengine.scene.actors.Actor;
+
+/**
+ * Dynamic bounding volume hierarchy over actor world bounds. Leaves store a
+ * fattened box so actors that move a little do not touch the tree at all;
+ * when an actor leaves its fat box the leaf is removed and reinserted, and
+ * the path to the root is refitted and rebalanced with tree rotations.
+ * Nodes live in flat arrays indexed by proxy id, so updates and queries do not
+ * allocate. Not thread safe.
+ */
+public class DynamicAABBTree {
+	
+	public static final int NULL_NODE = -1;
+	
+	public static final float DEFAULT_MARGIN = 0.1f;
+	
+	/**
+	 * How many ticks of the last displacement the fat box is stretched by
+	 * ahead of a moving actor.
+	 */
+	public static final float DISPLACEMENT_MULTIPLIER = 4.0f;
+	
+	private static final int INITIAL_CAPACITY = 16;
+	
+	private static final int LINK_SIZE = 4;
+	
+	private static final int CHILD1 = 0;
+	
+	private static final int CHILD2 = 1;
+	
+	private static final int PARENT = 2;
+	
+	private static final int HEIGHT = 3;
+	
+	private final float margin;
+	
+	private float[] bounds;
+	
+	private int[] links;
+	
+	private Actor[] actors;
+	
+	private float[] centers;
+	
+	private boolean[] movedFlags;
+	
+	private int[] movedProxies;
+	
+	private int movedCount;
+	
+	private int capacity;
+	
+	private int nodeCount;
+	
+	private int freeList;
+	
+	private int root;
+	
+	private int[] stack;
+	
+	private final Vector3f min;
+	
+	private final Vector3f max;
+	
+	
+	public DynamicAABBTree() {
+		this(DEFAULT_MARGIN);
+	}
+	
+	public DynamicAABBTree(float margin) {
+		this.margin = margin;
+		root = NULL_NODE;
+		capacity = 0;
+		bounds = new float[0];
+		links = new int[0];
+		actors = new Actor[0];
+		centers = new float[0];
+		movedFlags = new boolean[0];
+		movedProxies = new int[INITIAL_CAPACITY];
+		freeList = NULL_NODE;
+		grow(INITIAL_CAPACITY);
+		stack = new int[64];
+		min = new Vector3f();
+		max = new Vector3f();
+	}
+	
+	/**
+	 * Inserts the actor with its current world bounds and returns its proxy id.
+	 */
+	public int createProxy(Actor actor) {
+		int proxyId = allocateNode();
+		actor.getWorldBounds(min, max);
+		setFatBounds(proxyId, min, max);
+		storeCenter(proxyId, min, max);
+		actors[proxyId] = actor;
+		setHeight(proxyId, 0);
+		insertLeaf(proxyId);
+		return proxyId;
+	}
+	
+	public void destroyProxy(int proxyId) {
+		if (movedFlags[proxyId]) {
+			movedFlags[proxyId] = false;
+			for (int i = 0; i < movedCount; i++) {
+				if (movedProxies[i] == proxyId) {
+					movedProxies[i] = movedProxies[--movedCount];
+					break;
+				}
+			}
+		}
+		removeLeaf(proxyId);
+		freeNode(proxyId);
+	}
+	
+	/**
+	 * Refreshes the bounds of a proxy after its actor moved, rotated or was
+	 * scaled. Returns true if the leaf had to be reinserted, in which case the
+	 * new fat box is stretched along the displacement since the previous call
+	 * so an actor moving steadily is reinserted less often.
+	 */
+	public boolean moveProxy(int proxyId) {
+		actors[proxyId].getWorldBounds(min, max);
+		int c = proxyId * 3;
+		float dx = (min.x + max.x) * 0.5f - centers[c];
+		float dy = (min.y + max.y) * 0.5f - centers[c + 1];
+		float dz = (min.z + max.z) * 0.5f - centers[c + 2];
+		storeCenter(proxyId, min, max);
+		
+		int o = proxyId * 6;
+		if (bounds[o] <= min.x && bounds[o + 1] <= min.y && bounds[o + 2] <= min.z
+				&& max.x <= bounds[o + 3] && max.y <= bounds[o + 4] && max.z <= bounds[o + 5]) {
+			return false;
+		}
+		removeLeaf(proxyId);
+		setFatBounds(proxyId, min, max);
+		stretch(o, dx * DISPLACEMENT_MULTIPLIER, 0);
+		stretch(o, dy * DISPLACEMENT_MULTIPLIER, 1);
+		stretch(o, dz * DISPLACEMENT_MULTIPLIER, 2);
+		insertLeaf(proxyId);
+		return true;
+	}
+	
+	/**
+	 * Queues a proxy for {@link #updateMoved()}, once however often its actor
+	 * changes before then.
+	 */
+	public void markMoved(int proxyId) {
+		if (movedFlags[proxyId]) {
+			return;
+		}
+		movedFlags[proxyId] = true;
+		if (movedCount == movedProxies.length) {
+			movedProxies = Arrays.copyOf(movedProxies, movedCount * 2);
+		}
+		movedProxies[movedCount++] = proxyId;
+	}
+	
+	/**
+	 * Moves every proxy queued with {@link #markMoved(int)}.
+	 */
+	public void updateMoved() {
+		for (int i = 0; i < movedCount; i++) {
+			int proxyId = movedProxies[i];
+			movedFlags[proxyId] = false;
+			moveProxy(proxyId);
+		}
+		movedCount = 0;
+	}
+	
+	private void stretch(int offset, float displacement, int axis) {
+		if (displacement < 0) {
+			bounds[offset + axis] += displacement;
+		} else {
+			bounds[offset + axis + 3] += displacement;
+		}
+	}
+	
+	private void storeCenter(int proxyId, Vector3f boxMin, Vector3f boxMax) {
+		int c = proxyId * 3;
+		centers[c] = (boxMin.x + boxMax.x) * 0.5f;
+		centers[c + 1] = (boxMin.y + boxMax.y) * 0.5f;
+		centers[c + 2] = (boxMin.z + boxMax.z) * 0.5f;
+	}
+	
+	public Actor getActor(int proxyId) {
+		return actors[proxyId];
+	}
+	
+	public int getProxyCount() {
+		return (nodeCount + 1) / 2;
+	}
+	
+	public int getHeight() {
+		return root == NULL_NODE ? 0 : height(root);
+	}
+	
+	/**
+	 * Adds every actor whose fat bounds are at least partly inside the frustum.
+	 */
+	public void query(FrustumIntersection frustum, List<Actor> result) {
+		if (root == NULL_NODE) {
+			return;
+		}
+		int top = push(0, root);
+		while (top > 0) {
+			int node = stack[--top];
+			int o = node * 6;
+			int test = frustum.intersectAab(bounds[o], bounds[o + 1], bounds[o + 2], bounds[o + 3], bounds[o + 4], bounds[o + 5]);
+			if (test == FrustumIntersection.INSIDE) {
+				collectLeaves(node, top, result);
+			} else if (test == FrustumIntersection.INTERSECT) {
+				if (isLeaf(node)) {
+					result.add(actors[node]);
+				} else {
+					top = push(top, child1(node));
+					top = push(top, child2(node));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Adds every actor whose world bounds overlap the given box.
+	 */
+	public void query(Vector3f boxMin, Vector3f boxMax, List<Actor> result) {
+		if (root == NULL_NODE) {
+			return;
+		}
+		int top = push(0, root);
+		while (top > 0) {
+			int node = stack[--top];
+			int o = node * 6;
+			if (bounds[o] > boxMax.x || bounds[o + 1] > boxMax.y || bounds[o + 2] > boxMax.z
+					|| bounds[o + 3] < boxMin.x || bounds[o + 4] < boxMin.y || bounds[o + 5] < boxMin.z) {
+				continue;
+			}
+			if (isLeaf(node)) {
+				Actor actor = actors[node];
+				actor.getWorldBounds(min, max);
+				if (min.x <= boxMax.x && min.y <= boxMax.y && min.z <= boxMax.z
+						&& max.x >= boxMin.x && max.y >= boxMin.y && max.z >= boxMin.z) {
+					result.add(actor);
+				}
+			} else {
+				top = push(top, child1(node));
+				top = push(top, child2(node));
+			}
+		}
+	}
+	
+	/**
+	 * Adds every actor whose world bounds overlap the given sphere. The
+	 * bounding sphere of an actor reaches past its box, which the subtrees
+	 * are pruned by, so it cannot be what is tested.
+	 */
+	public void query(Vector3f sphereCenter, float radius, List<Actor> result) {
+		if (root == NULL_NODE) {
+			return;
+		}
+		float radiusSquared = radius * radius;
+		int top = push(0, root);
+		while (top > 0) {
+			int node = stack[--top];
+			if (distanceSquared(node, sphereCenter) > radiusSquared) {
+				continue;
+			}
+			if (isLeaf(node)) {
+				Actor actor = actors[node];
+				actor.getWorldBounds(min, max);
+				float dx = Math.max(Math.max(min.x - sphereCenter.x, 0.0f), sphereCenter.x - max.x);
+				float dy = Math.max(Math.max(min.y - sphereCenter.y, 0.0f), sphereCenter.y - max.y);
+				float dz = Math.max(Math.max(min.z - sphereCenter.z, 0.0f), sphereCenter.z - max.z);
+				if (dx * dx + dy * dy + dz * dz <= radiusSquared) {
+					result.add(actor);
+				}
+			} else {
+				top = push(top, child1(node));
+				top = push(top, child2(node));
+			}
+		}
+	}
+	
+	/**
+	 * Finds the actor whose world bounds the ray enters first within
+	 * maxDistance, measured in units of the direction length.
+	 */
+	public boolean rayCast(Vector3f origin, Vector3f direction, float maxDistance, RayHit hit) {
+		hit.clear();
+		if (root == NULL_NODE) {
+			return false;
+		}
+		float invX = 1.0f / direction.x;
+		float invY = 1.0f / direction.y;
+		float invZ = 1.0f / direction.z;
+		float closest = maxDistance;
+		int top = push(0, root);
+		while (top > 0) {
+			int node = stack[--top];
+			int o = node * 6;
+			float t = intersectRay(origin, invX, invY, invZ, bounds[o], bounds[o + 1], bounds[o + 2], bounds[o + 3], bounds[o + 4], bounds[o + 5]);
+			if (t > closest) {
+				continue;
+			}
+			if (isLeaf(node)) {
+				Actor actor = actors[node];
+				actor.getWorldBounds(min, max);
+				t = intersectRay(origin, invX, invY, invZ, min.x, min.y, min.z, max.x, max.y, max.z);
+				if (t <= closest) {
+					closest = t;
+					hit.set(actor, t);
+				}
+			} else {
+				top = push(top, child1(node));
+				top = push(top, child2(node));
+			}
+		}
+		return hit.getActor() != null;
+	}
+	
+	private static float intersectRay(Vector3f origin, float invX, float invY, float invZ,
+			float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+		float tNear = 0.0f;
+		float tFar = Float.POSITIVE_INFINITY;
+		if (Float.isInfinite(invX)) {
+			if (origin.x < minX || origin.x > maxX) {
+				return Float.POSITIVE_INFINITY;
+			}
+		} else {
+			float t1 = (minX - origin.x) * invX;
+			float t2 = (maxX - origin.x) * invX;
+			tNear = Math.max(tNear, Math.min(t1, t2));
+			tFar = Math.min(tFar, Math.max(t1, t2));
+		}
+		if (Float.isInfinite(invY)) {
+			if (origin.y < minY || origin.y > maxY) {
+				return Float.POSITIVE_INFINITY;
+			}
+		} else {
+			float t1 = (minY - origin.y) * invY;
+			float t2 = (maxY - origin.y) * invY;
+			tNear = Math.max(tNear, Math.min(t1, t2));
+			tFar = Math.min(tFar, Math.max(t1, t2));
+		}
+		if (Float.isInfinite(invZ)) {
+			if (origin.z < minZ || origin.z > maxZ) {
+				return Float.POSITIVE_INFINITY;
+			}
+		} else {
+			float t1 = (minZ - origin.z) * invZ;
+			float t2 = (maxZ - origin.z) * invZ;
+			tNear = Math.max(tNear, Math.min(t1, t2));
+			tFar = Math.min(tFar, Math.max(t1, t2));
+		}
+		return tNear <= tFar ? tNear : Float.POSITIVE_INFINITY;
+	}
+	
+	private float distanceSquared(int node, Vector3f point) {
+		int o = node * 6;
+		float dx = Math.max(Math.max(bounds[o] - point.x, 0.0f), point.x - bounds[o + 3]);
+		float dy = Math.max(Math.max(bounds[o + 1] - point.y, 0.0f), point.y - bounds[o + 4]);
+		float dz = Math.max(Math.max(bounds[o + 2] - point.z, 0.0f), point.z - bounds[o + 5]);
+		return dx * dx + dy * dy + dz * dz;
+	}
+	
+	private void collectLeaves(int node, int base, List<Actor> result) {
+		int top = push(base, node);
+		while (top > base) {
+			int n = stack[--top];
+			if (isLeaf(n)) {
+				result.add(actors[n]);
+			} else {
+				top = push(top, child1(n));
+				top = push(top, child2(n));
+			}
+		}
+	}
+	
+	private int push(int top, int node) {
+		if (top == stack.length) {
+			stack = Arrays.copyOf(stack, stack.length * 2);
+		}
+		stack[top] = node;
+		return top + 1;
+	}
+	
+	private boolean isLeaf(int node) {
+		return child1(node) == NULL_NODE;
+	}
+	
+	private int child1(int node) {
+		return links[node * LINK_SIZE + CHILD1];
+	}
+	
+	private int child2(int node) {
+		return links[node * LINK_SIZE + CHILD2];
+	}
+	
+	private int parent(int node) {
+		return links[node * LINK_SIZE + PARENT];
+	}
+	
+	private int height(int node) {
+		return links[node * LINK_SIZE + HEIGHT];
+	}
+	
+	private void setChild1(int node, int child) {
+		links[node * LINK_SIZE + CHILD1] = child;
+	}
+	
+	private void setChild2(int node, int child) {
+		links[node * LINK_SIZE + CHILD2] = child;
+	}
+	
+	private void setParent(int node, int parent) {
+		links[node * LINK_SIZE + PARENT] = parent;
+	}
+	
+	private void setHeight(int node, int height) {
+		links[node * LINK_SIZE + HEIGHT] = height;
+	}
+	
+	private void setFatBounds(int node, Vector3f boxMin, Vector3f boxMax) {
+		int o = node * 6;
+		bounds[o] = boxMin.x - margin;
+		bounds[o + 1] = boxMin.y - margin;
+		bounds[o + 2] = boxMin.z - margin;
+		bounds[o + 3] = boxMax.x + margin;
+		bounds[o + 4] = boxMax.y + margin;
+		bounds[o + 5] = boxMax.z + margin;
+	}
+	
+	private void union(int dest, int a, int b) {
+		int d = dest * 6;
+		int oa = a * 6;
+		int ob = b * 6;
+		bounds[d] = Math.min(bounds[oa], bounds[ob]);
+		bounds[d + 1] = Math.min(bounds[oa + 1], bounds[ob + 1]);
+		bounds[d + 2] = Math.min(bounds[oa + 2], bounds[ob + 2]);
+		bounds[d + 3] = Math.max(bounds[oa + 3], bounds[ob + 3]);
+		bounds[d + 4] = Math.max(bounds[oa + 4], bounds[ob + 4]);
+		bounds[d + 5] = Math.max(bounds[oa + 5], bounds[ob + 5]);
+	}
+	
+	private float area(int node) {
+		int o = node * 6;
+		float dx = bounds[o + 3] - bounds[o];
+		float dy = bounds[o + 4] - bounds[o + 1];
+		float dz = bounds[o + 5] - bounds[o + 2];
+		return dx * dy + dy * dz + dz * dx;
+	}
+	
+	private float unionArea(int a, int b) {
+		int oa = a * 6;
+		int ob = b * 6;
+		float dx = Math.max(bounds[oa + 3], bounds[ob + 3]) - Math.min(bounds[oa], bounds[ob]);
+		float dy = Math.max(bounds[oa + 4], bounds[ob + 4]) - Math.min(bounds[oa + 1], bounds[ob + 1]);
+		float dz = Math.max(bounds[oa + 5], bounds[ob + 5]) - Math.min(bounds[oa + 2], bounds[ob + 2]);
+		return dx * dy + dy * dz + dz * dx;
+	}
+	
+	private void insertLeaf(int leaf) {
+		if (root == NULL_NODE) {
+			root = leaf;
+			setParent(leaf, NULL_NODE);
+			return;
+		}
+		
+		// Descend towards the sibling with the lowest surface area cost
+		int index = root;
+		while (!isLeaf(index)) {
+			int c1 = child1(index);
+			int c2 = child2(index);
+			
+			float area = area(index);
+			float combinedArea = unionArea(index, leaf);
+			float cost = 2.0f * combinedArea;
+			float inheritanceCost = 2.0f * (combinedArea - area);
+			
+			float cost1 = unionArea(leaf, c1) + inheritanceCost;
+			if (!isLeaf(c1)) {
+				cost1 -= area(c1);
+			}
+			float cost2 = unionArea(leaf, c2) + inheritanceCost;
+			if (!isLeaf(c2)) {
+				cost2 -= area(c2);
+			}
+			
+			if (cost < cost1 && cost < cost2) {
+				break;
+			}
+			index = cost1 < cost2 ? c1 : c2;
+		}
+		int sibling = index;
+		
+		int oldParent = parent(sibling);
+		int newParent = allocateNode();
+		setParent(newParent, oldParent);
+		actors[newParent] = null;
+		union(newParent, leaf, sibling);
+		setHeight(newParent, height(sibling) + 1);
+		
+		if (oldParent != NULL_NODE) {
+			if (child1(oldParent) == sibling) {
+				setChild1(oldParent, newParent);
+			} else {
+				setChild2(oldParent, newParent);
+			}
+		} else {
+			root = newParent;
+		}
+		setChild1(newParent, sibling);
+		setChild2(newParent, leaf);
+		setParent(sibling, newParent);
+		setParent(leaf, newParent);
+		
+		refit(parent(leaf));
+	}
+	
+	private void removeLeaf(int leaf) {
+		if (leaf == root) {
+			root = NULL_NODE;
+			return;
+		}
+		
+		int p = parent(leaf);
+		int grandParent = parent(p);
+		int sibling = child1(p) == leaf ? child2(p) : child1(p);
+		
+		if (grandParent != NULL_NODE) {
+			if (child1(grandParent) == p) {
+				setChild1(grandParent, sibling);
+			} else {
+				setChild2(grandParent, sibling);
+			}
+			setParent(sibling, grandParent);
+			freeNode(p);
+			refit(grandParent);
+		} else {
+			root = sibling;
+			setParent(sibling, NULL_NODE);
+			freeNode(p);
+		}
+	}
+	
+	private void refit(int index) {
+		while (index != NULL_NODE) {
+			index = balance(index);
+			
+			int c1 = child1(index);
+			int c2 = child2(index);
+			setHeight(index, 1 + Math.max(height(c1), height(c2)));
+			union(index, c1, c2);
+			
+			index = parent(index);
+		}
+	}
+	
+	/**
+	 * Rotates the subtree rooted at a if it is imbalanced and returns the new
+	 * subtree root.
+	 */
+	private int balance(int a) {
+		if (isLeaf(a) || height(a) < 2) {
+			return a;
+		}
+		
+		int b = child1(a);
+		int c = child2(a);
+		int balance = height(c) - height(b);
+		
+		if (balance > 1) {
+			return rotate(a, c, b, true);
+		}
+		if (balance < -1) {
+			return rotate(a, b, c, false);
+		}
+		return a;
+	}
+	
+	/**
+	 * Promotes the taller child up to replace a. With upIsSecond set, up is the
+	 * second child of a, otherwise the first.
+	 */
+	private int rotate(int a, int up, int other, boolean upIsSecond) {
+		int f = child1(up);
+		int g = child2(up);
+		
+		setChild1(up, a);
+		setParent(up, parent(a));
+		setParent(a, up);
+		
+		if (parent(up) != NULL_NODE) {
+			if (child1(parent(up)) == a) {
+				setChild1(parent(up), up);
+			} else {
+				setChild2(parent(up), up);
+			}
+		} else {
+			root = up;
+		}
+		
+		int keep;
+		int move;
+		if (height(f) > height(g)) {
+			keep = f;
+			move = g;
+		} else {
+			keep = g;
+			move = f;
+		}
+		setChild2(up, keep);
+		if (upIsSecond) {
+			setChild2(a, move);
+		} else {
+			setChild1(a, move);
+		}
+		setParent(move, a);
+		union(a, other, move);
+		union(up, a, keep);
+		
+		setHeight(a, 1 + Math.max(height(other), height(move)));
+		setHeight(up, 1 + Math.max(height(a), height(keep)));
+		return up;
+	}
+	
+	private int allocateNode() {
+		if (freeList == NULL_NODE) {
+			grow(capacity * 2);
+		}
+		int node = freeList;
+		freeList = parent(node);
+		setParent(node, NULL_NODE);
+		setChild1(node, NULL_NODE);
+		setChild2(node, NULL_NODE);
+		setHeight(node, 0);
+		nodeCount++;
+		return node;
+	}
+	
+	private void freeNode(int node) {
+		setParent(node, freeList);
+		setChild1(node, NULL_NODE);
+		setChild2(node, NULL_NODE);
+		setHeight(node, -1);
+		actors[node] = null;
+		freeList = node;
+		nodeCount--;
+	}
+	
+	private void grow(int newCapacity) {
+		int oldCapacity = capacity;
+		bounds = Arrays.copyOf(bounds, newCapacity * 6);
+		links = Arrays.copyOf(links, newCapacity * LINK_SIZE);
+		actors = Arrays.copyOf(actors, newCapacity);
+		centers = Arrays.copyOf(centers, newCapacity * 3);
+		movedFlags = Arrays.copyOf(movedFlags, newCapacity);
+		for (int i = oldCapacity; i < newCapacity - 1; i++) {
+			setParent(i, i + 1);
+			setHeight(i, -1);
+		}
+		setParent(newCapacity - 1, freeList);
+		setHeight(newCapacity - 1, -1);
+		freeList = oldCapacity;
+		capacity = newCapacity;
+	}
+	
+}
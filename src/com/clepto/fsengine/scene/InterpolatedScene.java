@@ -0,0 +1,211 @@
+package com.clepto.fsengine.scene;
+
+import org.joml.Vector3f;
+
+import com.clepto.fsengine.graphics.Camera;
+import com.clepto.fsengine.graphics.occlusion.Occluder;
+import com.clepto.fsengine.scene.actors.Actor;
+
+/**
+ * Render thread view of the simulation. Holds the last two published
+ * {@link SceneSnapshot}s and blends them into proxy actors and a proxy camera
+ * that can be handed to the {@link com.clepto.fsengine.graphics.Renderer} as is.
+ * <p>
+ * Proxies are plain {@link Actor}s carrying the mesh, material, position,
+ * rotation and scale of the captured actors. State of actor subclasses does not survive a
+ * snapshot; the scene light, skybox, fog and occluders are carried over as
+ * well, occluders sharing the triangles of the captured ones.
+ */
+public class InterpolatedScene {
+	
+	private SceneSnapshot previous;
+	
+	private SceneSnapshot current;
+	
+	private boolean ready;
+	
+	private Scene scene;
+	
+	private final Camera camera;
+	
+	private Actor[] proxies;
+	
+	private Occluder[] occluderSources;
+	
+	private Occluder[] occluderProxies;
+	
+	public InterpolatedScene() {
+		previous = new SceneSnapshot();
+		current = new SceneSnapshot();
+		scene = new Scene();
+		camera = new Camera();
+		proxies = new Actor[0];
+		occluderSources = new Occluder[0];
+		occluderProxies = new Occluder[0];
+	}
+	
+	public boolean consume(SnapshotBuffer snapshotBuffer) {
+		SceneSnapshot latest = snapshotBuffer.acquire();
+		if (latest == null) {
+			return false;
+		}
+		SceneSnapshot aux = previous;
+		previous = current;
+		current = aux;
+		current.set(latest);
+		if (!ready) {
+			previous.set(latest);
+			ready = true;
+		}
+		return true;
+	}
+	
+	public float getAlpha(long now, long intervalNanos) {
+		if (!ready || intervalNanos <= 0) {
+			return 1.0f;
+		}
+		float alpha = (float) (now - current.getTime()) / (float) intervalNanos;
+		return Math.max(0.0f, Math.min(1.0f, alpha));
+	}
+	
+	public void interpolate(float alpha) {
+		if (!ready) {
+			return;
+		}
+		if (structureChanged()) {
+			rebuild();
+		}
+		
+		float[] prevTransforms = previous.getTransforms();
+		float[] currTransforms = current.getTransforms();
+		int prevCount = previous.getActorCount();
+		int count = current.getActorCount();
+		for (int i = 0; i < count; i++) {
+			int offset = i * SceneSnapshot.TRANSFORM_SIZE;
+			float[] from = i < prevCount && previous.getActor(i) == current.getActor(i) ? prevTransforms : currTransforms;
+			Actor proxy = proxies[i];
+			proxy.setMaterial(current.getMaterial(i));
+			Vector3f position = proxy.getPosition();
+			Vector3f rotation = proxy.getRotation();
+			float x = lerp(from[offset], currTransforms[offset], alpha);
+			float y = lerp(from[offset + 1], currTransforms[offset + 1], alpha);
+			float z = lerp(from[offset + 2], currTransforms[offset + 2], alpha);
+			float rotationX = lerpAngle(from[offset + 3], currTransforms[offset + 3], alpha);
+			float rotationY = lerpAngle(from[offset + 4], currTransforms[offset + 4], alpha);
+			float rotationZ = lerpAngle(from[offset + 5], currTransforms[offset + 5], alpha);
+			float scale = lerp(from[offset + 6], currTransforms[offset + 6], alpha);
+			if (x == position.x && y == position.y && z == position.z
+					&& rotationX == rotation.x && rotationY == rotation.y && rotationZ == rotation.z
+					&& scale == proxy.getScale()) {
+				continue;
+			}
+			proxy.setPosition(x, y, z);
+			proxy.setRotation(rotationX, rotationY, rotationZ);
+			proxy.setScale(scale);
+		}
+		
+		float[] prevCamera = previous.getCamera();
+		float[] currCamera = current.getCamera();
+		camera.setPosition(
+				lerp(prevCamera[0], currCamera[0], alpha),
+				lerp(prevCamera[1], currCamera[1], alpha),
+				lerp(prevCamera[2], currCamera[2], alpha));
+		camera.setRotation(
+				lerpAngle(prevCamera[3], currCamera[3], alpha),
+				lerpAngle(prevCamera[4], currCamera[4], alpha),
+				lerpAngle(prevCamera[5], currCamera[5], alpha));
+		
+		if (occludersChanged()) {
+			rebuildOccluders();
+		}
+		float[] matrices = current.getOccluderMatrices();
+		for (int i = 0; i < occluderProxies.length; i++) {
+			occluderProxies[i].getModelMatrix().set(matrices, i * SceneSnapshot.MATRIX_SIZE);
+		}
+		
+		scene.setSceneLight(current.getSceneLight());
+		scene.setSkybox(current.getSkybox());
+		scene.setFog(current.getFog());
+	}
+	
+	private boolean structureChanged() {
+		int count = current.getActorCount();
+		if (count != proxies.length) {
+			return true;
+		}
+		for (int i = 0; i < count; i++) {
+			if (proxies[i].getMesh() != current.getMesh(i)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private void rebuild() {
+		int count = current.getActorCount();
+		proxies = new Actor[count];
+		for (int i = 0; i < count; i++) {
+			proxies[i] = new Actor(current.getMesh(i));
+		}
+		scene = new Scene();
+		scene.setActors(proxies);
+		for (Occluder occluder : occluderProxies) {
+			scene.addOccluder(occluder);
+		}
+	}
+	
+	private boolean occludersChanged() {
+		int count = current.getOccluderCount();
+		if (count != occluderSources.length) {
+			return true;
+		}
+		for (int i = 0; i < count; i++) {
+			if (occluderSources[i] != current.getOccluder(i)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private void rebuildOccluders() {
+		for (Occluder occluder : occluderProxies) {
+			scene.removeOccluder(occluder);
+		}
+		int count = current.getOccluderCount();
+		occluderSources = new Occluder[count];
+		occluderProxies = new Occluder[count];
+		for (int i = 0; i < count; i++) {
+			Occluder source = current.getOccluder(i);
+			occluderSources[i] = source;
+			occluderProxies[i] = new Occluder(source.getPositions(), source.getIndices());
+			scene.addOccluder(occluderProxies[i]);
+		}
+	}
+	
+	private static float lerp(float from, float to, float alpha) {
+		return from + (to - from) * alpha;
+	}
+	
+	private static float lerpAngle(float from, float to, float alpha) {
+		float delta = (to - from) % 360.0f;
+		if (delta > 180.0f) {
+			delta -= 360.0f;
+		} else if (delta < -180.0f) {
+			delta += 360.0f;
+		}
+		return to - delta * (1.0f - alpha);
+	}
+	
+	public boolean isReady() {
+		return ready;
+	}
+	
+	public Scene getScene() {
+		return scene;
+	}
+	
+	public Camera getCamera() {
+		return camera;
+	}
+	
+}
@@ -0,0 +1,36 @@
+package com.clepto.fsengine.scene;
+
+import com.clepto.fsengine.scene.actors.Actor;
+
+/**
+ * Result of a ray cast against the {@link Scene}. Reusable between casts.
+ */
+public class RayHit {
+	
+	private Actor actor;
+	
+	private float distance;
+	
+	public Actor getActor() {
+		return actor;
+	}
+	
+	/**
+	 * Distance along the ray, in units of the ray direction length, at which
+	 * the world bounds of the actor were entered.
+	 */
+	public float getDistance() {
+		return distance;
+	}
+	
+	void set(Actor actor, float distance) {
+		this.actor = actor;
+		this.distance = distance;
+	}
+	
+	public void clear() {
+		actor = null;
+		distance = Float.POSITIVE_INFINITY;
+	}
+	
+}
@@ -5,7 +5,11 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.joml.FrustumIntersection;
+import org.joml.Vector3f;
+
 import com.clepto.fsengine.graphics.Mesh;
+import com.clepto.fsengine.graphics.occlusion.Occluder;
 import com.clepto.fsengine.graphics.weather.Fog;
 import com.clepto.fsengine.scene.actors.Actor;
 import com.clepto.fsengine.scene.actors.SkyBox;
@@ -19,10 +23,16 @@ public class Scene {
 	public SceneLight sceneLight;
 	
 	private Fog fog;
+	
+	private final DynamicAABBTree actorTree;
+	
+	private final List<Occluder> occluders;
 
 	public Scene() {
 		meshMap = new HashMap<Mesh, List<Actor>>();
 		fog = Fog.NOFOG;
+		actorTree = new DynamicAABBTree();
+		occluders = new ArrayList<>();
 	}
 	
 	public Map<Mesh, List<Actor>> getMeshes() {
@@ -32,15 +42,121 @@ public class Scene {
 	public void setActors(Actor[] actors) {
 		int numActors = actors != null ? actors.length : 0;
 		for (int i=0; i < numActors; i++) {
-			Actor actor = actors[i];
-			Mesh mesh = actor.getMesh();
-			List<Actor> list = meshMap.get(mesh);
-			if (list == null) {
-				list = new ArrayList<>();
-				meshMap.put(mesh, list);
-			}
-			list.add(actor);
+			addActor(actors[i]);
+		}
+	}
+	
+	public void addActor(Actor actor) {
+		if (actor.getScene() != null) {
+			throw new IllegalArgumentException("Actor is already in a scene");
+		}
+		Mesh mesh = actor.getMesh();
+		List<Actor> list = meshMap.get(mesh);
+		if (list == null) {
+			list = new ArrayList<>();
+			meshMap.put(mesh, list);
+		}
+		list.add(actor);
+		actor.setProxyId(actorTree.createProxy(actor));
+		actor.setScene(this);
+	}
+	
+	public void removeActor(Actor actor) {
+		if (actor.getScene() != this) {
+			return;
 		}
+		removeFromMeshMap(actor, actor.getMesh());
+		actorTree.destroyProxy(actor.getProxyId());
+		actor.setProxyId(-1);
+		actor.setScene(null);
+	}
+	
+	private void removeFromMeshMap(Actor actor, Mesh mesh) {
+		List<Actor> list = meshMap.get(mesh);
+		if (list != null && list.remove(actor) && list.isEmpty()) {
+			meshMap.remove(mesh);
+		}
+	}
+	
+	/**
+	 * Called by an actor of this scene whose position, rotation or scale
+	 * changed. Its bounds in the spatial index are refreshed before the next
+	 * query, once however often it moved in between.
+	 */
+	public void moveActor(Actor actor) {
+		if (actor.getProxyId() != -1) {
+			actorTree.markMoved(actor.getProxyId());
+		}
+	}
+	
+	/**
+	 * Called by an actor of this scene whose mesh was replaced, to file it
+	 * under the new one.
+	 */
+	public void changeMesh(Actor actor, Mesh oldMesh) {
+		removeFromMeshMap(actor, oldMesh);
+		Mesh mesh = actor.getMesh();
+		List<Actor> list = meshMap.get(mesh);
+		if (list == null) {
+			list = new ArrayList<>();
+			meshMap.put(mesh, list);
+		}
+		list.add(actor);
+		moveActor(actor);
+	}
+	
+	/**
+	 * Adds the actors that may be visible in the given frustum.
+	 */
+	public void queryFrustum(FrustumIntersection frustum, List<Actor> result) {
+		actorTree.updateMoved();
+		actorTree.query(frustum, result);
+	}
+	
+	/**
+	 * Adds the actors whose world bounds overlap the given box.
+	 */
+	public void queryBox(Vector3f min, Vector3f max, List<Actor> result) {
+		actorTree.updateMoved();
+		actorTree.query(min, max, result);
+	}
+	
+	/**
+	 * Adds the actors whose world bounds overlap the given sphere.
+	 */
+	public void querySphere(Vector3f center, float radius, List<Actor> result) {
+		actorTree.updateMoved();
+		actorTree.query(center, radius, result);
+	}
+	
+	public boolean rayCast(Vector3f origin, Vector3f direction, float maxDistance, RayHit hit) {
+		actorTree.updateMoved();
+		return actorTree.rayCast(origin, direction, maxDistance, hit);
+	}
+	
+	/**
+	 * The spatial index of the actors. Queries made on it directly see moves
+	 * since the last query of the scene only after
+	 * {@link DynamicAABBTree#updateMoved()}.
+	 */
+	public DynamicAABBTree getActorTree() {
+		return actorTree;
+	}
+	
+	/**
+	 * Adds triangles the renderer rasterizes on the CPU to skip the actors
+	 * hidden behind them, such as {@link com.clepto.fsengine.scene.actors.terrain.Terrain#createOccluder(int)}.
+	 */
+	public void addOccluder(Occluder occluder) {
+		occluders.add(occluder);
+	}
+	
+	public void removeOccluder(Occluder occluder) {
+		occluders.remove(occluder);
+	}
+	
+	public List<Occluder> getOccluders() {
+		return occluders;
 	}
 
 	public void setSkybox(SkyBox skybox) {
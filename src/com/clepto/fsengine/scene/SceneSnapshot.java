@@ -0,0 +1,323 @@
+package com.clepto.fsengine.scene;
+
+import java.util.List;
+import java.util.Map;
+
+import org.joml.Vector3f;
+
+import com.clepto.fsengine.graphics.Camera;
+import com.clepto.fsengine.graphics.Material;
+import com.clepto.fsengine.graphics.Mesh;
+import com.clepto.fsengine.graphics.lighting.DirectionalLight;
+import com.clepto.fsengine.graphics.lighting.PointLight;
+import com.clepto.fsengine.graphics.lighting.SpotLight;
+import com.clepto.fsengine.graphics.occlusion.Occluder;
+import com.clepto.fsengine.graphics.weather.Fog;
+import com.clepto.fsengine.scene.actors.Actor;
+import com.clepto.fsengine.scene.actors.SkyBox;
+
+public class SceneSnapshot {
+	
+	public static final int TRANSFORM_SIZE = 7;
+	
+	public static final int MATRIX_SIZE = 16;
+	
+	private long time;
+	
+	private int actorCount;
+	
+	private Actor[] actors;
+	
+	private Mesh[] meshes;
+	
+	private Material[] materials;
+	
+	private float[] transforms;
+	
+	private int occluderCount;
+	
+	private Occluder[] occluders;
+	
+	private float[] occluderMatrices;
+	
+	private final float[] camera;
+	
+	private final SceneLight sceneLight;
+	
+	private SkyBox skybox;
+	
+	private Fog fog;
+	
+	public SceneSnapshot() {
+		actors = new Actor[0];
+		meshes = new Mesh[0];
+		materials = new Material[0];
+		transforms = new float[0];
+		occluders = new Occluder[0];
+		occluderMatrices = new float[0];
+		camera = new float[6];
+		sceneLight = new SceneLight();
+		sceneLight.setAmbientLight(new Vector3f());
+		fog = Fog.NOFOG;
+	}
+	
+	public void capture(Scene scene, Camera camera) {
+		Map<Mesh, List<Actor>> mapMeshes = scene.getMeshes();
+		int count = 0;
+		for (List<Actor> actorList : mapMeshes.values()) {
+			count += actorList.size();
+		}
+		ensureCapacity(count);
+		
+		int i = 0;
+		for (Map.Entry<Mesh, List<Actor>> entry : mapMeshes.entrySet()) {
+			Mesh mesh = entry.getKey();
+			for (Actor actor : entry.getValue()) {
+				actors[i] = actor;
+				meshes[i] = mesh;
+				materials[i] = actor.getMaterial();
+				writeTransform(i, actor.getPosition(), actor.getRotation(), actor.getScale());
+				i++;
+			}
+		}
+		for (int j = count; j < actorCount; j++) {
+			actors[j] = null;
+			meshes[j] = null;
+			materials[j] = null;
+		}
+		actorCount = count;
+		
+		List<Occluder> sceneOccluders = scene.getOccluders();
+		int occluders = sceneOccluders.size();
+		ensureOccluderCapacity(occluders);
+		for (int j = 0; j < occluders; j++) {
+			Occluder occluder = sceneOccluders.get(j);
+			this.occluders[j] = occluder;
+			occluder.getModelMatrix().get(occluderMatrices, j * MATRIX_SIZE);
+		}
+		for (int j = occluders; j < occluderCount; j++) {
+			this.occluders[j] = null;
+		}
+		occluderCount = occluders;
+		
+		if (camera != null) {
+			Vector3f position = camera.getPosition();
+			Vector3f rotation = camera.getRotation();
+			this.camera[0] = position.x;
+			this.camera[1] = position.y;
+			this.camera[2] = position.z;
+			this.camera[3] = rotation.x;
+			this.camera[4] = rotation.y;
+			this.camera[5] = rotation.z;
+		}
+		
+		if (scene.getSceneLight() != null) {
+			copyLights(scene.getSceneLight(), sceneLight);
+		}
+		skybox = scene.getSkybox();
+		fog = scene.getFog();
+	}
+	
+	public void set(SceneSnapshot other) {
+		ensureCapacity(other.actorCount);
+		System.arraycopy(other.actors, 0, actors, 0, other.actorCount);
+		System.arraycopy(other.meshes, 0, meshes, 0, other.actorCount);
+		System.arraycopy(other.materials, 0, materials, 0, other.actorCount);
+		System.arraycopy(other.transforms, 0, transforms, 0, other.actorCount * TRANSFORM_SIZE);
+		for (int j = other.actorCount; j < actorCount; j++) {
+			actors[j] = null;
+			meshes[j] = null;
+			materials[j] = null;
+		}
+		actorCount = other.actorCount;
+		ensureOccluderCapacity(other.occluderCount);
+		System.arraycopy(other.occluders, 0, occluders, 0, other.occluderCount);
+		System.arraycopy(other.occluderMatrices, 0, occluderMatrices, 0, other.occluderCount * MATRIX_SIZE);
+		for (int j = other.occluderCount; j < occluderCount; j++) {
+			occluders[j] = null;
+		}
+		occluderCount = other.occluderCount;
+		System.arraycopy(other.camera, 0, camera, 0, camera.length);
+		copyLights(other.sceneLight, sceneLight);
+		skybox = other.skybox;
+		fog = other.fog;
+		time = other.time;
+	}
+	
+	private void ensureCapacity(int count) {
+		if (actors.length < count) {
+			int capacity = Math.max(count, actors.length * 2);
+			Actor[] newActors = new Actor[capacity];
+			System.arraycopy(actors, 0, newActors, 0, actorCount);
+			actors = newActors;
+			Mesh[] newMeshes = new Mesh[capacity];
+			System.arraycopy(meshes, 0, newMeshes, 0, actorCount);
+			meshes = newMeshes;
+			Material[] newMaterials = new Material[capacity];
+			System.arraycopy(materials, 0, newMaterials, 0, actorCount);
+			materials = newMaterials;
+			float[] newTransforms = new float[capacity * TRANSFORM_SIZE];
+			System.arraycopy(transforms, 0, newTransforms, 0, actorCount * TRANSFORM_SIZE);
+			transforms = newTransforms;
+		}
+	}
+	
+	private void ensureOccluderCapacity(int count) {
+		if (occluders.length < count) {
+			int capacity = Math.max(count, occluders.length * 2);
+			Occluder[] newOccluders = new Occluder[capacity];
+			System.arraycopy(occluders, 0, newOccluders, 0, occluderCount);
+			occluders = newOccluders;
+			float[] newMatrices = new float[capacity * MATRIX_SIZE];
+			System.arraycopy(occluderMatrices, 0, newMatrices, 0, occluderCount * MATRIX_SIZE);
+			occluderMatrices = newMatrices;
+		}
+	}
+	
+	private void writeTransform(int index, Vector3f position, Vector3f rotation, float scale) {
+		int offset = index * TRANSFORM_SIZE;
+		transforms[offset] = position.x;
+		transforms[offset + 1] = position.y;
+		transforms[offset + 2] = position.z;
+		transforms[offset + 3] = rotation.x;
+		transforms[offset + 4] = rotation.y;
+		transforms[offset + 5] = rotation.z;
+		transforms[offset + 6] = scale;
+	}
+	
+	private static void copyLights(SceneLight source, SceneLight dest) {
+		Vector3f ambient = source.getAmbientLight();
+		if (ambient != null) {
+			dest.getAmbientLight().set(ambient);
+		}
+		
+		PointLight[] pointLights = source.getPointLights();
+		if (pointLights == null) {
+			dest.setPointLights(null);
+		} else {
+			PointLight[] destPointLights = dest.getPointLights();
+			if (destPointLights == null || destPointLights.length != pointLights.length) {
+				destPointLights = new PointLight[pointLights.length];
+				for (int i = 0; i < pointLights.length; i++) {
+					destPointLights[i] = newPointLight();
+				}
+				dest.setPointLights(destPointLights);
+			}
+			for (int i = 0; i < pointLights.length; i++) {
+				copyPointLight(pointLights[i], destPointLights[i]);
+			}
+		}
+		
+		SpotLight[] spotLights = source.getSpotLights();
+		if (spotLights == null) {
+			dest.setSpotLights(null);
+		} else {
+			SpotLight[] destSpotLights = dest.getSpotLights();
+			if (destSpotLights == null || destSpotLights.length != spotLights.length) {
+				destSpotLights = new SpotLight[spotLights.length];
+				for (int i = 0; i < spotLights.length; i++) {
+					destSpotLights[i] = new SpotLight(newPointLight(), new Vector3f(), 0);
+				}
+				dest.setSpotLights(destSpotLights);
+			}
+			for (int i = 0; i < spotLights.length; i++) {
+				copyPointLight(spotLights[i].getPointLight(), destSpotLights[i].getPointLight());
+				destSpotLights[i].getConeDirection().set(spotLights[i].getConeDirection());
+				destSpotLights[i].setCutOff(spotLights[i].getCutOff());
+			}
+		}
+		
+		DirectionalLight directionalLight = source.getDirectionalLight();
+		if (directionalLight == null) {
+			dest.setDirectionalLight(null);
+		} else {
+			DirectionalLight destDirectionalLight = dest.getDirectionalLight();
+			if (destDirectionalLight == null) {
+				destDirectionalLight = new DirectionalLight(new Vector3f(), new Vector3f(), 0);
+				dest.setDirectionalLight(destDirectionalLight);
+			}
+			destDirectionalLight.getColor().set(directionalLight.getColor());
+			destDirectionalLight.getDirection().set(directionalLight.getDirection());
+			destDirectionalLight.setIntensity(directionalLight.getIntensity());
+		}
+	}
+	
+	private static PointLight newPointLight() {
+		return new PointLight(new Vector3f(), new Vector3f(), 0, new PointLight.Attenuation(1, 0, 0));
+	}
+	
+	private static void copyPointLight(PointLight source, PointLight dest) {
+		dest.getColor().set(source.getColor());
+		dest.getPosition().set(source.getPosition());
+		dest.setIntensity(source.getIntensity());
+		PointLight.Attenuation att = source.getAttenuation();
+		PointLight.Attenuation destAtt = dest.getAttenuation();
+		destAtt.setConstant(att.getConstant());
+		destAtt.setLinear(att.getLinear());
+		destAtt.setExponent(att.getExponent());
+	}
+	
+	public long getTime() {
+		return time;
+	}
+	
+	public void setTime(long time) {
+		this.time = time;
+	}
+	
+	public int getActorCount() {
+		return actorCount;
+	}
+	
+	public Actor getActor(int index) {
+		return actors[index];
+	}
+	
+	public Mesh getMesh(int index) {
+		return meshes[index];
+	}
+	
+	/**
+	 * The material the actor is drawn with, its own or its mesh's.
+	 */
+	public Material getMaterial(int index) {
+		return materials[index];
+	}
+	
+	public float[] getTransforms() {
+		return transforms;
+	}
+	
+	public int getOccluderCount() {
+		return occluderCount;
+	}
+	
+	public Occluder getOccluder(int index) {
+		return occluders[index];
+	}
+	
+	/**
+	 * Model matrices of the occluders, {@link #MATRIX_SIZE} floats each in
+	 * column-major order.
+	 */
+	public float[] getOccluderMatrices() {
+		return occluderMatrices;
+	}
+	
+	public float[] getCamera() {
+		return camera;
+	}
+	
+	public SceneLight getSceneLight() {
+		return sceneLight;
+	}
+	
+	public SkyBox getSkybox() {
+		return skybox;
+	}
+	
+	public Fog getFog() {
+		return fog;
+	}
+	
+}
@@ -0,0 +1,47 @@
+package com.clepto.fsengine.scene;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free triple buffer handing {@link SceneSnapshot}s from the update thread
+ * to the render thread. The writer always owns the back buffer, the reader
+ * always owns the front buffer, and the middle buffer is swapped atomically.
+ */
+public class SnapshotBuffer {
+	
+	private static final int INDEX_MASK = 3;
+	
+	private static final int DIRTY = 4;
+	
+	private final SceneSnapshot[] buffers;
+	
+	private final AtomicInteger middle;
+	
+	private int back;
+	
+	private int front;
+	
+	public SnapshotBuffer() {
+		buffers = new SceneSnapshot[] { new SceneSnapshot(), new SceneSnapshot(), new SceneSnapshot() };
+		back = 0;
+		middle = new AtomicInteger(1);
+		front = 2;
+	}
+	
+	public SceneSnapshot getBackBuffer() {
+		return buffers[back];
+	}
+	
+	public void publish() {
+		back = middle.getAndSet(back | DIRTY) & INDEX_MASK;
+	}
+	
+	public SceneSnapshot acquire() {
+		if ((middle.get() & DIRTY) == 0) {
+			return null;
+		}
+		front = middle.getAndSet(front) & INDEX_MASK;
+		return buffers[front];
+	}
+	
+}
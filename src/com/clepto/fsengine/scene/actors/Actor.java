@@ -2,22 +2,33 @@ package com.clepto.fsengine.scene.actors;
 
 import org.joml.Vector3f;
 
+import com.clepto.fsengine.graphics.Material;
 import com.clepto.fsengine.graphics.Mesh;
+import com.clepto.fsengine.scene.Scene;
 
 public class Actor {
 
 	private Mesh mesh;
 	
+	private Material material;
+	
 	private final Vector3f position;
 	
 	private float scale;
 	
 	private final Vector3f rotation;
 	
+	private Scene scene;
+	
+	private int proxyId;
+	
+	private int lodLevel;
+	
 	public Actor() {
 		position = new Vector3f(0, 0, 0);
 		scale = 1;
 		rotation = new Vector3f(0, 0, 0);
+		proxyId = -1;
 	}
 	
 	public Actor(Mesh mesh) {
@@ -25,6 +36,11 @@ public class Actor {
 		this.mesh = mesh;
 	}
 	
+	/**
+	 * The position of the actor. Change it through
+	 * {@link #setPosition(float, float, float)}, which tells the scene
+	 * holding the actor.
+	 */
 	public Vector3f getPosition() {
 		return position;
 	}
@@ -33,6 +49,7 @@ public class Actor {
 		this.position.x = x;
 		this.position.y = y;
 		this.position.z = z;
+		moved();
 	}
 	
 	public float getScale() {
@@ -41,6 +58,7 @@ public class Actor {
 	
 	public void setScale(float scale) {
 		this.scale = scale;
+		moved();
 	}
 	
 	public Vector3f getRotation() {
@@ -51,14 +69,152 @@ public class Actor {
 		this.rotation.x = x;
 		this.rotation.y = y;
 		this.rotation.z = z;
+		moved();
+	}
+	
+	private void moved() {
+		if (scene != null) {
+			scene.moveActor(this);
+		}
+	}
+	
+	/**
+	 * Centre of the mesh bounding sphere in world space.
+	 */
+	public Vector3f getWorldCenter(Vector3f dest) {
+		if (mesh == null) {
+			return dest.set(position);
+		}
+		Vector3f center = mesh.getBoundingCenter();
+		return rotate(center.x * scale, center.y * scale, center.z * scale, false, dest).add(position);
+	}
+	
+	public float getWorldRadius() {
+		return mesh != null ? mesh.getBoundingRadius() * Math.abs(scale) : 0;
+	}
+	
+	/**
+	 * World space axis aligned box enclosing the rotated and scaled mesh
+	 * bounds. Does not allocate.
+	 */
+	public void getWorldBounds(Vector3f min, Vector3f max) {
+		if (mesh == null) {
+			min.set(position);
+			max.set(position);
+			return;
+		}
+		Vector3f boundsMin = mesh.getBoundsMin();
+		Vector3f boundsMax = mesh.getBoundsMax();
+		float absScale = Math.abs(scale);
+		rotate((boundsMax.x - boundsMin.x) * 0.5f * absScale,
+				(boundsMax.y - boundsMin.y) * 0.5f * absScale,
+				(boundsMax.z - boundsMin.z) * 0.5f * absScale, true, max);
+		getWorldCenter(min);
+		float ex = max.x;
+		float ey = max.y;
+		float ez = max.z;
+		max.set(min.x + ex, min.y + ey, min.z + ez);
+		min.sub(ex, ey, ez);
+	}
+	
+	/**
+	 * Applies the same rotation as the model matrix, X then Y then Z by the
+	 * negated angles. With abs set the absolute matrix is used instead, which
+	 * turns box half extents into the half extents of the enclosing box.
+	 */
+	private Vector3f rotate(float x, float y, float z, boolean abs, Vector3f dest) {
+		double a = Math.toRadians(-rotation.x);
+		double b = Math.toRadians(-rotation.y);
+		double c = Math.toRadians(-rotation.z);
+		float sa = (float) Math.sin(a);
+		float ca = (float) Math.cos(a);
+		float sb = (float) Math.sin(b);
+		float cb = (float) Math.cos(b);
+		float sc = (float) Math.sin(c);
+		float cc = (float) Math.cos(c);
+		
+		float m00 = cb * cc;
+		float m01 = -cb * sc;
+		float m02 = sb;
+		float m10 = ca * sc + sa * sb * cc;
+		float m11 = ca * cc - sa * sb * sc;
+		float m12 = -sa * cb;
+		float m20 = sa * sc - ca * sb * cc;
+		float m21 = sa * cc + ca * sb * sc;
+		float m22 = ca * cb;
+		if (abs) {
+			return dest.set(
+					Math.abs(m00) * x + Math.abs(m01) * y + Math.abs(m02) * z,
+					Math.abs(m10) * x + Math.abs(m11) * y + Math.abs(m12) * z,
+					Math.abs(m20) * x + Math.abs(m21) * y + Math.abs(m22) * z);
+		}
+		return dest.set(
+				m00 * x + m01 * y + m02 * z,
+				m10 * x + m11 * y + m12 * z,
+				m20 * x + m21 * y + m22 * z);
+	}
+	
+	/**
+	 * The scene holding this actor, or null. Set by the scene.
+	 */
+	public Scene getScene() {
+		return scene;
+	}
+	
+	public void setScene(Scene scene) {
+		this.scene = scene;
+	}
+	
+	/**
+	 * Leaf of this actor in the spatial index of the scene holding it, or -1.
+	 */
+	public int getProxyId() {
+		return proxyId;
+	}
+	
+	public void setProxyId(int proxyId) {
+		this.proxyId = proxyId;
+	}
+	
+	/**
+	 * Level of detail this actor was last drawn at, when its mesh is a
+	 * {@link com.clepto.fsengine.graphics.lod.LodMesh}.
+	 */
+	public int getLodLevel() {
+		return lodLevel;
+	}
+	
+	public void setLodLevel(int lodLevel) {
+		this.lodLevel = lodLevel;
 	}
 	
 	public void setMesh(Mesh mesh) {
+		Mesh oldMesh = this.mesh;
 		this.mesh = mesh;
+		if (scene != null && oldMesh != mesh) {
+			scene.changeMesh(this, oldMesh);
+		}
 	}
 	
 	public Mesh getMesh() {
 		return mesh;
 	}
 	
+	/**
+	 * The material to draw this actor with: its own, if set, or its mesh's.
+	 * Actors sharing a mesh can be drawn in one batch with different
+	 * materials when all of them are in the same group of a
+	 * {@link com.clepto.fsengine.graphics.material.MaterialTable}.
+	 */
+	public Material getMaterial() {
+		if (material != null || mesh == null) {
+			return material;
+		}
+		return mesh.getMaterial();
+	}
+	
+	public void setMaterial(Material material) {
+		this.material = material;
+	}
+	
 }
@@ -1,86 +1,177 @@
 package com.clepto.fsengine.scene.actors;
 
-import java.util.ArrayList;
-import java.util.List;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL33.*;
 
+import java.util.Arrays;
+
+import com.clepto.fsengine.graphics.DynamicMesh;
 import com.clepto.fsengine.graphics.FontTexture;
+import com.clepto.fsengine.graphics.GLStateCache;
+import com.clepto.fsengine.graphics.InstanceBuffer;
 import com.clepto.fsengine.graphics.Material;
-import com.clepto.fsengine.graphics.Mesh;
-import com.clepto.fsengine.util.Utils;
+import com.clepto.fsengine.graphics.Texture;
+import com.clepto.fsengine.graphics.VertexLayout;
 
 public class TextActor extends Actor {
-
+	
 	private static final float ZPOS = 0.0f;
 	
 	private static final int VERTICES_PER_QUAD = 4;
 	
+	private static final int INDICES_PER_QUAD = 6;
+	
+	private static final int INITIAL_CHARS = 32;
+	
 	private final FontTexture fontTexture;
 	
+	private final TextMesh mesh;
+	
+	private int quadCapacity;
+	
+	private int evictions;
+	
+	private boolean dirty;
+	
 	private String text;
 	
+	private float[] penPositions;
+	
+	private Texture[] pageTextures;
+	
+	private int[] pageQuadStarts;
+	
+	private int[] pageQuadCounts;
+	
+	private int pageCount;
+	
 	public TextActor(String text, FontTexture fontTexture) throws Exception {
 		super();
-		this.text = text;
 		this.fontTexture = fontTexture;
-		setMesh(buildMesh());
+		penPositions = new float[INITIAL_CHARS];
+		pageTextures = new Texture[1];
+		pageQuadStarts = new int[1];
+		pageQuadCounts = new int[1];
+		mesh = new TextMesh(selectLayout(fontTexture));
+		mesh.setMaterial(new Material(fontTexture.getTexture()));
+		setMesh(mesh);
+		setText(text);
+	}
+	
+	/**
+	 * The smallest layout for the quads: half float texture coordinates when
+	 * the atlas pages are small enough, packed normals, and 16 bit indices,
+	 * which the mesh widens once the text outgrows them.
+	 */
+	private static VertexLayout selectLayout(FontTexture fontTexture) {
+		int texCoordType = fontTexture.getPageSize() <= VertexLayout.MAX_HALF_TEXTURE_SIZE ? GL_HALF_FLOAT : GL_FLOAT;
+		return new VertexLayout(true, texCoordType, GL_INT_2_10_10_10_REV, GL_UNSIGNED_SHORT);
 	}
 	
-	private Mesh buildMesh() {
-		List<Float> positions = new ArrayList<Float>();
-		List<Float> textCoords = new ArrayList<Float>();
-		float[] normals = new float[0];
-		List<Integer> indices = new ArrayList<Integer>();
-		char[] characters = text.toCharArray();
-		int numChars = characters.length;
+	/**
+	 * Rewrites the quads of the mesh in place, grouped by atlas page so every
+	 * page is drawn as one range. The index pattern is shared by every string,
+	 * so indices are only written when the text outgrows the longest one seen
+	 * so far.
+	 */
+	private void updateMesh() {
+		int numChars = text.length();
+		mesh.ensureCapacity(numChars * VERTICES_PER_QUAD, numChars * INDICES_PER_QUAD);
+		if (penPositions.length < numChars) {
+			penPositions = new float[Math.max(numChars, penPositions.length * 2)];
+		}
 		
+		evictions = fontTexture.getEvictions();
+		pageCount = 0;
 		float startx = 0;
 		for (int i = 0; i < numChars; i++) {
-			FontTexture.CharInfo charInfo = fontTexture.getCharInfo(characters[i]);
-			
-			//Left Top
-			positions.add(startx);
-			positions.add(0.0f);
-			positions.add(ZPOS);
-			textCoords.add((float) charInfo.getStartX() / (float) fontTexture.getWidth());
-			textCoords.add(0.0f);
-			indices.add(i * VERTICES_PER_QUAD);
-			
-			//Left Bottom
-			positions.add(startx);
-			positions.add((float) fontTexture.getHeight());
-			positions.add(ZPOS);
-			textCoords.add((float) charInfo.getStartX() / (float) fontTexture.getWidth());
-			textCoords.add(1.0f);
-			indices.add(i * VERTICES_PER_QUAD + 1);
-			
-			//Right Bottom
-			positions.add(startx + charInfo.getWidth());
-			positions.add((float) fontTexture.getHeight());
-			positions.add(ZPOS);
-			textCoords.add((float) (charInfo.getStartX() + charInfo.getWidth()) / (float) fontTexture.getWidth());
-			textCoords.add(1.0f);
-			indices.add(i * VERTICES_PER_QUAD + 2);
-			
-			//Right Top
-			positions.add(startx + charInfo.getWidth());
-			positions.add(0.0f);
-			positions.add(ZPOS);
-			textCoords.add((float) (charInfo.getStartX() + charInfo.getWidth()) / (float) fontTexture.getWidth());
-			textCoords.add(0.0f);
-			indices.add(i * VERTICES_PER_QUAD + 3);
-			
-			indices.add(i * VERTICES_PER_QUAD);
-			indices.add(i * VERTICES_PER_QUAD + 2);
-			
+			FontTexture.CharInfo charInfo = fontTexture.getCharInfo(text.charAt(i));
+			penPositions[i] = startx;
+			if (charInfo == null) {
+				continue;
+			}
+			addPage(charInfo.getTexture());
 			startx += charInfo.getWidth();
 		}
 		
-		float[] posArr = Utils.listToArray(positions);
-		float[] textCoordsArr = Utils.listToArray(textCoords);
-		int[] indicesArr = indices.stream().mapToInt(i->i).toArray();
-		Mesh mesh = new Mesh(posArr, textCoordsArr, normals, indicesArr);
-		mesh.setMaterial(new Material(fontTexture.getTexture()));
-		return mesh;
+		int numQuads = 0;
+		for (int page = 0; page < pageCount; page++) {
+			Texture texture = pageTextures[page];
+			pageQuadStarts[page] = numQuads;
+			for (int i = 0; i < numChars; i++) {
+				FontTexture.CharInfo charInfo = fontTexture.getCharInfo(text.charAt(i));
+				if (charInfo == null || charInfo.getTexture() != texture) {
+					continue;
+				}
+				putQuad(numQuads * VERTICES_PER_QUAD, penPositions[i], charInfo);
+				numQuads++;
+			}
+			pageQuadCounts[page] = numQuads - pageQuadStarts[page];
+		}
+		dirty = false;
+		
+		for (int i = quadCapacity; i < numQuads; i++) {
+			int vertex = i * VERTICES_PER_QUAD;
+			int index = i * INDICES_PER_QUAD;
+			mesh.putIndex(index, vertex);
+			mesh.putIndex(index + 1, vertex + 1);
+			mesh.putIndex(index + 2, vertex + 2);
+			mesh.putIndex(index + 3, vertex + 3);
+			mesh.putIndex(index + 4, vertex);
+			mesh.putIndex(index + 5, vertex + 2);
+		}
+		quadCapacity = Math.max(quadCapacity, numQuads);
+		
+		mesh.update(numQuads * VERTICES_PER_QUAD, numQuads * INDICES_PER_QUAD);
+	}
+	
+	private void addPage(Texture texture) {
+		for (int page = 0; page < pageCount; page++) {
+			if (pageTextures[page] == texture) {
+				return;
+			}
+		}
+		if (pageCount == pageTextures.length) {
+			pageTextures = Arrays.copyOf(pageTextures, pageCount * 2);
+			pageQuadStarts = Arrays.copyOf(pageQuadStarts, pageCount * 2);
+			pageQuadCounts = Arrays.copyOf(pageQuadCounts, pageCount * 2);
+		}
+		pageTextures[pageCount++] = texture;
+	}
+	
+	private void putQuad(int vertex, float startx, FontTexture.CharInfo charInfo) {
+		float endx = startx + charInfo.getWidth();
+		float height = charInfo.getHeight();
+		float startu = charInfo.getU0();
+		float endu = charInfo.getU1();
+		float startv = charInfo.getV0();
+		float endv = charInfo.getV1();
+		
+		//Left Top
+		mesh.putVertex(vertex, startx, 0.0f, ZPOS, startu, startv, 0, 0, 0);
+		//Left Bottom
+		mesh.putVertex(vertex + 1, startx, height, ZPOS, startu, endv, 0, 0, 0);
+		//Right Bottom
+		mesh.putVertex(vertex + 2, endx, height, ZPOS, endu, endv, 0, 0, 0);
+		//Right Top
+		mesh.putVertex(vertex + 3, endx, 0.0f, ZPOS, endu, startv, 0, 0, 0);
+	}
+	
+	/**
+	 * Rebuilds the quads if the text changed or the font evicted glyphs since
+	 * they were written. Issues GL calls, so it must run on the render thread;
+	 * binding the mesh does it, and the HUD batch draws the text without the
+	 * mesh at all.
+	 */
+	public void refreshMesh() {
+		if (dirty || evictions != fontTexture.getEvictions()) {
+			updateMesh();
+		}
+	}
+	
+	public FontTexture getFontTexture() {
+		return fontTexture;
 	}
 	
 	public String getText() {
@@ -89,7 +180,46 @@ public class TextActor extends Actor {
 	
 	public void setText(String text) {
 		this.text = text;
-		this.getMesh().deleteBuffers();
-		this.setMesh(buildMesh());
+		dirty = true;
+	}
+	
+	/**
+	 * The quads of the text, brought up to date and with the glyphs uploaded
+	 * when bound, and drawn one range per atlas page.
+	 */
+	private class TextMesh extends DynamicMesh {
+		
+		TextMesh(VertexLayout layout) {
+			super(layout, INITIAL_CHARS * VERTICES_PER_QUAD, INITIAL_CHARS * INDICES_PER_QUAD);
+		}
+		
+		@Override
+		public void bind(GLStateCache stateCache, Material material) {
+			refreshMesh();
+			fontTexture.upload(stateCache);
+			super.bind(stateCache, material);
+		}
+		
+		@Override
+		public void bindInstanced(GLStateCache stateCache, InstanceBuffer instanceBuffer, Material material) {
+			refreshMesh();
+			fontTexture.upload(stateCache);
+			super.bindInstanced(stateCache, instanceBuffer, material);
+		}
+		
+		@Override
+		public void draw(GLStateCache stateCache) {
+			VertexLayout layout = getLayout();
+			stateCache.bindVertexArray(getVaoId());
+			for (int page = 0; page < pageCount; page++) {
+				if (pageQuadCounts[page] == 0) {
+					continue;
+				}
+				stateCache.bindTexture(0, pageTextures[page].getId());
+				glDrawElements(GL_TRIANGLES, pageQuadCounts[page] * INDICES_PER_QUAD, layout.getIndexType(),
+						(long) pageQuadStarts[page] * INDICES_PER_QUAD * layout.getIndexSize());
+			}
+		}
+		
 	}
 }
@@ -0,0 +1,439 @@
+package com.clepto.fsengine.scene.actors.terrain;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.lwjgl.system.MemoryUtil;
+
+import com.clepto.fsengine.graphics.Mesh;
+
+/**
+ * Geomipmapping data shared by the blocks of a {@link Terrain}. The height
+ * map is split into patches of {@link #PATCH_SIZE} cells, the last row and
+ * column of patches taking whatever cells are left, and level l of a patch
+ * keeps every 2^l-th vertex of it. The index buffer holds a triangulation for
+ * every patch shape, level and combination of coarser neighbours, relative to
+ * the corner of the patch, so a patch is drawn with a single call using its
+ * corner as the base vertex. Along an edge next to a patch one level coarser
+ * the extra vertices are snapped onto the neighbour's, which closes the
+ * cracks; the triangles that collapse are left out. The vertices are those of
+ * the full resolution {@link HeightMapMesh}.
+ */
+public class GeoMipMap {
+	
+	public static final int PATCH_SIZE = 32;
+	
+	public static final int EDGE_TOP = 1;
+	
+	public static final int EDGE_RIGHT = 2;
+	
+	public static final int EDGE_BOTTOM = 4;
+	
+	public static final int EDGE_LEFT = 8;
+	
+	private static final int MASKS = 16;
+	
+	private static final int SHAPES = 4;
+	
+	private final HeightMapMesh heightMapMesh;
+	
+	private final int columns;
+	
+	private final int rows;
+	
+	private final int patchesX;
+	
+	private final int patchesZ;
+	
+	private final int levels;
+	
+	private final int[] shapeWidths;
+	
+	private final int[] shapeHeights;
+	
+	private final int[] patchShapes;
+	
+	private final int[] baseVertices;
+	
+	private final float[] patchMinY;
+	
+	private final float[] patchMaxY;
+	
+	private final float[] errors;
+	
+	private final long[] indexOffsets;
+	
+	private final int[] indexCounts;
+	
+	private final int indexType;
+	
+	private final int vaoId;
+	
+	private final int iboId;
+	
+	private int[] scratch;
+	
+	private int scratchCount;
+	
+	private boolean released;
+	
+	public GeoMipMap(HeightMapMesh heightMapMesh) {
+		this.heightMapMesh = heightMapMesh;
+		columns = heightMapMesh.getColumns();
+		rows = heightMapMesh.getRows();
+		int cellsX = Math.max(columns - 1, 1);
+		int cellsZ = Math.max(rows - 1, 1);
+		patchesX = (cellsX + PATCH_SIZE - 1) / PATCH_SIZE;
+		patchesZ = (cellsZ + PATCH_SIZE - 1) / PATCH_SIZE;
+		levels = Integer.numberOfTrailingZeros(PATCH_SIZE) + 1;
+		
+		int lastWidth = cellsX - (patchesX - 1) * PATCH_SIZE;
+		int lastHeight = cellsZ - (patchesZ - 1) * PATCH_SIZE;
+		shapeWidths = new int[] { PATCH_SIZE, lastWidth, PATCH_SIZE, lastWidth };
+		shapeHeights = new int[] { PATCH_SIZE, PATCH_SIZE, lastHeight, lastHeight };
+		
+		int patches = patchesX * patchesZ;
+		patchShapes = new int[patches];
+		baseVertices = new int[patches];
+		patchMinY = new float[patches];
+		patchMaxY = new float[patches];
+		errors = new float[patches * levels];
+		boolean[] usedShapes = new boolean[SHAPES];
+		for (int pz = 0; pz < patchesZ; pz++) {
+			for (int px = 0; px < patchesX; px++) {
+				int patch = pz * patchesX + px;
+				int shape = (px == patchesX - 1 && lastWidth != PATCH_SIZE ? 1 : 0) | (pz == patchesZ - 1 && lastHeight != PATCH_SIZE ? 2 : 0);
+				patchShapes[patch] = shape;
+				usedShapes[shape] = true;
+				baseVertices[patch] = pz * PATCH_SIZE * columns + px * PATCH_SIZE;
+				computeErrors(patch, px * PATCH_SIZE, pz * PATCH_SIZE, shapeWidths[shape], shapeHeights[shape]);
+			}
+		}
+		
+		indexType = PATCH_SIZE * columns + PATCH_SIZE < 1 << 16 ? GL_UNSIGNED_SHORT : GL_UNSIGNED_INT;
+		int indexSize = indexType == GL_UNSIGNED_SHORT ? 2 : 4;
+		indexOffsets = new long[SHAPES * levels * MASKS];
+		indexCounts = new int[SHAPES * levels * MASKS];
+		scratch = new int[PATCH_SIZE * PATCH_SIZE * 6];
+		ByteBuffer indices = MemoryUtil.memAlloc(PATCH_SIZE * PATCH_SIZE * 6 * indexSize);
+		int offset = 0;
+		for (int shape = 0; shape < SHAPES; shape++) {
+			if (!usedShapes[shape]) {
+				continue;
+			}
+			for (int level = 0; level < levels; level++) {
+				for (int mask = 0; mask < MASKS; mask++) {
+					triangulate(shapeWidths[shape], shapeHeights[shape], 1 << level, mask);
+					if (offset + scratchCount * indexSize > indices.capacity()) {
+						indices = MemoryUtil.memRealloc(indices, Math.max(offset + scratchCount * indexSize, indices.capacity() * 2));
+					}
+					int slot = (shape * levels + level) * MASKS + mask;
+					indexOffsets[slot] = offset;
+					indexCounts[slot] = scratchCount;
+					for (int i = 0; i < scratchCount; i++) {
+						if (indexType == GL_UNSIGNED_SHORT) {
+							indices.putShort(offset, (short) scratch[i]);
+						} else {
+							indices.putInt(offset, scratch[i]);
+						}
+						offset += indexSize;
+					}
+				}
+			}
+		}
+		scratch = null;
+		
+		Mesh mesh = heightMapMesh.getMesh();
+		vaoId = glGenVertexArrays();
+		glBindVertexArray(vaoId);
+		glBindBuffer(GL_ARRAY_BUFFER, mesh.getVertexBufferId());
+		mesh.getLayout().setAttributePointers(columns * rows);
+		
+		iboId = glGenBuffers();
+		glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, iboId);
+		indices.limit(offset);
+		glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_STATIC_DRAW);
+		MemoryUtil.memFree(indices);
+		
+		glBindBuffer(GL_ARRAY_BUFFER, 0);
+		glBindVertexArray(0);
+	}
+	
+	/**
+	 * Vertex positions of a level along an edge of the given length: every
+	 * step-th vertex and the last one.
+	 */
+	private static int[] positions(int extent, int step) {
+		int cells = (extent + step - 1) / step;
+		int[] result = new int[cells + 1];
+		for (int i = 0; i < cells; i++) {
+			result[i] = i * step;
+		}
+		result[cells] = extent;
+		return result;
+	}
+	
+	/**
+	 * Moves a vertex of an edge onto the nearest vertex of the same edge at the
+	 * coarser level, the earlier one on a tie. Snapping down instead would fold
+	 * the corner cells of patches whose last cell is narrower than the step.
+	 */
+	private static int snap(int position, int extent, int coarseStep) {
+		int before = position / coarseStep * coarseStep;
+		int after = Math.min(before + coarseStep, extent);
+		return position - before <= after - position ? before : after;
+	}
+	
+	/**
+	 * Fills the scratch array with the triangles of a patch, in the winding of
+	 * {@link HeightMapMesh}.
+	 */
+	private void triangulate(int width, int height, int step, int mask) {
+		int[] xs = positions(width, step);
+		int[] zs = positions(height, step);
+		scratchCount = 0;
+		for (int j = 0; j < zs.length - 1; j++) {
+			for (int i = 0; i < xs.length - 1; i++) {
+				int leftTop = vertex(xs[i], zs[j], width, height, step, mask);
+				int leftBottom = vertex(xs[i], zs[j + 1], width, height, step, mask);
+				int rightBottom = vertex(xs[i + 1], zs[j + 1], width, height, step, mask);
+				int rightTop = vertex(xs[i + 1], zs[j], width, height, step, mask);
+				addTriangle(leftTop, leftBottom, rightTop);
+				addTriangle(rightTop, leftBottom, rightBottom);
+			}
+		}
+	}
+	
+	private int vertex(int x, int z, int width, int height, int step, int mask) {
+		int coarseStep = step * 2;
+		if ((z == 0 && (mask & EDGE_TOP) != 0) || (z == height && (mask & EDGE_BOTTOM) != 0)) {
+			x = snap(x, width, coarseStep);
+		}
+		if ((x == 0 && (mask & EDGE_LEFT) != 0) || (x == width && (mask & EDGE_RIGHT) != 0)) {
+			z = snap(z, height, coarseStep);
+		}
+		return z * columns + x;
+	}
+	
+	private void addTriangle(int a, int b, int c) {
+		if (a == b || b == c || a == c) {
+			return;
+		}
+		if (scratchCount + 3 > scratch.length) {
+			scratch = Arrays.copyOf(scratch, scratch.length * 2);
+		}
+		scratch[scratchCount++] = a;
+		scratch[scratchCount++] = b;
+		scratch[scratchCount++] = c;
+	}
+	
+	/**
+	 * Stores, for every level, the largest vertical distance between the
+	 * height map and the surface of that level within the patch. Errors never
+	 * decrease with the level.
+	 */
+	private void computeErrors(int patch, int startCol, int startRow, int width, int height) {
+		float minY = Float.POSITIVE_INFINITY;
+		float maxY = Float.NEGATIVE_INFINITY;
+		for (int z = 0; z <= height; z++) {
+			for (int x = 0; x <= width; x++) {
+				float y = heightMapMesh.getHeight(startRow + z, startCol + x);
+				minY = Math.min(minY, y);
+				maxY = Math.max(maxY, y);
+			}
+		}
+		patchMinY[patch] = minY;
+		patchMaxY[patch] = maxY;
+		
+		float previous = 0;
+		for (int level = 0; level < levels; level++) {
+			int step = 1 << level;
+			int[] xs = positions(width, step);
+			int[] zs = positions(height, step);
+			float error = previous;
+			for (int z = 0; z <= height; z++) {
+				int j = Math.min(z / step, zs.length - 2);
+				int z0 = zs[j];
+				int z1 = zs[j + 1];
+				float fz = (float) (z - z0) / (z1 - z0);
+				for (int x = 0; x <= width; x++) {
+					int i = Math.min(x / step, xs.length - 2);
+					int x0 = xs[i];
+					int x1 = xs[i + 1];
+					float fx = (float) (x - x0) / (x1 - x0);
+					float leftTop = heightMapMesh.getHeight(startRow + z0, startCol + x0);
+					float leftBottom = heightMapMesh.getHeight(startRow + z1, startCol + x0);
+					float rightTop = heightMapMesh.getHeight(startRow + z0, startCol + x1);
+					float rightBottom = heightMapMesh.getHeight(startRow + z1, startCol + x1);
+					float approximation;
+					if (fx + fz <= 1) {
+						approximation = leftTop + fx * (rightTop - leftTop) + fz * (leftBottom - leftTop);
+					} else {
+						approximation = rightBottom + (1 - fx) * (leftBottom - rightBottom) + (1 - fz) * (rightTop - rightBottom);
+					}
+					error = Math.max(error, Math.abs(heightMapMesh.getHeight(startRow + z, startCol + x) - approximation));
+				}
+			}
+			errors[patch * levels + level] = error;
+			previous = error;
+		}
+	}
+	
+	public int getPatchCount() {
+		return patchesX * patchesZ;
+	}
+	
+	public int getLevels() {
+		return levels;
+	}
+	
+	public HeightMapMesh getHeightMapMesh() {
+		return heightMapMesh;
+	}
+	
+	public int getVaoId() {
+		return vaoId;
+	}
+	
+	/**
+	 * Picks the level of every patch for a viewer at the given model space
+	 * position: the coarsest level whose error, divided by the distance from
+	 * the viewer to the patch, stays within maxErrorPerDistance. Neighbours
+	 * are then refined until they are at most one level apart, and the edge
+	 * masks are set where a neighbour is coarser. Returns the number of
+	 * indices the selection draws.
+	 */
+	public int selectLevels(float viewX, float viewY, float viewZ, float maxErrorPerDistance, int[] patchLevels, int[] patchMasks) {
+		float cellX = HeightMapMesh.getXLength() / Math.max(columns - 1, 1);
+		float cellZ = HeightMapMesh.getZLength() / Math.max(rows - 1, 1);
+		for (int pz = 0; pz < patchesZ; pz++) {
+			for (int px = 0; px < patchesX; px++) {
+				int patch = pz * patchesX + px;
+				int shape = patchShapes[patch];
+				float minX = HeightMapMesh.STARTX + px * PATCH_SIZE * cellX;
+				float minZ = HeightMapMesh.STARTZ + pz * PATCH_SIZE * cellZ;
+				float maxX = minX + shapeWidths[shape] * cellX;
+				float maxZ = minZ + shapeHeights[shape] * cellZ;
+				float dx = Math.max(Math.max(minX - viewX, viewX - maxX), 0);
+				float dy = Math.max(Math.max(patchMinY[patch] - viewY, viewY - patchMaxY[patch]), 0);
+				float dz = Math.max(Math.max(minZ - viewZ, viewZ - maxZ), 0);
+				float maxError = (float) Math.sqrt(dx * dx + dy * dy + dz * dz) * maxErrorPerDistance;
+				int level = 0;
+				while (level + 1 < levels && errors[patch * levels + level + 1] <= maxError) {
+					level++;
+				}
+				patchLevels[patch] = level;
+			}
+		}
+		
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int pz = 0; pz < patchesZ; pz++) {
+				for (int px = 0; px < patchesX; px++) {
+					int limit = patchLevels[pz * patchesX + px] + 1;
+					changed |= limitLevel(px, pz - 1, limit, patchLevels);
+					changed |= limitLevel(px + 1, pz, limit, patchLevels);
+					changed |= limitLevel(px, pz + 1, limit, patchLevels);
+					changed |= limitLevel(px - 1, pz, limit, patchLevels);
+				}
+			}
+		}
+		
+		int indexCount = 0;
+		for (int pz = 0; pz < patchesZ; pz++) {
+			for (int px = 0; px < patchesX; px++) {
+				int patch = pz * patchesX + px;
+				int coarser = patchLevels[patch] + 1;
+				int mask = 0;
+				if (levelAt(px, pz - 1, patchLevels) == coarser) {
+					mask |= EDGE_TOP;
+				}
+				if (levelAt(px + 1, pz, patchLevels) == coarser) {
+					mask |= EDGE_RIGHT;
+				}
+				if (levelAt(px, pz + 1, patchLevels) == coarser) {
+					mask |= EDGE_BOTTOM;
+				}
+				if (levelAt(px - 1, pz, patchLevels) == coarser) {
+					mask |= EDGE_LEFT;
+				}
+				patchMasks[patch] = mask;
+				indexCount += indexCounts[slot(patch, patchLevels[patch], mask)];
+			}
+		}
+		return indexCount;
+	}
+	
+	private boolean limitLevel(int px, int pz, int limit, int[] patchLevels) {
+		if (px < 0 || pz < 0 || px >= patchesX || pz >= patchesZ) {
+			return false;
+		}
+		int patch = pz * patchesX + px;
+		if (patchLevels[patch] <= limit) {
+			return false;
+		}
+		patchLevels[patch] = limit;
+		return true;
+	}
+	
+	private int levelAt(int px, int pz, int[] patchLevels) {
+		if (px < 0 || pz < 0 || px >= patchesX || pz >= patchesZ) {
+			return -1;
+		}
+		return patchLevels[pz * patchesX + px];
+	}
+	
+	private int slot(int patch, int level, int mask) {
+		return (patchShapes[patch] * levels + level) * MASKS + mask;
+	}
+	
+	/**
+	 * Number of indices drawn for every patch at full detail.
+	 */
+	public int getFullDetailIndexCount() {
+		int count = 0;
+		for (int patch = 0, n = getPatchCount(); patch < n; patch++) {
+			count += indexCounts[slot(patch, 0, 0)];
+		}
+		return count;
+	}
+	
+	/**
+	 * Draws every patch at its selected level with the vertex array bound.
+	 */
+	public void draw(int[] patchLevels, int[] patchMasks) {
+		for (int patch = 0, n = getPatchCount(); patch < n; patch++) {
+			int slot = slot(patch, patchLevels[patch], patchMasks[patch]);
+			glDrawElementsBaseVertex(GL_TRIANGLES, indexCounts[slot], indexType, indexOffsets[slot], baseVertices[patch]);
+		}
+	}
+	
+	public void drawInstanced(int[] patchLevels, int[] patchMasks, int instances) {
+		for (int patch = 0, n = getPatchCount(); patch < n; patch++) {
+			int slot = slot(patch, patchLevels[patch], patchMasks[patch]);
+			glDrawElementsInstancedBaseVertex(GL_TRIANGLES, indexCounts[slot], indexType, indexOffsets[slot], instances, baseVertices[patch]);
+		}
+	}
+	
+	/**
+	 * Releases the index buffer and the vertex array, and the height map mesh
+	 * whose vertices they use. Calling it again does nothing.
+	 */
+	public void cleanup() {
+		if (released) {
+			return;
+		}
+		released = true;
+		glBindVertexArray(0);
+		glDeleteBuffers(iboId);
+		glDeleteVertexArrays(vaoId);
+		heightMapMesh.getMesh().cleanUp();
+	}
+	
+}
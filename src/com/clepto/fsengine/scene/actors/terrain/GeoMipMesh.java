@@ -0,0 +1,82 @@
+package com.clepto.fsengine.scene.actors.terrain;
+
+import org.joml.Vector3f;
+
+import com.clepto.fsengine.graphics.GLStateCache;
+import com.clepto.fsengine.graphics.Mesh;
+
+/**
+ * A terrain block drawn through a shared {@link GeoMipMap}, with the level of
+ * every patch chosen for the block by {@link #selectLevels}. Until then every
+ * patch is drawn at full detail.
+ */
+public class GeoMipMesh extends Mesh {
+	
+	private final GeoMipMap geoMipMap;
+	
+	private final int[] patchLevels;
+	
+	private final int[] patchMasks;
+	
+	private int indexCount;
+	
+	public GeoMipMesh(GeoMipMap geoMipMap) {
+		super(geoMipMap.getHeightMapMesh().getMesh().getLayout());
+		this.geoMipMap = geoMipMap;
+		Mesh source = geoMipMap.getHeightMapMesh().getMesh();
+		setMaterial(source.getMaterial());
+		Vector3f min = source.getBoundsMin();
+		Vector3f max = source.getBoundsMax();
+		setBounds(min.x, min.y, min.z, max.x, max.y, max.z);
+		patchLevels = new int[geoMipMap.getPatchCount()];
+		patchMasks = new int[geoMipMap.getPatchCount()];
+		indexCount = geoMipMap.getFullDetailIndexCount();
+	}
+	
+	/**
+	 * See {@link GeoMipMap#selectLevels}. The view position is in the model
+	 * space of the block.
+	 */
+	public void selectLevels(float viewX, float viewY, float viewZ, float maxErrorPerDistance) {
+		indexCount = geoMipMap.selectLevels(viewX, viewY, viewZ, maxErrorPerDistance, patchLevels, patchMasks);
+	}
+	
+	public int getPatchLevel(int patch) {
+		return patchLevels[patch];
+	}
+	
+	@Override
+	public int getVaoId() {
+		return geoMipMap.getVaoId();
+	}
+	
+	/**
+	 * Number of indices drawn with the current selection.
+	 */
+	@Override
+	public int getVertexCount() {
+		return indexCount;
+	}
+	
+	@Override
+	public void draw(GLStateCache stateCache) {
+		stateCache.bindVertexArray(getVaoId());
+		geoMipMap.draw(patchLevels, patchMasks);
+	}
+	
+	@Override
+	public void drawInstanced(int instances) {
+		geoMipMap.drawInstanced(patchLevels, patchMasks, instances);
+	}
+	
+	@Override
+	public void cleanUp() {
+		geoMipMap.cleanup();
+	}
+	
+	@Override
+	public void deleteBuffers() {
+		geoMipMap.cleanup();
+	}
+	
+}
@@ -0,0 +1,32 @@
+package com.clepto.fsengine.scene.actors.terrain;
+
+import com.clepto.fsengine.graphics.MeshData;
+
+/**
+ * CPU side result of building a {@link HeightMapMesh}: the sampled heights
+ * and the off-heap vertex data waiting to be uploaded.
+ */
+public class HeightMapData {
+	
+	private final float[][] heightArray;
+	
+	private final MeshData meshData;
+	
+	public HeightMapData(float[][] heightArray, MeshData meshData) {
+		this.heightArray = heightArray;
+		this.meshData = meshData;
+	}
+	
+	public float[][] getHeightArray() {
+		return heightArray;
+	}
+	
+	public MeshData getMeshData() {
+		return meshData;
+	}
+	
+	public void free() {
+		meshData.free();
+	}
+	
+}
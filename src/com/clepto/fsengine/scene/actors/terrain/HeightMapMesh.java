@@ -8,7 +8,9 @@ import org.joml.Vector3f;
 
 import com.clepto.fsengine.graphics.Material;
 import com.clepto.fsengine.graphics.Mesh;
+import com.clepto.fsengine.graphics.MeshData;
 import com.clepto.fsengine.graphics.Texture;
+import com.clepto.fsengine.graphics.TextureCache;
 import com.clepto.fsengine.util.Utils;
 
 public class HeightMapMesh {
@@ -19,39 +21,71 @@ public class HeightMapMesh {
 	
 	public static final float STARTZ = -0.5f;
 	
-	private final float minY;
-	
-	private final float maxY;
-	
 	private final Mesh mesh;
 	
 	private final float[][] heightArray;
 	
 	public HeightMapMesh(float minY, float maxY, ByteBuffer heightMapImage, int width, int height, String textureFile, int textInc) throws Exception {
-		this.minY = minY;
-		this.maxY = maxY;
-		
-		heightArray = new float[height][width];
-		
-		Texture texture = new Texture(textureFile);
+		Texture texture = TextureCache.getDefault().get(textureFile);
+		HeightMapData data = buildData(minY, maxY, heightMapImage, width, height, textInc);
+		try {
+			heightArray = data.getHeightArray();
+			mesh = createMesh(data, texture);
+		} finally {
+			data.free();
+		}
+	}
+	
+	/**
+	 * Uploads a height map built with {@link #buildData}. The data is not freed.
+	 */
+	public HeightMapMesh(HeightMapData data, Texture texture) {
+		heightArray = data.getHeightArray();
+		mesh = createMesh(data, texture);
+	}
+	
+	/**
+	 * Heights alone, indexed by row then column, without a mesh.
+	 */
+	HeightMapMesh(float[][] heightArray) {
+		this.heightArray = heightArray;
+		mesh = null;
+	}
+	
+	private static Mesh createMesh(HeightMapData data, Texture texture) {
+		Mesh mesh = new Mesh(data.getMeshData());
+		Material material = new Material(texture, 0.0f);
+		mesh.setMaterial(material);
+		return mesh;
+	}
+	
+	/**
+	 * Samples the heights and builds the vertex data from a decoded RGBA image.
+	 * Does not need a GL context.
+	 */
+	public static HeightMapData buildData(float minY, float maxY, ByteBuffer heightMapImage, int width, int height, int textInc) {
+		float[][] heightArray = new float[height][width];
 		
 		float incx = getXLength() / (width - 1);
 		float incz = getZLength() / (height - 1);
 		
-		List<Float> positions = new ArrayList<Float>();
-		List<Float> textCoords = new ArrayList<Float>();
-		List<Integer> indices = new ArrayList<Integer>();
+		float[] posArr = new float[width * height * 3];
+		float[] textCoordsArr = new float[width * height * 2];
+		int[] indicesArr = new int[(width - 1) * (height - 1) * 6];
+		int pos = 0;
+		int tex = 0;
+		int idx = 0;
 		
 		for (int row = 0; row < height; row++) {
 			for (int col = 0; col < width; col++) {
-				positions.add(STARTX + col * incx);
-				float currentHeight = getHeight(col, row, width, heightMapImage);
+				float currentHeight = getHeight(col, row, width, heightMapImage, minY, maxY);
 				heightArray[row][col] = currentHeight;
-				positions.add(currentHeight);
-				positions.add(STARTZ + row * incz);
+				posArr[pos++] = STARTX + col * incx;
+				posArr[pos++] = currentHeight;
+				posArr[pos++] = STARTZ + row * incz;
 				
-				textCoords.add((float) textInc * (float) col / (float) width);
-				textCoords.add((float) textInc * (float) row / (float) height);
+				textCoordsArr[tex++] = (float) textInc * (float) col / (float) width;
+				textCoordsArr[tex++] = (float) textInc * (float) row / (float) height;
 				
 				if (col < width - 1 && row < height - 1) {
 					int leftTop = row * width + col;
@@ -59,26 +93,21 @@ public class HeightMapMesh {
 					int rightBottom = (row + 1) * width + col + 1;
 					int rightTop = row * width + col + 1;
 					
-					indices.add(leftTop);
-					indices.add(leftBottom);
-					indices.add(rightTop);
+					indicesArr[idx++] = leftTop;
+					indicesArr[idx++] = leftBottom;
+					indicesArr[idx++] = rightTop;
 					
-					indices.add(rightTop);
-					indices.add(leftBottom);
-					indices.add(rightBottom);
+					indicesArr[idx++] = rightTop;
+					indicesArr[idx++] = leftBottom;
+					indicesArr[idx++] = rightBottom;
 				}
 			}
 		}
-		float[] posArr = Utils.listToArray(positions);
-		int[] indicesArr = indices.stream().mapToInt(i->i).toArray();
-		float[] textCoordsArr = Utils.listToArray(textCoords);
 		float[] normalsArr = calcNormals(posArr, width, height);
-		this.mesh = new Mesh(posArr, textCoordsArr, normalsArr, indicesArr);
-		Material material = new Material(texture, 0.0f);
-		mesh.setMaterial(material);
+		return new HeightMapData(heightArray, new MeshData(posArr, textCoordsArr, normalsArr, indicesArr));
 	}
 	
-	private float[] calcNormals(float[] posArr, int width, int height) {
+	public static float[] calcNormals(float[] posArr, int width, int height) {
 		Vector3f v0 = new Vector3f();
 		Vector3f v1 = new Vector3f();
 		Vector3f v2 = new Vector3f();
@@ -160,13 +189,21 @@ public class HeightMapMesh {
 		return result;
 	}
 	
-	private float getHeight(int x, int z, int width, ByteBuffer buffer) {
+	private static float getHeight(int x, int z, int width, ByteBuffer buffer, float minY, float maxY) {
 		byte r = buffer.get(x * 4 + 0 + z * 4 * width);
 		byte g = buffer.get(x * 4 + 1 + z * 4 * width);
 		byte b = buffer.get(x * 4 + 2 + z * 4 * width);
 		byte a = buffer.get(x * 4 + 3 + z * 4 * width);
 		int argb = ((0xFF & a) << 24) | ((0xFF & r) << 16) | ((0xFF & g) << 8) | (0xFF & b);
-		return this.minY + Math.abs(this.maxY - this.minY) * ((float) argb / (float) MAX_COLOR); 
+		return minY + Math.abs(maxY - minY) * ((float) argb / (float) MAX_COLOR); 
+	}
+	
+	public int getRows() {
+		return heightArray.length;
+	}
+	
+	public int getColumns() {
+		return heightArray.length > 0 ? heightArray[0].length : 0;
 	}
 	
 	public Mesh getMesh() {
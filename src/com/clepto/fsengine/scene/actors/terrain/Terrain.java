@@ -1,16 +1,25 @@
 package com.clepto.fsengine.scene.actors.terrain;
 
-import java.nio.ByteBuffer;
-
 import org.joml.Vector3f;
 
+import com.clepto.fsengine.graphics.TextureData;
+import com.clepto.fsengine.graphics.occlusion.Occluder;
+import com.clepto.fsengine.job.JobSystem;
 import com.clepto.fsengine.scene.actors.Actor;
 import com.clepto.fsengine.util.Box2D;
 
-import de.matthiasmann.twl.utils.PNGDecoder;
-
 public class Terrain {
 
+	/**
+	 * Largest on screen height difference, in pixels, a terrain patch may have
+	 * with the full resolution height map.
+	 */
+	public static final float DEFAULT_MAX_SCREEN_ERROR = 2.0f;
+	
+	private static final int BATCH_GRAIN_SIZE = 256;
+	
+	private static final float BARYCENTRIC_EPSILON = 1e-4f;
+	
 	private final Actor[] actors;
 	
 	private final int terrainSize;
@@ -23,21 +32,44 @@ public class Terrain {
 	
 	private final Box2D[][] boundingBoxes;
 	
+	private final GeoMipMap geoMipMap;
+	
+	private float maxScreenError;
+	
+	private final float gridX;
+	
+	private final float gridZ;
+	
+	private final float blockWidth;
+	
+	private final float blockDepth;
+	
+	private final float minWorldY;
+	
+	private final float maxWorldY;
+	
 	public Terrain(int terrainSize, float scale, float minY, float maxY, String heightMapFile, String textureFile, int textInc) throws Exception {
+		this(terrainSize, scale, createHeightMapMesh(minY, maxY, heightMapFile, textureFile, textInc));
+	}
+	
+	public Terrain(int terrainSize, float scale, HeightMapMesh heightMapMesh) {
+		this(terrainSize, scale, heightMapMesh, new GeoMipMap(heightMapMesh));
+	}
+	
+	/**
+	 * Without a geomipmap the blocks have no mesh and nothing touches GL, which
+	 * is enough for height, normal and ray queries.
+	 */
+	Terrain(int terrainSize, float scale, HeightMapMesh heightMapMesh, GeoMipMap geoMipMap) {
 		this.terrainSize = terrainSize;
+		this.heightMapMesh = heightMapMesh;
+		this.geoMipMap = geoMipMap;
+		maxScreenError = DEFAULT_MAX_SCREEN_ERROR;
 		actors = new Actor[terrainSize * terrainSize];
 		
-		PNGDecoder decoder = new PNGDecoder(Terrain.class.getClassLoader().getResourceAsStream(heightMapFile));
-		int height = decoder.getHeight();
-		int width = decoder.getWidth();
-		ByteBuffer buf = ByteBuffer.allocateDirect(4 * decoder.getWidth() * decoder.getHeight());
-		decoder.decode(buf, decoder.getWidth() * 4, PNGDecoder.Format.RGBA);
-		buf.flip();
+		verticesPerCol = heightMapMesh.getColumns() - 1;
+		verticesPerRow = heightMapMesh.getRows() - 1;
 		
-		verticesPerCol = width - 1;
-		verticesPerRow = height - 1;
-		
-		heightMapMesh = new HeightMapMesh(minY, maxY, buf, width, height, textureFile, textInc);
 		boundingBoxes = new Box2D[terrainSize][terrainSize];	
 
 		for (int row = 0; row < terrainSize; row++) {
@@ -45,7 +77,7 @@ public class Terrain {
 				float xDisplacement = (col - ((float) terrainSize - 1) / (float) 2) * scale * HeightMapMesh.getXLength();
 				float zDisplacement = (row - ((float) terrainSize - 1) / (float) 2) * scale * HeightMapMesh.getZLength();
 				
-				Actor terrainBlock = new Actor(heightMapMesh.getMesh());
+				Actor terrainBlock = geoMipMap != null ? new Actor(new GeoMipMesh(geoMipMap)) : new Actor();
 				terrainBlock.setScale(scale);
 				terrainBlock.setPosition(xDisplacement, 0, zDisplacement);
 				actors[row * terrainSize + col] = terrainBlock;
@@ -53,57 +85,362 @@ public class Terrain {
 				boundingBoxes[row][col] = getBoundingBox(terrainBlock);
 			}
 		}
+		
+		gridX = boundingBoxes[0][0].x;
+		gridZ = boundingBoxes[0][0].y;
+		blockWidth = boundingBoxes[0][0].width;
+		blockDepth = boundingBoxes[0][0].height;
+		float minHeight = 0;
+		float maxHeight = 0;
+		for (int row = 0; row < heightMapMesh.getRows(); row++) {
+			for (int col = 0; col < heightMapMesh.getColumns(); col++) {
+				minHeight = Math.min(minHeight, heightMapMesh.getHeight(row, col));
+				maxHeight = Math.max(maxHeight, heightMapMesh.getHeight(row, col));
+			}
+		}
+		minWorldY = minHeight * scale;
+		maxWorldY = maxHeight * scale;
+	}
+	
+	private static HeightMapMesh createHeightMapMesh(float minY, float maxY, String heightMapFile, String textureFile, int textInc) throws Exception {
+		TextureData heightMap = TextureData.decode(heightMapFile);
+		try {
+			return new HeightMapMesh(minY, maxY, heightMap.getPixels(), heightMap.getWidth(), heightMap.getHeight(), textureFile, textInc);
+		} finally {
+			heightMap.free();
+		}
 	}
 	
 	public float getHeight(Vector3f position) {
-		float result = Float.MIN_VALUE;
-		Box2D boundingBox = null;
-		boolean found = false;
-		Actor terrainBlock = null;
-		for (int row = 0; row < terrainSize && !found; row++) {
-			for (int col = 0; col < terrainSize && !found; col++) {
-				terrainBlock = actors[row * terrainSize + col];
-				boundingBox = boundingBoxes[row][col];
-				found = boundingBox.contains(position.x, position.z);
+		return getHeight(position.x, position.z);
+	}
+	
+	/**
+	 * Height of the terrain surface at the given world position, or
+	 * {@link Float#MIN_VALUE} outside the terrain. The block and cell are
+	 * computed directly from the position and nothing is allocated. The
+	 * answers are the ones heights have always had, which can stray from the
+	 * drawn surface; {@link #getNormal} and {@link #rayCast} follow the mesh.
+	 */
+	public float getHeight(float x, float z) {
+		int blockCol = findBlockColumn(x);
+		int blockRow = findBlockRow(z);
+		if (blockCol < 0 || blockRow < 0) {
+			return Float.MIN_VALUE;
+		}
+		return sample(blockRow, blockCol, x, z);
+	}
+	
+	/**
+	 * Stores the upward unit normal of the height map mesh triangle at the
+	 * given world position in dest. Returns false, leaving dest untouched,
+	 * outside the terrain.
+	 */
+	public boolean getNormal(float x, float z, Vector3f dest) {
+		int blockCol = findBlockColumn(x);
+		int blockRow = findBlockRow(z);
+		if (blockCol < 0 || blockRow < 0) {
+			return false;
+		}
+		sampleSurface(blockRow, blockCol, x, z, dest);
+		return true;
+	}
+	
+	/**
+	 * Heights at the positions (x[i], z[i]) for i in [from, to), see
+	 * {@link #getHeight(float, float)}.
+	 */
+	public void getHeights(float[] x, float[] z, float[] heights, int from, int to) {
+		for (int i = from; i < to; i++) {
+			heights[i] = getHeight(x[i], z[i]);
+		}
+	}
+	
+	/**
+	 * Like {@link #getHeights(float[], float[], float[], int, int)} for the
+	 * first count positions, split across the workers of the job system.
+	 */
+	public void getHeights(JobSystem jobSystem, float[] x, float[] z, float[] heights, int count) {
+		jobSystem.parallelFor(0, count, BATCH_GRAIN_SIZE, (from, to) -> getHeights(x, z, heights, from, to));
+	}
+	
+	/**
+	 * Normals at the positions (x[i], z[i]) for i in [from, to), stored as
+	 * three floats per position. Positions outside the terrain get a zero
+	 * vector.
+	 */
+	public void getNormals(float[] x, float[] z, float[] normals, int from, int to) {
+		Vector3f normal = new Vector3f();
+		for (int i = from; i < to; i++) {
+			if (!getNormal(x[i], z[i], normal)) {
+				normal.zero();
 			}
+			normals[i * 3] = normal.x;
+			normals[i * 3 + 1] = normal.y;
+			normals[i * 3 + 2] = normal.z;
 		}
-		
-		if (found) {
-			Vector3f[] triangle = getTriangle(position, boundingBox, terrainBlock);
-			result = interpolateHeight(triangle[0], triangle[1], triangle[2], position.x, position.z);
+	}
+	
+	public void getNormals(JobSystem jobSystem, float[] x, float[] z, float[] normals, int count) {
+		jobSystem.parallelFor(0, count, BATCH_GRAIN_SIZE, (from, to) -> getNormals(x, z, normals, from, to));
+	}
+	
+	/**
+	 * Smallest distance, in units of the direction length, at which the ray
+	 * hits the terrain surface within maxDistance, or
+	 * {@link Float#POSITIVE_INFINITY} if it does not. The ray is clipped to the
+	 * bounds of the terrain and walks the cells it crosses in order, testing
+	 * the two triangles the height map mesh draws for each.
+	 */
+	public float rayCast(float originX, float originY, float originZ, float dirX, float dirY, float dirZ, float maxDistance) {
+		float enter = 0;
+		float exit = maxDistance;
+		float width = terrainSize * blockWidth;
+		float depth = terrainSize * blockDepth;
+		if (dirX != 0) {
+			float t0 = (gridX - originX) / dirX;
+			float t1 = (gridX + width - originX) / dirX;
+			enter = Math.max(enter, Math.min(t0, t1));
+			exit = Math.min(exit, Math.max(t0, t1));
+		} else if (originX < gridX || originX >= gridX + width) {
+			return Float.POSITIVE_INFINITY;
+		}
+		if (dirZ != 0) {
+			float t0 = (gridZ - originZ) / dirZ;
+			float t1 = (gridZ + depth - originZ) / dirZ;
+			enter = Math.max(enter, Math.min(t0, t1));
+			exit = Math.min(exit, Math.max(t0, t1));
+		} else if (originZ < gridZ || originZ >= gridZ + depth) {
+			return Float.POSITIVE_INFINITY;
+		}
+		if (dirY != 0) {
+			float t0 = (minWorldY - originY) / dirY;
+			float t1 = (maxWorldY - originY) / dirY;
+			enter = Math.max(enter, Math.min(t0, t1));
+			exit = Math.min(exit, Math.max(t0, t1));
+		} else if (originY < minWorldY || originY > maxWorldY) {
+			return Float.POSITIVE_INFINITY;
+		}
+		if (enter > exit) {
+			return Float.POSITIVE_INFINITY;
 		}
 		
-		return result;
+		float cellWidth = blockWidth / verticesPerCol;
+		float cellDepth = blockDepth / verticesPerRow;
+		int cellsX = terrainSize * verticesPerCol;
+		int cellsZ = terrainSize * verticesPerRow;
+		int cellX = Math.max(0, Math.min(cellsX - 1, (int) Math.floor((originX + dirX * enter - gridX) / cellWidth)));
+		int cellZ = Math.max(0, Math.min(cellsZ - 1, (int) Math.floor((originZ + dirZ * enter - gridZ) / cellDepth)));
+		int stepX = dirX > 0 ? 1 : -1;
+		int stepZ = dirZ > 0 ? 1 : -1;
+		float deltaX = dirX != 0 ? cellWidth / Math.abs(dirX) : Float.POSITIVE_INFINITY;
+		float deltaZ = dirZ != 0 ? cellDepth / Math.abs(dirZ) : Float.POSITIVE_INFINITY;
+		float nextX = dirX != 0 ? (gridX + (cellX + (dirX > 0 ? 1 : 0)) * cellWidth - originX) / dirX : Float.POSITIVE_INFINITY;
+		float nextZ = dirZ != 0 ? (gridZ + (cellZ + (dirZ > 0 ? 1 : 0)) * cellDepth - originZ) / dirZ : Float.POSITIVE_INFINITY;
+		
+		while (true) {
+			float hit = intersectCell(cellX, cellZ, originX, originY, originZ, dirX, dirY, dirZ);
+			if (hit <= exit) {
+				return hit;
+			}
+			if (Math.min(nextX, nextZ) > exit) {
+				return Float.POSITIVE_INFINITY;
+			}
+			if (nextX < nextZ) {
+				cellX += stepX;
+				nextX += deltaX;
+				if (cellX < 0 || cellX >= cellsX) {
+					return Float.POSITIVE_INFINITY;
+				}
+			} else {
+				cellZ += stepZ;
+				nextZ += deltaZ;
+				if (cellZ < 0 || cellZ >= cellsZ) {
+					return Float.POSITIVE_INFINITY;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Casts the rays whose origins and directions are stored as three floats
+	 * per ray, for rays in [from, to), see
+	 * {@link #rayCast(float, float, float, float, float, float, float)}.
+	 */
+	public void rayCasts(float[] origins, float[] directions, float maxDistance, float[] distances, int from, int to) {
+		for (int i = from; i < to; i++) {
+			int j = i * 3;
+			distances[i] = rayCast(origins[j], origins[j + 1], origins[j + 2], directions[j], directions[j + 1], directions[j + 2], maxDistance);
+		}
+	}
+	
+	public void rayCasts(JobSystem jobSystem, float[] origins, float[] directions, float maxDistance, float[] distances, int count) {
+		jobSystem.parallelFor(0, count, BATCH_GRAIN_SIZE, (from, to) -> rayCasts(origins, directions, maxDistance, distances, from, to));
 	}
 	
-	protected Vector3f[] getTriangle(Vector3f position, Box2D boundingBox, Actor terrainBlock) {
+	/**
+	 * First column of blocks whose bounds contain x, as a row major scan of
+	 * the bounding boxes would find it, or -1.
+	 */
+	private int findBlockColumn(float x) {
+		int candidate = (int) Math.floor((x - gridX) / blockWidth);
+		for (int col = Math.max(candidate - 1, 0), last = Math.min(candidate + 1, terrainSize - 1); col <= last; col++) {
+			Box2D box = boundingBoxes[0][col];
+			if (x >= box.x && x < box.x + box.width) {
+				return col;
+			}
+		}
+		return -1;
+	}
+	
+	private int findBlockRow(float z) {
+		int candidate = (int) Math.floor((z - gridZ) / blockDepth);
+		for (int row = Math.max(candidate - 1, 0), last = Math.min(candidate + 1, terrainSize - 1); row <= last; row++) {
+			Box2D box = boundingBoxes[row][0];
+			if (z >= box.y && z < box.y + box.height) {
+				return row;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Interpolates the height within a triangle of the cell under the
+	 * position the way heights have always been answered: the row is found
+	 * with the cell width and the far corner of the second triangle reads its
+	 * height two rows down.
+	 */
+	private float sample(int blockRow, int blockCol, float x, float z) {
+		Box2D boundingBox = boundingBoxes[blockRow][blockCol];
+		Actor terrainBlock = actors[blockRow * terrainSize + blockCol];
 		float cellWidth = boundingBox.width / (float) verticesPerCol;
 		float cellHeight = boundingBox.height / (float) verticesPerRow;
-		int col = (int) ((position.x - boundingBox.x) / cellWidth);
-		int row = (int) ((position.z - boundingBox.y) / cellWidth);
+		int col = (int) ((x - boundingBox.x) / cellWidth);
+		int row = (int) ((z - boundingBox.y) / cellWidth);
+		
+		float x1 = boundingBox.x + col * cellWidth;
+		float y1 = getWorldHeight(row + 1, col, terrainBlock);
+		float z1 = boundingBox.y + (row + 1) * cellHeight;
+		float x2 = boundingBox.x + (col + 1) * cellWidth;
+		float y2 = getWorldHeight(row, col + 1, terrainBlock);
+		float z2 = boundingBox.y + row * cellHeight;
+		float x0, y0, z0;
+		if (z < getDiagonalZCoord(x1, z1, x2, z2, x)) {
+			x0 = boundingBox.x + col * cellWidth;
+			y0 = getWorldHeight(row, col, terrainBlock);
+			z0 = boundingBox.y + row * cellHeight;
+		} else {
+			x0 = boundingBox.x + (col + 1) * cellWidth;
+			y0 = getWorldHeight(row + 2, col + 1, terrainBlock);
+			z0 = boundingBox.y + (row + 1) * cellHeight;
+		}
+		
+		float a = (y1 - y0) * (z2 - z0) - (y2 - y0) * (z1 - z0);
+		float b = (z1 - z0) * (x2 - x0) - (z2 - z0) * (x1 - x0);
+		float c = (x1 - x0) * (y2 - y0) - (x2 - x0) * (y1 - y0);
+		float d = -(a * x0 + b * y0 + c * z0);
+		return (-d -a * x - c * z) / b;
+	}
+	
+	/**
+	 * Height of the height map mesh triangle under the position, storing its
+	 * upward unit normal in normal if it is not null. A cell is split along
+	 * the diagonal from its left bottom to its right top corner.
+	 */
+	private float sampleSurface(int blockRow, int blockCol, float x, float z, Vector3f normal) {
+		Box2D boundingBox = boundingBoxes[blockRow][blockCol];
+		Actor terrainBlock = actors[blockRow * terrainSize + blockCol];
+		float cellWidth = boundingBox.width / (float) verticesPerCol;
+		float cellDepth = boundingBox.height / (float) verticesPerRow;
+		float fx = (x - boundingBox.x) / cellWidth;
+		float fz = (z - boundingBox.y) / cellDepth;
+		int col = Math.max(0, Math.min(verticesPerCol - 1, (int) fx));
+		int row = Math.max(0, Math.min(verticesPerRow - 1, (int) fz));
+		fx -= col;
+		fz -= row;
 		
-		Vector3f[] triangle = new Vector3f[3];
-		triangle[1] = new Vector3f(
-				boundingBox.x + col * cellWidth,
-				getWorldHeight(row + 1, col, terrainBlock),
-				boundingBox.y + (row + 1) * cellHeight);
-		triangle[2] = new Vector3f(
-				boundingBox.x + (col + 1) * cellWidth,
-				getWorldHeight(row, col + 1, terrainBlock),
-				boundingBox.y + row * cellHeight);
-		if (position.z < getDiagonalZCoord(triangle[1].x, triangle[1].z, triangle[2].x, triangle[2].z, position.x)) {
-			triangle[0] = new Vector3f(
-					boundingBox.x + col * cellWidth,
-					getWorldHeight(row, col, terrainBlock),
-					boundingBox.y + row * cellHeight);
+		float leftBottom = getWorldHeight(row + 1, col, terrainBlock);
+		float rightTop = getWorldHeight(row, col + 1, terrainBlock);
+		float height;
+		float dx;
+		float dz;
+		if (fx + fz <= 1) {
+			float leftTop = getWorldHeight(row, col, terrainBlock);
+			dx = rightTop - leftTop;
+			dz = leftBottom - leftTop;
+			height = leftTop + dx * fx + dz * fz;
 		} else {
-			triangle[0] = new Vector3f(
-					boundingBox.x + (col + 1) * cellWidth,
-					getWorldHeight(row + 2, col + 1, terrainBlock),
-					boundingBox.y + (row + 1) * cellHeight);
+			float rightBottom = getWorldHeight(row + 1, col + 1, terrainBlock);
+			dx = rightBottom - leftBottom;
+			dz = rightBottom - rightTop;
+			height = rightBottom - dx * (1 - fx) - dz * (1 - fz);
 		}
+		if (normal != null) {
+			normal.set(-dx / cellWidth, 1, -dz / cellDepth).normalize();
+		}
+		return height;
+	}
+	
+	/**
+	 * Distance along the ray to the nearest of the two height map mesh
+	 * triangles of the given global cell, or {@link Float#POSITIVE_INFINITY}.
+	 */
+	private float intersectCell(int cellX, int cellZ, float originX, float originY, float originZ, float dirX, float dirY, float dirZ) {
+		int blockCol = cellX / verticesPerCol;
+		int blockRow = cellZ / verticesPerRow;
+		int col = cellX - blockCol * verticesPerCol;
+		int row = cellZ - blockRow * verticesPerRow;
+		Box2D boundingBox = boundingBoxes[blockRow][blockCol];
+		Actor terrainBlock = actors[blockRow * terrainSize + blockCol];
+		float cellWidth = boundingBox.width / (float) verticesPerCol;
+		float cellHeight = boundingBox.height / (float) verticesPerRow;
 		
-		return triangle;
+		float left = boundingBox.x + col * cellWidth;
+		float right = boundingBox.x + (col + 1) * cellWidth;
+		float top = boundingBox.y + row * cellHeight;
+		float bottom = boundingBox.y + (row + 1) * cellHeight;
+		float leftBottom = getWorldHeight(row + 1, col, terrainBlock);
+		float rightTop = getWorldHeight(row, col + 1, terrainBlock);
+		float first = intersectTriangle(left, getWorldHeight(row, col, terrainBlock), top,
+				left, leftBottom, bottom, right, rightTop, top,
+				originX, originY, originZ, dirX, dirY, dirZ);
+		float second = intersectTriangle(right, getWorldHeight(row + 1, col + 1, terrainBlock), bottom,
+				left, leftBottom, bottom, right, rightTop, top,
+				originX, originY, originZ, dirX, dirY, dirZ);
+		return Math.min(first, second);
+	}
+	
+	/**
+	 * Two sided Moller-Trumbore test, returning the non negative distance
+	 * along the ray or {@link Float#POSITIVE_INFINITY}. Edges are slightly
+	 * widened so rays along a shared edge cannot slip between the triangles.
+	 */
+	private static float intersectTriangle(float ax, float ay, float az, float bx, float by, float bz, float cx, float cy, float cz,
+			float originX, float originY, float originZ, float dirX, float dirY, float dirZ) {
+		float e1x = bx - ax, e1y = by - ay, e1z = bz - az;
+		float e2x = cx - ax, e2y = cy - ay, e2z = cz - az;
+		float px = dirY * e2z - dirZ * e2y;
+		float py = dirZ * e2x - dirX * e2z;
+		float pz = dirX * e2y - dirY * e2x;
+		float det = e1x * px + e1y * py + e1z * pz;
+		if (Math.abs(det) < 1e-12f) {
+			return Float.POSITIVE_INFINITY;
+		}
+		float invDet = 1.0f / det;
+		float tx = originX - ax, ty = originY - ay, tz = originZ - az;
+		float u = (tx * px + ty * py + tz * pz) * invDet;
+		if (u < -BARYCENTRIC_EPSILON || u > 1 + BARYCENTRIC_EPSILON) {
+			return Float.POSITIVE_INFINITY;
+		}
+		float qx = ty * e1z - tz * e1y;
+		float qy = tz * e1x - tx * e1z;
+		float qz = tx * e1y - ty * e1x;
+		float v = (dirX * qx + dirY * qy + dirZ * qz) * invDet;
+		if (v < -BARYCENTRIC_EPSILON || u + v > 1 + BARYCENTRIC_EPSILON) {
+			return Float.POSITIVE_INFINITY;
+		}
+		float t = (e2x * qx + e2y * qy + e2z * qz) * invDet;
+		return t >= 0 ? t : Float.POSITIVE_INFINITY;
 	}
 	
 	protected float getDiagonalZCoord(float x1, float z1, float x2, float z2, float x) {
@@ -115,14 +452,6 @@ public class Terrain {
 		return y * actor.getScale() + actor.getPosition().y;
 	}
 	
-	protected float interpolateHeight(Vector3f pA, Vector3f pB, Vector3f pC, float x, float z) {
-		float a = (pB.y - pA.y) * (pC.z - pA.z) - (pC.y - pA.y) * (pB.z - pA.z);
-		float b = (pB.z - pA.z) * (pC.x - pA.x) - (pC.z - pA.z) * (pB.x - pA.x);
-		float c = (pB.x - pA.x) * (pC.y - pA.y) - (pC.x - pA.x) * (pB.y - pA.y);
-		float d = -(a * pA.x + b * pA.y + c * pA.z);
-		return (-d -a * x - c * z) / b;
-	}
-	
 	private Box2D getBoundingBox(Actor terrainBlock) {
 		float scale = terrainBlock.getScale();
 		Vector3f position = terrainBlock.getPosition();
@@ -139,4 +468,111 @@ public class Terrain {
 		return actors;
 	}
 	
+	public float getMaxScreenError() {
+		return maxScreenError;
+	}
+	
+	public void setMaxScreenError(float maxScreenError) {
+		this.maxScreenError = maxScreenError;
+	}
+	
+	/**
+	 * Picks the level of detail of every patch of every block for a camera at
+	 * the given position with the given vertical field of view, in radians,
+	 * and viewport height, so that no patch is off by more than the maximum
+	 * screen error. Should be called every frame before rendering.
+	 */
+	public void updateLevels(Vector3f viewPosition, float fov, int viewportHeight) {
+		float pixelsPerUnit = viewportHeight / (2.0f * (float) Math.tan(fov * 0.5f));
+		float maxErrorPerDistance = maxScreenError / pixelsPerUnit;
+		for (Actor terrainBlock : actors) {
+			float scale = terrainBlock.getScale();
+			Vector3f position = terrainBlock.getPosition();
+			((GeoMipMesh) terrainBlock.getMesh()).selectLevels(
+					(viewPosition.x - position.x) / scale,
+					(viewPosition.y - position.y) / scale,
+					(viewPosition.z - position.z) / scale,
+					maxErrorPerDistance);
+		}
+	}
+	
+	/**
+	 * Builds an occluder covering every block from each step-th row and column
+	 * of the height map, in world space. Every occluder vertex takes the lowest
+	 * height of the cells around it, so the occluder never rises above the
+	 * terrain surface and only hides what the terrain hides.
+	 */
+	public Occluder createOccluder(int step) {
+		step = Math.max(step, 1);
+		int rows = heightMapMesh.getRows();
+		int cols = heightMapMesh.getColumns();
+		int coarseRows = (rows - 2) / step + 2;
+		int coarseCols = (cols - 2) / step + 2;
+		int blockVertices = coarseRows * coarseCols;
+		float[] positions = new float[actors.length * blockVertices * 3];
+		int[] indices = new int[actors.length * (coarseRows - 1) * (coarseCols - 1) * 6];
+		
+		int vertex = 0;
+		int index = 0;
+		for (int blockRow = 0; blockRow < terrainSize; blockRow++) {
+			for (int blockCol = 0; blockCol < terrainSize; blockCol++) {
+				Box2D boundingBox = boundingBoxes[blockRow][blockCol];
+				Actor terrainBlock = actors[blockRow * terrainSize + blockCol];
+				float cellWidth = boundingBox.width / (float) verticesPerCol;
+				float cellHeight = boundingBox.height / (float) verticesPerRow;
+				int first = vertex;
+				for (int i = 0; i < coarseRows; i++) {
+					int row = Math.min(i * step, rows - 1);
+					int minRow = Math.max(row - step, 0);
+					int maxRow = Math.min(row + step, rows - 1);
+					for (int j = 0; j < coarseCols; j++) {
+						int col = Math.min(j * step, cols - 1);
+						int minCol = Math.max(col - step, 0);
+						int maxCol = Math.min(col + step, cols - 1);
+						float height = Float.POSITIVE_INFINITY;
+						for (int r = minRow; r <= maxRow; r++) {
+							for (int c = minCol; c <= maxCol; c++) {
+								height = Math.min(height, getWorldHeight(r, c, terrainBlock));
+							}
+						}
+						positions[vertex * 3] = boundingBox.x + col * cellWidth;
+						positions[vertex * 3 + 1] = height;
+						positions[vertex * 3 + 2] = boundingBox.y + row * cellHeight;
+						vertex++;
+					}
+				}
+				for (int i = 0; i < coarseRows - 1; i++) {
+					for (int j = 0; j < coarseCols - 1; j++) {
+						int topLeft = first + i * coarseCols + j;
+						int bottomLeft = topLeft + coarseCols;
+						indices[index++] = topLeft;
+						indices[index++] = bottomLeft;
+						indices[index++] = topLeft + 1;
+						indices[index++] = topLeft + 1;
+						indices[index++] = bottomLeft;
+						indices[index++] = bottomLeft + 1;
+					}
+				}
+			}
+		}
+		return new Occluder(positions, indices);
+	}
+	
+	/**
+	 * Triangles drawn by every block with the current levels.
+	 */
+	public int getTriangleCount() {
+		int count = 0;
+		for (Actor terrainBlock : actors) {
+			count += terrainBlock.getMesh().getVertexCount() / 3;
+		}
+		return count;
+	}
+	
+	public void cleanup() {
+		if (geoMipMap != null) {
+			geoMipMap.cleanup();
+		}
+	}
+	
 }
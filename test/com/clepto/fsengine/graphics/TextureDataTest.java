@@ -0,0 +1,190 @@
+package com.clepto.fsengine.graphics;
+
+import static org.junit.Assert.*;
+import static org.lwjgl.opengl.EXTTextureCompressionS3TC.*;
+import static org.lwjgl.opengl.GL11.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+public class TextureDataTest {
+	
+	private static final byte[] IDENTIFIER = {
+			(byte) 0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte) 0xBB, '\r', '\n', 0x1A, '\n'
+	};
+	
+	/**
+	 * A KTX file of a 2D texture in the given order whose levels hold the
+	 * given number of bytes, each byte set to its level plus one.
+	 */
+	private static ByteBuffer ktx(ByteOrder order, int glType, int format, int width, int height, int levels,
+			int keyValueBytes, int... levelSizes) {
+		int size = 64 + keyValueBytes;
+		for (int levelSize : levelSizes) {
+			size += 4 + ((levelSize + 3) & ~3);
+		}
+		ByteBuffer buf = ByteBuffer.allocate(size).order(order);
+		buf.put(IDENTIFIER);
+		buf.putInt(0x04030201);
+		buf.putInt(glType);
+		buf.putInt(1);
+		buf.putInt(0);
+		buf.putInt(format);
+		buf.putInt(GL_RGB);
+		buf.putInt(width);
+		buf.putInt(height);
+		buf.putInt(0);
+		buf.putInt(0);
+		buf.putInt(1);
+		buf.putInt(levels);
+		buf.putInt(keyValueBytes);
+		for (int i = 0; i < keyValueBytes; i++) {
+			buf.put((byte) 0x55);
+		}
+		for (int level = 0; level < levelSizes.length; level++) {
+			buf.putInt(levelSizes[level]);
+			for (int i = 0; i < levelSizes[level]; i++) {
+				buf.put((byte) (level + 1));
+			}
+			buf.position((buf.position() + 3) & ~3);
+		}
+		buf.flip();
+		return buf;
+	}
+	
+	private static ByteBuffer bc1(ByteOrder order, int keyValueBytes) {
+		return ktx(order, 0, GL_COMPRESSED_RGB_S3TC_DXT1_EXT, 8, 8, 4, keyValueBytes, 32, 8, 8, 8);
+	}
+	
+	private static void assertRejected(ByteBuffer buf, String message) {
+		try {
+			TextureData.decodeKtx(buf);
+			fail("Expected " + message);
+		} catch (Exception e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith(message));
+		}
+	}
+	
+	private static void assertLevels(TextureData data, int firstOffset) {
+		int[] sizes = { 32, 8, 8, 8 };
+		int offset = firstOffset;
+		assertEquals(sizes.length, data.getLevelCount());
+		for (int level = 0; level < sizes.length; level++) {
+			assertEquals(offset, data.getLevelOffset(level));
+			assertEquals(sizes[level], data.getLevelSize(level));
+			for (int i = 0; i < sizes[level]; i++) {
+				assertEquals(level + 1, data.getPixels().get(offset + i));
+			}
+			offset += sizes[level] + 4;
+		}
+	}
+	
+	private static TextureData rgba(byte... pixels) {
+		return new TextureData(ByteBuffer.wrap(pixels), 1, pixels.length / 4);
+	}
+	
+	@Test
+	public void decodesEveryLevelOfBc1() throws Exception {
+		TextureData data = TextureData.decodeKtx(bc1(ByteOrder.LITTLE_ENDIAN, 0));
+		assertEquals(8, data.getWidth());
+		assertEquals(8, data.getHeight());
+		assertEquals(GL_COMPRESSED_RGB_S3TC_DXT1_EXT, data.getInternalFormat());
+		assertTrue(data.isCompressed());
+		assertLevels(data, 68);
+	}
+	
+	@Test
+	public void skipsKeyValueData() throws Exception {
+		assertLevels(TextureData.decodeKtx(bc1(ByteOrder.LITTLE_ENDIAN, 16)), 84);
+	}
+	
+	@Test
+	public void readsBigEndianFiles() throws Exception {
+		TextureData data = TextureData.decodeKtx(bc1(ByteOrder.BIG_ENDIAN, 8));
+		assertEquals(8, data.getWidth());
+		assertEquals(GL_COMPRESSED_RGB_S3TC_DXT1_EXT, data.getInternalFormat());
+		assertLevels(data, 76);
+	}
+	
+	@Test
+	public void keepsLevelsSmallerThanABlock() throws Exception {
+		TextureData data = TextureData.decodeKtx(
+				ktx(ByteOrder.LITTLE_ENDIAN, 0, GL_COMPRESSED_RGBA_S3TC_DXT5_EXT, 6, 2, 3, 0, 32, 16, 16));
+		assertEquals(3, data.getLevelCount());
+		assertEquals(16, data.getLevelSize(2));
+		assertEquals(124, data.getLevelOffset(2));
+	}
+	
+	@Test
+	public void rejectsBadIdentifier() {
+		ByteBuffer buf = bc1(ByteOrder.LITTLE_ENDIAN, 0);
+		buf.put(5, (byte) 'X');
+		assertRejected(buf, "Invalid KTX file: bad identifier");
+	}
+	
+	@Test
+	public void rejectsTruncatedHeader() {
+		ByteBuffer buf = bc1(ByteOrder.LITTLE_ENDIAN, 0);
+		buf.limit(63);
+		assertRejected(buf, "Invalid KTX file: truncated header");
+	}
+	
+	@Test
+	public void rejectsUncompressedFormats() {
+		assertRejected(ktx(ByteOrder.LITTLE_ENDIAN, GL_UNSIGNED_BYTE, GL_RGBA8, 1, 1, 1, 0, 4), "Unsupported KTX format");
+		assertRejected(ktx(ByteOrder.LITTLE_ENDIAN, 0, GL_RGBA8, 1, 1, 1, 0, 4), "Unsupported KTX format");
+	}
+	
+	@Test
+	public void rejectsMoreLevelsThanTheChainHolds() {
+		assertRejected(ktx(ByteOrder.LITTLE_ENDIAN, 0, GL_COMPRESSED_RGB_S3TC_DXT1_EXT, 8, 8, 5, 0, 32, 8, 8, 8, 8),
+				"Invalid KTX file: bad level count");
+	}
+	
+	@Test
+	public void rejectsLevelOfWrongSize() {
+		assertRejected(ktx(ByteOrder.LITTLE_ENDIAN, 0, GL_COMPRESSED_RGB_S3TC_DXT1_EXT, 8, 8, 4, 0, 32, 16, 8, 8),
+				"Invalid KTX file: bad size of level 1");
+	}
+	
+	@Test
+	public void rejectsTruncatedLevels() {
+		ByteBuffer buf = bc1(ByteOrder.LITTLE_ENDIAN, 0);
+		buf.limit(buf.limit() - 1);
+		assertRejected(buf, "Invalid KTX file: bad size of level 3");
+		buf.limit(buf.limit() - 11);
+		assertRejected(buf, "Invalid KTX file: truncated level 3");
+	}
+	
+	@Test
+	public void memorySizeCountsTheWholeChain() throws Exception {
+		assertEquals(32 + 8 + 8 + 8, TextureData.decodeKtx(bc1(ByteOrder.LITTLE_ENDIAN, 0)).getMemorySize());
+		TextureData data = new TextureData(ByteBuffer.allocate(4 * 4 * 4), 4, 4);
+		assertEquals(64 + 16 + 4, data.getMemorySize());
+	}
+	
+	@Test
+	public void contentHashAndChecksumFollowTheContent() {
+		TextureData data = rgba((byte) 1, (byte) 2, (byte) 3, (byte) 4, (byte) 5, (byte) 6, (byte) 7, (byte) 8);
+		TextureData same = rgba((byte) 1, (byte) 2, (byte) 3, (byte) 4, (byte) 5, (byte) 6, (byte) 7, (byte) 8);
+		TextureData swapped = rgba((byte) 5, (byte) 6, (byte) 7, (byte) 8, (byte) 1, (byte) 2, (byte) 3, (byte) 4);
+		TextureData changed = rgba((byte) 1, (byte) 2, (byte) 3, (byte) 4, (byte) 5, (byte) 6, (byte) 7, (byte) 9);
+		assertEquals(data.getContentHash(), same.getContentHash());
+		assertEquals(data.getContentChecksum(), same.getContentChecksum());
+		for (TextureData other : new TextureData[] { swapped, changed }) {
+			assertNotEquals(data.getContentHash(), other.getContentHash());
+			assertNotEquals(data.getContentChecksum(), other.getContentChecksum());
+		}
+	}
+	
+	@Test
+	public void contentChecksumIsKnownBeforeTheHash() {
+		TextureData data = rgba((byte) 1, (byte) 2, (byte) 3, (byte) 4);
+		long checksum = data.getContentChecksum();
+		assertNotEquals(0, data.getContentHash());
+		assertEquals(checksum, data.getContentChecksum());
+	}
+	
+}
@@ -0,0 +1,155 @@
+package com.clepto.fsengine.graphics;
+
+import static org.junit.Assert.*;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL33.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class VertexLayoutTest {
+	
+	private static float halfToFloat(short half) {
+		float sign = (half & 0x8000) != 0 ? -1 : 1;
+		int exponent = (half >>> 10) & 0x1F;
+		int mantissa = half & 0x3FF;
+		if (exponent == 0x1F) {
+			return mantissa == 0 ? sign * Float.POSITIVE_INFINITY : Float.NaN;
+		}
+		if (exponent == 0) {
+			return sign * mantissa * 0x1p-24f;
+		}
+		return sign * (1 + mantissa / 1024.0f) * (float) Math.pow(2, exponent - 15);
+	}
+	
+	private static float unpackSnorm10(int packed, int shift) {
+		int value = (packed >> shift) & 0x3FF;
+		if (value >= 512) {
+			value -= 1024;
+		}
+		return Math.max(-1.0f, value / 511.0f);
+	}
+	
+	@Test
+	public void everyHalfFloatRoundTrips() {
+		for (int bits = 0; bits < 0x10000; bits++) {
+			short half = (short) bits;
+			float value = halfToFloat(half);
+			if (Float.isNaN(value)) {
+				assertTrue(Float.isNaN(halfToFloat(VertexLayout.toHalfFloat(value))));
+			} else {
+				assertEquals("0x" + Integer.toHexString(bits), half, VertexLayout.toHalfFloat(value));
+			}
+		}
+	}
+	
+	@Test
+	public void halfFloatsRoundToNearestEven() {
+		for (int bits = 0; bits < 0x7BFF; bits++) {
+			float low = halfToFloat((short) bits);
+			float high = halfToFloat((short) (bits + 1));
+			short even = (short) ((bits & 1) == 0 ? bits : bits + 1);
+			assertEquals(even, VertexLayout.toHalfFloat((low + high) / 2));
+			assertEquals((short) (even | 0x8000), VertexLayout.toHalfFloat(-(low + high) / 2));
+		}
+	}
+	
+	@Test
+	public void halfFloatsAreTheNearestValue() {
+		Random random = new Random(5);
+		for (int i = 0; i < 100000; i++) {
+			float value = (random.nextFloat() - 0.5f) * 4;
+			float converted = halfToFloat(VertexLayout.toHalfFloat(value));
+			float error = Math.abs(converted - value);
+			float ulp = Math.abs(halfToFloat((short) ((VertexLayout.toHalfFloat(Math.abs(value)) + 1))) - Math.abs(converted));
+			assertTrue(error <= ulp / 2);
+		}
+	}
+	
+	@Test
+	public void halfFloatsSaturateAndFlush() {
+		assertEquals(0x7C00, VertexLayout.toHalfFloat(1e6f));
+		assertEquals((short) 0xFC00, VertexLayout.toHalfFloat(-1e6f));
+		assertEquals(0x7C00, VertexLayout.toHalfFloat(Float.POSITIVE_INFINITY));
+		assertEquals(0, VertexLayout.toHalfFloat(1e-10f));
+		assertEquals((short) 0x8000, VertexLayout.toHalfFloat(-1e-10f));
+		assertEquals(1, VertexLayout.toHalfFloat(0x1p-24f));
+	}
+	
+	@Test
+	public void normalsPackToTenBitComponents() {
+		Random random = new Random(9);
+		for (int i = 0; i < 10000; i++) {
+			float x = random.nextFloat() * 2 - 1;
+			float y = random.nextFloat() * 2 - 1;
+			float z = random.nextFloat() * 2 - 1;
+			int packed = VertexLayout.packNormal(x, y, z);
+			assertEquals(x, unpackSnorm10(packed, 0), 0.5f / 511);
+			assertEquals(y, unpackSnorm10(packed, 10), 0.5f / 511);
+			assertEquals(z, unpackSnorm10(packed, 20), 0.5f / 511);
+			assertEquals(0, packed >>> 30);
+		}
+	}
+	
+	@Test
+	public void normalsAreClamped() {
+		int packed = VertexLayout.packNormal(2, -3, 1);
+		assertEquals(1, unpackSnorm10(packed, 0), 0);
+		assertEquals(-1, unpackSnorm10(packed, 10), 0);
+		assertEquals(1, unpackSnorm10(packed, 20), 0);
+	}
+	
+	@Test
+	public void compactPicksTheSmallestLossFreeLayout() {
+		VertexLayout small = VertexLayout.compact(new float[] { 0, 1, 0.5f, 2 }, new float[] { 0, 1, 0 }, 1 << 16);
+		assertEquals(GL_HALF_FLOAT, small.getTexCoordType());
+		assertEquals(GL_INT_2_10_10_10_REV, small.getNormalType());
+		assertEquals(GL_UNSIGNED_SHORT, small.getIndexType());
+		assertEquals(20, small.getVertexSize());
+		
+		VertexLayout large = VertexLayout.compact(new float[] { 0, 4 }, new float[] { 0, 2, 0 }, (1 << 16) + 1);
+		assertEquals(GL_FLOAT, large.getTexCoordType());
+		assertEquals(GL_FLOAT, large.getNormalType());
+		assertEquals(GL_UNSIGNED_INT, large.getIndexType());
+		assertEquals(32, large.getVertexSize());
+		
+		assertEquals(GL_FLOAT, VertexLayout.compact(new float[] { Float.NaN }, new float[0], 3).getTexCoordType());
+	}
+	
+	@Test
+	public void widerIndicesKeepTheVertexFormat() {
+		VertexLayout layout = new VertexLayout(true, GL_HALF_FLOAT, GL_INT_2_10_10_10_REV, GL_UNSIGNED_SHORT);
+		assertEquals(1 << 16, layout.getMaxVertices());
+		VertexLayout wide = layout.withIndexType(GL_UNSIGNED_INT);
+		assertEquals(4, wide.getIndexSize());
+		assertEquals(layout.getVertexSize(), wide.getVertexSize());
+		assertSame(wide, wide.withIndexType(GL_UNSIGNED_INT));
+	}
+	
+	@Test
+	public void verticesAreWrittenInPlace() {
+		VertexLayout layout = new VertexLayout(true, GL_HALF_FLOAT, GL_INT_2_10_10_10_REV, GL_UNSIGNED_SHORT);
+		ByteBuffer buffer = ByteBuffer.allocate(layout.getVertexSize() * 2).order(ByteOrder.nativeOrder());
+		layout.putVertex(buffer, 1, 1, 2, 3, 0.25f, 0.75f, 0, 1, 0);
+		int offset = layout.getVertexSize();
+		assertEquals(1, buffer.getFloat(offset), 0);
+		assertEquals(2, buffer.getFloat(offset + 4), 0);
+		assertEquals(3, buffer.getFloat(offset + 8), 0);
+		assertEquals(0.25f, halfToFloat(buffer.getShort(offset + 12)), 0);
+		assertEquals(0.75f, halfToFloat(buffer.getShort(offset + 14)), 0);
+		assertEquals(VertexLayout.packNormal(0, 1, 0), buffer.getInt(offset + 16));
+		
+		layout.putIndex(buffer, 3, 65535);
+		assertEquals(65535, buffer.getShort(6) & 0xFFFF);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void unsupportedTypesAreRejected() {
+		new VertexLayout(true, GL_UNSIGNED_BYTE, GL_FLOAT, GL_UNSIGNED_INT);
+	}
+	
+}
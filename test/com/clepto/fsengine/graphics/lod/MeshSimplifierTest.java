@@ -0,0 +1,166 @@
+package com.clepto.fsengine.graphics.lod;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class MeshSimplifierTest {
+	
+	private static final int SIZE = 17;
+	
+	/**
+	 * Unit square in the xz plane facing +y, heights given by bumps.
+	 */
+	private static float[] gridPositions(float bumps) {
+		float[] positions = new float[SIZE * SIZE * 3];
+		for (int row = 0; row < SIZE; row++) {
+			for (int col = 0; col < SIZE; col++) {
+				float x = col / (float) (SIZE - 1);
+				float z = row / (float) (SIZE - 1);
+				int i = (row * SIZE + col) * 3;
+				positions[i] = x;
+				positions[i + 1] = bumps * (float) (Math.sin(x * Math.PI * 2) * Math.sin(z * Math.PI * 2));
+				positions[i + 2] = z;
+			}
+		}
+		return positions;
+	}
+	
+	private static int[] gridIndices() {
+		int[] indices = new int[(SIZE - 1) * (SIZE - 1) * 6];
+		int i = 0;
+		for (int row = 0; row < SIZE - 1; row++) {
+			for (int col = 0; col < SIZE - 1; col++) {
+				int leftTop = row * SIZE + col;
+				int leftBottom = leftTop + SIZE;
+				indices[i++] = leftTop;
+				indices[i++] = leftBottom;
+				indices[i++] = leftTop + 1;
+				indices[i++] = leftTop + 1;
+				indices[i++] = leftBottom;
+				indices[i++] = leftBottom + 1;
+			}
+		}
+		return indices;
+	}
+	
+	private static float[] normal(float[] positions, int[] indices, int triangle) {
+		int a = indices[triangle * 3] * 3, b = indices[triangle * 3 + 1] * 3, c = indices[triangle * 3 + 2] * 3;
+		float e1x = positions[b] - positions[a], e1y = positions[b + 1] - positions[a + 1], e1z = positions[b + 2] - positions[a + 2];
+		float e2x = positions[c] - positions[a], e2y = positions[c + 1] - positions[a + 1], e2z = positions[c + 2] - positions[a + 2];
+		return new float[] { e1y * e2z - e1z * e2y, e1z * e2x - e1x * e2z, e1x * e2y - e1y * e2x };
+	}
+	
+	private static float area(float[] positions, int[] indices) {
+		float area = 0;
+		for (int triangle = 0; triangle < indices.length / 3; triangle++) {
+			area += normal(positions, indices, triangle)[1] * 0.5f;
+		}
+		return area;
+	}
+	
+	private static Set<Integer> referenced(int[] indices) {
+		Set<Integer> vertices = new HashSet<>();
+		for (int index : indices) {
+			vertices.add(index);
+		}
+		return vertices;
+	}
+	
+	@Test
+	public void flatGridCollapsesWithoutErrorOrFlips() {
+		float[] positions = gridPositions(0);
+		int[] indices = gridIndices();
+		MeshSimplifier simplifier = new MeshSimplifier(positions, indices);
+		int[] simplified = simplifier.simplify(indices.length / 10);
+		
+		assertTrue(simplified.length <= indices.length / 10);
+		assertEquals(simplified.length, simplifier.getIndexCount());
+		assertEquals(0, simplifier.getError(), 1e-4f);
+		assertEquals(1, area(positions, simplified), 1e-4f);
+		for (int triangle = 0; triangle < simplified.length / 3; triangle++) {
+			assertTrue(normal(positions, simplified, triangle)[1] > 0);
+		}
+	}
+	
+	@Test
+	public void cornersStay() {
+		float[] positions = gridPositions(0);
+		int[] indices = gridIndices();
+		MeshSimplifier simplifier = new MeshSimplifier(positions, indices);
+		Set<Integer> vertices = referenced(simplifier.simplify(indices.length / 10));
+		assertTrue(vertices.contains(0));
+		assertTrue(vertices.contains(SIZE - 1));
+		assertTrue(vertices.contains(SIZE * (SIZE - 1)));
+		assertTrue(vertices.contains(SIZE * SIZE - 1));
+	}
+	
+	@Test
+	public void seamVerticesAreNeverMoved() {
+		float[] grid = gridPositions(0.1f);
+		int[] indices = gridIndices();
+		int seamColumn = SIZE / 2;
+		float[] positions = new float[grid.length + SIZE * 3];
+		System.arraycopy(grid, 0, positions, 0, grid.length);
+		for (int row = 0; row < SIZE; row++) {
+			System.arraycopy(grid, (row * SIZE + seamColumn) * 3, positions, grid.length + row * 3, 3);
+		}
+		for (int triangle = 0; triangle < indices.length / 3; triangle++) {
+			boolean rightHalf = false;
+			for (int k = 0; k < 3; k++) {
+				rightHalf |= indices[triangle * 3 + k] % SIZE > seamColumn;
+			}
+			for (int k = 0; rightHalf && k < 3; k++) {
+				int vertex = indices[triangle * 3 + k];
+				if (vertex % SIZE == seamColumn) {
+					indices[triangle * 3 + k] = SIZE * SIZE + vertex / SIZE;
+				}
+			}
+		}
+		
+		MeshSimplifier simplifier = new MeshSimplifier(positions, indices);
+		int[] simplified = simplifier.simplify(indices.length / 4);
+		assertTrue(simplified.length < indices.length);
+		Set<Integer> vertices = referenced(simplified);
+		for (int row = 0; row < SIZE; row++) {
+			assertTrue(vertices.contains(row * SIZE + seamColumn));
+			assertTrue(vertices.contains(SIZE * SIZE + row));
+		}
+	}
+	
+	@Test
+	public void levelsContinueFromThePreviousOne() {
+		float[] positions = gridPositions(0.1f);
+		int[] indices = gridIndices();
+		MeshSimplifier simplifier = new MeshSimplifier(positions, indices);
+		int previousCount = indices.length;
+		float previousError = 0;
+		for (int target = indices.length / 2; target > 0; target /= 2) {
+			int[] simplified = simplifier.simplify(target);
+			assertTrue(simplified.length <= previousCount);
+			assertTrue(simplifier.getError() >= previousError);
+			for (int index : simplified) {
+				assertTrue(index >= 0 && index < SIZE * SIZE);
+			}
+			for (int triangle = 0; triangle < simplified.length / 3; triangle++) {
+				int a = simplified[triangle * 3], b = simplified[triangle * 3 + 1], c = simplified[triangle * 3 + 2];
+				assertTrue(a != b && b != c && c != a);
+			}
+			previousCount = simplified.length;
+			previousError = simplifier.getError();
+		}
+		assertTrue(previousError > 0);
+	}
+	
+	@Test
+	public void trailingIndicesAreIgnored() {
+		float[] positions = { 0, 0, 0, 0, 0, 1, 1, 0, 0 };
+		MeshSimplifier simplifier = new MeshSimplifier(positions, new int[] { 0, 1, 2, 0 });
+		assertEquals(3, simplifier.getIndexCount());
+		assertArrayEquals(new int[] { 0, 1, 2 }, simplifier.simplify(3));
+	}
+	
+}
@@ -0,0 +1,149 @@
+package com.clepto.fsengine.graphics.occlusion;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OcclusionCullerTest {
+	
+	private static final float Z_NEAR = 0.1f;
+	
+	private Matrix4f projectionMatrix;
+	
+	private Matrix4f viewMatrix;
+	
+	private OcclusionCuller culler;
+	
+	@Before
+	public void setUp() {
+		projectionMatrix = new Matrix4f().perspective((float) Math.toRadians(60), 16f / 9f, Z_NEAR, 100f);
+		viewMatrix = new Matrix4f();
+		culler = new OcclusionCuller(64, 36);
+	}
+	
+	/**
+	 * Square facing the camera at the given distance down -z.
+	 */
+	private static Occluder quad(float halfSize, float distance) {
+		return new Occluder(new float[] {
+				-halfSize, -halfSize, -distance,
+				halfSize, -halfSize, -distance,
+				halfSize, halfSize, -distance,
+				-halfSize, halfSize, -distance
+		}, new int[] { 0, 1, 2, 2, 3, 0 });
+	}
+	
+	private void update(Occluder... occluders) {
+		culler.update(projectionMatrix, viewMatrix, Arrays.asList(occluders), null);
+	}
+	
+	@Test
+	public void quadHidesABoxBehindIt() {
+		update(quad(5, 10));
+		assertTrue(culler.isOccluded(new Vector3f(-1, -1, -20), new Vector3f(1, 1, -18)));
+	}
+	
+	@Test
+	public void quadDoesNotHideABoxInFrontOfIt() {
+		update(quad(5, 10));
+		assertFalse(culler.isOccluded(new Vector3f(-1, -1, -6), new Vector3f(1, 1, -4)));
+		assertFalse(culler.isOccluded(new Vector3f(-1, -1, -11), new Vector3f(1, 1, -9)));
+	}
+	
+	@Test
+	public void quadDoesNotHideABoxBesideIt() {
+		update(quad(5, 10));
+		assertFalse(culler.isOccluded(new Vector3f(30, -1, -52), new Vector3f(32, 1, -50)));
+	}
+	
+	@Test
+	public void sharedEdgesLeaveNoCracks() {
+		update(quad(2, 5));
+		int centerX = culler.getWidth() / 2;
+		int centerY = culler.getHeight() / 2;
+		for (int i = -8; i < 8; i++) {
+			assertEquals(0.2f, culler.getDepth(centerX + i, centerY + i), 1e-4f);
+		}
+	}
+	
+	@Test
+	public void nothingIsHiddenWithoutOccluders() {
+		culler.update(projectionMatrix, viewMatrix, Collections.<Occluder>emptyList(), null);
+		assertFalse(culler.isOccluded(new Vector3f(-1, -1, -20), new Vector3f(1, 1, -18)));
+	}
+	
+	@Test
+	public void nearPlaneClipsTrianglesCrossingIt() {
+		update(new Occluder(new float[] {
+				-5, -1, -10,
+				5, -1, -10,
+				0, -1, 5
+		}, new int[] { 0, 1, 2 }));
+		assertEquals(2, culler.getTriangleCount());
+		float maxDepth = 0;
+		for (int y = 0; y < culler.getHeight(); y++) {
+			for (int x = 0; x < culler.getWidth(); x++) {
+				float depth = culler.getDepth(x, y);
+				assertFalse(Float.isNaN(depth));
+				maxDepth = Math.max(maxDepth, depth);
+			}
+		}
+		assertTrue(maxDepth > 0);
+		assertTrue(maxDepth <= 1 / Z_NEAR * 1.001f);
+	}
+	
+	@Test
+	public void nearPlaneDropsTrianglesBehindTheCamera() {
+		update(quad(5, -10));
+		assertEquals(0, culler.getTriangleCount());
+		for (int y = 0; y < culler.getHeight(); y++) {
+			for (int x = 0; x < culler.getWidth(); x++) {
+				assertEquals(0, culler.getDepth(x, y), 0);
+			}
+		}
+	}
+	
+	@Test
+	public void boxesCrossingTheNearPlaneAreNotHidden() {
+		update(quad(50, 1));
+		assertFalse(culler.isOccluded(new Vector3f(-1, -1, -20), new Vector3f(1, 1, 1)));
+	}
+	
+	@Test
+	public void pyramidKeepsTheFarthestDepth() {
+		update(quad(5, 10), quad(2, 5));
+		for (int level = 1; level < culler.getLevelCount(); level++) {
+			int width = levelSize(culler.getWidth(), level);
+			int height = levelSize(culler.getHeight(), level);
+			int childWidth = levelSize(culler.getWidth(), level - 1);
+			int childHeight = levelSize(culler.getHeight(), level - 1);
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					float farthest = Float.POSITIVE_INFINITY;
+					for (int cy = y * 2; cy <= Math.min(y * 2 + 1, childHeight - 1); cy++) {
+						for (int cx = x * 2; cx <= Math.min(x * 2 + 1, childWidth - 1); cx++) {
+							farthest = Math.min(farthest, culler.getDepth(level - 1, cx, cy));
+						}
+					}
+					assertEquals(farthest, culler.getDepth(level, x, y), 0);
+				}
+			}
+		}
+		assertEquals(0, culler.getDepth(culler.getLevelCount() - 1, 0, 0), 0);
+		assertEquals(1 / 5f, culler.getDepth(culler.getWidth() / 2, culler.getHeight() / 2), 1e-4f);
+	}
+	
+	private static int levelSize(int size, int level) {
+		for (int i = 0; i < level; i++) {
+			size = (size + 1) / 2;
+		}
+		return size;
+	}
+	
+}
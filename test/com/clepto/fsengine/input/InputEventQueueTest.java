@@ -0,0 +1,105 @@
+package com.clepto.fsengine.input;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class InputEventQueueTest {
+	
+	@Test
+	public void capacityIsRoundedUpToAPowerOfTwo() {
+		assertEquals(8, new InputEventQueue(5).getCapacity());
+		assertEquals(8, new InputEventQueue(8).getCapacity());
+		assertEquals(2, new InputEventQueue(0).getCapacity());
+		assertEquals(InputEventQueue.DEFAULT_CAPACITY, new InputEventQueue().getCapacity());
+	}
+	
+	@Test
+	public void eventsComeOutInOrderWithTheirFields() {
+		InputEventQueue queue = new InputEventQueue(8);
+		assertTrue(queue.pushKey(65, 1, 2));
+		assertTrue(queue.pushMouseButton(1, 0, 4));
+		assertTrue(queue.pushCursorPos(10.5, 20.25));
+		assertTrue(queue.pushCursorEnter(true));
+		assertTrue(queue.pushScroll(-1, 3));
+		assertEquals(5, queue.size());
+		
+		InputEvent event = new InputEvent();
+		assertTrue(queue.poll(event));
+		assertEquals(InputEvent.KEY, event.getType());
+		assertEquals(65, event.getCode());
+		assertEquals(1, event.getAction());
+		assertEquals(2, event.getMods());
+		long time = event.getTime();
+		
+		assertTrue(queue.poll(event));
+		assertEquals(InputEvent.MOUSE_BUTTON, event.getType());
+		assertEquals(1, event.getCode());
+		assertEquals(0, event.getAction());
+		assertEquals(4, event.getMods());
+		assertTrue(event.getTime() >= time);
+		
+		assertTrue(queue.poll(event));
+		assertEquals(InputEvent.CURSOR_POS, event.getType());
+		assertEquals(10.5, event.getX(), 0);
+		assertEquals(20.25, event.getY(), 0);
+		
+		assertTrue(queue.poll(event));
+		assertEquals(InputEvent.CURSOR_ENTER, event.getType());
+		assertEquals(1, event.getCode());
+		
+		assertTrue(queue.poll(event));
+		assertEquals(InputEvent.SCROLL, event.getType());
+		assertEquals(-1, event.getX(), 0);
+		assertEquals(3, event.getY(), 0);
+		
+		assertFalse(queue.poll(event));
+		assertEquals(0, queue.size());
+	}
+	
+	@Test
+	public void fullQueueDropsNewEvents() {
+		InputEventQueue queue = new InputEventQueue(4);
+		for (int i = 0; i < 4; i++) {
+			assertTrue(queue.pushKey(i, 1, 0));
+		}
+		assertFalse(queue.pushKey(4, 1, 0));
+		assertFalse(queue.pushScroll(0, 1));
+		assertEquals(2, queue.getDroppedEvents());
+		
+		InputEvent event = new InputEvent();
+		assertTrue(queue.poll(event));
+		assertEquals(0, event.getCode());
+		assertTrue(queue.pushKey(5, 1, 0));
+		for (int expected : new int[] { 1, 2, 3, 5 }) {
+			assertTrue(queue.poll(event));
+			assertEquals(expected, event.getCode());
+		}
+		assertFalse(queue.poll(event));
+	}
+	
+	@Test
+	public void eventsCrossThreadsInOrder() throws InterruptedException {
+		InputEventQueue queue = new InputEventQueue(16);
+		int count = 20000;
+		Thread producer = new Thread(() -> {
+			for (int i = 0; i < count; i++) {
+				while (!queue.pushKey(i, 1, 0)) {
+					Thread.yield();
+				}
+			}
+		});
+		producer.start();
+		InputEvent event = new InputEvent();
+		for (int expected = 0; expected < count; ) {
+			if (queue.poll(event)) {
+				assertEquals(expected++, event.getCode());
+			} else {
+				Thread.yield();
+			}
+		}
+		producer.join();
+		assertFalse(queue.poll(event));
+	}
+	
+}
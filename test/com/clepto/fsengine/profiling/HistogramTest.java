@@ -0,0 +1,102 @@
+package com.clepto.fsengine.profiling;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class HistogramTest {
+	
+	@Test
+	public void emptyHistogramReportsZero() {
+		Histogram histogram = new Histogram();
+		assertEquals(0, histogram.getTotalCount());
+		assertEquals(0, histogram.getMin());
+		assertEquals(0, histogram.getMax());
+		assertEquals(0, histogram.getMean(), 0);
+		assertEquals(0, histogram.getP99());
+	}
+	
+	@Test
+	public void smallValuesAreExact() {
+		Histogram histogram = new Histogram();
+		for (int value = 0; value < Histogram.SUB_BUCKET_COUNT; value++) {
+			histogram.record(value);
+		}
+		for (int value = 1; value <= Histogram.SUB_BUCKET_COUNT; value++) {
+			double percentile = 100.0 * value / Histogram.SUB_BUCKET_COUNT;
+			assertEquals(value - 1, histogram.getValueAtPercentile(percentile));
+		}
+	}
+	
+	@Test
+	public void bucketsContainTheirValues() {
+		Random random = new Random(1);
+		for (int i = 0; i < 100000; i++) {
+			long value = random.nextLong() & Histogram.MAX_VALUE;
+			int index = Histogram.bucketIndex(value);
+			assertTrue(Histogram.lowestEquivalentValue(index) <= value);
+			assertTrue(Histogram.highestEquivalentValue(index) >= value);
+			assertEquals(index, Histogram.bucketIndex(Histogram.lowestEquivalentValue(index)));
+			assertEquals(index, Histogram.bucketIndex(Histogram.highestEquivalentValue(index)));
+		}
+	}
+	
+	@Test
+	public void bucketsAreContiguous() {
+		int last = Histogram.bucketIndex(Histogram.MAX_VALUE);
+		for (int index = 1; index <= last; index++) {
+			assertEquals(Histogram.highestEquivalentValue(index - 1) + 1, Histogram.lowestEquivalentValue(index));
+		}
+	}
+	
+	@Test
+	public void percentilesKeepTheirPrecision() {
+		Histogram histogram = new Histogram();
+		for (long value = 1; value <= 1000000; value++) {
+			histogram.record(value * 1000);
+		}
+		assertEquals(500000000, histogram.getP50(), 500000000 * 0.04);
+		assertEquals(950000000, histogram.getP95(), 950000000 * 0.04);
+		assertEquals(990000000, histogram.getP99(), 990000000 * 0.04);
+		assertEquals(1000000000L, histogram.getValueAtPercentile(100));
+		assertEquals(1000, histogram.getValueAtPercentile(0), 1000 * 0.04);
+	}
+	
+	@Test
+	public void statisticsAreExact() {
+		Histogram histogram = new Histogram();
+		histogram.record(100);
+		histogram.record(300);
+		histogram.record(12345);
+		assertEquals(3, histogram.getTotalCount());
+		assertEquals(100, histogram.getMin());
+		assertEquals(12345, histogram.getMax());
+		assertEquals((100 + 300 + 12345) / 3.0, histogram.getMean(), 1e-9);
+	}
+	
+	@Test
+	public void valuesOutOfRangeAreClamped() {
+		Histogram histogram = new Histogram();
+		histogram.record(-5);
+		histogram.record(Long.MAX_VALUE);
+		assertEquals(0, histogram.getMin());
+		assertEquals(Histogram.MAX_VALUE, histogram.getMax());
+		assertEquals(Histogram.MAX_VALUE, histogram.getValueAtPercentile(100));
+	}
+	
+	@Test
+	public void resetForgetsEverything() {
+		Histogram histogram = new Histogram();
+		histogram.record(42);
+		histogram.reset();
+		assertEquals(0, histogram.getTotalCount());
+		assertEquals(0, histogram.getMax());
+		assertEquals(0, histogram.getP50());
+		histogram.record(7);
+		assertEquals(7, histogram.getMin());
+		assertEquals(7, histogram.getP50());
+	}
+	
+}
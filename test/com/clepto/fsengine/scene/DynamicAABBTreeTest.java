@@ -0,0 +1,216 @@
+package com.clepto.fsengine.scene;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.joml.Vector3f;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.clepto.fsengine.graphics.Mesh;
+import com.clepto.fsengine.graphics.VertexLayout;
+import com.clepto.fsengine.scene.actors.Actor;
+
+public class DynamicAABBTreeTest {
+	
+	private static final float WORLD_SIZE = 100;
+	
+	private Random random;
+	
+	private DynamicAABBTree tree;
+	
+	private List<Actor> actors;
+	
+	private List<Integer> proxies;
+	
+	/**
+	 * Bounds without any GL buffers behind them.
+	 */
+	private static class BoxMesh extends Mesh {
+		
+		BoxMesh(float halfSize) {
+			super(VertexLayout.DEFAULT);
+			setBounds(-halfSize, -halfSize, -halfSize, halfSize, halfSize, halfSize);
+		}
+		
+	}
+	
+	@Before
+	public void setUp() {
+		random = new Random(3);
+		tree = new DynamicAABBTree();
+		actors = new ArrayList<>();
+		proxies = new ArrayList<>();
+	}
+	
+	private void addActors(int count) {
+		for (int i = 0; i < count; i++) {
+			Actor actor = new Actor(new BoxMesh(0.5f + random.nextFloat() * 2));
+			actor.setPosition(randomCoordinate(), randomCoordinate(), randomCoordinate());
+			actor.setRotation(random.nextFloat() * 360, random.nextFloat() * 360, 0);
+			actors.add(actor);
+			proxies.add(tree.createProxy(actor));
+		}
+	}
+	
+	private float randomCoordinate() {
+		return (random.nextFloat() - 0.5f) * WORLD_SIZE;
+	}
+	
+	private void assertBoxQueriesMatch() {
+		Vector3f min = new Vector3f();
+		Vector3f max = new Vector3f();
+		List<Actor> result = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			Vector3f boxMin = new Vector3f(randomCoordinate(), randomCoordinate(), randomCoordinate());
+			Vector3f boxMax = new Vector3f(boxMin).add(random.nextFloat() * 30, random.nextFloat() * 30, random.nextFloat() * 30);
+			Set<Actor> expected = new HashSet<>();
+			for (Actor actor : actors) {
+				actor.getWorldBounds(min, max);
+				if (min.x <= boxMax.x && min.y <= boxMax.y && min.z <= boxMax.z
+						&& max.x >= boxMin.x && max.y >= boxMin.y && max.z >= boxMin.z) {
+					expected.add(actor);
+				}
+			}
+			result.clear();
+			tree.query(boxMin, boxMax, result);
+			assertEquals(expected.size(), result.size());
+			assertEquals(expected, new HashSet<>(result));
+		}
+	}
+	
+	@Test
+	public void boxQueriesMatchABruteForceSearch() {
+		addActors(500);
+		assertEquals(500, tree.getProxyCount());
+		assertBoxQueriesMatch();
+	}
+	
+	@Test
+	public void sphereQueriesMatchABruteForceSearch() {
+		addActors(500);
+		Vector3f min = new Vector3f();
+		Vector3f max = new Vector3f();
+		List<Actor> result = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			Vector3f sphereCenter = new Vector3f(randomCoordinate(), randomCoordinate(), randomCoordinate());
+			float radius = random.nextFloat() * 20;
+			Set<Actor> expected = new HashSet<>();
+			for (Actor actor : actors) {
+				actor.getWorldBounds(min, max);
+				Vector3f closest = new Vector3f(sphereCenter).max(min).min(max);
+				if (closest.distanceSquared(sphereCenter) <= radius * radius) {
+					expected.add(actor);
+				}
+			}
+			result.clear();
+			tree.query(sphereCenter, radius, result);
+			assertEquals(expected, new HashSet<>(result));
+		}
+	}
+	
+	@Test
+	public void movedProxiesAreFoundAtTheirNewBounds() {
+		addActors(300);
+		for (int step = 0; step < 5; step++) {
+			for (int i = 0; i < actors.size(); i += 2) {
+				Actor actor = actors.get(i);
+				Vector3f position = actor.getPosition();
+				actor.setPosition(position.x + random.nextFloat() * 10 - 5, position.y, position.z + random.nextFloat() * 10 - 5);
+				tree.moveProxy(proxies.get(i));
+			}
+			assertBoxQueriesMatch();
+		}
+	}
+	
+	@Test
+	public void smallMovesStayInsideTheFatBounds() {
+		addActors(10);
+		Actor actor = actors.get(0);
+		Vector3f position = actor.getPosition();
+		actor.setPosition(position.x + DynamicAABBTree.DEFAULT_MARGIN / 2, position.y, position.z);
+		assertFalse(tree.moveProxy(proxies.get(0)));
+		actor.setPosition(position.x + 10, position.y, position.z);
+		assertTrue(tree.moveProxy(proxies.get(0)));
+	}
+	
+	@Test
+	public void markedProxiesAreMovedOnUpdate() {
+		addActors(100);
+		for (int i = 0; i < actors.size(); i++) {
+			Actor actor = actors.get(i);
+			actor.setPosition(randomCoordinate(), randomCoordinate(), randomCoordinate());
+			tree.markMoved(proxies.get(i));
+			tree.markMoved(proxies.get(i));
+		}
+		tree.updateMoved();
+		assertBoxQueriesMatch();
+	}
+	
+	@Test
+	public void destroyedProxiesAreForgotten() {
+		addActors(200);
+		for (int i = actors.size() - 1; i >= 0; i -= 3) {
+			tree.markMoved(proxies.get(i));
+			tree.destroyProxy(proxies.remove(i));
+			actors.remove(i);
+		}
+		tree.updateMoved();
+		assertEquals(actors.size(), tree.getProxyCount());
+		assertBoxQueriesMatch();
+		
+		addActors(100);
+		assertEquals(actors.size(), tree.getProxyCount());
+		for (int i = 0; i < actors.size(); i++) {
+			assertSame(actors.get(i), tree.getActor(proxies.get(i)));
+		}
+		assertBoxQueriesMatch();
+	}
+	
+	@Test
+	public void treeStaysBalanced() {
+		for (int i = 0; i < 1024; i++) {
+			Actor actor = new Actor(new BoxMesh(0.5f));
+			actor.setPosition(i * 2, 0, 0);
+			actors.add(actor);
+			proxies.add(tree.createProxy(actor));
+		}
+		assertTrue("height " + tree.getHeight(), tree.getHeight() <= 20);
+	}
+	
+	@Test
+	public void rayCastFindsTheNearestActor() {
+		Actor near = new Actor(new BoxMesh(1));
+		near.setPosition(0, 0, -10);
+		Actor far = new Actor(new BoxMesh(1));
+		far.setPosition(0, 0, -20);
+		Actor aside = new Actor(new BoxMesh(1));
+		aside.setPosition(5, 0, -5);
+		tree.createProxy(far);
+		tree.createProxy(near);
+		tree.createProxy(aside);
+		
+		RayHit hit = new RayHit();
+		assertTrue(tree.rayCast(new Vector3f(), new Vector3f(0, 0, -1), 100, hit));
+		assertSame(near, hit.getActor());
+		assertEquals(9, hit.getDistance(), 1e-4f);
+		assertFalse(tree.rayCast(new Vector3f(), new Vector3f(0, 0, -1), 8, hit));
+		assertFalse(tree.rayCast(new Vector3f(), new Vector3f(0, 1, 0), 100, hit));
+	}
+	
+	@Test
+	public void emptyTreeFindsNothing() {
+		List<Actor> result = new ArrayList<>();
+		tree.query(new Vector3f(-1), new Vector3f(1), result);
+		tree.query(new Vector3f(), 10, result);
+		assertTrue(result.isEmpty());
+		assertEquals(0, tree.getHeight());
+		assertFalse(tree.rayCast(new Vector3f(), new Vector3f(0, 0, -1), 100, new RayHit()));
+	}
+	
+}
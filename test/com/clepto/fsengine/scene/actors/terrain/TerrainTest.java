@@ -0,0 +1,222 @@
+package com.clepto.fsengine.scene.actors.terrain;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.joml.Vector3f;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.clepto.fsengine.scene.actors.Actor;
+import com.clepto.fsengine.util.Box2D;
+
+public class TerrainTest {
+	
+	private static final int TERRAIN_SIZE = 3;
+	
+	private static final float SCALE = 10.0f;
+	
+	private static final int VERTICES = 9;
+	
+	private float[][] heights;
+	
+	private HeightMapMesh heightMapMesh;
+	
+	private Terrain terrain;
+	
+	@Before
+	public void setUp() {
+		Random random = new Random(42);
+		heights = new float[VERTICES][VERTICES];
+		for (int row = 0; row < VERTICES; row++) {
+			for (int col = 0; col < VERTICES; col++) {
+				heights[row][col] = random.nextFloat() - 0.5f;
+			}
+		}
+		heightMapMesh = new HeightMapMesh(heights);
+		terrain = new Terrain(TERRAIN_SIZE, SCALE, heightMapMesh, null);
+	}
+	
+	@Test
+	public void heightMatchesTheOriginalImplementation() {
+		Random random = new Random(7);
+		float extent = TERRAIN_SIZE * SCALE;
+		for (int i = 0; i < 10000; i++) {
+			float x = (random.nextFloat() - 0.5f) * extent * 1.2f;
+			float z = (random.nextFloat() - 0.5f) * extent * 1.2f;
+			assertEquals(baselineHeight(x, z), terrain.getHeight(x, z), 1e-4f);
+		}
+	}
+	
+	@Test
+	public void heightOutsideTheTerrainIsMinValue() {
+		float edge = TERRAIN_SIZE * SCALE;
+		assertEquals(Float.MIN_VALUE, terrain.getHeight(edge, 0), 0);
+		assertEquals(Float.MIN_VALUE, terrain.getHeight(0, -edge), 0);
+	}
+	
+	@Test
+	public void rayCastHitsTheMeshTriangles() {
+		Random random = new Random(11);
+		float extent = TERRAIN_SIZE * SCALE;
+		for (int i = 0; i < 1000; i++) {
+			float x = (random.nextFloat() - 0.5f) * extent * 0.99f;
+			float z = (random.nextFloat() - 0.5f) * extent * 0.99f;
+			float distance = terrain.rayCast(x, 100, z, 0, -1, 0, 1000);
+			assertEquals(meshHeight(x, z), 100 - distance, 1e-3f);
+		}
+	}
+	
+	@Test
+	public void rayCastMissesAboveTheTerrain() {
+		assertEquals(Float.POSITIVE_INFINITY, terrain.rayCast(0, 100, 0, 1, 0, 0, 1000), 0);
+	}
+	
+	@Test
+	public void normalIsThatOfTheMeshTriangles() {
+		Random random = new Random(13);
+		float extent = TERRAIN_SIZE * SCALE;
+		Vector3f normal = new Vector3f();
+		float step = 1e-3f;
+		for (int i = 0; i < 1000; i++) {
+			float x = (random.nextFloat() - 0.5f) * extent * 0.99f;
+			float z = (random.nextFloat() - 0.5f) * extent * 0.99f;
+			assertTrue(terrain.getNormal(x, z, normal));
+			float height = meshHeight(x, z);
+			float predictedX = height - normal.x / normal.y * step;
+			float predictedZ = height - normal.z / normal.y * step;
+			if (sameCell(x, z, x + step, z)) {
+				assertEquals(meshHeight(x + step, z), predictedX, 1e-3f);
+			}
+			if (sameCell(x, z, x, z + step)) {
+				assertEquals(meshHeight(x, z + step), predictedZ, 1e-3f);
+			}
+			assertEquals(1, normal.length(), 1e-5f);
+		}
+	}
+	
+	@Test
+	public void normalOfAFlatTerrainPointsUp() {
+		terrain = new Terrain(TERRAIN_SIZE, SCALE, new HeightMapMesh(new float[VERTICES][VERTICES]), null);
+		Vector3f normal = new Vector3f();
+		assertTrue(terrain.getNormal(1.3f, -4.2f, normal));
+		assertEquals(0, normal.x, 1e-6f);
+		assertEquals(1, normal.y, 1e-6f);
+		assertEquals(0, normal.z, 1e-6f);
+		assertFalse(terrain.getNormal(TERRAIN_SIZE * SCALE, 0, normal));
+	}
+	
+	private boolean sameCell(float x0, float z0, float x1, float z1) {
+		float cell = SCALE / (VERTICES - 1);
+		float origin = -TERRAIN_SIZE * SCALE / 2;
+		int col0 = (int) Math.floor((x0 - origin) / cell);
+		int row0 = (int) Math.floor((z0 - origin) / cell);
+		int col1 = (int) Math.floor((x1 - origin) / cell);
+		int row1 = (int) Math.floor((z1 - origin) / cell);
+		float fx0 = (x0 - origin) / cell - col0;
+		float fz0 = (z0 - origin) / cell - row0;
+		float fx1 = (x1 - origin) / cell - col1;
+		float fz1 = (z1 - origin) / cell - row1;
+		return col0 == col1 && row0 == row1 && (fx0 + fz0 <= 1) == (fx1 + fz1 <= 1);
+	}
+	
+	/**
+	 * Height of the triangles the height map mesh draws, split from the left
+	 * bottom to the right top corner of each cell.
+	 */
+	private float meshHeight(float x, float z) {
+		float cell = SCALE / (VERTICES - 1);
+		float origin = -TERRAIN_SIZE * SCALE / 2;
+		float gx = (x - origin) / cell;
+		float gz = (z - origin) / cell;
+		int blockCol = Math.min((int) (gx / (VERTICES - 1)), TERRAIN_SIZE - 1);
+		int blockRow = Math.min((int) (gz / (VERTICES - 1)), TERRAIN_SIZE - 1);
+		int col = (int) gx - blockCol * (VERTICES - 1);
+		int row = (int) gz - blockRow * (VERTICES - 1);
+		float fx = gx - (int) gx;
+		float fz = gz - (int) gz;
+		float leftBottom = heights[row + 1][col] * SCALE;
+		float rightTop = heights[row][col + 1] * SCALE;
+		if (fx + fz <= 1) {
+			float leftTop = heights[row][col] * SCALE;
+			return leftTop + (rightTop - leftTop) * fx + (leftBottom - leftTop) * fz;
+		}
+		float rightBottom = heights[row + 1][col + 1] * SCALE;
+		return rightBottom - (rightBottom - leftBottom) * (1 - fx) - (rightBottom - rightTop) * (1 - fz);
+	}
+	
+	/**
+	 * The height lookup as it was first written: a scan of the block bounds
+	 * and a plane through a triangle picked, quirks included, from the cell.
+	 */
+	private float baselineHeight(float x, float z) {
+		Actor[] actors = terrain.getActors();
+		for (int row = 0; row < TERRAIN_SIZE; row++) {
+			for (int col = 0; col < TERRAIN_SIZE; col++) {
+				Actor terrainBlock = actors[row * TERRAIN_SIZE + col];
+				Box2D boundingBox = baselineBoundingBox(terrainBlock);
+				if (boundingBox.contains(x, z)) {
+					Vector3f[] triangle = baselineTriangle(x, z, boundingBox, terrainBlock);
+					return interpolateHeight(triangle[0], triangle[1], triangle[2], x, z);
+				}
+			}
+		}
+		return Float.MIN_VALUE;
+	}
+	
+	private Vector3f[] baselineTriangle(float x, float z, Box2D boundingBox, Actor terrainBlock) {
+		int verticesPerCol = VERTICES - 1;
+		int verticesPerRow = VERTICES - 1;
+		float cellWidth = boundingBox.width / (float) verticesPerCol;
+		float cellHeight = boundingBox.height / (float) verticesPerRow;
+		int col = (int) ((x - boundingBox.x) / cellWidth);
+		int row = (int) ((z - boundingBox.y) / cellWidth);
+		
+		Vector3f[] triangle = new Vector3f[3];
+		triangle[1] = new Vector3f(
+				boundingBox.x + col * cellWidth,
+				worldHeight(row + 1, col, terrainBlock),
+				boundingBox.y + (row + 1) * cellHeight);
+		triangle[2] = new Vector3f(
+				boundingBox.x + (col + 1) * cellWidth,
+				worldHeight(row, col + 1, terrainBlock),
+				boundingBox.y + row * cellHeight);
+		float diagonalZ = ((triangle[1].z - triangle[2].z) / (triangle[1].x - triangle[2].x)) * (x - triangle[1].x) + triangle[1].z;
+		if (z < diagonalZ) {
+			triangle[0] = new Vector3f(
+					boundingBox.x + col * cellWidth,
+					worldHeight(row, col, terrainBlock),
+					boundingBox.y + row * cellHeight);
+		} else {
+			triangle[0] = new Vector3f(
+					boundingBox.x + (col + 1) * cellWidth,
+					worldHeight(row + 2, col + 1, terrainBlock),
+					boundingBox.y + (row + 1) * cellHeight);
+		}
+		return triangle;
+	}
+	
+	private float worldHeight(int row, int col, Actor actor) {
+		return heightMapMesh.getHeight(row, col) * actor.getScale() + actor.getPosition().y;
+	}
+	
+	private static float interpolateHeight(Vector3f pA, Vector3f pB, Vector3f pC, float x, float z) {
+		float a = (pB.y - pA.y) * (pC.z - pA.z) - (pC.y - pA.y) * (pB.z - pA.z);
+		float b = (pB.z - pA.z) * (pC.x - pA.x) - (pC.z - pA.z) * (pB.x - pA.x);
+		float c = (pB.x - pA.x) * (pC.y - pA.y) - (pC.x - pA.x) * (pB.y - pA.y);
+		float d = -(a * pA.x + b * pA.y + c * pA.z);
+		return (-d -a * x - c * z) / b;
+	}
+	
+	private static Box2D baselineBoundingBox(Actor terrainBlock) {
+		float scale = terrainBlock.getScale();
+		Vector3f position = terrainBlock.getPosition();
+		float topLeftX = HeightMapMesh.STARTX * scale + position.x;
+		float topLeftZ = HeightMapMesh.STARTZ * scale + position.z;
+		float width = Math.abs(HeightMapMesh.STARTX * 2) * scale;
+		float height = Math.abs(HeightMapMesh.STARTX * 2) * scale;
+		return new Box2D(topLeftX, topLeftZ, width, height);
+	}
+	
+}